@@ -0,0 +1,83 @@
+package cn.xpleaf.bigdata.elasticsearch.benchmark;
+
+import cn.xpleaf.bigdata.elasticsearch.client.LocalCluster;
+import cn.xpleaf.bigdata.elasticsearch.codec.ProductCodec;
+import cn.xpleaf.bigdata.elasticsearch.pojo.Product;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Client;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * benchmark使用的集群和测试数据
+ * 数据的格式与ElasticSearchTest/ElasticSearchTest2中的一致：
+ *      bigdata/product：name、author、version、url
+ *      bank/account：balance、age
+ */
+public final class BenchmarkData {
+
+    public static final String PRODUCT_INDEX = "bigdata";
+    public static final String PRODUCT_TYPE = "product";
+    public static final String BANK_INDEX = "bank";
+    public static final String BANK_TYPE = "account";
+
+    private static final String[] AUTHORS = {"apache", "cloudera", "linkedIn", "redis", "elastic"};
+    private static final String[] NAMES = {"hadoop", "hive", "hbase", "kafka", "flume", "sqoop", "spark", "storm", "redis", "zookeeper"};
+
+    private BenchmarkData() {
+    }
+
+    public static LocalCluster startCluster(String name) throws IOException {
+        return startCluster(name, 1);
+    }
+
+    public static LocalCluster startCluster(String name, int nodes) throws IOException {
+        return new LocalCluster(name + "-" + System.nanoTime(), nodes, null);
+    }
+
+    public static Product product(int i) {
+        String name = NAMES[i % NAMES.length];
+        String author = AUTHORS[i % AUTHORS.length];
+        return new Product(name + "-" + i, author, "1." + (i % 10) + "." + i, "http://" + name + "." + author + ".org/" + i);
+    }
+
+    public static void loadProducts(Client client, int count) {
+        BulkRequestBuilder bulk = client.prepareBulk();
+        for (int i = 0; i < count; i++) {
+            bulk.add(client.prepareIndex(PRODUCT_INDEX, PRODUCT_TYPE, String.valueOf(i)).setSource(ProductCodec.JSON.encode(product(i))));
+            if (bulk.numberOfActions() == 1000) {
+                check(bulk.get());
+                bulk = client.prepareBulk();
+            }
+        }
+        if (bulk.numberOfActions() > 0) {
+            check(bulk.get());
+        }
+        client.admin().indices().prepareRefresh(PRODUCT_INDEX).get();
+    }
+
+    public static void loadAccounts(Client client, int count) {
+        Random random = new Random(42);
+        BulkRequestBuilder bulk = client.prepareBulk();
+        for (int i = 0; i < count; i++) {
+            bulk.add(client.prepareIndex(BANK_INDEX, BANK_TYPE, String.valueOf(i))
+                    .setSource("account_number", i, "balance", random.nextInt(50000), "age", 20 + random.nextInt(21)));
+            if (bulk.numberOfActions() == 1000) {
+                check(bulk.get());
+                bulk = client.prepareBulk();
+            }
+        }
+        if (bulk.numberOfActions() > 0) {
+            check(bulk.get());
+        }
+        client.admin().indices().prepareRefresh(BANK_INDEX).get();
+    }
+
+    private static void check(BulkResponse response) {
+        if (response.hasFailures()) {
+            throw new IllegalStateException("加载测试数据失败: " + response.buildFailureMessage());
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package cn.xpleaf.bigdata.elasticsearch.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 按多个线程数分别运行benchmark，每个线程数的结果输出为一个json文件，便于和上一个版本的结果进行对比
+ *
+ * 参数：
+ *      args[0] 线程数列表，逗号分隔，默认为1,4
+ *      args[1] 要运行的benchmark的正则表达式，默认为全部
+ *      args[2] 结果输出目录，默认为target
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        String threads = args.length > 0 ? args[0] : "1,4";
+        String include = args.length > 1 ? args[1] : ".*Benchmark.*";
+        String output = args.length > 2 ? args[2] : "target";
+        for (String t : threads.split(",")) {
+            int n = Integer.parseInt(t.trim());
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(n)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(output + "/jmh-threads-" + n + ".json")
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
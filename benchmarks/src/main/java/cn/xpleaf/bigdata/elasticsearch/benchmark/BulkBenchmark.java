@@ -0,0 +1,70 @@
+package cn.xpleaf.bigdata.elasticsearch.benchmark;
+
+import cn.xpleaf.bigdata.elasticsearch.client.LocalCluster;
+import cn.xpleaf.bigdata.elasticsearch.codec.ProductCodec;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Client;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ElasticSearchTest.testBulk()：一个bulk请求中包含batchSize条index和一条update
+ * 注意结果中的一次操作是一个bulk请求，每秒写入的文档数需要再乘以batchSize
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BulkBenchmark {
+
+    @Param({"1000"})
+    public int docCount;
+
+    @Param({"100", "1000"})
+    public int batchSize;
+
+    private LocalCluster cluster;
+    private Client client;
+    private final AtomicLong ids = new AtomicLong();
+
+    @Setup
+    public void setUp() throws Exception {
+        cluster = BenchmarkData.startCluster("bulk-benchmark");
+        client = cluster.client();
+        BenchmarkData.loadProducts(client, docCount);
+    }
+
+    @Benchmark
+    public BulkResponse bulk() {
+        BulkRequestBuilder bulk = client.prepareBulk();
+        for (int i = 0; i < batchSize; i++) {
+            long id = ids.incrementAndGet();
+            bulk.add(client.prepareIndex(BenchmarkData.PRODUCT_INDEX, BenchmarkData.PRODUCT_TYPE, "bulk-" + id)
+                    .setSource(ProductCodec.JSON.encode(BenchmarkData.product((int) id))));
+        }
+        bulk.add(client.prepareUpdate(BenchmarkData.PRODUCT_INDEX, BenchmarkData.PRODUCT_TYPE, "1")
+                .setDoc("{\"url\":\"http://hadoop.apache.org\"}"));
+        return bulk.get();
+    }
+
+    @TearDown
+    public void tearDown() {
+        cluster.close();
+    }
+}
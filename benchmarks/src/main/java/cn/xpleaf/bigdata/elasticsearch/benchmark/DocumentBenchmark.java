@@ -0,0 +1,143 @@
+package cn.xpleaf.bigdata.elasticsearch.benchmark;
+
+import cn.xpleaf.bigdata.elasticsearch.client.LocalCluster;
+import cn.xpleaf.bigdata.elasticsearch.pojo.Product;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.elasticsearch.action.count.CountResponse;
+import org.elasticsearch.action.delete.DeleteResponse;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ElasticSearchTest中的单文档操作：
+ * 4种添加数据的方式、get、update、delete、count
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DocumentBenchmark {
+
+    @Param({"1000", "10000"})
+    public int docCount;
+
+    private LocalCluster cluster;
+    private Client client;
+    private final AtomicLong ids = new AtomicLong();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Setup
+    public void setUp() throws Exception {
+        cluster = BenchmarkData.startCluster("document-benchmark");
+        client = cluster.client();
+        BenchmarkData.loadProducts(client, docCount);
+    }
+
+    private String nextId() {
+        return "bench-" + ids.incrementAndGet();
+    }
+
+    private String existingId() {
+        return String.valueOf(ThreadLocalRandom.current().nextInt(docCount));
+    }
+
+    /**
+     * testAddJSON
+     */
+    @Benchmark
+    public IndexResponse addJson() {
+        String source = "{\"name\":\"sqoop\", \"author\": \"apache\", \"version\": \"1.4.6\"}";
+        return client.prepareIndex(BenchmarkData.PRODUCT_INDEX, BenchmarkData.PRODUCT_TYPE, nextId()).setSource(source).get();
+    }
+
+    /**
+     * testAddMap
+     */
+    @Benchmark
+    public IndexResponse addMap() {
+        Map<String, Object> source = new HashMap<String, Object>();
+        source.put("name", "flume");
+        source.put("author", "Cloudera");
+        source.put("version", "1.8.0");
+        return client.prepareIndex(BenchmarkData.PRODUCT_INDEX, BenchmarkData.PRODUCT_TYPE, nextId()).setSource(source).get();
+    }
+
+    /**
+     * testAddObj，这里复用ObjectMapper，只衡量序列化本身
+     */
+    @Benchmark
+    public IndexResponse addObj() throws Exception {
+        Product product = new Product("kafka", "linkedIn", "0.10.0.1", "kafka.apache.org");
+        String json = objectMapper.writeValueAsString(product);
+        return client.prepareIndex(BenchmarkData.PRODUCT_INDEX, BenchmarkData.PRODUCT_TYPE, nextId()).setSource(json).get();
+    }
+
+    /**
+     * testAddXContentBuilder
+     */
+    @Benchmark
+    public IndexResponse addXContentBuilder() throws Exception {
+        XContentBuilder source = XContentFactory.jsonBuilder();
+        source.startObject()
+                .field("name", "redis")
+                .field("author", "redis")
+                .field("version", "3.2.0")
+                .field("url", "redis.cn")
+                .endObject();
+        return client.prepareIndex(BenchmarkData.PRODUCT_INDEX, BenchmarkData.PRODUCT_TYPE, nextId()).setSource(source).get();
+    }
+
+    @Benchmark
+    public GetResponse get() {
+        return client.prepareGet(BenchmarkData.PRODUCT_INDEX, BenchmarkData.PRODUCT_TYPE, existingId()).get();
+    }
+
+    @Benchmark
+    public UpdateResponse update() {
+        return client.prepareUpdate(BenchmarkData.PRODUCT_INDEX, BenchmarkData.PRODUCT_TYPE, existingId())
+                .setDoc("{\"url\": \"http://flume.apache.org\"}")
+                .get();
+    }
+
+    /**
+     * 删除随机的一条原始数据，被删除过的id再次删除时走的是not found的路径
+     */
+    @Benchmark
+    public DeleteResponse delete() {
+        return client.prepareDelete(BenchmarkData.PRODUCT_INDEX, BenchmarkData.PRODUCT_TYPE, existingId()).get();
+    }
+
+    @Benchmark
+    public CountResponse count() {
+        return client.prepareCount(BenchmarkData.PRODUCT_INDEX).get();
+    }
+
+    @TearDown
+    public void tearDown() {
+        cluster.close();
+    }
+}
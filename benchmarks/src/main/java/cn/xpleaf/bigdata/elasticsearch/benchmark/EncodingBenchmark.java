@@ -0,0 +1,124 @@
+package cn.xpleaf.bigdata.elasticsearch.benchmark;
+
+import cn.xpleaf.bigdata.elasticsearch.client.LocalCluster;
+import cn.xpleaf.bigdata.elasticsearch.codec.SourceEncoding;
+import cn.xpleaf.bigdata.elasticsearch.pojo.Product;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 对比SourceEncoding中各种_source编码方式：
+ *      encode      单个文档的编码耗时，配合GCProfiler的gc.alloc.rate.norm即为每个文档分配的字节数
+ *      bulkIndex   使用该编码写入batchSize条文档的bulk请求，包含了es端解析_source的开销
+ * 编码后的大小(wire size)在setUp时输出，也可以直接运行main，会打印大小并带上GCProfiler运行
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EncodingBenchmark {
+
+    @Param({"JSON_STRING", "MAP", "JACKSON", "XCONTENT_BUILDER", "JSON_BYTES", "SMILE", "CBOR"})
+    public SourceEncoding encoding;
+
+    @Param({"100"})
+    public int batchSize;
+
+    private static final int PRODUCTS = 1024;
+
+    private final Product[] products = new Product[PRODUCTS];
+    private final AtomicLong ids = new AtomicLong();
+    private LocalCluster cluster;
+    private Client client;
+
+    /**
+     * 只有bulkIndex需要集群，encode运行时不启动
+     */
+    @Setup
+    public void setUp(BenchmarkParams params) throws Exception {
+        for (int i = 0; i < PRODUCTS; i++) {
+            products[i] = BenchmarkData.product(i);
+        }
+        System.out.println();
+        System.out.println(encoding + " wire size: " + averageSize(encoding) + " bytes/doc");
+        if (params.getBenchmark().endsWith("bulkIndex")) {
+            cluster = BenchmarkData.startCluster("encoding-benchmark");
+            client = cluster.client();
+        }
+    }
+
+    @Benchmark
+    public BytesReference encode() {
+        return encoding.encode(products[(int) (ids.incrementAndGet() % PRODUCTS)]);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public BulkResponse bulkIndex() {
+        BulkRequestBuilder bulk = client.prepareBulk();
+        for (int i = 0; i < batchSize; i++) {
+            long id = ids.incrementAndGet();
+            IndexRequest request = new IndexRequest(BenchmarkData.PRODUCT_INDEX, BenchmarkData.PRODUCT_TYPE, "encoding-" + id);
+            encoding.apply(request, products[(int) (id % PRODUCTS)]);
+            bulk.add(request);
+        }
+        return bulk.get();
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (cluster != null) {
+            cluster.close();
+        }
+    }
+
+    static double averageSize(SourceEncoding encoding) {
+        long total = 0;
+        for (int i = 0; i < PRODUCTS; i++) {
+            total += encoding.encode(BenchmarkData.product(i)).length();
+        }
+        return (double) total / PRODUCTS;
+    }
+
+    /**
+     * 打印各编码的大小，然后带GCProfiler运行encode，结果输出到args[0]，默认为target/jmh-encoding.json
+     */
+    public static void main(String[] args) throws Exception {
+        for (SourceEncoding encoding : SourceEncoding.values()) {
+            System.out.printf("%-18s %8.1f bytes/doc%n", encoding, averageSize(encoding));
+        }
+        Options options = new OptionsBuilder()
+                .include(EncodingBenchmark.class.getSimpleName() + ".encode")
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(args.length > 0 ? args[0] : "target/jmh-encoding.json")
+                .build();
+        new Runner(options).run();
+    }
+}
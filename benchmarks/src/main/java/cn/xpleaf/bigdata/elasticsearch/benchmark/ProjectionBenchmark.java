@@ -0,0 +1,132 @@
+package cn.xpleaf.bigdata.elasticsearch.benchmark;
+
+import cn.xpleaf.bigdata.elasticsearch.client.LocalCluster;
+import cn.xpleaf.bigdata.elasticsearch.codec.Projection;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.search.SearchHit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 宽文档（extraFields个额外字段）的结果解析，每次操作处理一页PAGE条数据，只需要balance和age两个字段：
+ *      sourceAsString      showResult()中的getSourceAsString()，_source为JSON时只是把字节转为字符串，并不解析，
+ *                          之后从字符串中取字段还需要再解析一次
+ *      sourceAsMap         getSource()，即解析整个_source为Map（hit会缓存getSource()的结果，这里直接调用同样的解析）
+ *      projectionFull      完整的_source，使用Projection流式读取两个字段
+ *      projectionFiltered  setFetchSource只返回两个字段，使用Projection读取
+ *      search* 端到端的查询+解析，对比es只返回两个字段时节省的序列化和传输开销
+ * 直接运行main会带上GCProfiler，可以看到每页分配的字节数
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProjectionBenchmark {
+
+    private static final String INDEX = "wide";
+    private static final int PAGE = 500;
+
+    @Param({"50"})
+    public int extraFields;
+
+    private final Projection projection = Projection.of("balance", "age");
+    private LocalCluster cluster;
+    private Client client;
+    private SearchHit[] fullHits;
+    private SearchHit[] filteredHits;
+
+    @Setup
+    public void setUp() throws Exception {
+        cluster = BenchmarkData.startCluster("projection-benchmark");
+        client = cluster.client();
+        BulkRequestBuilder bulk = client.prepareBulk().setRefresh(true);
+        for (int i = 0; i < PAGE; i++) {
+            XContentBuilder source = XContentFactory.jsonBuilder().startObject();
+            for (int f = 0; f < extraFields; f++) {
+                source.field("field_" + f, "value " + f + " of document " + i);
+            }
+            source.field("balance", i * 10).field("age", 20 + i % 20).endObject();
+            bulk.add(client.prepareIndex(INDEX, "account", String.valueOf(i)).setSource(source));
+        }
+        bulk.get();
+        fullHits = client.prepareSearch(INDEX).setSize(PAGE).get().getHits().getHits();
+        filteredHits = projection.apply(client.prepareSearch(INDEX).setSize(PAGE)).get().getHits().getHits();
+    }
+
+    @Benchmark
+    public long sourceAsString() {
+        long total = 0;
+        for (SearchHit hit : fullHits) {
+            total += hit.getSourceAsString().length();
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long sourceAsMap() {
+        long total = 0;
+        for (SearchHit hit : fullHits) {
+            Map<String, Object> source = XContentHelper.convertToMap(hit.sourceRef(), false).v2();
+            total += ((Number) source.get("balance")).longValue() + ((Number) source.get("age")).longValue();
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long[][] projectionFull() {
+        return projection.readLongs(fullHits, 0);
+    }
+
+    @Benchmark
+    public long[][] projectionFiltered() {
+        return projection.readLongs(filteredHits, 0);
+    }
+
+    @Benchmark
+    public long searchFull() {
+        long total = 0;
+        for (SearchHit hit : client.prepareSearch(INDEX).setSize(PAGE).get().getHits().getHits()) {
+            total += hit.getSourceAsString().length();
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long[][] searchProjected() {
+        return projection.readLongs(projection.apply(client.prepareSearch(INDEX).setSize(PAGE)).get().getHits().getHits(), 0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        cluster.close();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(ProjectionBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,132 @@
+package cn.xpleaf.bigdata.elasticsearch.benchmark;
+
+import cn.xpleaf.bigdata.elasticsearch.client.LocalCluster;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ElasticSearchTest2中的查询：
+ * term、prefix、range+分页、高亮、排序、avg/max聚合
+ * 查询条件与测试类中的保持一致
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+
+    @Param({"1000", "10000"})
+    public int docCount;
+
+    private final String[] indics = {BenchmarkData.PRODUCT_INDEX, BenchmarkData.BANK_INDEX};
+    private LocalCluster cluster;
+    private Client client;
+
+    @Setup
+    public void setUp() throws Exception {
+        cluster = BenchmarkData.startCluster("search-benchmark");
+        client = cluster.client();
+        BenchmarkData.loadProducts(client, docCount);
+        BenchmarkData.loadAccounts(client, docCount);
+    }
+
+    /**
+     * testSearch1
+     */
+    @Benchmark
+    public SearchResponse term() {
+        return client.prepareSearch(indics).setSearchType(SearchType.DEFAULT)
+                .setQuery(QueryBuilders.termQuery("author", "apache"))
+                .get();
+    }
+
+    /**
+     * testSearch2
+     */
+    @Benchmark
+    public SearchResponse prefix() {
+        return client.prepareSearch(indics).setSearchType(SearchType.QUERY_THEN_FETCH)
+                .setQuery(QueryBuilders.prefixQuery("name", "h"))
+                .get();
+    }
+
+    /**
+     * testSearch3
+     */
+    @Benchmark
+    public SearchResponse rangePaging() {
+        return client.prepareSearch(indics).setSearchType(SearchType.DFS_QUERY_THEN_FETCH)
+                .setQuery(QueryBuilders.rangeQuery("age").gt(25).lte(35))
+                .setFrom(0)
+                .setSize(5)
+                .get();
+    }
+
+    /**
+     * testSearch4
+     */
+    @Benchmark
+    public SearchResponse highlight() {
+        return client.prepareSearch(indics).setSearchType(SearchType.DEFAULT)
+                .setQuery(QueryBuilders.boolQuery()
+                        .should(QueryBuilders.regexpQuery("url", ".*apache.*"))
+                        .should(QueryBuilders.termQuery("author", "apache")))
+                .setHighlighterPreTags("<span color='blue' size='18px'>")
+                .setHighlighterPostTags("</span>")
+                .addHighlightedField("author")
+                .addHighlightedField("url")
+                .get();
+    }
+
+    /**
+     * testSearch5
+     * bigdata索引中没有balance字段，这里指定unmappedType，否则这些分片会直接失败，测出来的就不是排序的代价了
+     */
+    @Benchmark
+    public SearchResponse sort() {
+        return client.prepareSearch(indics).setSearchType(SearchType.DFS_QUERY_THEN_FETCH)
+                .setQuery(QueryBuilders.rangeQuery("age").gt(25).lte(35))
+                .addSort(SortBuilders.fieldSort("balance").order(SortOrder.DESC).unmappedType("long"))
+                .setFrom(0)
+                .setSize(5)
+                .get();
+    }
+
+    /**
+     * testSearch6
+     */
+    @Benchmark
+    public SearchResponse aggregation() {
+        return client.prepareSearch(BenchmarkData.BANK_INDEX).setSearchType(SearchType.DFS_QUERY_THEN_FETCH)
+                .setQuery(QueryBuilders.rangeQuery("age").gt(25).lte(35))
+                .addAggregation(AggregationBuilders.avg("avg_balance").field("balance"))
+                .addAggregation(AggregationBuilders.max("max").field("balance"))
+                .get();
+    }
+
+    @TearDown
+    public void tearDown() {
+        cluster.close();
+    }
+}
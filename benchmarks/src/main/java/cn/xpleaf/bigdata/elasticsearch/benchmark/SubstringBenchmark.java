@@ -0,0 +1,82 @@
+package cn.xpleaf.bigdata.elasticsearch.benchmark;
+
+import cn.xpleaf.bigdata.elasticsearch.client.LocalCluster;
+import cn.xpleaf.bigdata.elasticsearch.index.IndexDefinition;
+import cn.xpleaf.bigdata.elasticsearch.index.IndexManager;
+import cn.xpleaf.bigdata.elasticsearch.search.SubstringQueries;
+import cn.xpleaf.bigdata.elasticsearch.search.SubstringRewritingClient;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * testSearch4中url的子串查询：regexp与改写为n-gram子字段之后的对比
+ * bigdata索引由IndexManager按IndexDefinition.PRODUCT创建
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SubstringBenchmark {
+
+    @Param({"10000"})
+    public int docCount;
+
+    private LocalCluster cluster;
+    private Client client;
+    private SubstringRewritingClient rewritingClient;
+
+    @Setup
+    public void setUp() throws Exception {
+        cluster = BenchmarkData.startCluster("substring-benchmark");
+        client = cluster.client();
+        new IndexManager(client).ensureIndex(IndexDefinition.PRODUCT);
+        BenchmarkData.loadProducts(client, docCount);
+        rewritingClient = new SubstringRewritingClient(client);
+    }
+
+    @Benchmark
+    public SearchResponse regexp() {
+        return client.prepareSearch(BenchmarkData.PRODUCT_INDEX)
+                .setQuery(QueryBuilders.regexpQuery("url", ".*apache.*"))
+                .get();
+    }
+
+    @Benchmark
+    public SearchResponse ngram() {
+        return rewritingClient.prepareSearch(BenchmarkData.PRODUCT_INDEX)
+                .setQuery(QueryBuilders.regexpQuery("url", ".*apache.*"))
+                .get();
+    }
+
+    /**
+     * 整个字段值的前缀，与prefixQuery针对每个词的语义不同，所以不会被自动改写
+     */
+    @Benchmark
+    public SearchResponse edgeNgramPrefix() {
+        return client.prepareSearch(BenchmarkData.PRODUCT_INDEX)
+                .setQuery(SubstringQueries.startsWith(IndexDefinition.PRODUCT.getSubstringField("url"), "http://hadoop"))
+                .get();
+    }
+
+    @TearDown
+    public void tearDown() {
+        cluster.close();
+    }
+}
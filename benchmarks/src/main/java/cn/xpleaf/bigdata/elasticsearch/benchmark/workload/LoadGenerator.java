@@ -0,0 +1,217 @@
+package cn.xpleaf.bigdata.elasticsearch.benchmark.workload;
+
+import org.HdrHistogram.Recorder;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.rest.RestStatus;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 开环（open-loop）的负载生成器
+ * 请求按目标速率的固定间隔发出：第i个请求计划在start + i / rate时发出，不等待之前请求的响应，
+ * 操作按场景的权重随机选择，请求轮流发送到各个节点的客户端
+ *
+ * JMH等闭环的方式（发出请求、等待响应、再发出下一个）在集群变慢时也会跟着发得更慢，
+ * 请求本该发出却在等待的时间不会被记录下来（coordinated omission），得到的高百分位延迟远低于用户实际看到的
+ *
+ * 这里每个请求记录两个延迟，单位为微秒：
+ *      响应时间    从计划发出的时间到收到响应，包括在客户端等待发出的时间，即修正了coordinated omission的延迟
+ *      服务时间    从实际发出到收到响应
+ * 在途的请求数达到maxInFlight时发送线程等待，之后的请求晚于计划时间发出，晚的这部分时间计入响应时间
+ * 发送结束之后最多等待DRAIN_TIMEOUT，仍然没有完成的请求记为超时（也计入错误），延迟按等待结束时计算，
+ * 集群严重过载时同样可以得到报告
+ */
+public class LoadGenerator {
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+    private static final TimeValue DRAIN_TIMEOUT = TimeValue.timeValueMinutes(1);
+
+    private final Scenario scenario;
+    private final List<Client> clients;
+    private final int maxInFlight;
+    private final long seed;
+
+    /**
+     * @param clients     请求轮流发送到这些客户端，例如local集群中每个节点的客户端
+     * @param maxInFlight 最多同时在途的请求数，避免集群过载时客户端无限制地堆积请求
+     */
+    public LoadGenerator(Scenario scenario, List<Client> clients, int maxInFlight, long seed) {
+        if (clients.isEmpty()) {
+            throw new IllegalArgumentException("至少需要一个客户端");
+        }
+        this.scenario = scenario;
+        this.clients = new ArrayList<>(clients);
+        this.maxInFlight = maxInFlight;
+        this.seed = seed;
+    }
+
+    /**
+     * 按场景发出duration时间的请求，并等待所有请求完成
+     */
+    public WorkloadReport run(TimeValue duration) throws InterruptedException {
+        Map<WorkloadOperation, Stats> stats = new EnumMap<>(WorkloadOperation.class);
+        for (WorkloadOperation operation : scenario.getWeights().keySet()) {
+            stats.put(operation, new Stats());
+        }
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        Set<Pending> pending = ConcurrentHashMap.newKeySet();
+        Random random = new Random(seed);
+        double nanosPerRequest = TimeUnit.SECONDS.toNanos(1) / scenario.getRate();
+        long start = System.nanoTime();
+        long end = start + duration.nanos();
+        long late = 0;
+        for (long sequence = 0; ; sequence++) {
+            long intended = start + (long) (sequence * nanosPerRequest);
+            if (intended >= end) {
+                break;
+            }
+            long delay;
+            while ((delay = intended - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(delay);
+            }
+            WorkloadOperation operation = scenario.next(random);
+            ActionRequestBuilder<?, ?, ?> request = operation.prepare(clients.get((int) (sequence % clients.size())), random, sequence);
+            inFlight.acquire();
+            long sent = System.nanoTime();
+            if (sent - intended > TimeUnit.MILLISECONDS.toNanos(1)) {
+                late++;
+            }
+            Pending p = new Pending(stats.get(operation), intended, sent, inFlight, pending);
+            pending.add(p);
+            execute(request, p);
+        }
+        long scheduled = System.nanoTime() - start;
+        // 等待所有在途的请求完成，超时的请求记为超时
+        if (!inFlight.tryAcquire(maxInFlight, DRAIN_TIMEOUT.millis(), TimeUnit.MILLISECONDS)) {
+            for (Pending p : pending) {
+                p.timeout();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        List<WorkloadReport.OperationResult> results = new ArrayList<>();
+        for (Map.Entry<WorkloadOperation, Stats> me : stats.entrySet()) {
+            Stats s = me.getValue();
+            results.add(new WorkloadReport.OperationResult(me.getKey(), scenario.getRate(me.getKey()),
+                    s.count.get(), s.errors.get(), s.rejected.get(), s.timeouts.get(),
+                    s.responseTime.getIntervalHistogram(), s.serviceTime.getIntervalHistogram()));
+        }
+        return new WorkloadReport(scenario, clients.size(), TimeUnit.NANOSECONDS.toMillis(scheduled),
+                TimeUnit.NANOSECONDS.toMillis(elapsed), late, results);
+    }
+
+    private static <Response extends ActionResponse> void execute(ActionRequestBuilder<?, Response, ?> request, Pending pending) {
+        ActionListener<Response> listener = new ActionListener<Response>() {
+            @Override
+            public void onResponse(Response response) {
+                boolean failed = false;
+                boolean rejected = false;
+                if (response instanceof BulkResponse) {
+                    for (BulkItemResponse item : ((BulkResponse) response).getItems()) {
+                        if (item.isFailed()) {
+                            failed = true;
+                            rejected |= item.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS;
+                        }
+                    }
+                } else if (response instanceof SearchResponse) {
+                    failed = ((SearchResponse) response).getFailedShards() > 0;
+                }
+                pending.complete(failed, rejected);
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                pending.complete(true, ExceptionsHelper.status(e) == RestStatus.TOO_MANY_REQUESTS);
+            }
+        };
+        try {
+            request.execute(listener);
+        } catch (RuntimeException e) {
+            listener.onFailure(e);
+        }
+    }
+
+    /**
+     * 一个在途的请求，由响应或者等待超时中先发生的一方记录
+     */
+    private static class Pending {
+        private final Stats stats;
+        private final long intended;
+        private final long sent;
+        private final Semaphore inFlight;
+        private final Set<Pending> pending;
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        Pending(Stats stats, long intended, long sent, Semaphore inFlight, Set<Pending> pending) {
+            this.stats = stats;
+            this.intended = intended;
+            this.sent = sent;
+            this.inFlight = inFlight;
+            this.pending = pending;
+        }
+
+        void complete(boolean failed, boolean rejected) {
+            if (done.compareAndSet(false, true)) {
+                stats.record(intended, sent, failed, rejected);
+                pending.remove(this);
+                inFlight.release();
+            }
+        }
+
+        void timeout() {
+            if (done.compareAndSet(false, true)) {
+                stats.timeouts.incrementAndGet();
+                stats.record(intended, sent, true, false);
+                pending.remove(this);
+            }
+        }
+    }
+
+    /**
+     * 一种操作的统计数据，在es的回调线程中记录
+     */
+    private static class Stats {
+        private final Recorder responseTime = new Recorder(SIGNIFICANT_DIGITS);
+        private final Recorder serviceTime = new Recorder(SIGNIFICANT_DIGITS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong timeouts = new AtomicLong();
+
+        /**
+         * @param failed   请求失败，或者bulk中有数据失败、查询有分片失败
+         * @param rejected 失败的原因包括线程池拒绝（429）
+         */
+        void record(long intended, long sent, boolean failed, boolean rejected) {
+            long now = System.nanoTime();
+            responseTime.recordValue(TimeUnit.NANOSECONDS.toMicros(now - intended));
+            serviceTime.recordValue(TimeUnit.NANOSECONDS.toMicros(now - sent));
+            count.incrementAndGet();
+            if (failed) {
+                errors.incrementAndGet();
+            }
+            if (rejected) {
+                this.rejected.incrementAndGet();
+            }
+        }
+    }
+}
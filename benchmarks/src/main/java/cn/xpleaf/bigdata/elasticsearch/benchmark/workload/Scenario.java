@@ -0,0 +1,104 @@
+package cn.xpleaf.bigdata.elasticsearch.benchmark.workload;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 负载场景：各种操作的权重，以及所有操作合计的目标速率（每秒请求数）
+ * 每种操作的目标速率为 rate * weight / 总权重
+ */
+public class Scenario {
+
+    /**
+     * 以查询为主的混合负载：70%的term/prefix查询、20%的bulk写入、10%的聚合
+     */
+    public static final String SEARCH_HEAVY = "term_search=35,prefix_search=35,bulk_index=20,aggregation=10";
+
+    private final String name;
+    private final Map<WorkloadOperation, Integer> weights;
+    private final double rate;
+    private final WorkloadOperation[] operations;
+    private final int[] cumulative;
+    private final int totalWeight;
+
+    private Scenario(String name, Map<WorkloadOperation, Integer> weights, double rate) {
+        if (weights.isEmpty()) {
+            throw new IllegalArgumentException("场景[" + name + "]中没有任何操作");
+        }
+        if (rate <= 0) {
+            throw new IllegalArgumentException("目标速率必须大于0，但是为[" + rate + "]");
+        }
+        this.name = name;
+        this.weights = Collections.unmodifiableMap(new EnumMap<>(weights));
+        this.rate = rate;
+        this.operations = new WorkloadOperation[weights.size()];
+        this.cumulative = new int[weights.size()];
+        int i = 0;
+        int total = 0;
+        for (Map.Entry<WorkloadOperation, Integer> me : this.weights.entrySet()) {
+            total += me.getValue();
+            operations[i] = me.getKey();
+            cumulative[i] = total;
+            i++;
+        }
+        this.totalWeight = total;
+    }
+
+    /**
+     * 解析"操作=权重,操作=权重"格式的场景，操作名不区分大小写，例如SEARCH_HEAVY
+     */
+    public static Scenario parse(String spec, double rate) {
+        Map<WorkloadOperation, Integer> weights = new EnumMap<>(WorkloadOperation.class);
+        for (String part : spec.split(",")) {
+            String[] kv = part.trim().split("=");
+            if (kv.length != 2) {
+                throw new IllegalArgumentException("无法解析场景中的[" + part + "]，格式为: 操作=权重");
+            }
+            int weight = Integer.parseInt(kv[1].trim());
+            if (weight <= 0) {
+                throw new IllegalArgumentException("操作[" + kv[0] + "]的权重必须大于0，但是为[" + weight + "]");
+            }
+            weights.merge(WorkloadOperation.valueOf(kv[0].trim().toUpperCase(Locale.ROOT)), weight, Integer::sum);
+        }
+        return new Scenario(spec, weights, rate);
+    }
+
+    /**
+     * 按权重随机选择一种操作
+     */
+    WorkloadOperation next(Random random) {
+        int r = random.nextInt(totalWeight);
+        for (int i = 0; i < cumulative.length; i++) {
+            if (r < cumulative[i]) {
+                return operations[i];
+            }
+        }
+        return operations[operations.length - 1];
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Map<WorkloadOperation, Integer> getWeights() {
+        return weights;
+    }
+
+    /**
+     * 所有操作合计的目标速率
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * 一种操作的目标速率
+     */
+    public double getRate(WorkloadOperation operation) {
+        Integer weight = weights.get(operation);
+        return weight == null ? 0 : rate * weight / totalWeight;
+    }
+}
@@ -0,0 +1,131 @@
+package cn.xpleaf.bigdata.elasticsearch.benchmark.workload;
+
+import cn.xpleaf.bigdata.elasticsearch.benchmark.BenchmarkData;
+import cn.xpleaf.bigdata.elasticsearch.codec.ProductCodec;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+
+import java.util.Random;
+
+/**
+ * 负载中的一种操作，对应ElasticSearchTest/ElasticSearchTest2中的用法，参数随机选择：
+ *      GET             testGet，按id获取bigdata中已有的数据
+ *      INDEX           testAdd，写入一条新数据
+ *      UPDATE          testUpdate，局部更新一条已有的数据
+ *      BULK_INDEX      testBulk，一个bulk写入BULK_SIZE条新数据
+ *      TERM_SEARCH     testSearch1，termQuery("author", ...)
+ *      PREFIX_SEARCH   testSearch2，prefixQuery("name", ...)
+ *      BOOL_SEARCH     testSearch4，url的regexp与author的term组成的should查询，高亮author和url
+ *      SORTED_SEARCH   testSearch5，bank中age的范围查询，按balance倒序分页
+ *      AGGREGATION     testSearch6，bank中age的范围查询，计算balance的avg和max
+ */
+public enum WorkloadOperation {
+
+    GET {
+        @Override
+        ActionRequestBuilder<?, ?, ?> prepare(Client client, Random random, long sequence) {
+            return client.prepareGet(BenchmarkData.PRODUCT_INDEX, BenchmarkData.PRODUCT_TYPE, String.valueOf(random.nextInt(PRODUCTS)));
+        }
+    },
+    INDEX {
+        @Override
+        ActionRequestBuilder<?, ?, ?> prepare(Client client, Random random, long sequence) {
+            return client.prepareIndex(BenchmarkData.PRODUCT_INDEX, BenchmarkData.PRODUCT_TYPE, "w-" + sequence)
+                    .setSource(ProductCodec.JSON.encode(BenchmarkData.product((int) sequence)));
+        }
+    },
+    UPDATE {
+        @Override
+        ActionRequestBuilder<?, ?, ?> prepare(Client client, Random random, long sequence) {
+            return client.prepareUpdate(BenchmarkData.PRODUCT_INDEX, BenchmarkData.PRODUCT_TYPE, String.valueOf(random.nextInt(PRODUCTS)))
+                    .setDoc("version", "2.0." + sequence)
+                    .setRetryOnConflict(3);
+        }
+    },
+    BULK_INDEX {
+        @Override
+        ActionRequestBuilder<?, ?, ?> prepare(Client client, Random random, long sequence) {
+            BulkRequestBuilder bulk = client.prepareBulk();
+            for (int i = 0; i < BULK_SIZE; i++) {
+                bulk.add(client.prepareIndex(BenchmarkData.PRODUCT_INDEX, BenchmarkData.PRODUCT_TYPE, "b-" + sequence + "-" + i)
+                        .setSource(ProductCodec.JSON.encode(BenchmarkData.product(i))));
+            }
+            return bulk;
+        }
+    },
+    TERM_SEARCH {
+        @Override
+        ActionRequestBuilder<?, ?, ?> prepare(Client client, Random random, long sequence) {
+            return client.prepareSearch(BenchmarkData.PRODUCT_INDEX)
+                    .setQuery(QueryBuilders.termQuery("author", AUTHORS[random.nextInt(AUTHORS.length)]));
+        }
+    },
+    PREFIX_SEARCH {
+        @Override
+        ActionRequestBuilder<?, ?, ?> prepare(Client client, Random random, long sequence) {
+            return client.prepareSearch(BenchmarkData.PRODUCT_INDEX).setSearchType(SearchType.QUERY_THEN_FETCH)
+                    .setQuery(QueryBuilders.prefixQuery("name", PREFIXES[random.nextInt(PREFIXES.length)]));
+        }
+    },
+    BOOL_SEARCH {
+        @Override
+        ActionRequestBuilder<?, ?, ?> prepare(Client client, Random random, long sequence) {
+            String author = AUTHORS[random.nextInt(AUTHORS.length)];
+            return client.prepareSearch(BenchmarkData.PRODUCT_INDEX)
+                    .setQuery(QueryBuilders.boolQuery()
+                            .should(QueryBuilders.regexpQuery("url", ".*" + author + ".*"))
+                            .should(QueryBuilders.termQuery("author", author)))
+                    .addHighlightedField("author")
+                    .addHighlightedField("url");
+        }
+    },
+    SORTED_SEARCH {
+        @Override
+        ActionRequestBuilder<?, ?, ?> prepare(Client client, Random random, long sequence) {
+            int from = 20 + random.nextInt(15);
+            return client.prepareSearch(BenchmarkData.BANK_INDEX)
+                    .setQuery(QueryBuilders.rangeQuery("age").gt(from).lte(from + 10))
+                    .addSort("balance", SortOrder.DESC)
+                    .setSize(5);
+        }
+    },
+    AGGREGATION {
+        @Override
+        ActionRequestBuilder<?, ?, ?> prepare(Client client, Random random, long sequence) {
+            int from = 20 + random.nextInt(15);
+            return client.prepareSearch(BenchmarkData.BANK_INDEX)
+                    .setQuery(QueryBuilders.rangeQuery("age").gt(from).lte(from + 10))
+                    .setSize(0)
+                    .addAggregation(AggregationBuilders.avg("avg_balance").field("balance"))
+                    .addAggregation(AggregationBuilders.max("max").field("balance"));
+        }
+    };
+
+    /**
+     * 预先加载的bigdata和bank的数据条数，GET/UPDATE的id在此范围内
+     */
+    public static final int PRODUCTS = 10000;
+    public static final int ACCOUNTS = 10000;
+    public static final int BULK_SIZE = 100;
+
+    // 与BenchmarkData中生成的数据对应，author被标准分词器转为小写
+    private static final String[] AUTHORS = {"apache", "cloudera", "linkedin", "redis", "elastic"};
+    private static final String[] PREFIXES = {"h", "hb", "k", "s", "sp", "z"};
+
+    /**
+     * 构建第sequence个请求，调用方负责异步执行
+     */
+    abstract ActionRequestBuilder<?, ?, ?> prepare(Client client, Random random, long sequence);
+
+    /**
+     * 每个请求包含的文档数，用于计算写入的文档吞吐量
+     */
+    public int documents() {
+        return this == BULK_INDEX ? BULK_SIZE : 1;
+    }
+}
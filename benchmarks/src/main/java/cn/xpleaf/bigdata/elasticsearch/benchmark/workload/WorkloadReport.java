@@ -0,0 +1,165 @@
+package cn.xpleaf.bigdata.elasticsearch.benchmark.workload;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一次负载运行的结果：每种操作的吞吐量，以及响应时间（修正了coordinated omission）和服务时间的百分位数
+ */
+public class WorkloadReport {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final Scenario scenario;
+    private final int clients;
+    private final long scheduledMillis;
+    private final long elapsedMillis;
+    private final long lateRequests;
+    private final List<OperationResult> results;
+
+    WorkloadReport(Scenario scenario, int clients, long scheduledMillis, long elapsedMillis, long lateRequests, List<OperationResult> results) {
+        this.scenario = scenario;
+        this.clients = clients;
+        this.scheduledMillis = scheduledMillis;
+        this.elapsedMillis = elapsedMillis;
+        this.lateRequests = lateRequests;
+        this.results = Collections.unmodifiableList(results);
+    }
+
+    public List<OperationResult> getResults() {
+        return results;
+    }
+
+    /**
+     * 晚于计划时间1ms以上发出的请求数，说明客户端（发送线程或者maxInFlight）已经跟不上目标速率
+     */
+    public long getLateRequests() {
+        return lateRequests;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * 所有操作合并后的结果
+     */
+    public OperationResult getTotal() {
+        Histogram responseTime = new Histogram(3);
+        Histogram serviceTime = new Histogram(3);
+        long count = 0;
+        long errors = 0;
+        long rejected = 0;
+        long timeouts = 0;
+        for (OperationResult result : results) {
+            responseTime.add(result.responseTime);
+            serviceTime.add(result.serviceTime);
+            count += result.count;
+            errors += result.errors;
+            rejected += result.rejected;
+            timeouts += result.timeouts;
+        }
+        return new OperationResult(null, scenario.getRate(), count, errors, rejected, timeouts, responseTime, serviceTime);
+    }
+
+    /**
+     * 吞吐量按发出请求的时间计算，延迟的单位为毫秒
+     */
+    public void print(PrintStream out) {
+        out.printf("scenario: %s, target: %.1f req/s, clients: %d, duration: %dms (drained after %dms), late requests: %d%n",
+                scenario.getName(), scenario.getRate(), clients, scheduledMillis, elapsedMillis, lateRequests);
+        out.printf("%-14s %9s %9s %9s %8s %6s %8s %8s | %-35s | %-35s%n", "operation", "target/s", "actual/s", "docs/s", "count", "errors",
+                "rejected", "timeouts", "response time p50/p90/p99/p99.9/max", "service time p50/p90/p99/p99.9/max");
+        for (OperationResult result : results) {
+            print(out, result);
+        }
+        print(out, getTotal());
+    }
+
+    private void print(PrintStream out, OperationResult result) {
+        double seconds = scheduledMillis / 1000.0;
+        int documents = result.operation == null ? 0 : result.operation.documents();
+        out.printf("%-14s %9.1f %9.1f %9s %8d %6d %8d %8d | %-35s | %-35s%n",
+                result.operation == null ? "TOTAL" : result.operation.name(),
+                result.targetRate, result.count / seconds,
+                documents == 0 ? "-" : String.format("%.1f", result.count * documents / seconds),
+                result.count, result.errors, result.rejected, result.timeouts, percentiles(result.responseTime), percentiles(result.serviceTime));
+    }
+
+    private static String percentiles(Histogram histogram) {
+        StringBuilder sb = new StringBuilder();
+        for (double percentile : PERCENTILES) {
+            sb.append(String.format("%.1f/", histogram.getValueAtPercentile(percentile) / 1000.0));
+        }
+        return sb.append(String.format("%.1f", histogram.getMaxValue() / 1000.0)).toString();
+    }
+
+    /**
+     * 一种操作的结果，延迟的单位为微秒
+     */
+    public static class OperationResult {
+        private final WorkloadOperation operation;
+        private final double targetRate;
+        private final long count;
+        private final long errors;
+        private final long rejected;
+        private final long timeouts;
+        private final Histogram responseTime;
+        private final Histogram serviceTime;
+
+        OperationResult(WorkloadOperation operation, double targetRate, long count, long errors, long rejected, long timeouts,
+                        Histogram responseTime, Histogram serviceTime) {
+            this.operation = operation;
+            this.targetRate = targetRate;
+            this.count = count;
+            this.errors = errors;
+            this.rejected = rejected;
+            this.timeouts = timeouts;
+            this.responseTime = responseTime;
+            this.serviceTime = serviceTime;
+        }
+
+        public WorkloadOperation getOperation() {
+            return operation;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        /**
+         * 因为线程池拒绝而失败的请求数，说明目标速率已经超过了集群的处理能力
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        /**
+         * 发送结束之后等待超时仍然没有完成的请求数，延迟按等待结束时计算
+         */
+        public long getTimeouts() {
+            return timeouts;
+        }
+
+        /**
+         * 从计划发出的时间开始计算的延迟
+         */
+        public Histogram getResponseTime() {
+            return responseTime;
+        }
+
+        /**
+         * 从实际发出的时间开始计算的延迟
+         */
+        public Histogram getServiceTime() {
+            return serviceTime;
+        }
+    }
+}
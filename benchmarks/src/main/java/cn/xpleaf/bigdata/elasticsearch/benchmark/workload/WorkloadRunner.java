@@ -0,0 +1,107 @@
+package cn.xpleaf.bigdata.elasticsearch.benchmark.workload;
+
+import cn.xpleaf.bigdata.elasticsearch.benchmark.BenchmarkData;
+import cn.xpleaf.bigdata.elasticsearch.client.ClientConfig;
+import cn.xpleaf.bigdata.elasticsearch.client.ElasticSearchClientFactory;
+import cn.xpleaf.bigdata.elasticsearch.index.IndexDefinition;
+import cn.xpleaf.bigdata.elasticsearch.index.IndexManager;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * 通过ElasticSearchClientFactory创建客户端，加载测试数据，然后按场景运行开环负载并输出报告
+ * 客户端的配置和业务代码一样从es-client.properties和-Des-client.*系统属性中读取，
+ * 缓存、统计、查询规划、filter改写、子串改写、路由等包装都按配置开启，例如：
+ *      -Des-client.client.cache.enabled=true -Des-client.client.search.rewrite_filters=true
+ * 没有指定-Des-client.client.mode时在当前JVM中启动多节点的local集群（路由只在transport模式下生效）
+ *
+ * 参数：
+ *      args[0] 场景，格式为"操作=权重,..."，默认为Scenario.SEARCH_HEAVY
+ *      args[1] 所有操作合计的目标速率（每秒请求数），默认为200
+ *      args[2] 运行时间（秒），默认为60
+ *      args[3] local集群的节点数，默认为3
+ *      args[4] 预热时间（秒），预热的结果不输出，默认为10
+ *      args[5] 最多同时在途的请求数，默认为1000
+ *      args[6] 使用的客户端：factory为工厂按配置包装之后的客户端，raw为没有任何包装的客户端，
+ *              compare为先后各运行一次raw和factory，默认为factory
+ */
+public class WorkloadRunner {
+
+    private static final String[] WRAPPERS = {"client.cache.enabled", "client.metrics.enabled", "client.search.plan",
+            "client.search.rewrite_filters", "client.search.rewrite_substring", "client.routing.enabled"};
+
+    public static void main(String[] args) throws Exception {
+        String spec = args.length > 0 ? args[0] : Scenario.SEARCH_HEAVY;
+        double rate = args.length > 1 ? Double.parseDouble(args[1]) : 200;
+        int duration = args.length > 2 ? Integer.parseInt(args[2]) : 60;
+        int nodes = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+        int warmup = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+        int maxInFlight = args.length > 5 ? Integer.parseInt(args[5]) : 1000;
+        String use = args.length > 6 ? args[6] : "factory";
+        if (!"factory".equals(use) && !"raw".equals(use) && !"compare".equals(use)) {
+            throw new IllegalArgumentException("客户端只能是factory、raw或compare: " + use);
+        }
+        Scenario scenario = Scenario.parse(spec, rate);
+
+        Properties overrides = new Properties();
+        if (System.getProperty(ClientConfig.SYSTEM_PREFIX + "client.mode") == null) {
+            overrides.setProperty(ClientConfig.SYSTEM_PREFIX + "client.mode", "local");
+            overrides.setProperty(ClientConfig.SYSTEM_PREFIX + "cluster.name", "workload-" + System.nanoTime());
+            overrides.setProperty(ClientConfig.SYSTEM_PREFIX + "local.nodes", String.valueOf(nodes));
+        }
+        overrides.putAll(System.getProperties());
+        ClientConfig config = ClientConfig.load(ClientConfig.DEFAULT_RESOURCE, overrides);
+
+        try (ElasticSearchClientFactory factory = new ElasticSearchClientFactory(config);
+             ElasticSearchClientFactory rawFactory = rawFactory(config, overrides)) {
+            Client client = factory.getClient();
+            // local模式下直接使用内嵌集群的客户端，transport模式下使用没有任何包装的工厂
+            Client raw = rawFactory == null ? factory.getLocalCluster().client() : rawFactory.getClient();
+            if (config.getMode() == ClientConfig.Mode.LOCAL) {
+                raw.admin().cluster().prepareHealth().setWaitForNodes(String.valueOf(config.getLocalNodes())).get();
+            }
+            new IndexManager(raw).ensureIndex(IndexDefinition.PRODUCT);
+            BenchmarkData.loadProducts(raw, WorkloadOperation.PRODUCTS);
+            BenchmarkData.loadAccounts(raw, WorkloadOperation.ACCOUNTS);
+            raw.admin().cluster().prepareHealth().setWaitForGreenStatus().get();
+
+            if (!"factory".equals(use)) {
+                System.out.println("client: raw");
+                run(scenario, Collections.singletonList(raw), maxInFlight, warmup, duration);
+            }
+            if (!"raw".equals(use)) {
+                System.out.println("client: factory");
+                run(scenario, Collections.singletonList(client), maxInFlight, warmup, duration);
+                if (factory.getMetrics() != null) {
+                    System.out.println(factory.getMetrics().toJson());
+                }
+            }
+        }
+    }
+
+    /**
+     * transport模式下创建一个关闭了所有包装的工厂，local模式下返回null，直接使用内嵌集群的客户端
+     */
+    private static ElasticSearchClientFactory rawFactory(ClientConfig config, Properties overrides) {
+        if (config.getMode() == ClientConfig.Mode.LOCAL) {
+            return null;
+        }
+        Properties rawOverrides = new Properties();
+        rawOverrides.putAll(overrides);
+        for (String wrapper : WRAPPERS) {
+            rawOverrides.setProperty(ClientConfig.SYSTEM_PREFIX + wrapper, "false");
+        }
+        return new ElasticSearchClientFactory(ClientConfig.load(ClientConfig.DEFAULT_RESOURCE, rawOverrides));
+    }
+
+    private static void run(Scenario scenario, List<Client> clients, int maxInFlight, int warmup, int duration) throws Exception {
+        if (warmup > 0) {
+            new LoadGenerator(scenario, clients, maxInFlight, 1).run(TimeValue.timeValueSeconds(warmup));
+        }
+        new LoadGenerator(scenario, clients, maxInFlight, 2).run(TimeValue.timeValueSeconds(duration)).print(System.out);
+    }
+}
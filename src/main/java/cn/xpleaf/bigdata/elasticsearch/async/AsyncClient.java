@@ -0,0 +1,110 @@
+package cn.xpleaf.bigdata.elasticsearch.async;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequestBuilder;
+import org.elasticsearch.action.delete.DeleteResponse;
+import org.elasticsearch.action.get.GetRequestBuilder;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.update.UpdateRequestBuilder;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.client.Client;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 基于ActionListener的非阻塞客户端
+ * 测试类中的每个请求都以.get()结束，调用线程会一直挂起到响应返回，
+ * 这里将ActionListener适配为CompletableFuture，请求之间可以直接组合，例如先get再update：
+ *
+ *      async.get(client.prepareGet(index, type, "6"))
+ *           .thenCompose(r -> async.update(client.prepareUpdate(index, type, r.getId()).setDoc(...)))
+ *
+ * 整个过程不会占用任何线程等待；同时通过ConcurrencyLimiter限制在途的请求数
+ */
+public class AsyncClient {
+
+    private final Client client;
+    private final ConcurrencyLimiter limiter;
+
+    /**
+     * @param maxInFlight 同时在途的最大请求数
+     * @param maxQueued   超过maxInFlight之后，最多可以排队等待的请求数，再超过时返回的future直接失败
+     */
+    public AsyncClient(Client client, int maxInFlight, int maxQueued) {
+        this.client = client;
+        this.limiter = new ConcurrencyLimiter(maxInFlight, maxQueued);
+    }
+
+    public Client getClient() {
+        return client;
+    }
+
+    public ConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+
+    /**
+     * 异步执行任意的请求
+     */
+    public <Response extends ActionResponse> CompletableFuture<Response> execute(ActionRequestBuilder<?, Response, ?> request) {
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        try {
+            limiter.submit(() -> {
+                try {
+                    request.execute(new ActionListener<Response>() {
+                        @Override
+                        public void onResponse(Response response) {
+                            // 先释放名额，后续组合的请求才能立即执行
+                            limiter.release();
+                            future.complete(response);
+                        }
+
+                        @Override
+                        public void onFailure(Throwable e) {
+                            limiter.release();
+                            future.completeExceptionally(e);
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    limiter.release();
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    public CompletableFuture<IndexResponse> index(IndexRequestBuilder request) {
+        return execute(request);
+    }
+
+    public CompletableFuture<GetResponse> get(GetRequestBuilder request) {
+        return execute(request);
+    }
+
+    public CompletableFuture<UpdateResponse> update(UpdateRequestBuilder request) {
+        return execute(request);
+    }
+
+    public CompletableFuture<DeleteResponse> delete(DeleteRequestBuilder request) {
+        return execute(request);
+    }
+
+    public CompletableFuture<BulkResponse> bulk(BulkRequestBuilder request) {
+        return execute(request);
+    }
+
+    public CompletableFuture<SearchResponse> search(SearchRequestBuilder request) {
+        return execute(request);
+    }
+}
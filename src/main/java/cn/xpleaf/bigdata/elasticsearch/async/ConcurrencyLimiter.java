@@ -0,0 +1,105 @@
+package cn.xpleaf.bigdata.elasticsearch.async;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 不阻塞线程的并发限制器
+ * 同时执行的任务最多为maxInFlight个，超过的任务进入等待队列，
+ * 有任务完成调用release()时再从队列中取出执行；等待队列也满了时直接拒绝
+ *
+ * 与Semaphore.acquire()不同，提交任务的线程永远不会被挂起
+ */
+public class ConcurrencyLimiter {
+
+    private final int maxInFlight;
+    private final int maxQueued;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+    private final AtomicLong rejected = new AtomicLong();
+    // 任务的回调可能在当前线程中同步执行并调用release()，这里避免drain()的递归调用
+    private final ThreadLocal<Boolean> draining = new ThreadLocal<>();
+
+    public ConcurrencyLimiter(int maxInFlight, int maxQueued) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight必须大于0，但是为[" + maxInFlight + "]");
+        }
+        this.maxInFlight = maxInFlight;
+        this.maxQueued = maxQueued;
+    }
+
+    /**
+     * 提交任务，任务中发起的异步请求完成之后必须调用release()
+     *
+     * @throws RejectedExecutionException 等待队列已满
+     */
+    public void submit(Runnable task) {
+        if (tryAcquire()) {
+            task.run();
+            return;
+        }
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException("在途请求数已达到" + maxInFlight + "，等待队列已达到" + maxQueued);
+        }
+        waiting.offer(task);
+        // 入队期间可能已经有任务完成，需要再检查一次，避免任务一直留在队列中
+        drain();
+    }
+
+    /**
+     * 一个任务执行完毕，释放名额并执行等待队列中的任务
+     */
+    public void release() {
+        inFlight.decrementAndGet();
+        drain();
+    }
+
+    private void drain() {
+        if (draining.get() != null) {
+            return;
+        }
+        draining.set(Boolean.TRUE);
+        try {
+            while (!waiting.isEmpty() && tryAcquire()) {
+                Runnable next = waiting.poll();
+                if (next == null) {
+                    inFlight.decrementAndGet();
+                    continue;
+                }
+                queued.decrementAndGet();
+                next.run();
+            }
+        } finally {
+            draining.remove();
+        }
+    }
+
+    private boolean tryAcquire() {
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= maxInFlight) {
+                return false;
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public int getQueued() {
+        return queued.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+}
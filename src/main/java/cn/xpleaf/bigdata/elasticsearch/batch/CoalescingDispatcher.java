@@ -0,0 +1,240 @@
+package cn.xpleaf.bigdata.elasticsearch.batch;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 请求合并分发器
+ * 在一个很短的时间窗口内（或者攒够maxBatchSize个请求时）到达的单条get请求会被合并为一个prepareMultiGet，
+ * search请求会被合并为一个prepareMultiSearch，响应再按顺序分发给每个调用方。
+ * 大量很小的请求时，每个请求的网络和transport开销就被均摊掉了
+ * close()会发出所有等待中的请求，之后再提交请求时抛出IllegalStateException
+ */
+public class CoalescingDispatcher implements AutoCloseable {
+
+    private final Client client;
+    private final int maxBatchSize;
+    private final long windowMicros;
+    private final ScheduledExecutorService scheduler;
+    private final Batcher<MultiGetRequest.Item, GetResponse> gets = new GetBatcher();
+    private final Batcher<SearchRequest, SearchResponse> searches = new SearchBatcher();
+
+    /**
+     * @param window       第一个请求到达之后，最多等待多长时间就发出合并后的请求
+     * @param maxBatchSize 每个合并后的请求最多包含的单个请求数
+     */
+    public CoalescingDispatcher(Client client, TimeValue window, int maxBatchSize) {
+        this.client = client;
+        this.maxBatchSize = maxBatchSize;
+        this.windowMicros = TimeUnit.NANOSECONDS.toMicros(window.nanos());
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "coalescing-dispatcher");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public CompletableFuture<GetResponse> get(String index, String type, String id) {
+        return get(new MultiGetRequest.Item(index, type, id));
+    }
+
+    /**
+     * 使用Item可以指定routing、fields、version、fetchSourceContext等
+     */
+    public CompletableFuture<GetResponse> get(MultiGetRequest.Item item) {
+        return gets.add(item);
+    }
+
+    public CompletableFuture<SearchResponse> search(SearchRequestBuilder request) {
+        return search(request.request());
+    }
+
+    public CompletableFuture<SearchResponse> search(SearchRequest request) {
+        return searches.add(request);
+    }
+
+    /**
+     * 立即发出当前所有等待中的请求
+     */
+    public void flush() {
+        gets.flush();
+        searches.flush();
+    }
+
+    public long getGetBatches() {
+        return gets.batches.get();
+    }
+
+    public long getSearchBatches() {
+        return searches.batches.get();
+    }
+
+    @Override
+    public void close() {
+        gets.close();
+        searches.close();
+        scheduler.shutdown();
+    }
+
+    private static class Pending<T, R> {
+        private final T request;
+        private final CompletableFuture<R> future = new CompletableFuture<>();
+
+        Pending(T request) {
+            this.request = request;
+        }
+    }
+
+    /**
+     * 攒批的逻辑，T为单个请求，R为单个响应
+     */
+    private abstract class Batcher<T, R> {
+        private List<Pending<T, R>> pending = new ArrayList<>();
+        private ScheduledFuture<?> timer;
+        // 在锁内设置和检查，关闭之后不会再有新的定时任务提交给scheduler
+        private boolean closed;
+        final AtomicLong batches = new AtomicLong();
+
+        CompletableFuture<R> add(T request) {
+            Pending<T, R> p = new Pending<>(request);
+            List<Pending<T, R>> full = null;
+            synchronized (this) {
+                if (closed) {
+                    throw new IllegalStateException("CoalescingDispatcher已经关闭");
+                }
+                pending.add(p);
+                if (pending.size() >= maxBatchSize) {
+                    full = take();
+                } else if (timer == null) {
+                    timer = scheduler.schedule(this::flush, windowMicros, TimeUnit.MICROSECONDS);
+                }
+            }
+            // 在锁外发送请求
+            if (full != null) {
+                send(full);
+            }
+            return p.future;
+        }
+
+        void flush() {
+            List<Pending<T, R>> batch;
+            synchronized (this) {
+                batch = take();
+            }
+            if (!batch.isEmpty()) {
+                send(batch);
+            }
+        }
+
+        void close() {
+            synchronized (this) {
+                closed = true;
+            }
+            flush();
+        }
+
+        private List<Pending<T, R>> take() {
+            List<Pending<T, R>> batch = pending;
+            pending = new ArrayList<>();
+            if (timer != null) {
+                timer.cancel(false);
+                timer = null;
+            }
+            return batch;
+        }
+
+        private void send(List<Pending<T, R>> batch) {
+            batches.incrementAndGet();
+            try {
+                dispatch(batch);
+            } catch (RuntimeException e) {
+                fail(batch, e);
+            }
+        }
+
+        void fail(List<Pending<T, R>> batch, Throwable e) {
+            for (Pending<T, R> p : batch) {
+                p.future.completeExceptionally(e);
+            }
+        }
+
+        abstract void dispatch(List<Pending<T, R>> batch);
+    }
+
+    private class GetBatcher extends Batcher<MultiGetRequest.Item, GetResponse> {
+        @Override
+        void dispatch(List<Pending<MultiGetRequest.Item, GetResponse>> batch) {
+            MultiGetRequest request = new MultiGetRequest();
+            for (Pending<MultiGetRequest.Item, GetResponse> p : batch) {
+                request.add(p.request);
+            }
+            client.multiGet(request, new ActionListener<MultiGetResponse>() {
+                @Override
+                public void onResponse(MultiGetResponse response) {
+                    MultiGetItemResponse[] items = response.getResponses();
+                    for (int i = 0; i < items.length; i++) {
+                        CompletableFuture<GetResponse> future = batch.get(i).future;
+                        if (items[i].isFailed()) {
+                            future.completeExceptionally(items[i].getFailure().getFailure());
+                        } else {
+                            future.complete(items[i].getResponse());
+                        }
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable e) {
+                    fail(batch, e);
+                }
+            });
+        }
+    }
+
+    private class SearchBatcher extends Batcher<SearchRequest, SearchResponse> {
+        @Override
+        void dispatch(List<Pending<SearchRequest, SearchResponse>> batch) {
+            MultiSearchRequest request = new MultiSearchRequest();
+            for (Pending<SearchRequest, SearchResponse> p : batch) {
+                request.add(p.request);
+            }
+            client.multiSearch(request, new ActionListener<MultiSearchResponse>() {
+                @Override
+                public void onResponse(MultiSearchResponse response) {
+                    MultiSearchResponse.Item[] items = response.getResponses();
+                    for (int i = 0; i < items.length; i++) {
+                        CompletableFuture<SearchResponse> future = batch.get(i).future;
+                        if (items[i].isFailure()) {
+                            future.completeExceptionally(items[i].getFailure());
+                        } else {
+                            future.complete(items[i].getResponse());
+                        }
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable e) {
+                    fail(batch, e);
+                }
+            });
+        }
+    }
+}
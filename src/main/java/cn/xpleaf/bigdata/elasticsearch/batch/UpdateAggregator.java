@@ -0,0 +1,339 @@
+package cn.xpleaf.bigdata.elasticsearch.batch;
+
+import cn.xpleaf.bigdata.elasticsearch.pojo.Product;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.lucene.uid.Versions;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentHelper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 局部更新的合并器
+ * ElasticSearchTest.testUpdate()中每次修改都是一个prepareUpdate(...).setDoc(...)，
+ * 同一个文档在短时间内的多次局部修改，每次都会在es端重新索引整个文档、产生一个新版本和一个被删除的旧文档，
+ * 这些旧文档又会引起更多的段合并
+ *
+ * 这里在window时间内（或者攒够maxDocs个不同的文档时）把同一个id的多个局部文档在内存中合并为一个，
+ * 合并规则与es的局部更新相同（嵌套的对象递归合并，其它字段后面的覆盖前面的），
+ * 然后每个文档只发送一个update，所有文档放在一个bulk请求中：
+ *      没有指定版本时使用retry_on_conflict，与其它客户端的更新冲突时在es端重试
+ *      指定了版本时按版本进行乐观锁控制（es不允许两者同时使用），冲突时返回失败；
+ *      指定了版本的更新不与任何更新合并，否则两个指定了同一版本的更新都会成功，而逐个发送时第二个会版本冲突，
+ *      所以只有没有指定版本的更新才会合并
+ *      开启detect_noop，合并后的内容与现有文档相同时不会产生新版本
+ *
+ * 同时最多只有一个bulk请求在途，保证同一个文档的多次合并更新按顺序生效
+ * close()之后再调用update时抛出IllegalStateException
+ */
+public class UpdateAggregator implements AutoCloseable {
+
+    private final Client client;
+    private final String index;
+    private final String type;
+    private final long windowMicros;
+    private final int maxDocs;
+    private final int retryOnConflict;
+    private final boolean docAsUpsert;
+    private final ScheduledExecutorService scheduler;
+    // 在途的bulk请求，只有一个
+    private final Semaphore inFlight = new Semaphore(1);
+    private final Object sendLock = new Object();
+
+    private Map<String, Pending> pending = new LinkedHashMap<>();
+    private ScheduledFuture<?> timer;
+    // 在锁内设置和检查，关闭之后不会再有新的定时任务提交给scheduler
+    private boolean closed;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong bulks = new AtomicLong();
+
+    private UpdateAggregator(Client client, Builder builder) {
+        this.client = client;
+        this.index = builder.index;
+        this.type = builder.type;
+        this.windowMicros = TimeUnit.NANOSECONDS.toMicros(builder.window.nanos());
+        this.maxDocs = builder.maxDocs;
+        this.retryOnConflict = builder.retryOnConflict;
+        this.docAsUpsert = builder.docAsUpsert;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "update-aggregator");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public static Builder builder(String index, String type) {
+        return new Builder(index, type);
+    }
+
+    /**
+     * 局部更新Product，只更新不为null的字段
+     */
+    public CompletableFuture<UpdateResponse> update(String id, Product changes) {
+        Map<String, Object> doc = new HashMap<>();
+        putIfNotNull(doc, "name", changes.getName());
+        putIfNotNull(doc, "author", changes.getAuthor());
+        putIfNotNull(doc, "version", changes.getVersion());
+        putIfNotNull(doc, "url", changes.getUrl());
+        return update(id, doc);
+    }
+
+    /**
+     * 局部更新，调用之后不要再修改doc
+     *
+     * @return 合并后的update的结果，同一个窗口内同一个id的所有调用得到的是同一个结果
+     */
+    public CompletableFuture<UpdateResponse> update(String id, Map<String, Object> doc) {
+        return update(id, doc, Versions.MATCH_ANY);
+    }
+
+    /**
+     * 指定文档当前版本的局部更新，不与其它更新合并
+     * 同一个窗口内同一个id已经有等待发送的更新时，之前的更新会先发送出去
+     */
+    public CompletableFuture<UpdateResponse> update(String id, Map<String, Object> doc, long version) {
+        CompletableFuture<UpdateResponse> future = new CompletableFuture<>();
+        while (true) {
+            boolean merged;
+            boolean full;
+            synchronized (this) {
+                if (closed) {
+                    throw new IllegalStateException("UpdateAggregator已经关闭");
+                }
+                Pending p = pending.get(id);
+                merged = p == null || (p.version == Versions.MATCH_ANY && version == Versions.MATCH_ANY);
+                if (merged) {
+                    if (p == null) {
+                        p = new Pending(version);
+                        pending.put(id, p);
+                    }
+                    XContentHelper.update(p.doc, doc, false);
+                    p.futures.add(future);
+                }
+                // 不能合并时，先发送之前的更新再重新加入
+                full = !merged || pending.size() >= maxDocs;
+                if (!full && timer == null) {
+                    timer = scheduler.schedule(this::flush, windowMicros, TimeUnit.MICROSECONDS);
+                }
+            }
+            if (full) {
+                flush();
+            }
+            if (merged) {
+                submitted.incrementAndGet();
+                return future;
+            }
+        }
+    }
+
+    /**
+     * 立即发送当前已经合并的更新，上一个bulk请求还没有完成时阻塞等待
+     */
+    public void flush() {
+        synchronized (sendLock) {
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            Map<String, Pending> batch;
+            synchronized (this) {
+                batch = pending;
+                pending = new LinkedHashMap<>();
+                if (timer != null) {
+                    timer.cancel(false);
+                    timer = null;
+                }
+            }
+            if (batch.isEmpty()) {
+                inFlight.release();
+                return;
+            }
+            send(batch);
+        }
+    }
+
+    private void send(Map<String, Pending> batch) {
+        BulkRequest bulk = new BulkRequest();
+        List<Pending> entries = new ArrayList<>(batch.size());
+        for (Map.Entry<String, Pending> me : batch.entrySet()) {
+            Pending p = me.getValue();
+            UpdateRequest request = new UpdateRequest(index, type, me.getKey())
+                    .doc(p.doc)
+                    .docAsUpsert(docAsUpsert)
+                    .detectNoop(true);
+            if (p.version != Versions.MATCH_ANY) {
+                request.version(p.version);
+            } else {
+                request.retryOnConflict(retryOnConflict);
+            }
+            bulk.add(request);
+            entries.add(p);
+        }
+        bulks.incrementAndGet();
+        sent.addAndGet(entries.size());
+        try {
+            client.bulk(bulk, new ActionListener<BulkResponse>() {
+                @Override
+                public void onResponse(BulkResponse response) {
+                    inFlight.release();
+                    BulkItemResponse[] items = response.getItems();
+                    for (int i = 0; i < items.length; i++) {
+                        if (items[i].isFailed()) {
+                            entries.get(i).fail(items[i].getFailure().getCause());
+                        } else {
+                            entries.get(i).complete(items[i].getResponse());
+                        }
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable e) {
+                    inFlight.release();
+                    for (Pending p : entries) {
+                        p.fail(e);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            for (Pending p : entries) {
+                p.fail(e);
+            }
+        }
+    }
+
+    /**
+     * update调用的次数
+     */
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    /**
+     * 合并后实际发送的update数
+     */
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getBulks() {
+        return bulks.get();
+    }
+
+    /**
+     * 发送剩余的更新，并等待最后一个bulk请求完成
+     */
+    @Override
+    public void close() throws InterruptedException {
+        synchronized (this) {
+            closed = true;
+        }
+        flush();
+        if (inFlight.tryAcquire(1, TimeUnit.MINUTES)) {
+            inFlight.release();
+        }
+        scheduler.shutdown();
+    }
+
+    private static void putIfNotNull(Map<String, Object> doc, String field, Object value) {
+        if (value != null) {
+            doc.put(field, value);
+        }
+    }
+
+    private static class Pending {
+        private final Map<String, Object> doc = new HashMap<>();
+        private final List<CompletableFuture<UpdateResponse>> futures = new ArrayList<>();
+        private final long version;
+
+        Pending(long version) {
+            this.version = version;
+        }
+
+        void complete(UpdateResponse response) {
+            for (CompletableFuture<UpdateResponse> future : futures) {
+                future.complete(response);
+            }
+        }
+
+        void fail(Throwable e) {
+            for (CompletableFuture<UpdateResponse> future : futures) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    public static class Builder {
+        private final String index;
+        private final String type;
+        private TimeValue window = TimeValue.timeValueMillis(100);
+        private int maxDocs = 1000;
+        private int retryOnConflict = 3;
+        private boolean docAsUpsert = false;
+
+        private Builder(String index, String type) {
+            this.index = index;
+            this.type = type;
+        }
+
+        /**
+         * 第一个更新到达之后，最多等待多长时间就发送合并后的更新
+         */
+        public Builder setWindow(TimeValue window) {
+            this.window = window;
+            return this;
+        }
+
+        /**
+         * 每个bulk请求最多包含的文档数
+         */
+        public Builder setMaxDocs(int maxDocs) {
+            if (maxDocs < 1) {
+                throw new IllegalArgumentException("maxDocs必须大于0，但是为[" + maxDocs + "]");
+            }
+            this.maxDocs = maxDocs;
+            return this;
+        }
+
+        /**
+         * 没有指定版本的更新在版本冲突时的重试次数
+         */
+        public Builder setRetryOnConflict(int retryOnConflict) {
+            this.retryOnConflict = retryOnConflict;
+            return this;
+        }
+
+        /**
+         * 文档不存在时是否使用合并后的局部文档创建
+         */
+        public Builder setDocAsUpsert(boolean docAsUpsert) {
+            this.docAsUpsert = docAsUpsert;
+            return this;
+        }
+
+        public UpdateAggregator build(Client client) {
+            return new UpdateAggregator(client, this);
+        }
+    }
+}
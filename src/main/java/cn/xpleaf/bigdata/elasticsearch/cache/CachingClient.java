@@ -0,0 +1,262 @@
+package cn.xpleaf.bigdata.elasticsearch.cache;
+
+import org.elasticsearch.action.Action;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.admin.indices.alias.Alias;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.create.CreateIndexRequest;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchAction;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.FilterClient;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 带查询结果缓存的客户端
+ * 对es的Client进行包装，prepareSearch(...).get()会先查询SearchResultCache，
+ * 而通过该客户端执行的index/update/delete/bulk/refresh/创建索引/删除索引/修改别名操作，
+ * 在请求发出和得到响应时都会使相关索引和别名的缓存失效；
+ * 查询和写入的别名都会通过缓存的别名信息解析成实际的索引，所以通过别名查询的缓存也会被直接写索引的操作失效，反之亦然，
+ * 别名信息在第一次使用时从集群状态中加载，创建索引、删除索引和修改别名之后重新加载；
+ * 删除索引时指向它的别名也一起被删除，所以使所有缓存失效
+ *
+ * 注意：缓存只能感知到经过该客户端的写操作，其它客户端写入的数据要等缓存过期之后才能查到
+ */
+public class CachingClient extends FilterClient {
+
+    private final SearchResultCache cache;
+    // 别名 -> 别名指向的索引，为null时需要重新加载
+    private volatile Map<String, Set<String>> aliases;
+    // 每次别名可能发生变化时加1，加载期间别名发生了变化则不保存加载的结果
+    private final AtomicLong aliasesVersion = new AtomicLong();
+
+    public CachingClient(Client in, SearchResultCache cache) {
+        super(in);
+        this.cache = cache;
+    }
+
+    public SearchResultCache getCache() {
+        return cache;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected <Request extends ActionRequest, Response extends ActionResponse, RequestBuilder extends ActionRequestBuilder<Request, Response, RequestBuilder>>
+    void doExecute(Action<Request, Response, RequestBuilder> action, Request request, ActionListener<Response> listener) {
+        if (action == SearchAction.INSTANCE) {
+            cachedSearch((SearchRequest) request, (ActionListener<SearchResponse>) listener);
+            return;
+        }
+        Set<String> written = writtenIndices(request);
+        if (written == null) {
+            super.doExecute(action, request, listener);
+            return;
+        }
+        boolean aliasesChanged = changesAliases(request);
+        invalidate(written, aliasesChanged);
+        super.doExecute(action, request, new ActionListener<Response>() {
+            @Override
+            public void onResponse(Response response) {
+                invalidate(written, aliasesChanged);
+                listener.onResponse(response);
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                invalidate(written, aliasesChanged);
+                listener.onFailure(e);
+            }
+        });
+    }
+
+    private void invalidate(Set<String> written, boolean aliasesChanged) {
+        if (aliasesChanged) {
+            // 缓存的key中包含了查询时使用的别名和索引名，不需要再解析
+            aliasesVersion.incrementAndGet();
+            aliases = null;
+            cache.invalidate(written);
+            return;
+        }
+        Set<String> resolved = resolve(written);
+        if (resolved == null) {
+            cache.invalidateAll();
+        } else {
+            cache.invalidate(resolved);
+        }
+    }
+
+    /**
+     * 返回names以及其中的别名指向的索引，无法加载别名信息时返回null
+     */
+    private Set<String> resolve(Collection<String> names) {
+        Map<String, Set<String>> current = aliases();
+        if (current == null) {
+            return null;
+        }
+        Set<String> resolved = new HashSet<>(names);
+        for (String name : names) {
+            Set<String> indices = current.get(name);
+            if (indices != null) {
+                resolved.addAll(indices);
+            }
+        }
+        return resolved;
+    }
+
+    private Map<String, Set<String>> aliases() {
+        Map<String, Set<String>> current = aliases;
+        if (current != null) {
+            return current;
+        }
+        long version = aliasesVersion.get();
+        try {
+            current = new HashMap<>();
+            for (IndexMetaData metaData : in().admin().cluster().prepareState().clear().setMetaData(true)
+                    .get().getState().getMetaData()) {
+                Iterator<String> it = metaData.getAliases().keysIt();
+                while (it.hasNext()) {
+                    String alias = it.next();
+                    Set<String> indices = current.get(alias);
+                    if (indices == null) {
+                        indices = new HashSet<>();
+                        current.put(alias, indices);
+                    }
+                    indices.add(metaData.getIndex());
+                }
+            }
+        } catch (Exception e) {
+            return null;
+        }
+        synchronized (this) {
+            if (version == aliasesVersion.get()) {
+                aliases = current;
+            }
+        }
+        return current;
+    }
+
+    private void cachedSearch(SearchRequest request, ActionListener<SearchResponse> listener) {
+        SearchResultCache.Key key = key(request);
+        if (key == null) {
+            super.doExecute(SearchAction.INSTANCE, request, listener);
+            return;
+        }
+        SearchResponse cached = cache.get(key);
+        if (cached != null) {
+            listener.onResponse(cached);
+            return;
+        }
+        long generation = cache.generation();
+        super.doExecute(SearchAction.INSTANCE, request, new ActionListener<SearchResponse>() {
+            @Override
+            public void onResponse(SearchResponse response) {
+                // 有分片失败或者超时的结果是不完整的，不进行缓存
+                if (response.getFailedShards() == 0 && !response.isTimedOut()) {
+                    cache.put(key, response, generation);
+                }
+                listener.onResponse(response);
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                listener.onFailure(e);
+            }
+        });
+    }
+
+    /**
+     * 构建缓存的key，查询的别名被解析成实际的索引，无法加载别名信息时返回null，即不缓存
+     */
+    private SearchResultCache.Key key(SearchRequest request) {
+        if (request.indices() == null || request.indices().length == 0) {
+            return SearchResultCache.Key.of(request);
+        }
+        Set<String> resolved = resolve(Arrays.asList(request.indices()));
+        if (resolved == null) {
+            return null;
+        }
+        return SearchResultCache.Key.of(request, resolved.toArray(new String[resolved.size()]));
+    }
+
+    /**
+     * 获取写请求涉及到的索引和别名，不是写请求时返回null
+     */
+    static Set<String> writtenIndices(ActionRequest request) {
+        if (request instanceof IndexRequest) {
+            return singleton(((IndexRequest) request).index());
+        } else if (request instanceof UpdateRequest) {
+            return singleton(((UpdateRequest) request).index());
+        } else if (request instanceof DeleteRequest) {
+            return singleton(((DeleteRequest) request).index());
+        } else if (request instanceof BulkRequest) {
+            Set<String> indices = new HashSet<>();
+            for (ActionRequest item : ((BulkRequest) request).requests()) {
+                Set<String> itemIndices = writtenIndices(item);
+                if (itemIndices != null) {
+                    indices.addAll(itemIndices);
+                }
+            }
+            return indices;
+        } else if (request instanceof RefreshRequest) {
+            // refresh之后之前写入的数据才能被查询到
+            return indices(((RefreshRequest) request).indices());
+        } else if (request instanceof DeleteIndexRequest) {
+            return singleton("_all");
+        } else if (request instanceof CreateIndexRequest) {
+            // 同名的索引或别名之前可能被查询过
+            Set<String> indices = singleton(((CreateIndexRequest) request).index());
+            for (Alias alias : ((CreateIndexRequest) request).aliases()) {
+                indices.add(alias.name());
+            }
+            return indices;
+        } else if (request instanceof IndicesAliasesRequest) {
+            Set<String> indices = new HashSet<>();
+            for (IndicesAliasesRequest.AliasActions actions : ((IndicesAliasesRequest) request).getAliasActions()) {
+                indices.addAll(indices(actions.indices()));
+                indices.addAll(indices(actions.aliases()));
+            }
+            return indices;
+        }
+        return null;
+    }
+
+    /**
+     * 创建索引、删除索引和修改别名之后别名信息需要重新加载
+     */
+    static boolean changesAliases(ActionRequest request) {
+        return request instanceof CreateIndexRequest || request instanceof DeleteIndexRequest
+                || request instanceof IndicesAliasesRequest;
+    }
+
+    private static Set<String> indices(String[] indices) {
+        if (indices == null || indices.length == 0) {
+            return singleton("_all");
+        }
+        return new HashSet<>(Arrays.asList(indices));
+    }
+
+    private static Set<String> singleton(String index) {
+        Set<String> indices = new HashSet<>();
+        indices.add(index);
+        return indices;
+    }
+}
@@ -0,0 +1,267 @@
+package cn.xpleaf.bigdata.elasticsearch.cache;
+
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 客户端的查询结果缓存
+ * 1.key为查询请求序列化之后的字节（查询的索引、类型、searchType、routing、preference和SearchSourceBuilder）
+ * 2.按LRU淘汰，同时限制缓存的条数和占用的字节数
+ * 3.每条缓存都有过期时间
+ * 4.通过invalidate(indices)使涉及到这些索引的缓存失效，别名由调用方解析成实际的索引
+ */
+public class SearchResultCache {
+
+    private final int maxEntries;
+    private final long maxWeight;
+    private final long ttlMillis;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    // 每次失效操作都会加1，用于判断查询执行期间是否有写操作
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong expiredCount = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    /**
+     * @param maxEntries 最多缓存的查询结果数
+     * @param maxWeight  所有查询结果序列化之后最多占用的字节数
+     * @param ttl        每条缓存的过期时间
+     */
+    public SearchResultCache(int maxEntries, long maxWeight, TimeValue ttl) {
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.ttlMillis = ttl.millis();
+    }
+
+    public synchronized SearchResponse get(Key key) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expireAt <= System.currentTimeMillis()) {
+            remove(key);
+            expiredCount.incrementAndGet();
+            entry = null;
+        }
+        if (entry == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return entry.response;
+    }
+
+    /**
+     * 放入缓存
+     *
+     * @param generation 查询开始之前通过generation()获取的值，如果查询期间发生了失效操作，则不缓存该结果
+     */
+    public void put(Key key, SearchResponse response, long generation) {
+        long size = sizeOf(response);
+        if (size > maxWeight) {
+            return;
+        }
+        synchronized (this) {
+            if (generation != this.generation.get()) {
+                return;
+            }
+            remove(key);
+            entries.put(key, new Entry(response, size, System.currentTimeMillis() + ttlMillis));
+            weight += size;
+            Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+            while ((entries.size() > maxEntries || weight > maxWeight) && it.hasNext()) {
+                Map.Entry<Key, Entry> eldest = it.next();
+                weight -= eldest.getValue().weight;
+                it.remove();
+                evictionCount.incrementAndGet();
+            }
+        }
+    }
+
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * 使查询了这些索引的缓存失效，查询了所有索引或者使用了通配符的缓存也会失效，
+     * indices中包含_all或者通配符时所有缓存都会失效
+     */
+    public synchronized void invalidate(Collection<String> indices) {
+        generation.incrementAndGet();
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Entry> me = it.next();
+            if (me.getKey().matches(indices)) {
+                weight -= me.getValue().weight;
+                it.remove();
+                invalidationCount.incrementAndGet();
+            }
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        generation.incrementAndGet();
+        invalidationCount.addAndGet(entries.size());
+        entries.clear();
+        weight = 0;
+    }
+
+    private void remove(Key key) {
+        Entry old = entries.remove(key);
+        if (old != null) {
+            weight -= old.weight;
+        }
+    }
+
+    private static long sizeOf(SearchResponse response) {
+        try (BytesStreamOutput out = new BytesStreamOutput()) {
+            response.writeTo(out);
+            return out.size();
+        } catch (IOException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long weight() {
+        return weight;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    public double getHitRate() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return "SearchResultCache{size=" + size() + ", weight=" + weight() + ", hits=" + getHitCount()
+                + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount() + ", expired=" + getExpiredCount()
+                + ", invalidations=" + getInvalidationCount() + "}";
+    }
+
+    private static class Entry {
+        private final SearchResponse response;
+        private final long weight;
+        private final long expireAt;
+
+        Entry(SearchResponse response, long weight, long expireAt) {
+            this.response = response;
+            this.weight = weight;
+            this.expireAt = expireAt;
+        }
+    }
+
+    /**
+     * 缓存的key
+     */
+    public static class Key {
+        private final String[] indices;
+        private final byte[] bytes;
+        private final int hashCode;
+
+        private Key(String[] indices, byte[] bytes) {
+            this.indices = indices;
+            this.bytes = bytes;
+            this.hashCode = Arrays.hashCode(bytes);
+        }
+
+        /**
+         * 根据查询请求构建key，scroll请求返回null，即不缓存
+         */
+        public static Key of(SearchRequest request) {
+            return of(request, request.indices());
+        }
+
+        /**
+         * @param indices 使该缓存失效的索引，例如查询的别名和别名指向的索引，为null时任何写操作都会使其失效
+         */
+        public static Key of(SearchRequest request, String[] indices) {
+            if (request.scroll() != null) {
+                return null;
+            }
+            try (BytesStreamOutput out = new BytesStreamOutput()) {
+                out.writeStringArrayNullable(request.indices());
+                out.writeStringArrayNullable(request.types());
+                out.writeByte(request.searchType().id());
+                out.writeOptionalString(request.routing());
+                out.writeOptionalString(request.preference());
+                writeBytes(out, request.source());
+                writeBytes(out, request.extraSource());
+                writeBytes(out, request.templateSource());
+                return new Key(indices, out.bytes().toBytes());
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        private static void writeBytes(BytesStreamOutput out, BytesReference bytes) throws IOException {
+            out.writeBoolean(bytes != null);
+            if (bytes != null) {
+                out.writeBytesReference(bytes);
+            }
+        }
+
+        boolean matches(Collection<String> written) {
+            if (indices == null || indices.length == 0) {
+                return true;
+            }
+            for (String index : written) {
+                if ("_all".equals(index) || index.contains("*")) {
+                    return true;
+                }
+            }
+            for (String index : indices) {
+                if ("_all".equals(index) || index.contains("*") || written.contains(index)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && hashCode == ((Key) o).hashCode && Arrays.equals(bytes, ((Key) o).bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package cn.xpleaf.bigdata.elasticsearch.chinese;
+
+import org.elasticsearch.action.admin.indices.analyze.AnalyzeResponse;
+import org.elasticsearch.client.Client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 使用es的_analyze进行分词，每次分词都是一次到集群的请求，一般与CachingSegmenter一起使用
+ * analyzer可以是内置的cjk、standard，也可以是集群上安装的分词插件提供的，如IK的ik_max_word、ik_smart
+ */
+public class AnalyzeSegmenter implements Segmenter {
+
+    private final Client client;
+    private final String analyzer;
+
+    public AnalyzeSegmenter(Client client, String analyzer) {
+        this.client = client;
+        this.analyzer = analyzer;
+    }
+
+    public String getAnalyzer() {
+        return analyzer;
+    }
+
+    @Override
+    public List<String> segment(String text) {
+        AnalyzeResponse response = client.admin().indices().prepareAnalyze(text).setAnalyzer(analyzer).get();
+        List<String> tokens = new ArrayList<>(response.getTokens().size());
+        for (AnalyzeResponse.AnalyzeToken token : response.getTokens()) {
+            tokens.add(token.getTerm());
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,64 @@
+package cn.xpleaf.bigdata.elasticsearch.chinese;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分词结果的LRU缓存
+ * 查询字符串的重复度很高，缓存之后相同的查询不需要再次分词，
+ * 对于AnalyzeSegmenter就是省去了一次_analyze请求
+ */
+public class CachingSegmenter implements Segmenter {
+
+    private final Segmenter delegate;
+    private final int maxEntries;
+    private final Map<String, List<String>> cache;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public CachingSegmenter(Segmenter delegate, int maxEntries) {
+        this.delegate = delegate;
+        this.maxEntries = maxEntries;
+        this.cache = new LinkedHashMap<String, List<String>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<String>> eldest) {
+                return size() > CachingSegmenter.this.maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public List<String> segment(String text) {
+        synchronized (cache) {
+            List<String> tokens = cache.get(text);
+            if (tokens != null) {
+                hitCount.incrementAndGet();
+                return tokens;
+            }
+        }
+        missCount.incrementAndGet();
+        // 分词可能是一次远程请求，不在锁内进行
+        List<String> tokens = Collections.unmodifiableList(delegate.segment(text));
+        synchronized (cache) {
+            cache.put(text, tokens);
+        }
+        return tokens;
+    }
+
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+}
@@ -0,0 +1,119 @@
+package cn.xpleaf.bigdata.elasticsearch.chinese;
+
+import cn.xpleaf.bigdata.elasticsearch.client.ClientConfig;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.index.query.MatchQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 客户端分词：
+ *      写入时在客户端分好词，以空格分隔写入content_seg字段，es端只需要按空格切分，
+ *      批量导入时分词的开销由客户端承担，不占用es节点的CPU
+ *      查询时使用同一个分词器切分查询字符串，match/match_phrase都是按词而不是按字进行匹配，
+ *      短语查询不会再匹配到跨词的相邻汉字（“中国”不会匹配“发展中国家”中的“中国”）
+ *
+ * 分词器由配置chinese.segmenter指定：
+ *      cjk                 CjkBigramSegmenter
+ *      dictionary          DictionarySegmenter，使用默认词典
+ *      其它                作为分析器名称使用AnalyzeSegmenter，如ik_max_word
+ * 只有查询字符串的分词结果由CachingSegmenter缓存，缓存大小为chinese.cache_size；
+ * 写入时的文档内容很少重复，而且整篇文档作为缓存的key会占用大量内存，所以不经过缓存
+ */
+public class ChineseAnalysis {
+
+    private final Segmenter indexSegmenter;
+    private final Segmenter querySegmenter;
+
+    /**
+     * 写入和查询使用同一个分词器
+     */
+    public ChineseAnalysis(Segmenter segmenter) {
+        this(segmenter, segmenter);
+    }
+
+    /**
+     * @param indexSegmenter 写入时切分文档内容的分词器
+     * @param querySegmenter 查询时切分查询字符串的分词器，两者的分词结果必须一致
+     */
+    public ChineseAnalysis(Segmenter indexSegmenter, Segmenter querySegmenter) {
+        this.indexSegmenter = indexSegmenter;
+        this.querySegmenter = querySegmenter;
+    }
+
+    public static ChineseAnalysis fromConfig(Client client, ClientConfig config) {
+        Segmenter segmenter = createSegmenter(client, config.getChineseSegmenter());
+        return new ChineseAnalysis(segmenter, new CachingSegmenter(segmenter, config.getChineseCacheSize()));
+    }
+
+    static Segmenter createSegmenter(Client client, String name) {
+        switch (name) {
+            case "cjk":
+                return new CjkBigramSegmenter();
+            case "dictionary":
+                return DictionarySegmenter.withDefaultDictionary();
+            default:
+                return new AnalyzeSegmenter(client, name);
+        }
+    }
+
+    public Segmenter getIndexSegmenter() {
+        return indexSegmenter;
+    }
+
+    public Segmenter getQuerySegmenter() {
+        return querySegmenter;
+    }
+
+    /**
+     * 使用查询的分词器分词并以空格连接
+     */
+    public String segmentToString(String text) {
+        return join(querySegmenter.segment(text));
+    }
+
+    private static String join(List<String> tokens) {
+        return String.join(" ", tokens);
+    }
+
+    /**
+     * 在_source中加入content字段的分词结果
+     */
+    public Map<String, Object> pretokenize(Map<String, Object> source) {
+        Object content = source.get(ChineseIndexTemplate.CONTENT_FIELD);
+        if (content != null) {
+            source.put(ChineseIndexTemplate.SEGMENTED_FIELD, join(indexSegmenter.segment(content.toString())));
+        }
+        return source;
+    }
+
+    /**
+     * 构建写入chinese*索引的请求，content为原文
+     */
+    public IndexRequest indexRequest(String index, String type, String id, String content) {
+        Map<String, Object> source = new HashMap<>();
+        source.put(ChineseIndexTemplate.CONTENT_FIELD, content);
+        return new IndexRequest(index, type, id).source(pretokenize(source));
+    }
+
+    /**
+     * 包含查询字符串中所有的词
+     */
+    public MatchQueryBuilder match(String text) {
+        return QueryBuilders.matchQuery(ChineseIndexTemplate.SEGMENTED_FIELD, segmentToString(text))
+                .analyzer("whitespace")
+                .operator(MatchQueryBuilder.Operator.AND);
+    }
+
+    /**
+     * 按词的短语查询
+     */
+    public MatchQueryBuilder matchPhrase(String text) {
+        return QueryBuilders.matchPhraseQuery(ChineseIndexTemplate.SEGMENTED_FIELD, segmentToString(text))
+                .analyzer("whitespace");
+    }
+}
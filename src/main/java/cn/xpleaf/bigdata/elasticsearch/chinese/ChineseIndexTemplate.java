@@ -0,0 +1,64 @@
+package cn.xpleaf.bigdata.elasticsearch.chinese;
+
+import cn.xpleaf.bigdata.elasticsearch.index.IndexDefinition;
+import org.elasticsearch.action.admin.indices.template.put.PutIndexTemplateResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.xcontent.XContentHelper;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * chinese*索引的模板，在IndexDefinition.CHINESE的基础上：
+ *      content             使用指定的分词器，内置的cjk（二元切分）或者插件提供的ik_max_word等
+ *      content_seg         客户端预先分好的词，以空格分隔，使用whitespace分词器，见ChineseAnalysis
+ *
+ * 使用模板之后，第一次写入数据时自动创建的chinese、chinese_2017等索引都会使用该配置，
+ * 已经存在的索引不受影响
+ */
+public class ChineseIndexTemplate {
+
+    public static final String NAME = "chinese";
+    public static final String PATTERN = "chinese*";
+    public static final String CONTENT_FIELD = "content";
+    public static final String SEGMENTED_FIELD = "content_seg";
+
+    private final Client client;
+
+    public ChineseIndexTemplate(Client client) {
+        this.client = client;
+    }
+
+    /**
+     * 创建或覆盖模板
+     *
+     * @param analyzer content字段使用的分词器
+     */
+    public void put(String analyzer) {
+        PutIndexTemplateResponse response = client.admin().indices().preparePutTemplate(NAME)
+                .setSource(buildSource(analyzer))
+                .get();
+        if (!response.isAcknowledged()) {
+            throw new IllegalStateException("创建索引模板[" + NAME + "]没有被所有节点确认");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> buildSource(String analyzer) {
+        Map<String, Object> source = XContentHelper.convertToMap(new BytesArray(IndexDefinition.CHINESE.loadSource()), true).v2();
+        source.put("template", PATTERN);
+        Map<String, Object> mappings = (Map<String, Object>) source.get("mappings");
+        Map<String, Object> properties = (Map<String, Object>) ((Map<String, Object>) mappings.get("_default_")).get("properties");
+
+        Map<String, Object> content = (Map<String, Object>) properties.get(CONTENT_FIELD);
+        content.put("analyzer", analyzer);
+
+        Map<String, Object> segmented = new HashMap<>();
+        segmented.put("type", "string");
+        // 预分词时已经转为小写，按空格切分即可
+        segmented.put("analyzer", "whitespace");
+        properties.put(SEGMENTED_FIELD, segmented);
+        return source;
+    }
+}
@@ -0,0 +1,48 @@
+package cn.xpleaf.bigdata.elasticsearch.chinese;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 二元切分：连续的汉字两两组成一个词（中华人民 ---> 中华 华人 人民），
+ * 单独的一个汉字作为一个词，字母和数字按单词切分并转为小写，其它字符作为分隔符
+ */
+public class CjkBigramSegmenter implements Segmenter {
+
+    @Override
+    public List<String> segment(String text) {
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+        int length = text.length();
+        while (i < length) {
+            char c = text.charAt(i);
+            if (isCjk(c)) {
+                int start = i;
+                while (i < length && isCjk(text.charAt(i))) {
+                    i++;
+                }
+                if (i - start == 1) {
+                    tokens.add(text.substring(start, i));
+                } else {
+                    for (int j = start; j < i - 1; j++) {
+                        tokens.add(text.substring(j, j + 2));
+                    }
+                }
+            } else if (Character.isLetterOrDigit(c)) {
+                int start = i;
+                while (i < length && Character.isLetterOrDigit(text.charAt(i)) && !isCjk(text.charAt(i))) {
+                    i++;
+                }
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+            } else {
+                i++;
+            }
+        }
+        return tokens;
+    }
+
+    static boolean isCjk(char c) {
+        return Character.UnicodeScript.of(c) == Character.UnicodeScript.HAN;
+    }
+}
@@ -0,0 +1,88 @@
+package cn.xpleaf.bigdata.elasticsearch.chinese;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 基于词典的正向最大匹配分词，即IK等分词器的基本思路：
+ * 从左到右，每次取词典中能匹配到的最长的词，匹配不到时单个汉字作为一个词，
+ * 字母和数字按单词切分并转为小写
+ *
+ * 默认词典为classpath下的chinese/words.txt，每行一个词，#开头的为注释
+ */
+public class DictionarySegmenter implements Segmenter {
+
+    public static final String DEFAULT_DICTIONARY = "chinese/words.txt";
+
+    private final Set<String> words;
+    private final int maxWordLength;
+
+    public DictionarySegmenter(Collection<String> words) {
+        this.words = new HashSet<>(words);
+        int max = 1;
+        for (String word : words) {
+            max = Math.max(max, word.length());
+        }
+        this.maxWordLength = max;
+    }
+
+    public static DictionarySegmenter fromResource(String resource) {
+        List<String> words = new ArrayList<>();
+        try (InputStream in = DictionarySegmenter.class.getClassLoader().getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalStateException("找不到词典: " + resource);
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    words.add(line);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("无法读取词典: " + resource, e);
+        }
+        return new DictionarySegmenter(words);
+    }
+
+    public static DictionarySegmenter withDefaultDictionary() {
+        return fromResource(DEFAULT_DICTIONARY);
+    }
+
+    @Override
+    public List<String> segment(String text) {
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+        int length = text.length();
+        while (i < length) {
+            char c = text.charAt(i);
+            if (CjkBigramSegmenter.isCjk(c)) {
+                int end = Math.min(length, i + maxWordLength);
+                while (end > i + 1 && !words.contains(text.substring(i, end))) {
+                    end--;
+                }
+                tokens.add(text.substring(i, end));
+                i = end;
+            } else if (Character.isLetterOrDigit(c)) {
+                int start = i;
+                while (i < length && Character.isLetterOrDigit(text.charAt(i)) && !CjkBigramSegmenter.isCjk(text.charAt(i))) {
+                    i++;
+                }
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+            } else {
+                i++;
+            }
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,22 @@
+package cn.xpleaf.bigdata.elasticsearch.chinese;
+
+import java.util.List;
+
+/**
+ * 中文分词器
+ * ElasticSearchTest3中提到的标准分词器会把中文切分为单个汉字，
+ * 索引时每个汉字一个词，倒排表很长，短语查询也只能按字匹配
+ *
+ * 实现：
+ *      CjkBigramSegmenter      客户端的二元切分，与es内置的cjk分析器一致
+ *      DictionarySegmenter     客户端基于词典的正向最大匹配
+ *      AnalyzeSegmenter        调用es的_analyze，可以使用集群上安装的IK等分词插件
+ *      CachingSegmenter        对任意分词器的结果进行LRU缓存
+ */
+public interface Segmenter {
+
+    /**
+     * 切分文本，返回的词已经转为小写
+     */
+    List<String> segment(String text);
+}
@@ -0,0 +1,142 @@
+package cn.xpleaf.bigdata.elasticsearch.client;
+
+import lombok.Getter;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * es客户端的配置信息
+ * 默认从classpath下的es-client.properties中读取，
+ * 再使用前缀为es-client.的系统属性进行覆盖，例如：
+ *      -Des-client.client.mode=local
+ *      -Des-client.cluster.nodes=localhost:9300
+ */
+@Getter
+public class ClientConfig {
+
+    public static final String DEFAULT_RESOURCE = "es-client.properties";
+    public static final String SYSTEM_PREFIX = "es-client.";
+
+    public enum Mode {
+        TRANSPORT, LOCAL
+    }
+
+    private final Mode mode;
+    private final String clusterName;
+    private final List<String> nodes;
+    private final boolean sniff;
+    private final TimeValue pingTimeout;
+    private final TimeValue nodesSamplerInterval;
+    private final boolean warmUp;
+    private final TimeValue warmUpTimeout;
+    private final int localNodes;
+    private final String localPathHome;
+    private final boolean cacheEnabled;
+    private final int cacheMaxEntries;
+    private final ByteSizeValue cacheMaxBytes;
+    private final TimeValue cacheTtl;
+    private final boolean metricsEnabled;
+    private final boolean metricsMeasureBytes;
+    private final boolean metricsJmx;
+    private final TimeValue metricsReportInterval;
+    private final String metricsReportFile;
+    private final boolean searchPlan;
+    private final long searchPlanSmallIndexDocs;
+    private final boolean searchRewriteFilters;
+    private final boolean searchRewriteSubstring;
+    private final boolean routingEnabled;
+    private final String routingSearchPreference;
+    private final TimeValue routingRefreshInterval;
+    private final String chineseSegmenter;
+    private final String chineseAnalyzer;
+    private final int chineseCacheSize;
+
+    public ClientConfig(Properties props) {
+        this.mode = Mode.valueOf(props.getProperty("client.mode", "transport").trim().toUpperCase());
+        this.clusterName = props.getProperty("cluster.name", "elasticsearch").trim();
+        this.nodes = new ArrayList<>();
+        for (String node : props.getProperty("cluster.nodes", "localhost:9300").split(",")) {
+            if (!node.trim().isEmpty()) {
+                nodes.add(node.trim());
+            }
+        }
+        this.sniff = Boolean.parseBoolean(props.getProperty("client.transport.sniff", "false").trim());
+        this.pingTimeout = TimeValue.parseTimeValue(props.getProperty("client.transport.ping_timeout", "5s").trim(),
+                null, "client.transport.ping_timeout");
+        this.nodesSamplerInterval = TimeValue.parseTimeValue(props.getProperty("client.transport.nodes_sampler_interval", "5s").trim(),
+                null, "client.transport.nodes_sampler_interval");
+        this.warmUp = Boolean.parseBoolean(props.getProperty("client.warmup", "true").trim());
+        this.warmUpTimeout = TimeValue.parseTimeValue(props.getProperty("client.warmup.timeout", "30s").trim(),
+                null, "client.warmup.timeout");
+        this.localNodes = Integer.parseInt(props.getProperty("local.nodes", "1").trim());
+        this.localPathHome = props.getProperty("local.path.home", "").trim();
+        this.cacheEnabled = Boolean.parseBoolean(props.getProperty("client.cache.enabled", "false").trim());
+        this.cacheMaxEntries = Integer.parseInt(props.getProperty("client.cache.max_entries", "1000").trim());
+        this.cacheMaxBytes = ByteSizeValue.parseBytesSizeValue(props.getProperty("client.cache.max_bytes", "64mb").trim(),
+                "client.cache.max_bytes");
+        this.cacheTtl = TimeValue.parseTimeValue(props.getProperty("client.cache.ttl", "1m").trim(),
+                null, "client.cache.ttl");
+        this.metricsEnabled = Boolean.parseBoolean(props.getProperty("client.metrics.enabled", "false").trim());
+        this.metricsMeasureBytes = Boolean.parseBoolean(props.getProperty("client.metrics.measure_bytes", "true").trim());
+        this.metricsJmx = Boolean.parseBoolean(props.getProperty("client.metrics.jmx", "true").trim());
+        this.metricsReportInterval = TimeValue.parseTimeValue(props.getProperty("client.metrics.report_interval", "0").trim(),
+                null, "client.metrics.report_interval");
+        this.metricsReportFile = props.getProperty("client.metrics.report_file", "").trim();
+        this.searchPlan = Boolean.parseBoolean(props.getProperty("client.search.plan", "false").trim());
+        this.searchPlanSmallIndexDocs = Long.parseLong(props.getProperty("client.search.plan.small_index_docs", "100000").trim());
+        this.searchRewriteFilters = Boolean.parseBoolean(props.getProperty("client.search.rewrite_filters", "false").trim());
+        this.searchRewriteSubstring = Boolean.parseBoolean(props.getProperty("client.search.rewrite_substring", "false").trim());
+        this.routingEnabled = Boolean.parseBoolean(props.getProperty("client.routing.enabled", "false").trim());
+        this.routingSearchPreference = props.getProperty("client.routing.search_preference", "").trim();
+        this.routingRefreshInterval = TimeValue.parseTimeValue(props.getProperty("client.routing.refresh_interval", "30s").trim(),
+                null, "client.routing.refresh_interval");
+        this.chineseSegmenter = props.getProperty("chinese.segmenter", "cjk").trim();
+        this.chineseAnalyzer = props.getProperty("chinese.analyzer", "cjk").trim();
+        this.chineseCacheSize = Integer.parseInt(props.getProperty("chinese.cache_size", "10000").trim());
+    }
+
+    /**
+     * 读取classpath下的默认配置，并使用系统属性进行覆盖
+     */
+    public static ClientConfig load() {
+        return load(DEFAULT_RESOURCE, System.getProperties());
+    }
+
+    public static ClientConfig load(String resource, Properties overrides) {
+        Properties props = new Properties();
+        try (InputStream in = ClientConfig.class.getClassLoader().getResourceAsStream(resource)) {
+            if (in != null) {
+                props.load(in);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("无法读取es客户端配置文件: " + resource, e);
+        }
+        for (Map.Entry<Object, Object> me : overrides.entrySet()) {
+            String key = String.valueOf(me.getKey());
+            if (key.startsWith(SYSTEM_PREFIX)) {
+                props.setProperty(key.substring(SYSTEM_PREFIX.length()), String.valueOf(me.getValue()));
+            }
+        }
+        return new ClientConfig(props);
+    }
+
+    /**
+     * 构建TransportClient使用的Settings
+     */
+    public Settings transportSettings() {
+        return Settings.builder()
+                .put("cluster.name", clusterName)
+                .put("client.transport.sniff", sniff)
+                .put("client.transport.ping_timeout", pingTimeout.millis() + "ms")
+                .put("client.transport.nodes_sampler_interval", nodesSamplerInterval.millis() + "ms")
+                .build();
+    }
+}
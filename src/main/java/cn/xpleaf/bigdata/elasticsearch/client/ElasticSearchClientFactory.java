@@ -0,0 +1,230 @@
+package cn.xpleaf.bigdata.elasticsearch.client;
+
+import cn.xpleaf.bigdata.elasticsearch.cache.CachingClient;
+import cn.xpleaf.bigdata.elasticsearch.cache.SearchResultCache;
+import cn.xpleaf.bigdata.elasticsearch.metrics.ClientMetrics;
+import cn.xpleaf.bigdata.elasticsearch.metrics.MetricsClient;
+import cn.xpleaf.bigdata.elasticsearch.routing.RoutingClient;
+import cn.xpleaf.bigdata.elasticsearch.routing.ShardRouter;
+import cn.xpleaf.bigdata.elasticsearch.routing.TransportNodeClients;
+import cn.xpleaf.bigdata.elasticsearch.search.FilterRewritingClient;
+import cn.xpleaf.bigdata.elasticsearch.search.PlanningClient;
+import cn.xpleaf.bigdata.elasticsearch.search.SearchTypePlanner;
+import cn.xpleaf.bigdata.elasticsearch.search.SubstringRewritingClient;
+import org.elasticsearch.action.admin.cluster.health.ClusterHealthResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.transport.InetSocketTransportAddress;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+/**
+ * es客户端工厂
+ * TransportClient是线程安全的，并且创建的代价很大（建立连接、握手、嗅探集群节点），
+ * 所以整个JVM中只需要一个实例，由该工厂统一创建、预热和关闭
+ *
+ * 使用方式：
+ *      Client client = ElasticSearchClientFactory.getInstance().getClient();
+ * 注意不要调用client.close()，而是在应用退出时调用factory的close()，
+ * 或者依赖注册的shutdown hook
+ */
+public class ElasticSearchClientFactory implements AutoCloseable {
+
+    private static volatile ElasticSearchClientFactory instance;
+
+    private final ClientConfig config;
+    private volatile Client client;
+    private LocalCluster localCluster;
+    private ClientMetrics metrics;
+    private Thread shutdownHook;
+
+    public ElasticSearchClientFactory(ClientConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * 获取全局唯一的工厂实例，配置使用ClientConfig.load()
+     */
+    public static ElasticSearchClientFactory getInstance() {
+        if (instance == null) {
+            synchronized (ElasticSearchClientFactory.class) {
+                if (instance == null) {
+                    instance = new ElasticSearchClientFactory(ClientConfig.load());
+                }
+            }
+        }
+        return instance;
+    }
+
+    public ClientConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * 获取客户端，第一次调用时创建并预热
+     */
+    public Client getClient() {
+        if (client == null) {
+            synchronized (this) {
+                if (client == null) {
+                    Client newClient = create();
+                    if (config.isWarmUp()) {
+                        try {
+                            warmUp(newClient);
+                        } catch (RuntimeException e) {
+                            // 预热失败时释放已经创建的客户端和内嵌集群，下一次调用时重新创建
+                            newClient.close();
+                            if (localCluster != null) {
+                                localCluster.close();
+                                localCluster = null;
+                            }
+                            throw e;
+                        }
+                    }
+                    if (config.isRoutingEnabled() && config.getMode() == ClientConfig.Mode.TRANSPORT) {
+                        // 在最内层，其它包装的客户端看到的都是分发之后的请求
+                        String preference = config.getRoutingSearchPreference().isEmpty()
+                                ? UUID.randomUUID().toString() : config.getRoutingSearchPreference();
+                        newClient = new RoutingClient(newClient, new ShardRouter(newClient, config.getRoutingRefreshInterval()),
+                                new TransportNodeClients((TransportClient) newClient), preference);
+                    }
+                    if (config.isMetricsEnabled()) {
+                        // 在缓存之内统计，只记录真正发送到es的请求
+                        metrics = createMetrics();
+                        newClient = new MetricsClient(newClient, metrics, config.isMetricsMeasureBytes());
+                    }
+                    if (config.isSearchPlan()) {
+                        newClient = new PlanningClient(newClient, new SearchTypePlanner(config.getSearchPlanSmallIndexDocs()),
+                                TimeValue.timeValueMinutes(1));
+                    }
+                    if (config.isSearchRewriteFilters()) {
+                        newClient = new FilterRewritingClient(newClient);
+                    }
+                    if (config.isSearchRewriteSubstring()) {
+                        newClient = new SubstringRewritingClient(newClient);
+                    }
+                    if (config.isCacheEnabled()) {
+                        newClient = new CachingClient(newClient, new SearchResultCache(config.getCacheMaxEntries(),
+                                config.getCacheMaxBytes().bytes(), config.getCacheTtl()));
+                    }
+                    shutdownHook = new Thread(this::close, "es-client-shutdown");
+                    Runtime.getRuntime().addShutdownHook(shutdownHook);
+                    client = newClient;
+                }
+            }
+        }
+        return client;
+    }
+
+    /**
+     * local模式下可以获取到内嵌的集群，transport模式下返回null
+     */
+    public LocalCluster getLocalCluster() {
+        getClient();
+        return localCluster;
+    }
+
+    /**
+     * 开启统计时返回客户端的统计数据，否则返回null
+     */
+    public ClientMetrics getMetrics() {
+        getClient();
+        return metrics;
+    }
+
+    private ClientMetrics createMetrics() {
+        ClientMetrics newMetrics = new ClientMetrics();
+        if (config.isMetricsJmx()) {
+            newMetrics.registerMBean(config.getClusterName());
+        }
+        if (config.getMetricsReportInterval().millis() > 0) {
+            if (config.getMetricsReportFile().isEmpty()) {
+                ESLogger logger = Loggers.getLogger(ClientMetrics.class);
+                newMetrics.startReporting(config.getMetricsReportInterval(), json -> logger.info("{}", json));
+            } else {
+                newMetrics.startReporting(config.getMetricsReportInterval(), json -> {
+                    try {
+                        Files.write(Paths.get(config.getMetricsReportFile()), (json + "\n").getBytes(StandardCharsets.UTF_8),
+                                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                    } catch (IOException e) {
+                        throw new IllegalStateException("无法写入统计数据: " + config.getMetricsReportFile(), e);
+                    }
+                });
+            }
+        }
+        return newMetrics;
+    }
+
+    private Client create() {
+        try {
+            if (config.getMode() == ClientConfig.Mode.LOCAL) {
+                localCluster = new LocalCluster(config.getClusterName(), config.getLocalNodes(), config.getLocalPathHome());
+                return localCluster.client();
+            }
+            TransportClient transportClient = TransportClient.builder().settings(config.transportSettings()).build();
+            for (String node : config.getNodes()) {
+                transportClient.addTransportAddress(toAddress(node));
+            }
+            return transportClient;
+        } catch (IOException e) {
+            throw new IllegalStateException("创建es客户端失败", e);
+        }
+    }
+
+    private static InetSocketTransportAddress toAddress(String node) throws UnknownHostException {
+        int idx = node.lastIndexOf(':');
+        String host = idx < 0 ? node : node.substring(0, idx);
+        int port = idx < 0 ? 9300 : Integer.parseInt(node.substring(idx + 1));
+        return new InetSocketTransportAddress(InetAddress.getByName(host), port);
+    }
+
+    /**
+     * 预热：等待集群至少为yellow状态，并拉取一次节点信息，
+     * 这样连接和嗅探的开销就不会落在第一个业务请求上
+     */
+    private void warmUp(Client newClient) {
+        ClusterHealthResponse health = newClient.admin().cluster().prepareHealth()
+                .setWaitForYellowStatus()
+                .setTimeout(config.getWarmUpTimeout())
+                .get();
+        if (health.isTimedOut()) {
+            throw new IllegalStateException("es集群[" + config.getClusterName() + "]在" + config.getWarmUpTimeout()
+                    + "内没有达到yellow状态，当前状态为" + health.getStatus());
+        }
+        newClient.admin().cluster().prepareNodesInfo().get();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (client != null) {
+            client.close();
+            client = null;
+        }
+        if (metrics != null) {
+            metrics.close();
+            metrics = null;
+        }
+        if (localCluster != null) {
+            localCluster.close();
+            localCluster = null;
+        }
+        if (shutdownHook != null && Thread.currentThread() != shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // JVM已经在关闭中
+            }
+        }
+        shutdownHook = null;
+    }
+}
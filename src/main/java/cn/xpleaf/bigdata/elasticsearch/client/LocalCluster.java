@@ -0,0 +1,88 @@
+package cn.xpleaf.bigdata.elasticsearch.client;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.node.NodeBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 在当前JVM中启动的local模式es集群
+ * 节点之间使用LocalTransport通信，不需要网络，也不对外开放http端口，
+ * 主要用于离线测试和benchmark
+ */
+public class LocalCluster implements AutoCloseable {
+
+    private final String clusterName;
+    private final Path home;
+    private final boolean tempHome;
+    private final List<Node> nodes = new ArrayList<>();
+
+    public LocalCluster(String clusterName, int numberOfNodes, String pathHome) throws IOException {
+        if (numberOfNodes < 1) {
+            throw new IllegalArgumentException("local集群至少需要1个节点，但是为[" + numberOfNodes + "]");
+        }
+        this.clusterName = clusterName;
+        this.tempHome = pathHome == null || pathHome.isEmpty();
+        this.home = tempHome ? Files.createTempDirectory("es-local-") : new File(pathHome).toPath();
+        for (int i = 0; i < numberOfNodes; i++) {
+            Settings settings = Settings.builder()
+                    .put("path.home", home.toString())
+                    .put("node.name", clusterName + "-node-" + i)
+                    .put("http.enabled", false)
+                    .build();
+            nodes.add(NodeBuilder.nodeBuilder()
+                    .local(true)
+                    .clusterName(clusterName)
+                    .settings(settings)
+                    .node());
+        }
+    }
+
+    public String getClusterName() {
+        return clusterName;
+    }
+
+    public List<Node> getNodes() {
+        return Collections.unmodifiableList(nodes);
+    }
+
+    /**
+     * 获取第一个节点的客户端，所有的请求都由该节点进行转发
+     */
+    public Client client() {
+        return nodes.get(0).client();
+    }
+
+    public Client client(int i) {
+        return nodes.get(i).client();
+    }
+
+    @Override
+    public void close() {
+        for (Node node : nodes) {
+            node.close();
+        }
+        nodes.clear();
+        if (tempHome) {
+            deleteRecursively(home.toFile());
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
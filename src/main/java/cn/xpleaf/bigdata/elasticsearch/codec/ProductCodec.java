@@ -0,0 +1,148 @@
+package cn.xpleaf.bigdata.elasticsearch.codec;
+
+import cn.xpleaf.bigdata.elasticsearch.pojo.Product;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentBuilderString;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.search.SearchHit;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Product与es中_source之间的编解码器
+ *
+ * ElasticSearchTest.testAddObj()中的Java Bean方式：
+ *      new ObjectMapper()（反射获取字段信息）--->String--->setSource(String)再编码为byte[]
+ * 同一份数据被分配了多次，而这里：
+ * 1.编码时直接按固定的4个字段写入当前线程复用的BytesStreamOutput，字段名预先编码好，不使用反射
+ * 2.解码时直接使用XContentParser流式读取_source的字节，不会先构建getSource()那样的Map
+ */
+public final class ProductCodec {
+
+    public static final ProductCodec JSON = new ProductCodec(XContentType.JSON);
+    public static final ProductCodec SMILE = new ProductCodec(XContentType.SMILE);
+    public static final ProductCodec CBOR = new ProductCodec(XContentType.CBOR);
+
+    static final XContentBuilderString NAME = new XContentBuilderString("name");
+    static final XContentBuilderString AUTHOR = new XContentBuilderString("author");
+    static final XContentBuilderString VERSION = new XContentBuilderString("version");
+    static final XContentBuilderString URL = new XContentBuilderString("url");
+
+    private final XContentType contentType;
+    private final ThreadLocal<BytesStreamOutput> buffers = new ThreadLocal<BytesStreamOutput>() {
+        @Override
+        protected BytesStreamOutput initialValue() {
+            return new BytesStreamOutput(256);
+        }
+    };
+
+    public ProductCodec(XContentType contentType) {
+        this.contentType = contentType;
+    }
+
+    public XContentType getContentType() {
+        return contentType;
+    }
+
+    /**
+     * 将Product编码为_source，可以直接用于IndexRequestBuilder.setSource(BytesReference)
+     *
+     * 编码使用的是当前线程复用的缓冲区，返回之前会拷贝出一个正好等长的数组，
+     * 因为请求在bulk中可能会被缓存一段时间，不能直接引用会被下一次编码覆盖的缓冲区
+     */
+    public BytesReference encode(Product product) {
+        BytesStreamOutput out = buffers.get();
+        out.reset();
+        writeTo(product, out);
+        return new BytesArray(out.bytes().toBytes());
+    }
+
+    /**
+     * 将Product直接写入到指定的输出流中，null字段不输出，写入完成后输出流会被关闭
+     */
+    public void writeTo(Product product, OutputStream out) {
+        try (XContentBuilder builder = new XContentBuilder(contentType.xContent(), out)) {
+            builder.startObject();
+            if (product.getName() != null) {
+                builder.field(NAME, product.getName());
+            }
+            if (product.getAuthor() != null) {
+                builder.field(AUTHOR, product.getAuthor());
+            }
+            if (product.getVersion() != null) {
+                builder.field(VERSION, product.getVersion());
+            }
+            if (product.getUrl() != null) {
+                builder.field(URL, product.getUrl());
+            }
+            builder.endObject();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("无法编码Product: " + product, e);
+        }
+    }
+
+    public static Product decode(GetResponse response) {
+        if (!response.isExists() || response.isSourceEmpty()) {
+            return null;
+        }
+        return decode(response.getSourceAsBytesRef());
+    }
+
+    public static Product decode(SearchHit hit) {
+        BytesReference source = hit.sourceRef();
+        return source == null ? null : decode(source);
+    }
+
+    /**
+     * 流式解析_source，格式由字节内容自动识别，所以可以解析任意XContentType编码的数据，
+     * 不认识的字段会被跳过
+     */
+    public static Product decode(BytesReference source) {
+        Product product = new Product();
+        try (XContentParser parser = XContentFactory.xContent(source).createParser(source)) {
+            XContentParser.Token token = parser.nextToken();
+            if (token != XContentParser.Token.START_OBJECT) {
+                throw new IllegalArgumentException("_source必须是一个对象，但是为[" + token + "]");
+            }
+            String field = null;
+            while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+                if (token == XContentParser.Token.FIELD_NAME) {
+                    field = parser.currentName();
+                } else if (token.isValue() || token == XContentParser.Token.VALUE_NULL) {
+                    setField(product, field, parser.textOrNull());
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("无法解析Product的_source", e);
+        }
+        return product;
+    }
+
+    static void setField(Product product, String field, String value) {
+        switch (field) {
+            case "name":
+                product.setName(value);
+                break;
+            case "author":
+                product.setAuthor(value);
+                break;
+            case "version":
+                product.setVersion(value);
+                break;
+            case "url":
+                product.setUrl(value);
+                break;
+            default:
+                break;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package cn.xpleaf.bigdata.elasticsearch.codec;
+
+import cn.xpleaf.bigdata.elasticsearch.pojo.Product;
+import org.elasticsearch.action.get.GetRequestBuilder;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHitField;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * 查询结果的投影：只取需要的几个字段
+ * ElasticSearchTest2/ElasticSearchTest3中的showResult()对每条数据调用getSourceAsString()，
+ * testGet()调用getSource()构建HashMap，都需要解析整个_source，而实际往往只用到其中一两个字段
+ *
+ * 这里：
+ * 1.请求时使用setFetchSource(fields, null)，es只返回需要的字段；
+ *   或者使用docValues()，完全不返回_source，而是从doc values中读取（只适用于not_analyzed和数值类型的字段）
+ * 2.解析时流式读取hit的_source字节，只处理需要的顶层字段，不构建Map和中间字符串，
+ *   所有需要的字段都读到之后不再继续解析；数值字段直接读入long[]列
+ */
+public final class Projection {
+
+    private final String[] fields;
+    private final boolean docValues;
+
+    private Projection(String[] fields, boolean docValues) {
+        this.fields = fields;
+        this.docValues = docValues;
+    }
+
+    /**
+     * 从_source中读取的投影，字段为_source中的顶层字段
+     */
+    public static Projection of(String... fields) {
+        return new Projection(fields.clone(), false);
+    }
+
+    /**
+     * 从doc values中读取的投影
+     */
+    public static Projection docValues(String... fields) {
+        return new Projection(fields.clone(), true);
+    }
+
+    public String[] getFields() {
+        return fields.clone();
+    }
+
+    public boolean isDocValues() {
+        return docValues;
+    }
+
+    public SearchRequestBuilder apply(SearchRequestBuilder request) {
+        if (docValues) {
+            request.setFetchSource(false);
+            for (String field : fields) {
+                request.addFieldDataField(field);
+            }
+        } else {
+            request.setFetchSource(fields, null);
+        }
+        return request;
+    }
+
+    /**
+     * get请求不支持doc values，总是使用_source过滤
+     */
+    public GetRequestBuilder apply(GetRequestBuilder request) {
+        return request.setFetchSource(fields, null);
+    }
+
+    /**
+     * 解析为Product，不在投影中的字段为null
+     */
+    public Product toProduct(SearchHit hit) {
+        if (docValues) {
+            Product product = new Product();
+            for (String field : fields) {
+                SearchHitField value = hit.field(field);
+                if (value != null && value.getValue() != null) {
+                    ProductCodec.setField(product, field, String.valueOf(value.getValue()));
+                }
+            }
+            return product;
+        }
+        return ProductCodec.decode(hit);
+    }
+
+    /**
+     * 把数值字段按列读出，columns[i][j]为第j条数据的第i个字段，字段不存在时为missing
+     */
+    public long[][] readLongs(SearchHit[] hits, long missing) {
+        long[][] columns = new long[fields.length][hits.length];
+        for (long[] column : columns) {
+            Arrays.fill(column, missing);
+        }
+        for (int j = 0; j < hits.length; j++) {
+            if (docValues) {
+                for (int i = 0; i < fields.length; i++) {
+                    SearchHitField value = hits[j].field(fields[i]);
+                    if (value != null && value.getValue() != null) {
+                        columns[i][j] = ((Number) value.getValue()).longValue();
+                    }
+                }
+            } else if (hits[j].sourceRef() != null) {
+                final int row = j;
+                visit(hits[j].sourceRef(), (ordinal, parser) -> columns[ordinal][row] = parser.longValue());
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * 流式读取_source，投影中的每个顶层字段调用一次visitor，参数为字段在投影中的序号
+     */
+    public void visit(BytesReference source, FieldVisitor visitor) {
+        try (XContentParser parser = XContentFactory.xContent(source).createParser(source)) {
+            XContentParser.Token token = parser.nextToken();
+            if (token != XContentParser.Token.START_OBJECT) {
+                throw new IllegalArgumentException("_source必须是一个对象，但是为[" + token + "]");
+            }
+            int remaining = fields.length;
+            int ordinal = -1;
+            while (remaining > 0 && (token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+                if (token == XContentParser.Token.FIELD_NAME) {
+                    ordinal = ordinal(parser.currentName());
+                } else if (ordinal >= 0 && token.isValue()) {
+                    visitor.field(ordinal, parser);
+                    remaining--;
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("无法解析_source", e);
+        }
+    }
+
+    private int ordinal(String name) {
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 读取到投影中的字段时的回调，parser位于字段的值上
+     */
+    public interface FieldVisitor {
+        void field(int ordinal, XContentParser parser) throws IOException;
+    }
+}
@@ -0,0 +1,140 @@
+package cn.xpleaf.bigdata.elasticsearch.codec;
+
+import cn.xpleaf.bigdata.elasticsearch.pojo.Product;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 往es中添加数据时_source的编码方式
+ * 前4种对应ElasticSearchTest中的4种添加数据的方式，后3种直接使用ProductCodec写出字节：
+ *      JSON_STRING         拼接JSON字符串，setSource(String)
+ *      MAP                 setSource(Map)，由es再序列化为JSON
+ *      JACKSON             Java Bean方式，ObjectMapper序列化为字符串
+ *      XCONTENT_BUILDER    XContentFactory.jsonBuilder()
+ *      JSON_BYTES          ProductCodec.JSON
+ *      SMILE               ProductCodec.SMILE，二进制的JSON
+ *      CBOR                ProductCodec.CBOR
+ *
+ * es会按照收到的格式保存_source，所以SMILE/CBOR编码的数据在查询时同样可以被ProductCodec.decode解析，
+ * getSourceAsString()时es会自动转换为JSON
+ *
+ * benchmarks模块中的EncodingBenchmark对比了各种方式的编码耗时、每个文档分配的字节数和编码后的大小：
+ * 几种方式的编码耗时相差不大，MAP/JACKSON/JSON_STRING会多分配一份中间对象或字符串，
+ * 二进制的SMILE/CBOR分配最少、体积比JSON小10%以上，es端解析时也不需要处理JSON的转义，
+ * 所以ProductIngestService默认使用SMILE
+ */
+public enum SourceEncoding {
+
+    JSON_STRING {
+        @Override
+        public void apply(IndexRequest request, Product product) {
+            StringBuilder sb = new StringBuilder(128).append('{');
+            appendField(sb, "name", product.getName());
+            appendField(sb, "author", product.getAuthor());
+            appendField(sb, "version", product.getVersion());
+            appendField(sb, "url", product.getUrl());
+            if (sb.length() > 1) {
+                sb.setLength(sb.length() - 1);
+            }
+            request.source(sb.append('}').toString());
+        }
+    },
+    MAP {
+        @Override
+        public void apply(IndexRequest request, Product product) {
+            Map<String, Object> source = new HashMap<String, Object>();
+            source.put("name", product.getName());
+            source.put("author", product.getAuthor());
+            source.put("version", product.getVersion());
+            source.put("url", product.getUrl());
+            request.source(source);
+        }
+    },
+    JACKSON {
+        @Override
+        public void apply(IndexRequest request, Product product) {
+            try {
+                request.source(OBJECT_MAPPER.writeValueAsString(product));
+            } catch (JsonProcessingException e) {
+                throw new IllegalArgumentException("无法序列化Product: " + product, e);
+            }
+        }
+    },
+    XCONTENT_BUILDER {
+        @Override
+        public void apply(IndexRequest request, Product product) {
+            try {
+                XContentBuilder source = XContentFactory.jsonBuilder();
+                source.startObject()
+                        .field("name", product.getName())
+                        .field("author", product.getAuthor())
+                        .field("version", product.getVersion())
+                        .field("url", product.getUrl())
+                        .endObject();
+                request.source(source);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("无法序列化Product: " + product, e);
+            }
+        }
+    },
+    JSON_BYTES {
+        @Override
+        public void apply(IndexRequest request, Product product) {
+            request.source(ProductCodec.JSON.encode(product));
+        }
+    },
+    SMILE {
+        @Override
+        public void apply(IndexRequest request, Product product) {
+            request.source(ProductCodec.SMILE.encode(product));
+        }
+    },
+    CBOR {
+        @Override
+        public void apply(IndexRequest request, Product product) {
+            request.source(ProductCodec.CBOR.encode(product));
+        }
+    };
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    /**
+     * 将Product编码后设置为请求的_source
+     */
+    public abstract void apply(IndexRequest request, Product product);
+
+    /**
+     * 编码后请求中实际保存的_source，即发送到es的数据
+     */
+    public BytesReference encode(Product product) {
+        IndexRequest request = new IndexRequest();
+        apply(request, product);
+        return request.source();
+    }
+
+    private static void appendField(StringBuilder sb, String name, String value) {
+        if (value == null) {
+            return;
+        }
+        sb.append('"').append(name).append("\":\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append("\",");
+    }
+}
@@ -0,0 +1,73 @@
+package cn.xpleaf.bigdata.elasticsearch.index;
+
+import lombok.Getter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 索引的定义：settings和mappings保存在classpath下的index/<name>.json中，
+ * 即创建索引时的请求体
+ */
+@Getter
+public class IndexDefinition {
+
+    /**
+     * ElasticSearchTest/ElasticSearchTest2中使用的bigdata/product，url字段有n-gram子字段
+     */
+    public static final IndexDefinition PRODUCT = new IndexDefinition("bigdata", "index/bigdata.json",
+            new SubstringField("url", 3, 30));
+
+    /**
+     * ElasticSearchTest3中使用的chinese，所有类型的content字段都有n-gram子字段，
+     * 中文的词一般为两个字，所以使用2-gram
+     */
+    public static final IndexDefinition CHINESE = new IndexDefinition("chinese", "index/chinese.json",
+            new SubstringField("content", 2, 20));
+
+    public static final List<IndexDefinition> ALL = Collections.unmodifiableList(Arrays.asList(PRODUCT, CHINESE));
+
+    private final String name;
+    private final String resource;
+    private final List<SubstringField> substringFields;
+
+    public IndexDefinition(String name, String resource, SubstringField... substringFields) {
+        this.name = name;
+        this.resource = resource;
+        this.substringFields = Collections.unmodifiableList(Arrays.asList(substringFields));
+    }
+
+    public SubstringField getSubstringField(String field) {
+        for (SubstringField substringField : substringFields) {
+            if (substringField.getField().equals(field)) {
+                return substringField;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 读取创建索引的请求体
+     */
+    public String loadSource() {
+        try (InputStream in = IndexDefinition.class.getClassLoader().getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalStateException("找不到索引[" + name + "]的定义: " + resource);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalStateException("无法读取索引[" + name + "]的定义: " + resource, e);
+        }
+    }
+}
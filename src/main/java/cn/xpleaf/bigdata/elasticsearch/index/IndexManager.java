@@ -0,0 +1,79 @@
+package cn.xpleaf.bigdata.elasticsearch.index;
+
+import cn.xpleaf.bigdata.elasticsearch.chinese.ChineseIndexTemplate;
+import cn.xpleaf.bigdata.elasticsearch.client.ElasticSearchClientFactory;
+import org.elasticsearch.action.admin.indices.create.CreateIndexResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.index.IndexNotFoundException;
+import org.elasticsearch.indices.IndexAlreadyExistsException;
+
+/**
+ * 索引管理：按IndexDefinition创建索引
+ *
+ * 已经由自动创建索引（第一次写入数据时）生成的索引没有n-gram子字段，
+ * 需要recreate()之后重新写入数据，或者使用reindex工具迁移到新建的索引
+ *
+ * 也可以直接运行main方法创建chinese*的索引模板和所有定义的索引，客户端配置见es-client.properties
+ */
+public class IndexManager {
+
+    private final Client client;
+
+    public IndexManager(Client client) {
+        this.client = client;
+    }
+
+    /**
+     * 索引不存在时创建
+     *
+     * @return 是否创建了索引
+     */
+    public boolean ensureIndex(IndexDefinition definition) {
+        return ensureIndex(definition, definition.getName());
+    }
+
+    /**
+     * 使用定义创建指定名称的索引，例如reindex时的新索引
+     */
+    public boolean ensureIndex(IndexDefinition definition, String index) {
+        if (client.admin().indices().prepareExists(index).get().isExists()) {
+            return false;
+        }
+        try {
+            CreateIndexResponse response = client.admin().indices().prepareCreate(index)
+                    .setSource(definition.loadSource())
+                    .get();
+            if (!response.isAcknowledged()) {
+                throw new IllegalStateException("创建索引[" + index + "]没有被所有节点确认");
+            }
+            client.admin().cluster().prepareHealth(index).setWaitForYellowStatus().get();
+            return true;
+        } catch (IndexAlreadyExistsException e) {
+            // 同时有其它客户端在创建
+            return false;
+        }
+    }
+
+    /**
+     * 删除并重新创建索引，索引中原有的数据会被删除
+     */
+    public void recreate(IndexDefinition definition) {
+        try {
+            client.admin().indices().prepareDelete(definition.getName()).get();
+        } catch (IndexNotFoundException e) {
+            // 索引不存在
+        }
+        ensureIndex(definition);
+    }
+
+    public static void main(String[] args) {
+        ElasticSearchClientFactory factory = ElasticSearchClientFactory.getInstance();
+        IndexManager manager = new IndexManager(factory.getClient());
+        new ChineseIndexTemplate(factory.getClient()).put(factory.getConfig().getChineseAnalyzer());
+        for (IndexDefinition definition : IndexDefinition.ALL) {
+            boolean created = manager.ensureIndex(definition);
+            System.out.println(definition.getName() + (created ? ": created" : ": already exists"));
+        }
+        factory.close();
+    }
+}
@@ -0,0 +1,30 @@
+package cn.xpleaf.bigdata.elasticsearch.index;
+
+import lombok.Getter;
+
+/**
+ * 为子串和前缀查询额外建立了n-gram子字段的字段
+ *      <field>.ngram   固定长度为gramSize的n-gram，查询包含某个子串时使用短语查询，即连续的n-gram
+ *      <field>.prefix  整个字段值的edge n-gram，最长为maxPrefix，查询以某个前缀开头时直接进行term查询
+ */
+@Getter
+public class SubstringField {
+
+    private final String field;
+    private final int gramSize;
+    private final int maxPrefix;
+
+    public SubstringField(String field, int gramSize, int maxPrefix) {
+        this.field = field;
+        this.gramSize = gramSize;
+        this.maxPrefix = maxPrefix;
+    }
+
+    public String getNgramField() {
+        return field + ".ngram";
+    }
+
+    public String getPrefixField() {
+        return field + ".prefix";
+    }
+}
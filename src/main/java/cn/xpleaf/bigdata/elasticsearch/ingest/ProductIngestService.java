@@ -0,0 +1,394 @@
+package cn.xpleaf.bigdata.elasticsearch.ingest;
+
+import cn.xpleaf.bigdata.elasticsearch.codec.SourceEncoding;
+import cn.xpleaf.bigdata.elasticsearch.metrics.ClientMetrics;
+import cn.xpleaf.bigdata.elasticsearch.pojo.Product;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.rest.RestStatus;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于BulkProcessor的Product异步批量写入服务
+ *
+ * 与ElasticSearchTest中每条数据都prepareIndex(...).get()相比：
+ * 1.数据先在客户端攒批，达到bulkActions条数、bulkSize字节数或者flushInterval时间间隔时才发送一次bulk请求
+ * 2.同时在途的bulk请求最多为concurrentRequests个，超过时add操作会阻塞
+ * 3.已提交但还没有得到最终结果的数据最多为queueCapacity条，超过时index/delete会阻塞，即背压
+ * 4.bulk中单条数据的失败，如果是可重试的（如线程池拒绝），会按指数退避重新提交，最多maxRetries次
+ */
+public class ProductIngestService implements AutoCloseable {
+
+    private final String index;
+    private final String type;
+    private final BulkProcessor bulkProcessor;
+    private final Semaphore pending;
+    private final int queueCapacity;
+    private final int maxRetries;
+    private final TimeValue initialBackoff;
+    private final TimeValue maxBackoff;
+    private final ScheduledExecutorService retryScheduler;
+    private final FailureListener failureListener;
+    private final SourceEncoding encoding;
+    private final ClientMetrics metrics;
+    // 记录每个请求已经重试的次数，key为请求对象本身
+    private final Map<ActionRequest, Integer> attempts = new ConcurrentHashMap<>();
+    // 已经安排了重试但还没有重新提交的请求，关闭时这些请求直接失败
+    private final Set<ActionRequest> retrying = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong bulks = new AtomicLong();
+
+    private ProductIngestService(Client client, Builder builder) {
+        this.index = builder.index;
+        this.type = builder.type;
+        this.queueCapacity = builder.queueCapacity;
+        this.pending = new Semaphore(builder.queueCapacity);
+        this.maxRetries = builder.maxRetries;
+        this.initialBackoff = builder.initialBackoff;
+        this.maxBackoff = builder.maxBackoff;
+        this.failureListener = builder.failureListener;
+        this.encoding = builder.encoding;
+        this.metrics = builder.metrics;
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "product-ingest-retry");
+            t.setDaemon(true);
+            return t;
+        });
+        this.bulkProcessor = BulkProcessor.builder(client, new RetryingListener())
+                .setName("product-ingest")
+                .setBulkActions(builder.bulkActions)
+                .setBulkSize(builder.bulkSize)
+                .setFlushInterval(builder.flushInterval)
+                .setConcurrentRequests(builder.concurrentRequests)
+                // 重试由本服务按单条数据处理，这里关闭BulkProcessor自带的重试
+                .setBackoffPolicy(BackoffPolicy.noBackoff())
+                .build();
+    }
+
+    public static Builder builder(String index, String type) {
+        return new Builder(index, type);
+    }
+
+    /**
+     * 添加或覆盖一条Product数据
+     */
+    public void index(String id, Product product) throws InterruptedException {
+        IndexRequest request = new IndexRequest(index, type, id);
+        encoding.apply(request, product);
+        submit(request);
+    }
+
+    /**
+     * 删除一条数据
+     */
+    public void delete(String id) throws InterruptedException {
+        submit(new DeleteRequest(index, type, id));
+    }
+
+    /**
+     * 提交任意的写请求，队列满时阻塞
+     */
+    public void submit(ActionRequest request) throws InterruptedException {
+        pending.acquire();
+        try {
+            bulkProcessor.add(request);
+        } catch (RuntimeException e) {
+            pending.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 立即发送当前已经攒批的数据
+     */
+    public void flush() {
+        bulkProcessor.flush();
+    }
+
+    /**
+     * 等待所有已提交的数据（包括重试中的）得到最终结果，然后关闭服务，
+     * 超时时还在等待重试的数据直接失败，失败原因为closed
+     *
+     * @return 超时之前所有数据都已处理完成时返回true
+     */
+    public boolean awaitClose(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        boolean drained = false;
+        while (System.nanoTime() < deadline) {
+            bulkProcessor.flush();
+            if (pending.tryAcquire(queueCapacity, 100, TimeUnit.MILLISECONDS)) {
+                pending.release(queueCapacity);
+                drained = true;
+                break;
+            }
+        }
+        retryScheduler.shutdownNow();
+        for (ActionRequest request : retrying) {
+            if (retrying.remove(request)) {
+                complete(request, false, "closed");
+            }
+        }
+        long remaining = Math.max(0, deadline - System.nanoTime());
+        return bulkProcessor.awaitClose(remaining, TimeUnit.NANOSECONDS) && drained;
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        awaitClose(1, TimeUnit.MINUTES);
+    }
+
+    public long getSucceeded() {
+        return succeeded.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getRetried() {
+        return retried.get();
+    }
+
+    public long getBulks() {
+        return bulks.get();
+    }
+
+    /**
+     * 当前已提交但还没有得到最终结果的数据条数
+     */
+    public int getPending() {
+        return queueCapacity - pending.availablePermits();
+    }
+
+    /**
+     * 单条数据最终失败（不可重试或者已经超过重试次数）时的回调
+     */
+    public interface FailureListener {
+        void onFailure(ActionRequest request, String message);
+    }
+
+    /**
+     * 是否是可以通过重试解决的失败：线程池拒绝、分片暂时不可用等
+     */
+    public static boolean isRetryable(RestStatus status) {
+        return status == RestStatus.TOO_MANY_REQUESTS
+                || status == RestStatus.SERVICE_UNAVAILABLE
+                || status == RestStatus.GATEWAY_TIMEOUT;
+    }
+
+    public static boolean isRetryable(Throwable t) {
+        return t instanceof EsRejectedExecutionException
+                || (t != null && t.getCause() instanceof EsRejectedExecutionException);
+    }
+
+    /**
+     * 第attempt次重试（从0开始）之前需要等待的时间，每次翻倍，不超过maxBackoff
+     */
+    long backoffMillis(int attempt) {
+        long delay = initialBackoff.millis() << Math.min(attempt, 30);
+        return Math.min(delay, maxBackoff.millis());
+    }
+
+    private void retryOrFail(ActionRequest request, String message) {
+        int attempt = attempts.getOrDefault(request, 0);
+        if (attempt >= maxRetries) {
+            complete(request, false, message);
+            return;
+        }
+        attempts.put(request, attempt + 1);
+        retried.incrementAndGet();
+        if (metrics != null) {
+            metrics.recordRetry("bulk", index);
+        }
+        retrying.add(request);
+        try {
+            // 不能在BulkProcessor的回调线程中直接add，否则可能与正在执行的bulk互相等待
+            retryScheduler.schedule(() -> {
+                // 已经被关闭操作处理
+                if (!retrying.remove(request)) {
+                    return;
+                }
+                try {
+                    bulkProcessor.add(request);
+                } catch (RuntimeException e) {
+                    complete(request, false, e.toString());
+                }
+            }, backoffMillis(attempt), TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            // 服务已经关闭
+            if (retrying.remove(request)) {
+                complete(request, false, message);
+            }
+        }
+    }
+
+    private void complete(ActionRequest request, boolean success, String message) {
+        attempts.remove(request);
+        if (success) {
+            succeeded.incrementAndGet();
+        } else {
+            failed.incrementAndGet();
+            if (failureListener != null) {
+                failureListener.onFailure(request, message);
+            }
+        }
+        pending.release();
+    }
+
+    private class RetryingListener implements BulkProcessor.Listener {
+
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request) {
+            bulks.incrementAndGet();
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+            List<ActionRequest> requests = request.requests();
+            BulkItemResponse[] items = response.getItems();
+            for (int i = 0; i < items.length; i++) {
+                BulkItemResponse item = items[i];
+                ActionRequest actionRequest = requests.get(i);
+                if (!item.isFailed()) {
+                    complete(actionRequest, true, null);
+                } else if (isRetryable(item.getFailure().getStatus())) {
+                    retryOrFail(actionRequest, item.getFailureMessage());
+                } else {
+                    complete(actionRequest, false, item.getFailureMessage());
+                }
+            }
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+            // 整个bulk请求失败，例如连接不上集群，所有数据都进行重试
+            for (ActionRequest actionRequest : request.requests()) {
+                retryOrFail(actionRequest, failure.toString());
+            }
+        }
+    }
+
+    public static class Builder {
+        private final String index;
+        private final String type;
+        private int bulkActions = 1000;
+        private ByteSizeValue bulkSize = new ByteSizeValue(5, ByteSizeUnit.MB);
+        private TimeValue flushInterval = TimeValue.timeValueSeconds(1);
+        private int concurrentRequests = 2;
+        private int queueCapacity = 10000;
+        private int maxRetries = 5;
+        private TimeValue initialBackoff = TimeValue.timeValueMillis(50);
+        private TimeValue maxBackoff = TimeValue.timeValueSeconds(10);
+        private FailureListener failureListener;
+        private SourceEncoding encoding = SourceEncoding.SMILE;
+        private ClientMetrics metrics;
+
+        private Builder(String index, String type) {
+            this.index = index;
+            this.type = type;
+        }
+
+        /**
+         * 每个bulk请求最多包含的数据条数，-1表示不限制
+         */
+        public Builder setBulkActions(int bulkActions) {
+            this.bulkActions = bulkActions;
+            return this;
+        }
+
+        /**
+         * 每个bulk请求最大的字节数，-1表示不限制
+         */
+        public Builder setBulkSize(ByteSizeValue bulkSize) {
+            this.bulkSize = bulkSize;
+            return this;
+        }
+
+        /**
+         * 定时发送bulk请求的时间间隔，null表示不定时发送
+         */
+        public Builder setFlushInterval(TimeValue flushInterval) {
+            this.flushInterval = flushInterval;
+            return this;
+        }
+
+        /**
+         * 同时在途的bulk请求数，0表示在调用线程中同步发送
+         */
+        public Builder setConcurrentRequests(int concurrentRequests) {
+            this.concurrentRequests = concurrentRequests;
+            return this;
+        }
+
+        /**
+         * 已提交但没有得到最终结果的数据的最大条数，超过时提交操作会阻塞
+         */
+        public Builder setQueueCapacity(int queueCapacity) {
+            if (queueCapacity < 1) {
+                throw new IllegalArgumentException("queueCapacity必须大于0，但是为[" + queueCapacity + "]");
+            }
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        public Builder setMaxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        public Builder setBackoff(TimeValue initialBackoff, TimeValue maxBackoff) {
+            this.initialBackoff = initialBackoff;
+            this.maxBackoff = maxBackoff;
+            return this;
+        }
+
+        public Builder setFailureListener(FailureListener failureListener) {
+            this.failureListener = failureListener;
+            return this;
+        }
+
+        /**
+         * _source的编码方式，默认为SMILE
+         */
+        public Builder setEncoding(SourceEncoding encoding) {
+            this.encoding = encoding;
+            return this;
+        }
+
+        /**
+         * 重试次数记录到客户端的统计数据中
+         */
+        public Builder setMetrics(ClientMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        public ProductIngestService build(Client client) {
+            return new ProductIngestService(client, this);
+        }
+    }
+}
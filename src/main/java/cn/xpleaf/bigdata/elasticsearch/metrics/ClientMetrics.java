@@ -0,0 +1,172 @@
+package cn.xpleaf.bigdata.elasticsearch.metrics;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 客户端操作的统计数据，按operation、index和searchType分别统计
+ * 数据由MetricsClient记录，可以通过以下方式导出：
+ *      1.snapshot()/toJson()直接获取
+ *      2.registerMBean()之后通过JMX查看
+ *      3.startReporting()定时输出JSON快照
+ */
+public class ClientMetrics implements ClientMetricsMXBean, Closeable {
+
+    public static final String MBEAN_DOMAIN = "cn.xpleaf.bigdata.elasticsearch";
+
+    private final ConcurrentMap<Key, OperationMetrics> operations = new ConcurrentHashMap<>();
+    private ObjectName objectName;
+    private ScheduledExecutorService reporter;
+
+    OperationMetrics metrics(String operation, String index, String searchType) {
+        Key key = new Key(operation, index, searchType);
+        OperationMetrics metrics = operations.get(key);
+        if (metrics == null) {
+            OperationMetrics created = new OperationMetrics(key);
+            metrics = operations.putIfAbsent(key, created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * 记录一次客户端之外的重试，例如ProductIngestService对bulk中失败数据的重新提交
+     */
+    public void recordRetry(String operation, String index) {
+        metrics(operation, index, null).recordRetry();
+    }
+
+    /**
+     * 所有操作的累计统计数据，按operation、index、searchType排序
+     */
+    public List<MetricsSnapshot> snapshot() {
+        List<MetricsSnapshot> snapshots = new ArrayList<>();
+        for (OperationMetrics metrics : operations.values()) {
+            snapshots.add(metrics.snapshot());
+        }
+        snapshots.sort(Comparator.comparing(MetricsSnapshot::getOperation)
+                .thenComparing(MetricsSnapshot::getIndex)
+                .thenComparing(MetricsSnapshot::getSearchType, Comparator.nullsFirst(Comparator.naturalOrder())));
+        return snapshots;
+    }
+
+    public String toJson() {
+        try {
+            XContentBuilder builder = XContentFactory.jsonBuilder();
+            builder.startObject()
+                    .field("timestamp", System.currentTimeMillis())
+                    .startArray("operations");
+            for (MetricsSnapshot snapshot : snapshot()) {
+                snapshot.toXContent(builder, ToXContent.EMPTY_PARAMS);
+            }
+            return builder.endArray().endObject().string();
+        } catch (IOException e) {
+            throw new IllegalStateException("无法输出统计数据", e);
+        }
+    }
+
+    @Override
+    public List<MetricsSnapshot> getOperations() {
+        return snapshot();
+    }
+
+    @Override
+    public String getJson() {
+        return toJson();
+    }
+
+    @Override
+    public void reset() {
+        operations.clear();
+    }
+
+    /**
+     * 注册到平台的MBeanServer，ObjectName为cn.xpleaf.bigdata.elasticsearch:type=ClientMetrics,name=<name>
+     */
+    public synchronized void registerMBean(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName newName = new ObjectName(MBEAN_DOMAIN + ":type=ClientMetrics,name=" + ObjectName.quote(name));
+            server.registerMBean(this, newName);
+            objectName = newName;
+        } catch (JMException e) {
+            throw new IllegalStateException("注册ClientMetrics MBean失败: " + name, e);
+        }
+    }
+
+    /**
+     * 每隔interval输出一次JSON快照
+     */
+    public synchronized void startReporting(TimeValue interval, Consumer<String> sink) {
+        if (reporter != null) {
+            throw new IllegalStateException("已经在定时输出统计数据");
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "es-client-metrics-reporter");
+            t.setDaemon(true);
+            return t;
+        });
+        reporter.scheduleAtFixedRate(() -> {
+            try {
+                sink.accept(toJson());
+            } catch (RuntimeException e) {
+                // 输出失败时不能影响下一次输出
+            }
+        }, interval.millis(), interval.millis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                // 已经被注销
+            }
+            objectName = null;
+        }
+    }
+
+    /**
+     * 统计的维度，index为请求涉及的索引（多个时按字典序用逗号连接），searchType只有查询操作才有
+     */
+    @Getter
+    @EqualsAndHashCode
+    static final class Key {
+        private final String operation;
+        private final String index;
+        private final String searchType;
+
+        Key(String operation, String index, String searchType) {
+            this.operation = operation;
+            this.index = index;
+            this.searchType = searchType;
+        }
+    }
+}
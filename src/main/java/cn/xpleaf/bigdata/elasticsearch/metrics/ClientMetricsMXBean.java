@@ -0,0 +1,15 @@
+package cn.xpleaf.bigdata.elasticsearch.metrics;
+
+import java.util.List;
+
+/**
+ * 通过JMX（如jconsole）查看客户端的统计数据
+ */
+public interface ClientMetricsMXBean {
+
+    List<MetricsSnapshot> getOperations();
+
+    String getJson();
+
+    void reset();
+}
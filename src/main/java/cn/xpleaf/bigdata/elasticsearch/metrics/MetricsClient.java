@@ -0,0 +1,288 @@
+package cn.xpleaf.bigdata.elasticsearch.metrics;
+
+import org.elasticsearch.ElasticsearchParseException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.Action;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.CompositeIndicesRequest;
+import org.elasticsearch.action.IndicesRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.count.CountRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.FilterClient;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Streamable;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.rest.RestStatus;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * 记录统计数据的客户端
+ * 对es的Client进行包装，经过该客户端的每一个请求都会按operation、index、searchType记录：
+ *      客户端耗时、服务端took（search/bulk）以及两者的差值
+ *      请求和响应序列化之后的字节数
+ *      失败次数，以及其中被线程池拒绝（429）的次数，bulk中被拒绝的单条数据也会计入
+ *
+ * operation：index、get、update、delete、bulk、mget、msearch、scroll，
+ * 查询请求在收到响应后再区分：有聚合结果的为aggregation，请求的size为0并且没有聚合的（prepareCount）为count，其它为search，
+ * 其它请求使用action的名称，如indices:admin/refresh
+ *
+ * 注意：prepareCount(...)在2.x的客户端中会被转换为size为0的查询请求，所以count的searchType为query_then_fetch
+ */
+public class MetricsClient extends FilterClient {
+
+    private final ClientMetrics metrics;
+    private final boolean measureBytes;
+
+    public MetricsClient(Client in, ClientMetrics metrics) {
+        this(in, metrics, true);
+    }
+
+    /**
+     * @param measureBytes 是否统计请求和响应的字节数，统计时需要额外序列化一次请求和响应
+     */
+    public MetricsClient(Client in, ClientMetrics metrics, boolean measureBytes) {
+        super(in);
+        this.metrics = metrics;
+        this.measureBytes = measureBytes;
+    }
+
+    public ClientMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    protected <Request extends ActionRequest, Response extends ActionResponse, RequestBuilder extends ActionRequestBuilder<Request, Response, RequestBuilder>>
+    void doExecute(Action<Request, Response, RequestBuilder> action, Request request, ActionListener<Response> listener) {
+        long start = System.nanoTime();
+        String index = indexOf(request);
+        String searchType = searchTypeOf(request);
+        long sent = measureBytes ? sizeOf(request) : 0;
+        try {
+            super.doExecute(action, request, new ActionListener<Response>() {
+                @Override
+                public void onResponse(Response response) {
+                    long latency = (System.nanoTime() - start) / 1000;
+                    metrics.metrics(operationOf(action, request, response), index, searchType)
+                            .recordSuccess(latency, tookOf(response), sent, measureBytes ? sizeOf(response) : 0, rejectedOf(response));
+                    listener.onResponse(response);
+                }
+
+                @Override
+                public void onFailure(Throwable e) {
+                    long latency = (System.nanoTime() - start) / 1000;
+                    metrics.metrics(operationOf(action, request, null), index, searchType)
+                            .recordFailure(latency, sent, isRejected(e));
+                    listener.onFailure(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            // 请求没有发出，例如客户端的线程池拒绝
+            long latency = (System.nanoTime() - start) / 1000;
+            metrics.metrics(operationOf(action, request, null), index, searchType).recordFailure(latency, 0, isRejected(e));
+            throw e;
+        }
+    }
+
+    static String operationOf(Action<?, ?, ?> action, ActionRequest request, ActionResponse response) {
+        if (request instanceof IndexRequest) {
+            return "index";
+        } else if (request instanceof GetRequest) {
+            return "get";
+        } else if (request instanceof UpdateRequest) {
+            return "update";
+        } else if (request instanceof DeleteRequest) {
+            return "delete";
+        } else if (request instanceof BulkRequest) {
+            return "bulk";
+        } else if (request instanceof MultiGetRequest) {
+            return "mget";
+        } else if (request instanceof MultiSearchRequest) {
+            return "msearch";
+        } else if (request instanceof SearchScrollRequest) {
+            return "scroll";
+        } else if (request instanceof CountRequest) {
+            return "count";
+        } else if (request instanceof SearchRequest) {
+            if (response instanceof SearchResponse) {
+                SearchResponse searchResponse = (SearchResponse) response;
+                if (searchResponse.getAggregations() != null) {
+                    return "aggregation";
+                }
+            }
+            return isCount((SearchRequest) request) ? "count" : "search";
+        }
+        return action.name();
+    }
+
+    /**
+     * 根据请求判断是否只返回总数：size为0并且没有聚合，
+     * 不能根据响应判断，from超过总数的查询同样没有返回数据，而没有匹配到数据的count总数为0
+     */
+    static boolean isCount(SearchRequest request) {
+        if (request.scroll() != null || request.searchType() == SearchType.SCAN
+                || request.templateSource() != null || request.template() != null) {
+            return false;
+        }
+        boolean count = request.searchType() == SearchType.COUNT;
+        // extraSource中的size覆盖source中的
+        for (BytesReference source : new BytesReference[]{request.source(), request.extraSource()}) {
+            if (source == null || source.length() == 0) {
+                continue;
+            }
+            try (XContentParser parser = XContentFactory.xContent(source).createParser(source)) {
+                if (parser.nextToken() != XContentParser.Token.START_OBJECT) {
+                    return false;
+                }
+                while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+                    String name = parser.currentName();
+                    XContentParser.Token token = parser.nextToken();
+                    if ("aggs".equals(name) || "aggregations".equals(name)) {
+                        return false;
+                    } else if ("size".equals(name)) {
+                        count = token.isValue() && "0".equals(parser.text());
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } catch (IOException | ElasticsearchParseException e) {
+                return false;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 请求涉及的索引，多个时按字典序用逗号连接，没有指定时为_all
+     */
+    static String indexOf(ActionRequest request) {
+        Set<String> indices = new TreeSet<>();
+        collectIndices(request, indices);
+        return indices.isEmpty() ? "_all" : String.join(",", indices);
+    }
+
+    private static void collectIndices(Object request, Set<String> indices) {
+        if (request instanceof CompositeIndicesRequest) {
+            for (IndicesRequest subRequest : ((CompositeIndicesRequest) request).subRequests()) {
+                collectIndices(subRequest, indices);
+            }
+        } else if (request instanceof IndicesRequest) {
+            String[] names = ((IndicesRequest) request).indices();
+            if (names == null || names.length == 0) {
+                indices.add("_all");
+            } else {
+                for (String name : names) {
+                    if (name != null) {
+                        indices.add(name);
+                    }
+                }
+            }
+        }
+    }
+
+    static String searchTypeOf(ActionRequest request) {
+        if (request instanceof SearchRequest) {
+            return ((SearchRequest) request).searchType().name().toLowerCase(Locale.ROOT);
+        }
+        return null;
+    }
+
+    static long tookOf(ActionResponse response) {
+        if (response instanceof SearchResponse) {
+            return ((SearchResponse) response).getTookInMillis();
+        } else if (response instanceof BulkResponse) {
+            return ((BulkResponse) response).getTookInMillis();
+        }
+        return -1;
+    }
+
+    /**
+     * 响应中被拒绝的部分：bulk中状态为429的单条数据，或者查询中被拒绝的分片
+     */
+    static long rejectedOf(ActionResponse response) {
+        long rejected = 0;
+        if (response instanceof BulkResponse) {
+            for (BulkItemResponse item : ((BulkResponse) response).getItems()) {
+                if (item.isFailed() && item.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS) {
+                    rejected++;
+                }
+            }
+        } else if (response instanceof SearchResponse) {
+            for (ShardSearchFailure failure : ((SearchResponse) response).getShardFailures()) {
+                if (failure.status() == RestStatus.TOO_MANY_REQUESTS) {
+                    rejected++;
+                }
+            }
+        }
+        return rejected;
+    }
+
+    static boolean isRejected(Throwable e) {
+        return ExceptionsHelper.unwrapCause(e) instanceof EsRejectedExecutionException
+                || ExceptionsHelper.status(e) == RestStatus.TOO_MANY_REQUESTS;
+    }
+
+    /**
+     * 序列化之后的字节数，只计数不保存数据
+     */
+    static long sizeOf(Streamable streamable) {
+        CountingStreamOutput out = new CountingStreamOutput();
+        try {
+            streamable.writeTo(out);
+        } catch (IOException | RuntimeException e) {
+            // 无法序列化的请求（如还没有通过校验），不统计字节数
+            return 0;
+        }
+        return out.count;
+    }
+
+    private static class CountingStreamOutput extends StreamOutput {
+        private long count;
+
+        @Override
+        public void writeByte(byte b) {
+            count++;
+        }
+
+        @Override
+        public void writeBytes(byte[] b, int offset, int length) {
+            count += length;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void reset() {
+            count = 0;
+        }
+    }
+}
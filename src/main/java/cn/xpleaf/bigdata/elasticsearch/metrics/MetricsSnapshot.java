@@ -0,0 +1,108 @@
+package cn.xpleaf.bigdata.elasticsearch.metrics;
+
+import lombok.Getter;
+import org.HdrHistogram.Histogram;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+
+/**
+ * 某一种操作从开始统计到现在的累计数据，耗时的单位均为毫秒
+ * 通过JMX查看时会被转换为CompositeData
+ */
+@Getter
+public class MetricsSnapshot implements ToXContent {
+
+    private final String operation;
+    private final String index;
+    private final String searchType;
+    private final long count;
+    private final long failures;
+    private final long rejected;
+    private final long retries;
+    private final long bytesSent;
+    private final long bytesReceived;
+
+    private final double latencyMean;
+    private final double latencyP50;
+    private final double latencyP90;
+    private final double latencyP99;
+    private final double latencyP999;
+    private final double latencyMax;
+
+    private final long tookCount;
+    private final double tookP50;
+    private final double tookP99;
+    private final double tookMax;
+    private final double overheadP50;
+    private final double overheadP99;
+    private final double overheadMax;
+
+    MetricsSnapshot(ClientMetrics.Key key, long count, long failures, long rejected, long retries,
+                    long bytesSent, long bytesReceived, Histogram latency, Histogram took, Histogram overhead) {
+        this.operation = key.getOperation();
+        this.index = key.getIndex();
+        this.searchType = key.getSearchType();
+        this.count = count;
+        this.failures = failures;
+        this.rejected = rejected;
+        this.retries = retries;
+        this.bytesSent = bytesSent;
+        this.bytesReceived = bytesReceived;
+        this.latencyMean = latency.getTotalCount() == 0 ? 0 : latency.getMean() / 1000;
+        this.latencyP50 = millis(latency, 50);
+        this.latencyP90 = millis(latency, 90);
+        this.latencyP99 = millis(latency, 99);
+        this.latencyP999 = millis(latency, 99.9);
+        this.latencyMax = latency.getMaxValue() / 1000.0;
+        this.tookCount = took.getTotalCount();
+        this.tookP50 = millis(took, 50);
+        this.tookP99 = millis(took, 99);
+        this.tookMax = took.getMaxValue() / 1000.0;
+        this.overheadP50 = millis(overhead, 50);
+        this.overheadP99 = millis(overhead, 99);
+        this.overheadMax = overhead.getMaxValue() / 1000.0;
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject()
+                .field("operation", operation)
+                .field("index", index);
+        if (searchType != null) {
+            builder.field("search_type", searchType);
+        }
+        builder.field("count", count)
+                .field("failures", failures)
+                .field("rejected", rejected)
+                .field("retries", retries)
+                .field("bytes_sent", bytesSent)
+                .field("bytes_received", bytesReceived);
+        builder.startObject("latency_ms")
+                .field("mean", latencyMean)
+                .field("p50", latencyP50)
+                .field("p90", latencyP90)
+                .field("p99", latencyP99)
+                .field("p999", latencyP999)
+                .field("max", latencyMax)
+                .endObject();
+        if (tookCount > 0) {
+            builder.startObject("took_ms")
+                    .field("p50", tookP50)
+                    .field("p99", tookP99)
+                    .field("max", tookMax)
+                    .endObject();
+            builder.startObject("overhead_ms")
+                    .field("p50", overheadP50)
+                    .field("p99", overheadP99)
+                    .field("max", overheadMax)
+                    .endObject();
+        }
+        return builder.endObject();
+    }
+}
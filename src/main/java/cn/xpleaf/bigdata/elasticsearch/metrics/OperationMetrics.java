@@ -0,0 +1,86 @@
+package cn.xpleaf.bigdata.elasticsearch.metrics;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一种操作（operation + index + searchType）的统计数据
+ * 延迟使用HdrHistogram的Recorder记录，单位为微秒，写入时无锁，
+ * 生成快照时把Recorder中新增的数据合并到累计的Histogram中
+ */
+class OperationMetrics {
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final ClientMetrics.Key key;
+
+    // 客户端观察到的耗时：从发出请求到收到响应
+    private final Recorder latency = new Recorder(SIGNIFICANT_DIGITS);
+    // 服务端响应中的took，只有search和bulk有
+    private final Recorder took = new Recorder(SIGNIFICANT_DIGITS);
+    // 客户端耗时 - 服务端took，即网络传输、序列化、排队等不在took中的开销
+    private final Recorder overhead = new Recorder(SIGNIFICANT_DIGITS);
+
+    private final Histogram totalLatency = new Histogram(SIGNIFICANT_DIGITS);
+    private final Histogram totalTook = new Histogram(SIGNIFICANT_DIGITS);
+    private final Histogram totalOverhead = new Histogram(SIGNIFICANT_DIGITS);
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    OperationMetrics(ClientMetrics.Key key) {
+        this.key = key;
+    }
+
+    /**
+     * @param latencyMicros 客户端耗时，微秒
+     * @param tookMillis    服务端的took，毫秒，没有时为-1
+     */
+    void recordSuccess(long latencyMicros, long tookMillis, long sent, long received, long rejectedItems) {
+        count.incrementAndGet();
+        latency.recordValue(latencyMicros);
+        if (tookMillis >= 0) {
+            long tookMicros = tookMillis * 1000;
+            took.recordValue(tookMicros);
+            // took精确到毫秒，可能略大于客户端耗时
+            overhead.recordValue(Math.max(0, latencyMicros - tookMicros));
+        }
+        bytesSent.addAndGet(sent);
+        bytesReceived.addAndGet(received);
+        if (rejectedItems > 0) {
+            rejected.addAndGet(rejectedItems);
+        }
+    }
+
+    void recordFailure(long latencyMicros, long sent, boolean rejectedExecution) {
+        count.incrementAndGet();
+        failures.incrementAndGet();
+        latency.recordValue(latencyMicros);
+        bytesSent.addAndGet(sent);
+        if (rejectedExecution) {
+            rejected.incrementAndGet();
+        }
+    }
+
+    void recordRetry() {
+        retries.incrementAndGet();
+    }
+
+    synchronized MetricsSnapshot snapshot() {
+        merge(latency, totalLatency);
+        merge(took, totalTook);
+        merge(overhead, totalOverhead);
+        return new MetricsSnapshot(key, count.get(), failures.get(), rejected.get(), retries.get(),
+                bytesSent.get(), bytesReceived.get(), totalLatency, totalTook, totalOverhead);
+    }
+
+    private void merge(Recorder recorder, Histogram total) {
+        total.add(recorder.getIntervalHistogram());
+    }
+}
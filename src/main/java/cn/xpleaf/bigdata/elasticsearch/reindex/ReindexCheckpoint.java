@@ -0,0 +1,113 @@
+package cn.xpleaf.bigdata.elasticsearch.reindex;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * 重建索引的进度，保存在本地的properties文件中：
+ *      source/target       源索引和目标索引，用于防止误用其它迁移的checkpoint
+ *      refresh_interval    目标索引原来的refresh_interval，进程异常退出时也能在下次运行结束后恢复
+ *      slice.N             第N个slice已经写入成功的最后一条数据的_uid
+ *      slice.N.done        第N个slice已经全部完成
+ *
+ * 每次更新都先写临时文件，再原子地替换原文件，进程在任何时候退出都不会留下不完整的checkpoint
+ */
+public class ReindexCheckpoint {
+
+    private static final String SOURCE = "source";
+    private static final String TARGET = "target";
+    private static final String REFRESH_INTERVAL = "refresh_interval";
+
+    private final Path file;
+    private final Properties properties = new Properties();
+
+    public ReindexCheckpoint(Path file) {
+        this.file = file;
+        if (Files.exists(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                properties.load(in);
+            } catch (IOException e) {
+                throw new IllegalStateException("无法读取checkpoint: " + file, e);
+            }
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * 第一次运行时记录源索引和目标索引，之后运行时检查是否一致
+     */
+    synchronized void bind(String source, String target) {
+        String boundSource = properties.getProperty(SOURCE);
+        String boundTarget = properties.getProperty(TARGET);
+        if (boundSource == null) {
+            properties.setProperty(SOURCE, source);
+            properties.setProperty(TARGET, target);
+            save();
+        } else if (!boundSource.equals(source) || !target.equals(boundTarget)) {
+            throw new IllegalStateException("checkpoint[" + file + "]属于[" + boundSource + "]--->[" + boundTarget
+                    + "]的迁移，不能用于[" + source + "]--->[" + target + "]");
+        }
+    }
+
+    synchronized String getRefreshInterval() {
+        return properties.getProperty(REFRESH_INTERVAL);
+    }
+
+    synchronized void setRefreshInterval(String refreshInterval) {
+        properties.setProperty(REFRESH_INTERVAL, refreshInterval);
+        save();
+    }
+
+    /**
+     * 第slice个slice已经写入的最后一条数据的_uid，还没有开始时返回null
+     */
+    public synchronized String getPosition(int slice) {
+        return properties.getProperty("slice." + slice);
+    }
+
+    public synchronized boolean isDone(int slice) {
+        return Boolean.parseBoolean(properties.getProperty("slice." + slice + ".done"));
+    }
+
+    synchronized void update(int slice, String uid) {
+        properties.setProperty("slice." + slice, uid);
+        save();
+    }
+
+    synchronized void done(int slice) {
+        properties.setProperty("slice." + slice + ".done", "true");
+        save();
+    }
+
+    /**
+     * 迁移全部完成后删除checkpoint
+     */
+    public synchronized void delete() {
+        properties.clear();
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            throw new IllegalStateException("无法删除checkpoint: " + file, e);
+        }
+    }
+
+    private void save() {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                properties.store(out, null);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new IllegalStateException("无法保存checkpoint: " + file, e);
+        }
+    }
+}
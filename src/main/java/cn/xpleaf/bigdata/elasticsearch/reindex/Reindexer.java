@@ -0,0 +1,605 @@
+package cn.xpleaf.bigdata.elasticsearch.reindex;
+
+import cn.xpleaf.bigdata.elasticsearch.client.ElasticSearchClientFactory;
+import cn.xpleaf.bigdata.elasticsearch.codec.ProductCodec;
+import cn.xpleaf.bigdata.elasticsearch.codec.SourceEncoding;
+import cn.xpleaf.bigdata.elasticsearch.index.IndexDefinition;
+import cn.xpleaf.bigdata.elasticsearch.index.IndexManager;
+import cn.xpleaf.bigdata.elasticsearch.ingest.ProductIngestService;
+import cn.xpleaf.bigdata.elasticsearch.pojo.Product;
+import cn.xpleaf.bigdata.elasticsearch.search.ScrollIterator;
+import com.carrotsearch.hppc.cursors.ObjectObjectCursor;
+import lombok.Getter;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequestBuilder;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.AliasMetaData;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.sort.SortOrder;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 重建索引（迁移）工具
+ * 修改bigdata/product、bank的mapping（例如增加分词器、子字段）之后，需要把数据从旧索引迁移到按新定义创建的索引中
+ *
+ * 1.读取：es 2.3没有sliced scroll，这里每个分片作为一个slice（preference=_shards:N），最多slices个线程并行scroll
+ * 2.转换：设置了transform时按Product解码、转换后再按encoding编码，返回null的文档被跳过；
+ *   没有设置时直接复制_source的字节，也可以用于bank等不是Product的索引
+ * 3.写入：每个slice的每一页作为一个bulk请求同步发送，被拒绝的数据按指数退避重试；
+ *   requestsPerSecond限制所有slice合计每秒写入的文档数，写入期间目标索引的refresh_interval为-1，结束后恢复并refresh
+ * 4.checkpoint：每个bulk成功之后记录该slice最后一条数据的_uid，失败后重新运行时每个slice从记录的_uid之后继续，
+ *   为此scroll需要按_uid排序（会加载_uid的fielddata），没有设置checkpoint时按_doc排序；
+ *   任意一页有分片失败或超时时ScrollIterator抛出异常，该slice失败，这一页不会记录到checkpoint中，slice也不会标记为完成
+ * 5.别名切换：全部完成后在一个请求中把别名从原来的索引移到目标索引，切换是原子的；
+ *   设置了replaceSourceIndex时，先确认目标索引中的数据不少于源索引，切换被确认之后才删除源索引
+ */
+public class Reindexer {
+
+    private final Client client;
+    private final String source;
+    private final String target;
+    private final IndexDefinition definition;
+    private final String alias;
+    private final boolean replaceSourceIndex;
+    private final QueryBuilder query;
+    private final int slices;
+    private final int batchSize;
+    private final TimeValue keepAlive;
+    private final Throttle throttle;
+    private final Function<Product, Product> transform;
+    private final SourceEncoding encoding;
+    private final ReindexCheckpoint checkpoint;
+    private final int maxRetries;
+    private final TimeValue initialBackoff;
+
+    private final AtomicLong scanned = new AtomicLong();
+    private final AtomicLong indexed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong bulks = new AtomicLong();
+    private volatile boolean aborted;
+
+    private Reindexer(Client client, Builder builder) {
+        this.client = client;
+        this.source = builder.source;
+        this.target = builder.target;
+        this.definition = builder.definition;
+        this.alias = builder.alias;
+        this.replaceSourceIndex = builder.replaceSourceIndex;
+        this.query = builder.query;
+        this.slices = builder.slices;
+        this.batchSize = builder.batchSize;
+        this.keepAlive = builder.keepAlive;
+        this.throttle = new Throttle(builder.requestsPerSecond);
+        this.transform = builder.transform;
+        this.encoding = builder.encoding;
+        this.checkpoint = builder.checkpoint;
+        this.maxRetries = builder.maxRetries;
+        this.initialBackoff = builder.initialBackoff;
+    }
+
+    public static Builder builder(String source, String target) {
+        return new Builder(source, target);
+    }
+
+    /**
+     * 执行迁移，任意一个slice失败时其它slice在当前批次完成后停止，已经完成的进度保存在checkpoint中
+     */
+    public Result run() throws InterruptedException {
+        long start = System.nanoTime();
+        aborted = false;
+        if (checkpoint != null) {
+            checkpoint.bind(source, target);
+        }
+        if (definition != null) {
+            new IndexManager(client).ensureIndex(definition, target);
+        } else if (!client.admin().indices().prepareExists(target).get().isExists()) {
+            throw new IllegalStateException("目标索引[" + target + "]不存在，需要先创建或者设置definition");
+        }
+        int shards = numberOfShards();
+        String refreshInterval = disableRefresh();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(slices, shards)), r -> {
+            Thread t = new Thread(r, "reindex-" + source);
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            CompletionService<Void> completion = new ExecutorCompletionService<>(executor);
+            int submitted = 0;
+            for (int shard = 0; shard < shards; shard++) {
+                if (checkpoint != null && checkpoint.isDone(shard)) {
+                    continue;
+                }
+                final int slice = shard;
+                completion.submit(() -> {
+                    runSlice(slice);
+                    return null;
+                });
+                submitted++;
+            }
+            for (int i = 0; i < submitted; i++) {
+                try {
+                    completion.take().get();
+                } catch (ExecutionException e) {
+                    aborted = true;
+                    throw new IllegalStateException("重建索引[" + source + "]--->[" + target + "]失败"
+                            + (checkpoint != null ? "，重新运行时从checkpoint[" + checkpoint.getFile() + "]继续" : ""), e.getCause());
+                }
+            }
+        } finally {
+            aborted = true;
+            executor.shutdown();
+            executor.awaitTermination(keepAlive.millis(), TimeUnit.MILLISECONDS);
+            updateRefreshInterval(refreshInterval);
+        }
+        client.admin().indices().prepareRefresh(target).get();
+        if (alias != null) {
+            swapAlias();
+        }
+        if (checkpoint != null) {
+            checkpoint.delete();
+        }
+        return new Result(scanned.get(), indexed.get(), skipped.get(), retried.get(), bulks.get(),
+                TimeUnit.NANOSECONDS.toMillis(throttle.throttledNanos.get()),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private void runSlice(int slice) throws InterruptedException {
+        String after = checkpoint == null ? null : checkpoint.getPosition(slice);
+        SearchRequestBuilder request = client.prepareSearch(source)
+                .setPreference("_shards:" + slice)
+                .setSize(batchSize)
+                .setQuery(after == null ? query : QueryBuilders.boolQuery().must(query).filter(QueryBuilders.rangeQuery("_uid").gt(after)))
+                .addSort(checkpoint == null ? "_doc" : "_uid", SortOrder.ASC);
+        try (ScrollIterator scroll = new ScrollIterator(client, request, keepAlive)) {
+            SearchHit[] hits;
+            while (!aborted && (hits = scroll.nextPage()).length > 0) {
+                scanned.addAndGet(hits.length);
+                BulkRequest bulk = new BulkRequest();
+                for (SearchHit hit : hits) {
+                    IndexRequest indexRequest = toIndexRequest(hit);
+                    if (indexRequest == null) {
+                        skipped.incrementAndGet();
+                    } else {
+                        bulk.add(indexRequest);
+                    }
+                }
+                if (bulk.numberOfActions() > 0) {
+                    throttle.acquire(bulk.numberOfActions());
+                    send(bulk);
+                }
+                if (checkpoint != null) {
+                    checkpoint.update(slice, String.valueOf(hits[hits.length - 1].getSortValues()[0]));
+                }
+            }
+        }
+        if (!aborted && checkpoint != null) {
+            checkpoint.done(slice);
+        }
+    }
+
+    private IndexRequest toIndexRequest(SearchHit hit) {
+        IndexRequest request = new IndexRequest(target, hit.getType(), hit.getId());
+        if (transform == null) {
+            return request.source(hit.sourceRef());
+        }
+        Product product = transform.apply(ProductCodec.decode(hit));
+        if (product == null) {
+            return null;
+        }
+        encoding.apply(request, product);
+        return request;
+    }
+
+    /**
+     * 同步发送bulk，被拒绝的数据重试，其它失败直接抛出异常，该批次不会记录到checkpoint中
+     */
+    private void send(BulkRequest bulk) throws InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            bulks.incrementAndGet();
+            BulkRequest retry = new BulkRequest();
+            try {
+                BulkResponse response = client.bulk(bulk).actionGet();
+                BulkItemResponse[] items = response.getItems();
+                for (int i = 0; i < items.length; i++) {
+                    if (!items[i].isFailed()) {
+                        indexed.incrementAndGet();
+                    } else if (ProductIngestService.isRetryable(items[i].getFailure().getStatus())) {
+                        retry.add((IndexRequest) bulk.requests().get(i));
+                    } else {
+                        throw new IllegalStateException("写入[" + target + "]失败: " + items[i].getFailureMessage());
+                    }
+                }
+            } catch (RuntimeException e) {
+                if (!ProductIngestService.isRetryable(e)) {
+                    throw e;
+                }
+                retry = bulk;
+            }
+            if (retry.numberOfActions() == 0) {
+                return;
+            }
+            if (attempt >= maxRetries) {
+                throw new IllegalStateException(retry.numberOfActions() + "条数据重试" + maxRetries + "次之后仍然被拒绝");
+            }
+            retried.addAndGet(retry.numberOfActions());
+            TimeUnit.MILLISECONDS.sleep(Math.min(initialBackoff.millis() << attempt, TimeValue.timeValueSeconds(30).millis()));
+            bulk = retry;
+        }
+    }
+
+    private int numberOfShards() {
+        for (IndexMetaData metaData : client.admin().cluster().prepareState()
+                .setIndices(source).setMetaData(true).setRoutingTable(false).setNodes(false)
+                .get().getState().getMetaData()) {
+            return metaData.getNumberOfShards();
+        }
+        throw new IllegalStateException("源索引[" + source + "]不存在");
+    }
+
+    /**
+     * 关闭目标索引的自动refresh，返回原来的值（没有设置时为1s），原来的值同时记录在checkpoint中
+     */
+    private String disableRefresh() {
+        String previous = checkpoint == null ? null : checkpoint.getRefreshInterval();
+        if (previous == null) {
+            previous = client.admin().indices().prepareGetSettings(target).get().getSetting(target, "index.refresh_interval");
+            if (previous == null) {
+                previous = "1s";
+            }
+            if (checkpoint != null) {
+                checkpoint.setRefreshInterval(previous);
+            }
+        }
+        updateRefreshInterval("-1");
+        return previous;
+    }
+
+    private void updateRefreshInterval(String refreshInterval) {
+        client.admin().indices().prepareUpdateSettings(target)
+                .setSettings(Settings.builder().put("index.refresh_interval", refreshInterval))
+                .get();
+    }
+
+    /**
+     * 把别名从原来的所有索引移到目标索引，在一个请求中完成，被确认之后再按replaceSourceIndex删除源索引，
+     * 删除任何源索引之前（在切换之前，这时源名称仍然指向原来的数据）先确认目标索引中的数据不少于源索引
+     * 别名与一个索引同名时（例如第一次迁移自动创建的bigdata），只有设置了replaceSourceIndex并且该索引就是源索引时才能切换：
+     * es 2.3的别名操作只有add/remove，不能在同一个请求中删除同名的索引，只能先删除，两步之间该名称短暂不可用
+     */
+    private void swapAlias() {
+        MetaData metaData = client.admin().cluster().prepareState().setMetaData(true)
+                .setRoutingTable(false).setNodes(false).get().getState().getMetaData();
+        boolean aliasIsIndex = metaData.hasIndex(alias);
+        if (aliasIsIndex && (!replaceSourceIndex || !alias.equals(source))) {
+            throw new IllegalStateException("[" + alias + "]是一个索引而不是别名，需要先删除该索引才能创建同名的别名");
+        }
+        List<String> sourceIndices = metaData.hasIndex(source) ? Arrays.asList(source) : aliasedIndices(source);
+        IndicesAliasesRequestBuilder request = client.admin().indices().prepareAliases();
+        for (String index : aliasedIndices(alias)) {
+            if (!index.equals(target)) {
+                request.removeAlias(index, alias);
+            }
+        }
+        request.addAlias(target, alias);
+        if (replaceSourceIndex) {
+            verifyCopied();
+        }
+        if (aliasIsIndex) {
+            deleteIndex(alias);
+        }
+        if (!request.get().isAcknowledged()) {
+            throw new IllegalStateException("切换别名[" + alias + "]没有被所有节点确认"
+                    + (aliasIsIndex ? "，源索引已经删除，数据在[" + target + "]中" : "，源索引没有删除"));
+        }
+        if (replaceSourceIndex && !aliasIsIndex) {
+            for (String index : sourceIndices) {
+                if (!index.equals(target)) {
+                    deleteIndex(index);
+                }
+            }
+        }
+    }
+
+    /**
+     * 拥有该别名的所有索引
+     */
+    private List<String> aliasedIndices(String name) {
+        List<String> indices = new ArrayList<>();
+        for (ObjectObjectCursor<String, List<AliasMetaData>> cursor
+                : client.admin().indices().prepareGetAliases(name).get().getAliases()) {
+            if (!cursor.value.isEmpty()) {
+                indices.add(cursor.key);
+            }
+        }
+        return indices;
+    }
+
+    /**
+     * 目标索引的文档数不少于源索引中满足条件的文档数减去被跳过的文档数
+     * 从checkpoint继续时之前被跳过的文档没有计入，这时会保守地拒绝删除
+     */
+    private void verifyCopied() {
+        long expected = count(client.prepareSearch(source).setSize(0)
+                .setQuery(query != null ? query : QueryBuilders.matchAllQuery())) - skipped.get();
+        long actual = count(client.prepareSearch(target).setSize(0));
+        if (actual < expected) {
+            throw new IllegalStateException("目标索引[" + target + "]中有" + actual + "条数据，少于源索引[" + source
+                    + "]的" + expected + "条，不删除源索引");
+        }
+    }
+
+    /**
+     * 有分片失败或者超时时计数不准确，不能作为删除源索引的依据
+     */
+    private long count(SearchRequestBuilder request) {
+        SearchResponse response = request.get();
+        if (response.getFailedShards() > 0 || response.isTimedOut()) {
+            throw new IllegalStateException("统计文档数时有" + response.getFailedShards() + "个分片失败或者超时，不删除源索引");
+        }
+        return response.getHits().getTotalHits();
+    }
+
+    private void deleteIndex(String index) {
+        if (!client.admin().indices().prepareDelete(index).get().isAcknowledged()) {
+            throw new IllegalStateException("删除索引[" + index + "]没有被所有节点确认");
+        }
+    }
+
+    /**
+     * 限制每秒写入的文档数，所有slice共用
+     * 与es reindex的requests_per_second相同，按批次计算等待时间：每一批预约接下来docs / requestsPerSecond秒的时间
+     */
+    private static class Throttle {
+        private final long nanosPerDoc;
+        private final AtomicLong throttledNanos = new AtomicLong();
+        private long next = System.nanoTime();
+
+        Throttle(float requestsPerSecond) {
+            this.nanosPerDoc = requestsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond) : 0;
+        }
+
+        void acquire(int docs) throws InterruptedException {
+            if (nanosPerDoc == 0) {
+                return;
+            }
+            long wait;
+            synchronized (this) {
+                long now = System.nanoTime();
+                next = Math.max(next, now);
+                wait = next - now;
+                next += docs * nanosPerDoc;
+            }
+            if (wait > 0) {
+                throttledNanos.addAndGet(wait);
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+    }
+
+    /**
+     * 迁移的统计结果
+     */
+    @Getter
+    public static class Result {
+        /**
+         * 从源索引读取的文档数，从checkpoint继续时只包括本次运行读取的
+         */
+        private final long scanned;
+        private final long indexed;
+        /**
+         * transform返回null而被跳过的文档数
+         */
+        private final long skipped;
+        private final long retried;
+        private final long bulks;
+        /**
+         * 因为限速而等待的总时间，多个slice的等待时间会累加
+         */
+        private final long throttledMillis;
+        private final long tookMillis;
+
+        Result(long scanned, long indexed, long skipped, long retried, long bulks, long throttledMillis, long tookMillis) {
+            this.scanned = scanned;
+            this.indexed = indexed;
+            this.skipped = skipped;
+            this.retried = retried;
+            this.bulks = bulks;
+            this.throttledMillis = throttledMillis;
+            this.tookMillis = tookMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "scanned=" + scanned + ", indexed=" + indexed + ", skipped=" + skipped + ", retried=" + retried
+                    + ", bulks=" + bulks + ", throttled=" + throttledMillis + "ms, took=" + tookMillis + "ms";
+        }
+    }
+
+    public static class Builder {
+        private final String source;
+        private final String target;
+        private IndexDefinition definition;
+        private String alias;
+        private boolean replaceSourceIndex = false;
+        private QueryBuilder query = QueryBuilders.matchAllQuery();
+        private int slices = 4;
+        private int batchSize = 500;
+        private TimeValue keepAlive = TimeValue.timeValueMinutes(5);
+        private float requestsPerSecond = 0;
+        private Function<Product, Product> transform;
+        private SourceEncoding encoding = SourceEncoding.SMILE;
+        private ReindexCheckpoint checkpoint;
+        private int maxRetries = 10;
+        private TimeValue initialBackoff = TimeValue.timeValueMillis(100);
+
+        private Builder(String source, String target) {
+            if (source.equals(target)) {
+                throw new IllegalArgumentException("源索引和目标索引不能相同: " + source);
+            }
+            this.source = source;
+            this.target = target;
+        }
+
+        /**
+         * 目标索引不存在时按该定义创建
+         */
+        public Builder setDefinition(IndexDefinition definition) {
+            this.definition = definition;
+            return this;
+        }
+
+        /**
+         * 完成后切换到目标索引的别名
+         */
+        public Builder setAlias(String alias) {
+            this.alias = alias;
+            return this;
+        }
+
+        /**
+         * 别名切换被确认之后是否删除源索引（源索引为别名时删除它指向的索引），默认不删除
+         * 别名与源索引同名时必须设置，这时源索引在创建别名之前被删除
+         */
+        public Builder setReplaceSourceIndex(boolean replaceSourceIndex) {
+            this.replaceSourceIndex = replaceSourceIndex;
+            return this;
+        }
+
+        /**
+         * 只迁移满足条件的数据
+         */
+        public Builder setQuery(QueryBuilder query) {
+            this.query = query;
+            return this;
+        }
+
+        /**
+         * 同时进行scroll和写入的slice数，不超过源索引的分片数
+         */
+        public Builder setSlices(int slices) {
+            if (slices < 1) {
+                throw new IllegalArgumentException("slices必须大于0，但是为[" + slices + "]");
+            }
+            this.slices = slices;
+            return this;
+        }
+
+        /**
+         * 每个slice每次拉取并写入的文档数
+         */
+        public Builder setBatchSize(int batchSize) {
+            if (batchSize < 1) {
+                throw new IllegalArgumentException("batchSize必须大于0，但是为[" + batchSize + "]");
+            }
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * 服务端保留scroll上下文的时间，需要大于写入一批数据（包括限速等待）的时间
+         */
+        public Builder setKeepAlive(TimeValue keepAlive) {
+            this.keepAlive = keepAlive;
+            return this;
+        }
+
+        /**
+         * 所有slice合计每秒最多写入的文档数，0表示不限速
+         */
+        public Builder setRequestsPerSecond(float requestsPerSecond) {
+            this.requestsPerSecond = requestsPerSecond;
+            return this;
+        }
+
+        /**
+         * 对每个文档按Product进行转换，返回null时跳过该文档
+         */
+        public Builder setTransform(Function<Product, Product> transform) {
+            this.transform = transform;
+            return this;
+        }
+
+        /**
+         * 转换后的Product写入时_source的编码方式，默认为SMILE
+         */
+        public Builder setEncoding(SourceEncoding encoding) {
+            this.encoding = encoding;
+            return this;
+        }
+
+        public Builder setCheckpoint(ReindexCheckpoint checkpoint) {
+            this.checkpoint = checkpoint;
+            return this;
+        }
+
+        public Builder setRetry(int maxRetries, TimeValue initialBackoff) {
+            this.maxRetries = maxRetries;
+            this.initialBackoff = initialBackoff;
+            return this;
+        }
+
+        public Reindexer build(Client client) {
+            return new Reindexer(client, this);
+        }
+    }
+
+    /**
+     * 命令行运行：Reindexer [--replace-source] <源索引> <目标索引> [别名] [每秒文档数]
+     * 目标索引按与别名（没有别名时与源索引）同名的IndexDefinition创建，checkpoint保存在当前目录下，
+     * 只有指定了--replace-source时才删除源索引
+     */
+    public static void main(String[] args) throws InterruptedException {
+        List<String> params = new ArrayList<>(Arrays.asList(args));
+        boolean replaceSource = params.remove("--replace-source");
+        if (params.size() < 2) {
+            System.err.println("usage: Reindexer [--replace-source] <source> <target> [alias] [requestsPerSecond]");
+            System.exit(1);
+        }
+        String source = params.get(0);
+        String target = params.get(1);
+        String alias = params.size() > 2 ? params.get(2) : null;
+        Builder builder = builder(source, target)
+                .setAlias(alias)
+                .setReplaceSourceIndex(replaceSource)
+                .setCheckpoint(new ReindexCheckpoint(Paths.get("reindex-" + source + "-" + target + ".properties")));
+        if (params.size() > 3) {
+            builder.setRequestsPerSecond(Float.parseFloat(params.get(3)));
+        }
+        String name = alias != null ? alias : source;
+        for (IndexDefinition definition : IndexDefinition.ALL) {
+            if (definition.getName().equals(name)) {
+                builder.setDefinition(definition);
+            }
+        }
+        ElasticSearchClientFactory factory = ElasticSearchClientFactory.getInstance();
+        try {
+            System.out.println(builder.build(factory.getClient()).run());
+        } finally {
+            factory.close();
+        }
+    }
+}
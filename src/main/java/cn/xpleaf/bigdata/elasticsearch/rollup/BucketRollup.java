@@ -0,0 +1,235 @@
+package cn.xpleaf.bigdata.elasticsearch.rollup;
+
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.histogram.Histogram;
+import org.elasticsearch.search.aggregations.metrics.stats.Stats;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 预先汇总的统计数据
+ * testSearch6每次都对age在(25, 35]之间的数据重新计算balance的avg和max，
+ * 而bank中的数据基本不变，这里按bucketField的每个整数值（如每个年龄）在内存中保存valueField的count/sum/min/max，
+ * 任意的年龄范围只需要合并范围内的桶，不需要请求es
+ *
+ * 数据的维护：
+ *      通过RollupClient新增的文档，直接累加到对应的桶中
+ *      覆盖、更新和删除时无法知道旧文档的值，汇总数据变为过期，但在maxStaleness内仍然直接使用
+ *      过期超过maxStaleness或者超过ttl（其它客户端的写入感知不到）之后，使用一个histogram+stats聚合重新计算所有的桶，
+ *      同时只有一个重新计算，其它查询等待同一个结果
+ *      重新计算不会强制refresh，开始前refreshInterval内以及计算期间的写入可能不在结果中，这时结果从开始计算时就是过期的，
+ *      所以持续写入时最多每maxStaleness重新计算一次，而不是每次查询都重新计算
+ */
+public class BucketRollup {
+
+    private final Client client;
+    private final String index;
+    private final String type;
+    private final String bucketField;
+    private final String valueField;
+    private final long ttlNanos;
+    private final long maxStalenessNanos;
+    private final long refreshIntervalNanos;
+
+    // 还没有计算过时为null
+    private NavigableMap<Long, BucketStats> buckets;
+    private long builtAt;
+    // 有无法累加的写入之后为true，从staleSince开始过期
+    private boolean stale;
+    private long staleSince;
+    private boolean written;
+    private long lastWriteAt;
+    // 正在进行的重新计算
+    private CompletableFuture<NavigableMap<Long, BucketStats>> rebuilding;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong rebuilds = new AtomicLong();
+
+    public BucketRollup(Client client, String index, String type, String bucketField, String valueField, TimeValue ttl) {
+        this(client, index, type, bucketField, valueField, ttl, TimeValue.timeValueSeconds(10), TimeValue.timeValueSeconds(1));
+    }
+
+    /**
+     * @param maxStaleness    过期的汇总数据最多继续使用的时间
+     * @param refreshInterval 索引的refresh_interval，写入之后这段时间内的聚合可能看不到该写入
+     */
+    public BucketRollup(Client client, String index, String type, String bucketField, String valueField, TimeValue ttl,
+                        TimeValue maxStaleness, TimeValue refreshInterval) {
+        this.client = client;
+        this.index = index;
+        this.type = type;
+        this.bucketField = bucketField;
+        this.valueField = valueField;
+        this.ttlNanos = ttl.nanos();
+        this.maxStalenessNanos = maxStaleness.nanos();
+        this.refreshIntervalNanos = refreshInterval.nanos();
+    }
+
+    /**
+     * testSearch6中bank/account按age汇总balance
+     */
+    public static BucketRollup bankBalanceByAge(Client client) {
+        return new BucketRollup(client, "bank", "account", "age", "balance", TimeValue.timeValueMinutes(5));
+    }
+
+    public String getIndex() {
+        return index;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getBucketField() {
+        return bucketField;
+    }
+
+    public String getValueField() {
+        return valueField;
+    }
+
+    /**
+     * bucketField在[from, to]之间的汇总，如rangeQuery("age").gt(25).lte(35)即为stats(26, 35)
+     */
+    public BucketStats stats(long from, long to) {
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (buckets != null && now - builtAt < ttlNanos && !(stale && now - staleSince >= maxStalenessNanos)) {
+                hits.incrementAndGet();
+                return merge(buckets, from, to);
+            }
+        }
+        NavigableMap<Long, BucketStats> rebuilt = rebuild();
+        synchronized (this) {
+            return merge(rebuilt, from, to);
+        }
+    }
+
+    /**
+     * 所有数据的汇总
+     */
+    public BucketStats total() {
+        return stats(Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * 新增了一个文档
+     */
+    public synchronized void onCreated(long bucket, double value) {
+        written = true;
+        lastWriteAt = System.nanoTime();
+        if (buckets != null) {
+            buckets.merge(bucket, BucketStats.of(value), BucketStats::merge);
+        }
+    }
+
+    /**
+     * 覆盖、更新或者删除了文档，或者无法解析新增的文档
+     */
+    public synchronized void invalidate() {
+        written = true;
+        lastWriteAt = System.nanoTime();
+        markStale(lastWriteAt);
+    }
+
+    private void markStale(long since) {
+        if (!stale) {
+            stale = true;
+            staleSince = since;
+        }
+    }
+
+    /**
+     * 使用聚合重新计算所有的桶，已经有重新计算在进行时等待它的结果
+     * 返回的结果在写入时会被修改，读取时需要持有该对象的锁
+     */
+    public NavigableMap<Long, BucketStats> rebuild() {
+        CompletableFuture<NavigableMap<Long, BucketStats>> future;
+        synchronized (this) {
+            future = rebuilding;
+            if (future == null) {
+                rebuilding = new CompletableFuture<>();
+            }
+        }
+        if (future != null) {
+            try {
+                return future.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        try {
+            NavigableMap<Long, BucketStats> rebuilt = aggregate();
+            synchronized (this) {
+                rebuilding.complete(rebuilt);
+                rebuilding = null;
+            }
+            return rebuilt;
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                rebuilding.completeExceptionally(e);
+                rebuilding = null;
+            }
+            throw e;
+        }
+    }
+
+    private NavigableMap<Long, BucketStats> aggregate() {
+        rebuilds.incrementAndGet();
+        long start = System.nanoTime();
+        SearchResponse response = client.prepareSearch(index).setTypes(type)
+                .setSize(0)
+                .addAggregation(AggregationBuilders.histogram(bucketField).field(bucketField).interval(1).minDocCount(1)
+                        .subAggregation(AggregationBuilders.stats(valueField).field(valueField)))
+                .get();
+        NavigableMap<Long, BucketStats> rebuilt = new TreeMap<>();
+        Histogram histogram = response.getAggregations().get(bucketField);
+        for (Histogram.Bucket bucket : histogram.getBuckets()) {
+            Stats stats = bucket.getAggregations().get(valueField);
+            if (stats.getCount() > 0) {
+                rebuilt.put(((Number) bucket.getKey()).longValue(),
+                        new BucketStats(stats.getCount(), stats.getSum(), stats.getMin(), stats.getMax()));
+            }
+        }
+        synchronized (this) {
+            buckets = rebuilt;
+            builtAt = start;
+            stale = false;
+            if (written && lastWriteAt - start >= -refreshIntervalNanos) {
+                // 最近的写入可能还没有refresh，或者发生在计算期间
+                markStale(start);
+            }
+        }
+        return rebuilt;
+    }
+
+    private static BucketStats merge(NavigableMap<Long, BucketStats> buckets, long from, long to) {
+        BucketStats result = BucketStats.EMPTY;
+        for (Map.Entry<Long, BucketStats> me : buckets.subMap(from, true, to, true).entrySet()) {
+            result = result.merge(me.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * 直接由内存中的汇总数据得到结果的次数
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * 请求es重新计算的次数
+     */
+    public long getRebuilds() {
+        return rebuilds.get();
+    }
+}
@@ -0,0 +1,45 @@
+package cn.xpleaf.bigdata.elasticsearch.rollup;
+
+import lombok.Getter;
+
+/**
+ * 一个或多个桶的汇总：文档数、和、最小值、最大值，平均值由sum/count得到
+ * 不可变，合并时返回新的对象
+ */
+@Getter
+public class BucketStats {
+
+    public static final BucketStats EMPTY = new BucketStats(0, 0, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY);
+
+    private final long count;
+    private final double sum;
+    private final double min;
+    private final double max;
+
+    public BucketStats(long count, double sum, double min, double max) {
+        this.count = count;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+    }
+
+    public static BucketStats of(double value) {
+        return new BucketStats(1, value, value, value);
+    }
+
+    public BucketStats merge(BucketStats other) {
+        return new BucketStats(count + other.count, sum + other.sum, Math.min(min, other.min), Math.max(max, other.max));
+    }
+
+    /**
+     * 没有数据时为NaN，与es的avg聚合一致
+     */
+    public double getAvg() {
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    @Override
+    public String toString() {
+        return "BucketStats{count=" + count + ", sum=" + sum + ", min=" + min + ", max=" + max + ", avg=" + getAvg() + "}";
+    }
+}
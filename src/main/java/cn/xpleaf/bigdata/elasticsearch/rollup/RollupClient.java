@@ -0,0 +1,125 @@
+package cn.xpleaf.bigdata.elasticsearch.rollup;
+
+import cn.xpleaf.bigdata.elasticsearch.codec.Projection;
+import org.elasticsearch.action.Action;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.FilterClient;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 在写入路径上维护BucketRollup的客户端
+ * 与CachingClient一样，只能感知到经过该客户端的写操作
+ */
+public class RollupClient extends FilterClient {
+
+    private final BucketRollup rollup;
+    private final Projection projection;
+
+    public RollupClient(Client in, BucketRollup rollup) {
+        super(in);
+        this.rollup = rollup;
+        this.projection = Projection.of(rollup.getBucketField(), rollup.getValueField());
+    }
+
+    public BucketRollup getRollup() {
+        return rollup;
+    }
+
+    @Override
+    protected <Request extends ActionRequest, Response extends ActionResponse, RequestBuilder extends ActionRequestBuilder<Request, Response, RequestBuilder>>
+    void doExecute(Action<Request, Response, RequestBuilder> action, Request request, ActionListener<Response> listener) {
+        if (!affects(request)) {
+            super.doExecute(action, request, listener);
+            return;
+        }
+        super.doExecute(action, request, new ActionListener<Response>() {
+            @Override
+            public void onResponse(Response response) {
+                apply(request, response);
+                listener.onResponse(response);
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                // 不知道是否已经写入
+                rollup.invalidate();
+                listener.onFailure(e);
+            }
+        });
+    }
+
+    private boolean affects(ActionRequest request) {
+        if (request instanceof BulkRequest) {
+            for (ActionRequest item : ((BulkRequest) request).requests()) {
+                if (affects(item)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (request instanceof IndexRequest) {
+            return matches(((IndexRequest) request).index(), ((IndexRequest) request).type());
+        }
+        if (request instanceof UpdateRequest) {
+            return matches(((UpdateRequest) request).index(), ((UpdateRequest) request).type());
+        }
+        if (request instanceof DeleteRequest) {
+            return matches(((DeleteRequest) request).index(), ((DeleteRequest) request).type());
+        }
+        if (request instanceof DeleteIndexRequest) {
+            List<String> indices = Arrays.asList(((DeleteIndexRequest) request).indices());
+            return indices.contains(rollup.getIndex()) || indices.contains("_all") || indices.contains("*");
+        }
+        return false;
+    }
+
+    private boolean matches(String index, String type) {
+        return rollup.getIndex().equals(index) && rollup.getType().equals(type);
+    }
+
+    private void apply(ActionRequest request, ActionResponse response) {
+        if (request instanceof BulkRequest) {
+            List<ActionRequest> requests = ((BulkRequest) request).requests();
+            BulkItemResponse[] items = ((BulkResponse) response).getItems();
+            for (int i = 0; i < items.length; i++) {
+                if (!items[i].isFailed() && affects(requests.get(i))) {
+                    apply(requests.get(i), items[i].getResponse());
+                }
+            }
+        } else if (request instanceof IndexRequest && ((IndexResponse) response).isCreated()) {
+            onCreated((IndexRequest) request);
+        } else {
+            rollup.invalidate();
+        }
+    }
+
+    private void onCreated(IndexRequest request) {
+        double[] values = {Double.NaN, Double.NaN};
+        try {
+            projection.visit(request.source(), (ordinal, parser) -> values[ordinal] = parser.doubleValue());
+        } catch (RuntimeException e) {
+            rollup.invalidate();
+            return;
+        }
+        if (Double.isNaN(values[0]) || Double.isNaN(values[1])) {
+            // 字段缺失或者为数组、对象时，无法确定文档在聚合中的贡献，重新计算
+            rollup.invalidate();
+            return;
+        }
+        rollup.onCreated((long) Math.floor(values[0]), values[1]);
+    }
+}
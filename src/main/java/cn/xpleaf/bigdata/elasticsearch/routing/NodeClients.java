@@ -0,0 +1,18 @@
+package cn.xpleaf.bigdata.elasticsearch.routing;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+
+/**
+ * 获取直接连接到某个节点的客户端
+ */
+public interface NodeClients extends AutoCloseable {
+
+    /**
+     * @return 连接到该节点的客户端，无法连接时返回null
+     */
+    Client client(DiscoveryNode node);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,199 @@
+package cn.xpleaf.bigdata.elasticsearch.routing;
+
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.Action;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.FilterClient;
+import org.elasticsearch.client.transport.NoNodeAvailableException;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.lucene.uid.Versions;
+import org.elasticsearch.index.VersionType;
+import org.elasticsearch.node.NodeClosedException;
+import org.elasticsearch.transport.ConnectTransportException;
+import org.elasticsearch.transport.NodeDisconnectedException;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按分片位置分发请求的客户端
+ * TransportClient在配置的节点之间轮询，请求到达的节点往往没有目标分片，需要再转发一次
+ *
+ * 这里：
+ *      get                     发送到持有该文档分片（主分片或副本）的节点，并设置preference=_local，由该节点直接读取
+ *      index/update/delete     发送到主分片所在的节点
+ *      search                  没有指定preference时使用固定的searchPreference，
+ *                              同样的查询总是落在同一组分片副本上，分片的request cache更容易命中
+ * 无法确定节点（别名、自动生成id、集群状态中还没有的索引）时由原客户端发送
+ * 目标节点不可用（离开集群、连接失败）时，在刷新集群状态之前不再路由到该节点，并且只在重新发送是安全的时候由原客户端重新发送一次：
+ *      连接失败、没有连接     请求还没有发出，任何请求都可以重新发送
+ *      连接断开、节点关闭     请求可能已经执行，只重新发送get以及没有指定版本的普通index/delete；
+ *                             脚本或upsert的update会被执行两次，指定了版本或op_type=create的index/delete
+ *                             在第一次已经成功时会返回版本冲突，这些请求直接返回失败
+ *
+ * 只适用于TransportClient，local模式下的节点客户端本身就是直接路由到分片的
+ */
+public class RoutingClient extends FilterClient {
+
+    private final ShardRouter router;
+    private final NodeClients nodeClients;
+    private final String searchPreference;
+    private final AtomicLong routed = new AtomicLong();
+    private final AtomicLong unrouted = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+
+    /**
+     * @param searchPreference 查询使用的preference，如_local或者任意的自定义字符串，null表示不设置
+     */
+    public RoutingClient(Client in, ShardRouter router, NodeClients nodeClients, String searchPreference) {
+        super(in);
+        this.router = router;
+        this.nodeClients = nodeClients;
+        this.searchPreference = searchPreference;
+    }
+
+    public ShardRouter getRouter() {
+        return router;
+    }
+
+    @Override
+    protected <Request extends ActionRequest, Response extends ActionResponse, RequestBuilder extends ActionRequestBuilder<Request, Response, RequestBuilder>>
+    void doExecute(Action<Request, Response, RequestBuilder> action, Request request, ActionListener<Response> listener) {
+        if (request instanceof SearchRequest) {
+            SearchRequest searchRequest = (SearchRequest) request;
+            if (searchPreference != null && searchRequest.preference() == null) {
+                searchRequest.preference(searchPreference);
+            }
+            super.doExecute(action, request, listener);
+            return;
+        }
+        DiscoveryNode node = node(request);
+        Client target = node == null ? null : nodeClients.client(node);
+        if (target == null) {
+            unrouted.incrementAndGet();
+            super.doExecute(action, request, listener);
+            return;
+        }
+        routed.incrementAndGet();
+        // 在发送之前判断，执行时请求中的版本可能被修改
+        boolean idempotent = idempotent(request);
+        ActionListener<Response> fallback = new ActionListener<Response>() {
+            @Override
+            public void onResponse(Response response) {
+                listener.onResponse(response);
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                if (!unavailable(e)) {
+                    listener.onFailure(e);
+                    return;
+                }
+                router.markStale(node);
+                if (!notSent(e) && !idempotent) {
+                    listener.onFailure(e);
+                    return;
+                }
+                fallbacks.incrementAndGet();
+                RoutingClient.super.doExecute(action, request, listener);
+            }
+        };
+        try {
+            target.execute(action, request, fallback);
+        } catch (RuntimeException e) {
+            fallback.onFailure(e);
+        }
+    }
+
+    /**
+     * 节点不可用，请求没有到达或者没有得到响应
+     */
+    private static boolean unavailable(Throwable e) {
+        Throwable cause = ExceptionsHelper.unwrapCause(e);
+        return cause instanceof ConnectTransportException || cause instanceof NoNodeAvailableException
+                || cause instanceof NodeClosedException;
+    }
+
+    /**
+     * 连接失败或者没有连接，请求一定还没有发出；NodeDisconnectedException也是ConnectTransportException，但请求可能已经发出
+     */
+    private static boolean notSent(Throwable e) {
+        Throwable cause = ExceptionsHelper.unwrapCause(e);
+        return cause instanceof ConnectTransportException && !(cause instanceof NodeDisconnectedException);
+    }
+
+    /**
+     * 执行两次与执行一次的结果相同的请求
+     */
+    private static boolean idempotent(ActionRequest request) {
+        if (request instanceof GetRequest) {
+            return true;
+        } else if (request instanceof IndexRequest) {
+            IndexRequest index = (IndexRequest) request;
+            return index.opType() == IndexRequest.OpType.INDEX && index.version() == Versions.MATCH_ANY
+                    && index.versionType() == VersionType.INTERNAL;
+        } else if (request instanceof DeleteRequest) {
+            DeleteRequest delete = (DeleteRequest) request;
+            return delete.version() == Versions.MATCH_ANY && delete.versionType() == VersionType.INTERNAL;
+        }
+        return false;
+    }
+
+    private DiscoveryNode node(ActionRequest request) {
+        DiscoveryNode node;
+        if (request instanceof GetRequest) {
+            GetRequest get = (GetRequest) request;
+            node = router.readNode(get.index(), get.type(), get.id(), get.routing());
+            if (node != null && get.preference() == null) {
+                get.preference("_local");
+            }
+        } else if (request instanceof IndexRequest) {
+            IndexRequest index = (IndexRequest) request;
+            node = router.primaryNode(index.index(), index.type(), index.id(), index.routing());
+        } else if (request instanceof UpdateRequest) {
+            UpdateRequest update = (UpdateRequest) request;
+            node = router.primaryNode(update.index(), update.type(), update.id(), update.routing());
+        } else if (request instanceof DeleteRequest) {
+            DeleteRequest delete = (DeleteRequest) request;
+            node = router.primaryNode(delete.index(), delete.type(), delete.id(), delete.routing());
+        } else {
+            return null;
+        }
+        return node;
+    }
+
+    /**
+     * 直接发送到分片所在节点的请求数
+     */
+    public long getRouted() {
+        return routed.get();
+    }
+
+    /**
+     * 无法确定节点而由原客户端发送的单文档请求数
+     */
+    public long getUnrouted() {
+        return unrouted.get();
+    }
+
+    /**
+     * 目标节点不可用而由原客户端重新发送的请求数
+     */
+    public long getFallbacks() {
+        return fallbacks.get();
+    }
+
+    @Override
+    public void close() {
+        nodeClients.close();
+        super.close();
+    }
+}
@@ -0,0 +1,134 @@
+package cn.xpleaf.bigdata.elasticsearch.routing;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.admin.cluster.state.ClusterStateResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.routing.IndexRoutingTable;
+import org.elasticsearch.cluster.routing.IndexShardRoutingTable;
+import org.elasticsearch.cluster.routing.OperationRouting;
+import org.elasticsearch.cluster.routing.ShardRouting;
+import org.elasticsearch.cluster.routing.allocation.decider.AwarenessAllocationDecider;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.shard.ShardId;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 根据集群状态计算单文档操作所在的分片以及分片所在的节点
+ * 分片的计算直接使用es的OperationRouting，与es端完全一致（包括routing参数和旧版本索引的hash方式）
+ *
+ * 集群状态在第一次使用时同步获取，之后超过refreshInterval时在后台异步刷新，
+ * 所以分片迁移之后的一段时间内计算出的节点可能是旧的，这时请求会由该节点转发，只是多了一跳；
+ * 节点离开集群或者无法连接时，RoutingClient调用markStale，在下一次刷新集群状态之前不再路由到该节点
+ */
+public class ShardRouter {
+
+    private final Client client;
+    private final long refreshNanos;
+    private final OperationRouting operationRouting = new OperationRouting(Settings.EMPTY, new AwarenessAllocationDecider());
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private final Set<String> staleNodes = ConcurrentHashMap.newKeySet();
+    private volatile ClusterState state;
+    private volatile long fetchedAt;
+
+    public ShardRouter(Client client, TimeValue refreshInterval) {
+        this.client = client;
+        this.refreshNanos = refreshInterval.nanos();
+    }
+
+    /**
+     * 写操作：主分片所在的节点，无法确定时返回null
+     */
+    public DiscoveryNode primaryNode(String index, String type, String id, String routing) {
+        ClusterState current = state();
+        IndexShardRoutingTable shard = shard(current, index, type, id, routing);
+        if (shard == null || shard.primaryShard() == null || !shard.primaryShard().active()) {
+            return null;
+        }
+        return node(current, shard.primaryShard().currentNodeId());
+    }
+
+    /**
+     * 读操作：主分片或者副本所在的节点，同一个文档总是选择同一个分片
+     */
+    public DiscoveryNode readNode(String index, String type, String id, String routing) {
+        ClusterState current = state();
+        IndexShardRoutingTable shard = shard(current, index, type, id, routing);
+        if (shard == null) {
+            return null;
+        }
+        List<ShardRouting> copies = shard.activeShards();
+        if (copies.isEmpty()) {
+            return null;
+        }
+        return node(current, copies.get(Math.floorMod(id.hashCode(), copies.size())).currentNodeId());
+    }
+
+    private DiscoveryNode node(ClusterState current, String nodeId) {
+        return staleNodes.contains(nodeId) ? null : current.nodes().get(nodeId);
+    }
+
+    /**
+     * 发送到node的请求因为节点不可用而失败，在下一次刷新集群状态之前不再路由到该节点，并尽快刷新
+     */
+    public void markStale(DiscoveryNode node) {
+        staleNodes.add(node.getId());
+        fetchedAt = System.nanoTime() - refreshNanos - 1;
+    }
+
+    private IndexShardRoutingTable shard(ClusterState current, String index, String type, String id, String routing) {
+        // 别名、不存在的索引以及自动生成的id不进行路由
+        if (id == null || current.metaData().index(index) == null) {
+            return null;
+        }
+        IndexRoutingTable table = current.getRoutingTable().index(index);
+        if (table == null) {
+            return null;
+        }
+        ShardId shardId = operationRouting.shardId(current, index, type, id, routing);
+        return table.shard(shardId.id());
+    }
+
+    ClusterState state() {
+        ClusterState current = state;
+        if (current == null) {
+            refresh();
+            return state;
+        }
+        if (System.nanoTime() - fetchedAt > refreshNanos && refreshing.compareAndSet(false, true)) {
+            client.admin().cluster().prepareState().execute(new ActionListener<ClusterStateResponse>() {
+                @Override
+                public void onResponse(ClusterStateResponse response) {
+                    update(response.getState());
+                    refreshing.set(false);
+                }
+
+                @Override
+                public void onFailure(Throwable e) {
+                    // 继续使用旧的状态，下一次请求时再刷新
+                    refreshing.set(false);
+                }
+            });
+        }
+        return current;
+    }
+
+    /**
+     * 同步刷新集群状态，例如创建索引之后
+     */
+    public void refresh() {
+        update(client.admin().cluster().prepareState().get().getState());
+    }
+
+    private void update(ClusterState newState) {
+        state = newState;
+        fetchedAt = System.nanoTime();
+        staleNodes.clear();
+    }
+}
@@ -0,0 +1,105 @@
+package cn.xpleaf.bigdata.elasticsearch.routing;
+
+import org.elasticsearch.action.Action;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.TransportActionNodeProxy;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.FilterClient;
+import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.inject.Injector;
+import org.elasticsearch.transport.TransportService;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 通过主TransportClient的TransportService把请求直接发送到指定的节点
+ * 与主客户端共用连接、线程池和响应处理，不会为每个节点再创建一个TransportClient；
+ * 主客户端没有连接的节点在第一次发送时建立连接，连接失败时请求以ConnectTransportException失败
+ *
+ * es 2.3的TransportClient没有公开TransportService，这里通过反射读取它的injector
+ */
+public class TransportNodeClients implements NodeClients {
+
+    private final TransportClient transportClient;
+    private final TransportService transportService;
+    // 节点id ---> 发送到该节点的客户端
+    private final Map<String, Client> clients = new ConcurrentHashMap<>();
+    // action名 ---> 发送该action的代理
+    private final Map<String, TransportActionNodeProxy<?, ?>> proxies = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    /**
+     * @param transportClient 主客户端，由调用方负责关闭
+     */
+    public TransportNodeClients(TransportClient transportClient) {
+        this.transportClient = transportClient;
+        this.transportService = transportService(transportClient);
+    }
+
+    private static TransportService transportService(TransportClient client) {
+        try {
+            Field field = TransportClient.class.getDeclaredField("injector");
+            field.setAccessible(true);
+            return ((Injector) field.get(client)).getInstance(TransportService.class);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("无法获取TransportClient的TransportService", e);
+        }
+    }
+
+    @Override
+    public Client client(DiscoveryNode node) {
+        if (closed || !node.isDataNode()) {
+            return null;
+        }
+        return clients.computeIfAbsent(node.getId(), id -> new NodeClient(node));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <Request extends ActionRequest, Response extends ActionResponse> TransportActionNodeProxy<Request, Response> proxy(
+            Action<Request, Response, ?> action) {
+        return (TransportActionNodeProxy<Request, Response>) proxies.computeIfAbsent(action.name(),
+                name -> new TransportActionNodeProxy<>(transportClient.settings(), action, transportService));
+    }
+
+    /**
+     * 不关闭主客户端，只是不再返回节点的客户端
+     */
+    @Override
+    public void close() {
+        closed = true;
+        clients.clear();
+    }
+
+    private class NodeClient extends FilterClient {
+
+        private final DiscoveryNode node;
+
+        NodeClient(DiscoveryNode node) {
+            super(transportClient);
+            this.node = node;
+        }
+
+        @Override
+        protected <Request extends ActionRequest, Response extends ActionResponse, RequestBuilder extends ActionRequestBuilder<Request, Response, RequestBuilder>>
+        void doExecute(Action<Request, Response, RequestBuilder> action, Request request, ActionListener<Response> listener) {
+            try {
+                // 已经连接时直接返回
+                transportService.connectToNode(node);
+                proxy(action).execute(node, request, listener);
+            } catch (RuntimeException e) {
+                listener.onFailure(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            // 共用主客户端
+        }
+    }
+}
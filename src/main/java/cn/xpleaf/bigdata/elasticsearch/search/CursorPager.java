@@ -0,0 +1,126 @@
+package cn.xpleaf.bigdata.elasticsearch.search;
+
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.query.RangeQueryBuilder;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.sort.SortOrder;
+
+/**
+ * 游标分页
+ *
+ * ElasticSearchTest2.testSearch5()中使用setFrom((N - 1) * pageSize)进行分页，
+ * 每个分片都需要返回from + size条数据，所以越往后翻页越慢。
+ * 这里使用上一页最后一条数据的[排序值, _uid]作为游标，将其转换为过滤条件：
+ *      DESC：field < value or (field == value and _uid > uid)
+ *      ASC： field > value or (field == value and _uid > uid)
+ * 每一页都是from=0的查询，第N页与第1页的代价是一样的
+ * （es 2.3还没有search_after，这里是其在客户端的等价实现）
+ */
+public class CursorPager {
+
+    private static final String UID = "_uid";
+
+    private final Client client;
+    private final String[] indices;
+    private final String field;
+    private final SortOrder order;
+    private final int pageSize;
+
+    public CursorPager(Client client, String field, SortOrder order, int pageSize, String... indices) {
+        this.client = client;
+        this.field = field;
+        this.order = order;
+        this.pageSize = pageSize;
+        this.indices = indices;
+    }
+
+    /**
+     * bank索引按balance由高到低分页
+     */
+    public static CursorPager bankByBalance(Client client, int pageSize) {
+        return new CursorPager(client, "balance", SortOrder.DESC, pageSize, "bank");
+    }
+
+    /**
+     * 查询一页数据
+     *
+     * @param after 上一页返回的游标，为null时查询第一页
+     */
+    public Page page(QueryBuilder query, SearchCursor after) {
+        QueryBuilder effective = query;
+        if (after != null) {
+            effective = QueryBuilders.boolQuery()
+                    .must(query == null ? QueryBuilders.matchAllQuery() : query)
+                    .filter(afterFilter(after));
+        }
+        SearchResponse response = client.prepareSearch(indices)
+                .setQuery(effective)
+                .addSort(field, order)
+                .addSort(UID, SortOrder.ASC)
+                .setSize(pageSize)
+                .get();
+        SearchHit[] hits = response.getHits().getHits();
+        SearchCursor next = hits.length < pageSize ? null : SearchCursor.fromHit(hits[hits.length - 1]);
+        return new Page(hits, response.getHits().getTotalHits(), next);
+    }
+
+    public Page page(QueryBuilder query, String cursor) {
+        return page(query, cursor == null ? null : SearchCursor.decode(cursor));
+    }
+
+    BoolQueryBuilder afterFilter(SearchCursor after) {
+        RangeQueryBuilder beyond = QueryBuilders.rangeQuery(field);
+        if (order == SortOrder.DESC) {
+            beyond.lt(after.getSortValue());
+        } else {
+            beyond.gt(after.getSortValue());
+        }
+        return QueryBuilders.boolQuery()
+                .should(beyond)
+                .should(QueryBuilders.boolQuery()
+                        .filter(QueryBuilders.termQuery(field, after.getSortValue()))
+                        .filter(QueryBuilders.rangeQuery(UID).gt(after.getUid())))
+                .minimumNumberShouldMatch(1);
+    }
+
+    /**
+     * 一页查询结果
+     */
+    public static class Page {
+        private final SearchHit[] hits;
+        private final long remainingHits;
+        private final SearchCursor next;
+
+        Page(SearchHit[] hits, long remainingHits, SearchCursor next) {
+            this.hits = hits;
+            this.remainingHits = remainingHits;
+            this.next = next;
+        }
+
+        public SearchHit[] getHits() {
+            return hits;
+        }
+
+        /**
+         * 从当前页开始（包括当前页）剩余的记录数，第一页时即为总记录数
+         */
+        public long getRemainingHits() {
+            return remainingHits;
+        }
+
+        /**
+         * 下一页的游标，已经是最后一页时为null
+         */
+        public SearchCursor getNext() {
+            return next;
+        }
+
+        public boolean hasNext() {
+            return next != null;
+        }
+    }
+}
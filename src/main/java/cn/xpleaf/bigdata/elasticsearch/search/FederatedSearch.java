@@ -0,0 +1,324 @@
+package cn.xpleaf.bigdata.elasticsearch.search;
+
+import lombok.Getter;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.SearchHit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 多索引的并行查询
+ * ElasticSearchTest2中prepareSearch(indics)对bigdata和bank只发起一个查询，
+ * 协调节点要等所有索引的所有分片都返回之后才能合并结果，最慢的索引决定了整个查询的耗时
+ *
+ * 这里对每个索引（splitShards时对每个索引的每个分片，preference=_shards:N）分别异步查询，
+ * 在客户端用大小为size的小顶堆合并得分最高的size条数据：
+ *      timeout         每个查询在服务端的超时时间，超时的分片返回部分结果；客户端最多再多等待grace时间，
+ *                      仍未返回的查询不再等待，记录在timedOut中
+ *      terminateAfter  每个分片最多收集的文档数，用于只需要任意size条数据的场景
+ *      firstHits       只需要任意size条数据，不关心得分时，收到size条数据之后立即返回，不再等待其它查询
+ *
+ * splitShards时每个索引的分片数从集群状态中获取并缓存shardCountTtl，查询失败或者分片已不存在时清除缓存，
+ * 别名取所有具体索引中最大的分片数，preference=_shards:N会查询每个具体索引的第N个分片（没有该分片的索引跳过），
+ * 这样别名的filter和routing仍然生效
+ *
+ * es 2.3不支持取消正在执行的查询，提前返回之后剩余查询的结果会被直接丢弃
+ */
+public class FederatedSearch {
+
+    private static final Comparator<SearchHit> BY_SCORE = (a, b) -> Float.compare(a.getScore(), b.getScore());
+
+    private final Client client;
+    private final TimeValue timeout;
+    private final TimeValue grace;
+    private final int terminateAfter;
+    private final boolean splitShards;
+    private final boolean firstHits;
+    private final long shardCountTtlNanos;
+    // 索引或别名 ---> 分片数
+    private final Map<String, ShardCount> shardCounts = new ConcurrentHashMap<>();
+
+    private FederatedSearch(Client client, Builder builder) {
+        this.client = client;
+        this.timeout = builder.timeout;
+        this.grace = builder.grace;
+        this.terminateAfter = builder.terminateAfter;
+        this.splitShards = builder.splitShards;
+        this.firstHits = builder.firstHits;
+        this.shardCountTtlNanos = builder.shardCountTtl.nanos();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * 查询多个索引，返回得分最高的size条数据（firstHits时为最先返回的size条数据）
+     */
+    public Result search(QueryBuilder query, int size, String... indices) throws InterruptedException {
+        Collector collector = new Collector(size);
+        Map<String, SearchRequestBuilder> targets = new LinkedHashMap<>();
+        Map<String, String> targetIndices = new LinkedHashMap<>();
+        prepare(query, size, indices, targets, targetIndices);
+        collector.expect(targets.keySet());
+        for (Map.Entry<String, SearchRequestBuilder> me : targets.entrySet()) {
+            String target = me.getKey();
+            String index = targetIndices.get(target);
+            me.getValue().execute(new ActionListener<SearchResponse>() {
+                @Override
+                public void onResponse(SearchResponse response) {
+                    if (splitShards && response.getTotalShards() == 0) {
+                        // 分片已经不存在，下次重新获取分片数
+                        shardCounts.remove(index);
+                    }
+                    collector.onResponse(target, response);
+                }
+
+                @Override
+                public void onFailure(Throwable e) {
+                    shardCounts.remove(index);
+                    collector.onFailure(target, e);
+                }
+            });
+        }
+        try {
+            collector.done.get(timeout.millis() + grace.millis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // 没有返回的查询记录在timedOut中
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        return collector.finish();
+    }
+
+    private void prepare(QueryBuilder query, int size, String[] indices,
+                         Map<String, SearchRequestBuilder> targets, Map<String, String> targetIndices) {
+        for (String index : indices) {
+            int shards = splitShards ? numberOfShards(index) : 1;
+            for (int shard = 0; shard < shards; shard++) {
+                SearchRequestBuilder request = client.prepareSearch(index)
+                        .setQuery(query)
+                        .setSize(size)
+                        .setTimeout(timeout);
+                if (terminateAfter > 0) {
+                    request.setTerminateAfter(terminateAfter);
+                }
+                String target = splitShards ? index + "[" + shard + "]" : index;
+                if (splitShards) {
+                    request.setPreference("_shards:" + shard);
+                }
+                targets.put(target, request);
+                targetIndices.put(target, index);
+            }
+        }
+    }
+
+    /**
+     * 索引的分片数，别名或通配符为所有具体索引中最大的分片数，缓存shardCountTtl
+     */
+    int numberOfShards(String index) {
+        long now = System.nanoTime();
+        ShardCount cached = shardCounts.get(index);
+        if (cached != null && now - cached.fetchedAt < shardCountTtlNanos) {
+            return cached.shards;
+        }
+        int shards = 1;
+        for (IndexMetaData metaData : client.admin().cluster().prepareState()
+                .setIndices(index).setMetaData(true).setRoutingTable(false).setNodes(false)
+                .get().getState().getMetaData()) {
+            shards = Math.max(shards, metaData.getNumberOfShards());
+        }
+        shardCounts.put(index, new ShardCount(shards, now));
+        return shards;
+    }
+
+    private static class ShardCount {
+        private final int shards;
+        private final long fetchedAt;
+
+        ShardCount(int shards, long fetchedAt) {
+            this.shards = shards;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+
+    /**
+     * 收集各个查询的结果，回调在es的线程中执行，所以所有方法都需要同步
+     */
+    private class Collector {
+        private final int size;
+        private final PriorityQueue<SearchHit> heap;
+        private final List<String> outstanding = new ArrayList<>();
+        private final List<String> failed = new ArrayList<>();
+        private final List<String> partial = new ArrayList<>();
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private final long start = System.nanoTime();
+        private long totalHits;
+        private boolean finished;
+
+        Collector(int size) {
+            this.size = size;
+            this.heap = new PriorityQueue<>(Math.max(1, size), BY_SCORE);
+        }
+
+        synchronized void expect(Iterable<String> targets) {
+            for (String target : targets) {
+                outstanding.add(target);
+            }
+        }
+
+        synchronized void onResponse(String target, SearchResponse response) {
+            if (finished) {
+                return;
+            }
+            outstanding.remove(target);
+            totalHits += response.getHits().getTotalHits();
+            if (response.isTimedOut() || response.getFailedShards() > 0) {
+                partial.add(target);
+            }
+            for (SearchHit hit : response.getHits().getHits()) {
+                if (firstHits) {
+                    if (heap.size() < size) {
+                        heap.add(hit);
+                    }
+                } else {
+                    heap.add(hit);
+                    if (heap.size() > size) {
+                        heap.poll();
+                    }
+                }
+            }
+            checkDone();
+        }
+
+        synchronized void onFailure(String target, Throwable e) {
+            if (finished) {
+                return;
+            }
+            outstanding.remove(target);
+            failed.add(target);
+            checkDone();
+        }
+
+        private void checkDone() {
+            if (outstanding.isEmpty() || (firstHits && heap.size() >= size)) {
+                done.complete(null);
+            }
+        }
+
+        synchronized Result finish() {
+            finished = true;
+            List<SearchHit> hits = new ArrayList<>(heap);
+            if (!firstHits) {
+                hits.sort(Collections.reverseOrder(BY_SCORE));
+            }
+            return new Result(hits, totalHits, new ArrayList<>(outstanding), failed, partial,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    /**
+     * 合并后的查询结果
+     */
+    @Getter
+    public static class Result {
+        private final List<SearchHit> hits;
+        /**
+         * 已经返回的查询的总命中数之和
+         */
+        private final long totalHits;
+        /**
+         * 在返回之前还没有结果的查询，firstHits时为提前结束而放弃的查询
+         */
+        private final List<String> timedOut;
+        private final List<String> failed;
+        /**
+         * 服务端超时或者有分片失败，只返回了部分结果的查询
+         */
+        private final List<String> partial;
+        private final long tookMillis;
+
+        Result(List<SearchHit> hits, long totalHits, List<String> timedOut, List<String> failed, List<String> partial, long tookMillis) {
+            this.hits = hits;
+            this.totalHits = totalHits;
+            this.timedOut = timedOut;
+            this.failed = failed;
+            this.partial = partial;
+            this.tookMillis = tookMillis;
+        }
+    }
+
+    public static class Builder {
+        private TimeValue timeout = TimeValue.timeValueSeconds(5);
+        private TimeValue grace = TimeValue.timeValueMillis(500);
+        private int terminateAfter = 0;
+        private boolean splitShards = false;
+        private boolean firstHits = false;
+        private TimeValue shardCountTtl = TimeValue.timeValueMinutes(1);
+
+        private Builder() {
+        }
+
+        /**
+         * 每个查询在服务端的超时时间，以及客户端在此基础上多等待的时间
+         */
+        public Builder setTimeout(TimeValue timeout, TimeValue grace) {
+            this.timeout = timeout;
+            this.grace = grace;
+            return this;
+        }
+
+        /**
+         * 每个分片最多收集的文档数，0表示不限制
+         */
+        public Builder setTerminateAfter(int terminateAfter) {
+            this.terminateAfter = terminateAfter;
+            return this;
+        }
+
+        /**
+         * 是否对每个分片分别发起查询，适合分片数多、数据量大的索引
+         */
+        public Builder setSplitShards(boolean splitShards) {
+            this.splitShards = splitShards;
+            return this;
+        }
+
+        /**
+         * splitShards时分片数的缓存时间
+         */
+        public Builder setShardCountTtl(TimeValue shardCountTtl) {
+            this.shardCountTtl = shardCountTtl;
+            return this;
+        }
+
+        /**
+         * 是否收到size条数据后立即返回
+         */
+        public Builder setFirstHits(boolean firstHits) {
+            this.firstHits = firstHits;
+            return this;
+        }
+
+        public FederatedSearch build(Client client) {
+            return new FederatedSearch(client, this);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package cn.xpleaf.bigdata.elasticsearch.search;
+
+import org.elasticsearch.ElasticsearchParseException;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.collect.Tuple;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 把不影响打分的查询条件改写到filter上下文中
+ * filter上下文中的条件不计算得分，并且可以被节点的query cache以bitset的形式缓存，
+ * 重复的仪表盘类查询（相同的term/range条件）可以直接使用缓存的结果
+ *
+ * 改写规则：
+ *      1.请求不需要得分（size为0，或者按非_score的字段排序且没有track_scores）：
+ *        整个query改写为constant_score的filter，例如testSearch5中按balance排序的range查询，
+ *        以及testSearch4中的should子句
+ *      2.需要按_score排序时，只改写常量打分的条件（range/prefix/regexp等）：
+ *        bool中must里的这类子句移到filter中，只有这类条件的query整体改写为constant_score，
+ *        term/match等依赖词频的子句保持不变，所以结果的排序不变
+ *
+ * 有min_score、rescore、top_hits聚合或者使用模板的请求不进行改写
+ */
+public class FilterContextRewriter {
+
+    /**
+     * 改写请求的source，返回是否进行了改写
+     */
+    public boolean rewrite(SearchRequest request) {
+        BytesReference source = request.source();
+        if (source == null || source.length() == 0 || request.templateSource() != null || request.template() != null) {
+            return false;
+        }
+        Tuple<XContentType, Map<String, Object>> parsed;
+        Map<String, Object> extra = Collections.emptyMap();
+        try {
+            parsed = XContentHelper.convertToMap(source, true);
+            if (request.extraSource() != null && request.extraSource().length() > 0) {
+                extra = XContentHelper.convertToMap(request.extraSource(), false).v2();
+            }
+        } catch (ElasticsearchParseException e) {
+            return false;
+        }
+        Map<String, Object> map = parsed.v2();
+        Object query = map.get("query");
+        if (query == null || extra.containsKey("query")) {
+            return false;
+        }
+        Map<String, Object> merged = new HashMap<>(map);
+        merged.putAll(extra);
+        if (merged.containsKey("min_score") || merged.containsKey("rescore") || usesScoreInAggregations(merged)) {
+            return false;
+        }
+        Object rewritten = scoresNeeded(merged) ? moveConstantScoreClauses(query) : toFilter(query);
+        if (rewritten == query) {
+            return false;
+        }
+        map.put("query", rewritten);
+        try {
+            XContentBuilder builder = XContentFactory.contentBuilder(parsed.v1());
+            request.source(builder.map(map));
+        } catch (IOException e) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 是否需要计算得分：有返回的数据，并且按_score排序（没有指定排序时默认按_score）
+     */
+    static boolean scoresNeeded(Map<String, Object> source) {
+        Object size = source.get("size");
+        if (size instanceof Number && ((Number) size).intValue() == 0) {
+            return false;
+        }
+        return !SearchTypePlanner.isSortedByField(source.get("sort")) || Boolean.TRUE.equals(source.get("track_scores"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static boolean usesScoreInAggregations(Object node) {
+        if (node instanceof Map) {
+            for (Map.Entry<String, Object> me : ((Map<String, Object>) node).entrySet()) {
+                if ("top_hits".equals(me.getKey()) || usesScoreInAggregations(me.getValue())) {
+                    return true;
+                }
+            }
+        } else if (node instanceof List) {
+            for (Object item : (List<Object>) node) {
+                if (usesScoreInAggregations(item)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 整个query都放到filter上下文中
+     */
+    static Object toFilter(Object query) {
+        if (isFilterContext(query)) {
+            return query;
+        }
+        return singleton("constant_score", singleton("filter", query));
+    }
+
+    /**
+     * 只把常量打分的条件放到filter上下文中
+     */
+    @SuppressWarnings("unchecked")
+    static Object moveConstantScoreClauses(Object query) {
+        if (!(query instanceof Map) || ((Map<String, Object>) query).size() != 1) {
+            return query;
+        }
+        Map.Entry<String, Object> entry = ((Map<String, Object>) query).entrySet().iterator().next();
+        String type = entry.getKey();
+        if (isConstantScoreLeaf(type)) {
+            return toFilter(query);
+        }
+        if (!"bool".equals(type) || !(entry.getValue() instanceof Map)) {
+            return query;
+        }
+        Map<String, Object> bool = (Map<String, Object>) entry.getValue();
+        List<Object> must = asList(bool.get("must"));
+        List<Object> should = asList(bool.get("should"));
+        List<Object> keptMust = new ArrayList<>();
+        List<Object> moved = new ArrayList<>();
+        boolean changed = false;
+        for (Object clause : must) {
+            if (clause instanceof Map && ((Map<?, ?>) clause).size() == 1
+                    && isConstantScoreLeaf(String.valueOf(((Map<?, ?>) clause).keySet().iterator().next()))) {
+                moved.add(clause);
+            } else {
+                Object rewritten = moveConstantScoreClauses(clause);
+                changed |= rewritten != clause;
+                keptMust.add(rewritten);
+            }
+        }
+        List<Object> keptShould = new ArrayList<>();
+        for (Object clause : should) {
+            Object rewritten = moveConstantScoreClauses(clause);
+            changed |= rewritten != clause;
+            keptShould.add(rewritten);
+        }
+        if (moved.isEmpty() && !changed) {
+            return query;
+        }
+        if (keptMust.isEmpty() && keptShould.isEmpty()) {
+            // 所有的条件都是常量打分的
+            return toFilter(query);
+        }
+        Map<String, Object> newBool = new LinkedHashMap<>(bool);
+        setClauses(newBool, "must", keptMust);
+        setClauses(newBool, "should", keptShould);
+        if (!moved.isEmpty()) {
+            List<Object> filter = new ArrayList<>(asList(bool.get("filter")));
+            filter.addAll(moved);
+            newBool.put("filter", filter);
+        }
+        return singleton("bool", newBool);
+    }
+
+    private static boolean isConstantScoreLeaf(String type) {
+        return SearchTypePlanner.CONSTANT_SCORE_QUERIES.contains(type) && !"match_all".equals(type);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static boolean isFilterContext(Object query) {
+        if (!(query instanceof Map) || ((Map<String, Object>) query).size() != 1) {
+            return false;
+        }
+        Map.Entry<String, Object> entry = ((Map<String, Object>) query).entrySet().iterator().next();
+        if ("constant_score".equals(entry.getKey()) || "match_all".equals(entry.getKey())) {
+            return true;
+        }
+        if ("bool".equals(entry.getKey()) && entry.getValue() instanceof Map) {
+            Map<String, Object> bool = (Map<String, Object>) entry.getValue();
+            return asList(bool.get("must")).isEmpty() && asList(bool.get("should")).isEmpty();
+        }
+        return false;
+    }
+
+    private static void setClauses(Map<String, Object> bool, String name, List<Object> clauses) {
+        if (clauses.isEmpty()) {
+            bool.remove(name);
+        } else {
+            bool.put(name, clauses);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> asList(Object clauses) {
+        if (clauses == null) {
+            return Collections.emptyList();
+        }
+        return clauses instanceof List ? (List<Object>) clauses : Arrays.asList(clauses);
+    }
+
+    private static Map<String, Object> singleton(String key, Object value) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put(key, value);
+        return map;
+    }
+}
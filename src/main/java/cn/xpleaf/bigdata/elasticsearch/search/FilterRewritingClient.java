@@ -0,0 +1,56 @@
+package cn.xpleaf.bigdata.elasticsearch.search;
+
+import org.elasticsearch.action.Action;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.search.SearchAction;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.FilterClient;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 查询请求发出之前使用FilterContextRewriter把不影响打分的条件改写到filter上下文中
+ * 与PlanningClient一起使用时应该在其外层，这样选择SearchType时看到的是改写之后的查询
+ */
+public class FilterRewritingClient extends FilterClient {
+
+    private final FilterContextRewriter rewriter;
+    private final AtomicLong searches = new AtomicLong();
+    private final AtomicLong rewritten = new AtomicLong();
+
+    public FilterRewritingClient(Client in) {
+        this(in, new FilterContextRewriter());
+    }
+
+    public FilterRewritingClient(Client in, FilterContextRewriter rewriter) {
+        super(in);
+        this.rewriter = rewriter;
+    }
+
+    @Override
+    protected <Request extends ActionRequest, Response extends ActionResponse, RequestBuilder extends ActionRequestBuilder<Request, Response, RequestBuilder>>
+    void doExecute(Action<Request, Response, RequestBuilder> action, Request request, ActionListener<Response> listener) {
+        if (action == SearchAction.INSTANCE) {
+            searches.incrementAndGet();
+            if (rewriter.rewrite((SearchRequest) request)) {
+                rewritten.incrementAndGet();
+            }
+        }
+        super.doExecute(action, request, listener);
+    }
+
+    public long getSearches() {
+        return searches.get();
+    }
+
+    /**
+     * 被改写的查询请求数
+     */
+    public long getRewritten() {
+        return rewritten.get();
+    }
+}
@@ -0,0 +1,200 @@
+package cn.xpleaf.bigdata.elasticsearch.search;
+
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.common.text.Text;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.highlight.HighlightBuilder;
+import org.elasticsearch.search.highlight.HighlightField;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 高亮显示
+ * testSearch4中使用默认的plain高亮器，每条数据都要在查询时对原文重新分词，
+ * 然后用value += text.toString()拼接片段，片段越多拼接的代价越大（每次都复制整个字符串）
+ *
+ * 这里：
+ * 1.每个字段可以单独选择高亮器：
+ *      PLAIN       重新分词，不需要额外的索引数据，适合很短的字段
+ *      POSTINGS    使用倒排中的offsets，字段需要index_options: offsets
+ *      FVH         使用词向量，字段需要term_vector: with_positions_offsets，
+ *                  IndexDefinition中bigdata的author、url和chinese的content都已经开启，适合长文本
+ * 2.每个字段的片段数和片段长度有上限，拼接后的结果还有总长度的上限
+ * 3.片段拼接到当前线程复用的StringBuilder中
+ */
+public class HighlightService {
+
+    public enum Highlighter {
+        PLAIN("plain"), POSTINGS("postings"), FVH("fvh");
+
+        private final String type;
+
+        Highlighter(String type) {
+            this.type = type;
+        }
+
+        public String getType() {
+            return type;
+        }
+    }
+
+    private static final ThreadLocal<StringBuilder> BUFFERS = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    private final Map<String, Highlighter> fields;
+    private final String preTag;
+    private final String postTag;
+    private final int fragmentSize;
+    private final int numberOfFragments;
+    private final int maxLength;
+    private final String separator;
+
+    private HighlightService(Builder builder) {
+        this.fields = new LinkedHashMap<>(builder.fields);
+        this.preTag = builder.preTag;
+        this.postTag = builder.postTag;
+        this.fragmentSize = builder.fragmentSize;
+        this.numberOfFragments = builder.numberOfFragments;
+        this.maxLength = builder.maxLength;
+        this.separator = builder.separator;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * 在查询请求中设置高亮
+     */
+    public SearchRequestBuilder apply(SearchRequestBuilder request) {
+        request.setHighlighterPreTags(preTag).setHighlighterPostTags(postTag);
+        for (Map.Entry<String, Highlighter> me : fields.entrySet()) {
+            request.addHighlightedField(new HighlightBuilder.Field(me.getKey())
+                    .highlighterType(me.getValue().getType())
+                    .fragmentSize(fragmentSize)
+                    .numOfFragments(numberOfFragments));
+        }
+        return request;
+    }
+
+    /**
+     * 拼接一个字段的高亮片段，没有高亮结果时返回null
+     */
+    public String render(SearchHit hit, String field) {
+        HighlightField highlightField = hit.getHighlightFields().get(field);
+        if (highlightField == null || highlightField.fragments() == null) {
+            return null;
+        }
+        StringBuilder sb = BUFFERS.get();
+        sb.setLength(0);
+        appendTo(highlightField, sb);
+        String result = sb.toString();
+        // 避免一次很长的结果让缓冲区一直占用大量内存
+        if (sb.capacity() > maxLength * 4) {
+            BUFFERS.remove();
+        }
+        return result;
+    }
+
+    /**
+     * 拼接所有高亮字段，key为字段名
+     */
+    public Map<String, String> render(SearchHit hit) {
+        Map<String, String> result = new LinkedHashMap<>();
+        for (String field : hit.getHighlightFields().keySet()) {
+            result.put(field, render(hit, field));
+        }
+        return result;
+    }
+
+    /**
+     * 把片段追加到调用方的StringBuilder中，用于输出整页结果时只使用一个缓冲区
+     */
+    public void appendTo(HighlightField highlightField, StringBuilder sb) {
+        int start = sb.length();
+        Text[] fragments = highlightField.fragments();
+        int limit = numberOfFragments > 0 ? Math.min(fragments.length, numberOfFragments) : fragments.length;
+        for (int i = 0; i < limit; i++) {
+            String fragment = fragments[i].string();
+            if (i > 0) {
+                // 不截断片段，以免截断高亮标签
+                if (sb.length() - start + separator.length() + fragment.length() > maxLength) {
+                    break;
+                }
+                sb.append(separator);
+            }
+            sb.append(fragment);
+        }
+    }
+
+    public List<String> getFields() {
+        return new ArrayList<>(fields.keySet());
+    }
+
+    public static class Builder {
+        private final Map<String, Highlighter> fields = new LinkedHashMap<>();
+        private String preTag = "<em>";
+        private String postTag = "</em>";
+        private int fragmentSize = 100;
+        private int numberOfFragments = 3;
+        private int maxLength = 1000;
+        private String separator = " ... ";
+
+        private Builder() {
+        }
+
+        public Builder field(String field, Highlighter highlighter) {
+            fields.put(field, highlighter);
+            return this;
+        }
+
+        public Builder setTags(String preTag, String postTag) {
+            this.preTag = preTag;
+            this.postTag = postTag;
+            return this;
+        }
+
+        /**
+         * 每个片段的字符数
+         */
+        public Builder setFragmentSize(int fragmentSize) {
+            this.fragmentSize = fragmentSize;
+            return this;
+        }
+
+        /**
+         * 每个字段最多返回的片段数，0表示返回整个字段的内容（片段大小不再生效）
+         */
+        public Builder setNumberOfFragments(int numberOfFragments) {
+            this.numberOfFragments = numberOfFragments;
+            return this;
+        }
+
+        /**
+         * 拼接后每个字段的最大字符数，超过时不再追加后面的片段（至少保留第一个片段）
+         */
+        public Builder setMaxLength(int maxLength) {
+            if (maxLength < 1) {
+                throw new IllegalArgumentException("maxLength必须大于0，但是为[" + maxLength + "]");
+            }
+            this.maxLength = maxLength;
+            return this;
+        }
+
+        public Builder setSeparator(String separator) {
+            this.separator = separator;
+            return this;
+        }
+
+        public HighlightService build() {
+            return new HighlightService(this);
+        }
+    }
+}
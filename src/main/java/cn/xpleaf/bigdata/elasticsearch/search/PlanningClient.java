@@ -0,0 +1,225 @@
+package cn.xpleaf.bigdata.elasticsearch.search;
+
+import lombok.Getter;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.elasticsearch.action.Action;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.admin.indices.stats.IndicesStatsResponse;
+import org.elasticsearch.action.admin.indices.stats.ShardStats;
+import org.elasticsearch.action.search.SearchAction;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.FilterClient;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 自动选择SearchType的客户端
+ * 对es的Client进行包装，每个查询请求发出之前由SearchTypePlanner重新选择SearchType，
+ * 需要索引大小时通过indices stats获取，结果按索引缓存statsTtl时间
+ *
+ * 每种决策（原SearchType->新SearchType，原因）的次数和客户端耗时都会被记录，通过getDecisions()查看，
+ * 可以对比去掉DFS前后的延迟
+ */
+public class PlanningClient extends FilterClient {
+
+    private final SearchTypePlanner planner;
+    private final long statsTtlMillis;
+    private final ConcurrentMap<String, IndexSize> indexSizes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, DecisionMetrics> decisions = new ConcurrentHashMap<>();
+
+    public PlanningClient(Client in) {
+        this(in, new SearchTypePlanner(), TimeValue.timeValueMinutes(1));
+    }
+
+    public PlanningClient(Client in, SearchTypePlanner planner, TimeValue statsTtl) {
+        super(in);
+        this.planner = planner;
+        this.statsTtlMillis = statsTtl.millis();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected <Request extends ActionRequest, Response extends ActionResponse, RequestBuilder extends ActionRequestBuilder<Request, Response, RequestBuilder>>
+    void doExecute(Action<Request, Response, RequestBuilder> action, Request request, ActionListener<Response> listener) {
+        if (action == SearchAction.INSTANCE) {
+            plannedSearch((SearchRequest) request, (ActionListener<SearchResponse>) listener);
+            return;
+        }
+        super.doExecute(action, request, listener);
+    }
+
+    private void plannedSearch(SearchRequest request, ActionListener<SearchResponse> listener) {
+        SearchTypePlanner.Analysis analysis = planner.analyze(request);
+        if (analysis == null || !analysis.needsIndexSize()) {
+            execute(request, planner.plan(request, analysis, -1, -1), listener);
+            return;
+        }
+        String key = String.join(",", request.indices());
+        IndexSize size = indexSizes.get(key);
+        if (size != null && size.expireAt > System.currentTimeMillis()) {
+            execute(request, planner.plan(request, analysis, size.primaryShards, size.docs), listener);
+            return;
+        }
+        in().admin().indices().prepareStats(request.indices()).clear().setDocs(true).execute(new ActionListener<IndicesStatsResponse>() {
+            @Override
+            public void onResponse(IndicesStatsResponse response) {
+                IndexSize newSize = new IndexSize(primaryShards(response), response.getPrimaries().getDocs() == null
+                        ? 0 : response.getPrimaries().getDocs().getCount(), System.currentTimeMillis() + statsTtlMillis);
+                indexSizes.put(key, newSize);
+                execute(request, planner.plan(request, analysis, newSize.primaryShards, newSize.docs), listener);
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                // 获取不到索引大小时不影响查询本身，例如索引不存在时由查询返回错误
+                execute(request, planner.plan(request, analysis, -1, -1), listener);
+            }
+        });
+    }
+
+    private void execute(SearchRequest request, SearchTypePlanner.Plan plan, ActionListener<SearchResponse> listener) {
+        request.searchType(plan.getPlanned());
+        DecisionMetrics metrics = decision(plan);
+        long start = System.nanoTime();
+        super.doExecute(SearchAction.INSTANCE, request, new ActionListener<SearchResponse>() {
+            @Override
+            public void onResponse(SearchResponse response) {
+                metrics.record(System.nanoTime() - start);
+                listener.onResponse(response);
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                metrics.record(System.nanoTime() - start);
+                listener.onFailure(e);
+            }
+        });
+    }
+
+    private static int primaryShards(IndicesStatsResponse response) {
+        int shards = 0;
+        for (ShardStats stats : response.getShards()) {
+            if (stats.getShardRouting().primary()) {
+                shards++;
+            }
+        }
+        return shards;
+    }
+
+    private DecisionMetrics decision(SearchTypePlanner.Plan plan) {
+        String key = plan.toString();
+        DecisionMetrics metrics = decisions.get(key);
+        if (metrics == null) {
+            DecisionMetrics created = new DecisionMetrics(plan.getOriginal(), plan.getPlanned(), plan.getReason());
+            metrics = decisions.putIfAbsent(key, created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * 各种决策的次数和客户端耗时
+     */
+    public List<Decision> getDecisions() {
+        List<Decision> result = new ArrayList<>();
+        for (DecisionMetrics metrics : decisions.values()) {
+            result.add(metrics.snapshot());
+        }
+        result.sort((a, b) -> Long.compare(b.getCount(), a.getCount()));
+        return result;
+    }
+
+    /**
+     * 清除缓存的索引大小，例如在大量写入数据之后
+     */
+    public void clearIndexSizes(String... indices) {
+        if (indices.length == 0) {
+            indexSizes.clear();
+        } else {
+            List<String> names = Arrays.asList(indices);
+            indexSizes.keySet().removeIf(key -> !Collections.disjoint(Arrays.asList(key.split(",")), names));
+        }
+    }
+
+    private static final class IndexSize {
+        private final int primaryShards;
+        private final long docs;
+        private final long expireAt;
+
+        IndexSize(int primaryShards, long docs, long expireAt) {
+            this.primaryShards = primaryShards;
+            this.docs = docs;
+            this.expireAt = expireAt;
+        }
+    }
+
+    private static final class DecisionMetrics {
+        private final SearchType original;
+        private final SearchType planned;
+        private final SearchTypePlanner.Reason reason;
+        private final AtomicLong count = new AtomicLong();
+        private final Recorder latency = new Recorder(3);
+        private final Histogram total = new Histogram(3);
+
+        DecisionMetrics(SearchType original, SearchType planned, SearchTypePlanner.Reason reason) {
+            this.original = original;
+            this.planned = planned;
+            this.reason = reason;
+        }
+
+        void record(long nanos) {
+            count.incrementAndGet();
+            latency.recordValue(nanos / 1000);
+        }
+
+        synchronized Decision snapshot() {
+            total.add(latency.getIntervalHistogram());
+            return new Decision(original, planned, reason, count.get(),
+                    total.getValueAtPercentile(50) / 1000.0, total.getValueAtPercentile(99) / 1000.0);
+        }
+    }
+
+    /**
+     * 一种决策的统计，耗时单位为毫秒
+     */
+    @Getter
+    public static final class Decision {
+        private final SearchType original;
+        private final SearchType planned;
+        private final SearchTypePlanner.Reason reason;
+        private final long count;
+        private final double latencyP50;
+        private final double latencyP99;
+
+        Decision(SearchType original, SearchType planned, SearchTypePlanner.Reason reason, long count,
+                 double latencyP50, double latencyP99) {
+            this.original = original;
+            this.planned = planned;
+            this.reason = reason;
+            this.count = count;
+            this.latencyP50 = latencyP50;
+            this.latencyP99 = latencyP99;
+        }
+
+        @Override
+        public String toString() {
+            return original + "->" + planned + "(" + reason + "): count=" + count + ", p50=" + latencyP50 + "ms, p99=" + latencyP99 + "ms";
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package cn.xpleaf.bigdata.elasticsearch.search;
+
+import cn.xpleaf.bigdata.elasticsearch.codec.ProductCodec;
+import cn.xpleaf.bigdata.elasticsearch.pojo.Product;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.sort.SortOrder;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * 全量导出工具
+ * 使用scroll代替ElasticSearchTest2中setFrom/setSize的分页方式，
+ * 按_doc排序（不计算和排序得分，是scroll最快的方式），
+ * 并且可以对每个分片分别使用preference=_shards:N发起scroll，多个分片并行拉取
+ *
+ * 内存占用是有上限的：
+ *      串行导出：最多一页，即batchSize * 分片数条
+ *      并行导出：最多queueCapacity + 并行数 页
+ */
+public class ScrollExporter {
+
+    private final Client client;
+    private final int batchSize;
+    private final TimeValue keepAlive;
+    private final int queueCapacity;
+
+    public ScrollExporter(Client client) {
+        this(client, 500, TimeValue.timeValueMinutes(1), 16);
+    }
+
+    /**
+     * @param batchSize     每个分片每次拉取的条数
+     * @param keepAlive     服务端保留scroll上下文的时间，需要大于客户端处理一页数据的时间
+     * @param queueCapacity 并行导出时已经拉取但还没有被消费的最大页数
+     */
+    public ScrollExporter(Client client, int batchSize, TimeValue keepAlive, int queueCapacity) {
+        this.client = client;
+        this.batchSize = batchSize;
+        this.keepAlive = keepAlive;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * 串行地导出所有满足条件的数据
+     */
+    public ScrollIterator scroll(QueryBuilder query, String... indices) {
+        return new ScrollIterator(client, prepare(query, indices), keepAlive);
+    }
+
+    /**
+     * 每个分片一个scroll，使用parallelism个线程并行拉取，
+     * 返回的迭代器中数据的顺序是不确定的
+     */
+    public ParallelScrollIterator parallelScroll(QueryBuilder query, int parallelism, String... indices) {
+        int shards = numberOfShards(indices);
+        List<SearchRequestBuilder> requests = new ArrayList<>(shards);
+        for (int shard = 0; shard < shards; shard++) {
+            requests.add(prepare(query, indices).setPreference("_shards:" + shard));
+        }
+        return new ParallelScrollIterator(requests, parallelism);
+    }
+
+    /**
+     * 以Stream<Product>的形式导出，需要在使用完之后close，或者使用try-with-resources
+     */
+    public Stream<Product> stream(QueryBuilder query, String... indices) {
+        return toStream(scroll(query, indices));
+    }
+
+    public Stream<Product> parallelStream(QueryBuilder query, int parallelism, String... indices) {
+        return toStream(parallelScroll(query, parallelism, indices));
+    }
+
+    private static <T extends Iterator<SearchHit> & Closeable> Stream<Product> toStream(T iterator) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.NONNULL), false)
+                .map(ProductCodec::decode)
+                .onClose(() -> {
+                    try {
+                        iterator.close();
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+    }
+
+    private SearchRequestBuilder prepare(QueryBuilder query, String... indices) {
+        return client.prepareSearch(indices)
+                .setQuery(query)
+                .setSize(batchSize)
+                .addSort("_doc", SortOrder.ASC);
+    }
+
+    /**
+     * 获取多个索引中最大的分片数，preference=_shards:N会作用在每个索引的第N个分片上
+     */
+    int numberOfShards(String... indices) {
+        int max = 1;
+        for (IndexMetaData metaData : client.admin().cluster().prepareState()
+                .setIndices(indices).setMetaData(true).setRoutingTable(false).setNodes(false)
+                .get().getState().getMetaData()) {
+            max = Math.max(max, metaData.getNumberOfShards());
+        }
+        return max;
+    }
+
+    /**
+     * 并行scroll的迭代器：每个分片的scroll在后台线程中拉取，结果放入有界队列，
+     * 队列满时后台线程阻塞，所以消费慢时不会无限制地占用内存
+     */
+    public class ParallelScrollIterator implements Iterator<SearchHit>, Closeable {
+
+        // 一个分片的数据拉取完毕的标记
+        private final SearchHit[] endOfShard = new SearchHit[0];
+        private final BlockingQueue<SearchHit[]> queue = new ArrayBlockingQueue<>(queueCapacity);
+        private final ExecutorService executor;
+        private final List<Future<?>> futures = new ArrayList<>();
+        private final List<ScrollIterator> scrolls = new ArrayList<>();
+        private volatile Throwable failure;
+        private volatile boolean closed;
+        private int remainingShards;
+        private SearchHit[] page = new SearchHit[0];
+        private int position;
+
+        ParallelScrollIterator(List<SearchRequestBuilder> requests, int parallelism) {
+            this.remainingShards = requests.size();
+            this.executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, requests.size())), r -> {
+                Thread t = new Thread(r, "scroll-export");
+                t.setDaemon(true);
+                return t;
+            });
+            for (SearchRequestBuilder request : requests) {
+                ScrollIterator scroll = new ScrollIterator(client, request, keepAlive);
+                scrolls.add(scroll);
+                futures.add(executor.submit(() -> drain(scroll)));
+            }
+            executor.shutdown();
+        }
+
+        private void drain(ScrollIterator scroll) {
+            try {
+                SearchHit[] hits;
+                while (!closed && (hits = scroll.nextPage()).length > 0) {
+                    put(hits);
+                }
+            } catch (InterruptedException e) {
+                // 被close()取消，scroll上下文由close()统一清除
+                return;
+            } catch (Throwable t) {
+                // 只保留第一个失败，之后close()中断其它线程引起的失败不覆盖它
+                synchronized (this) {
+                    if (failure == null) {
+                        failure = t;
+                    }
+                }
+            }
+            try {
+                put(endOfShard);
+            } catch (InterruptedException e) {
+                // 被close()取消
+            }
+        }
+
+        /**
+         * 队列满时等待，close()之后放弃；不使用中断，中断正在拉取的线程会丢失新的scroll id，服务端的上下文就无法清除
+         */
+        private void put(SearchHit[] hits) throws InterruptedException {
+            while (!closed && !queue.offer(hits, 100, TimeUnit.MILLISECONDS)) {
+                // 继续等待
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (position >= page.length) {
+                if (remainingShards == 0) {
+                    checkFailure();
+                    return false;
+                }
+                try {
+                    page = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("导出被中断", e);
+                }
+                position = 0;
+                if (page == endOfShard) {
+                    remainingShards--;
+                    checkFailure();
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public SearchHit next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return page[position++];
+        }
+
+        private void checkFailure() {
+            Throwable cause = failure;
+            if (cause != null) {
+                close();
+                throw new IllegalStateException("分片数据导出失败", cause);
+            }
+        }
+
+        /**
+         * 取消还在进行中的拉取，等待正在进行的请求返回之后清除所有的scroll上下文
+         */
+        @Override
+        public void close() {
+            closed = true;
+            for (Future<?> future : futures) {
+                future.cancel(false);
+            }
+            queue.clear();
+            try {
+                executor.awaitTermination(keepAlive.millis(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            queue.clear();
+            remainingShards = 0;
+            for (ScrollIterator scroll : scrolls) {
+                scroll.close();
+            }
+        }
+    }
+}
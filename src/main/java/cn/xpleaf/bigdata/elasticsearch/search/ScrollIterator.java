@@ -0,0 +1,122 @@
+package cn.xpleaf.bigdata.elasticsearch.search;
+
+import org.elasticsearch.action.search.SearchPhaseExecutionException;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.search.SearchHit;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * 基于scroll的惰性迭代器
+ * 每次只在内存中保留一页数据，当前页遍历完之后才会使用prepareSearchScroll拉取下一页，
+ * 遍历结束或者调用close()时会自动清除服务端的scroll上下文
+ * 任意一页有分片失败或者超时时，这些分片的数据会缺失，此时清除scroll上下文并抛出SearchPhaseExecutionException，
+ * 其中包含分片的失败信息，调用方不会把不完整的结果当作完整的
+ *
+ * 与setFrom/setSize的深度分页相比，每一页的代价都是一样的，不会随着页数线性增长
+ */
+public class ScrollIterator implements Iterator<SearchHit>, Closeable {
+
+    private final Client client;
+    private final TimeValue keepAlive;
+    private SearchRequestBuilder initial;
+    private String scrollId;
+    private SearchHit[] page = new SearchHit[0];
+    private int position;
+    private boolean finished;
+    private long totalHits = -1;
+
+    /**
+     * @param request   初始的查询请求，调用方负责设置查询条件、排序和每页的大小（对于scroll，size是每个分片的条数）
+     * @param keepAlive 两次拉取之间服务端保留scroll上下文的时间
+     */
+    public ScrollIterator(Client client, SearchRequestBuilder request, TimeValue keepAlive) {
+        this.client = client;
+        this.keepAlive = keepAlive;
+        this.initial = request.setScroll(keepAlive);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (position < page.length) {
+            return true;
+        }
+        if (finished) {
+            return false;
+        }
+        fetch();
+        return position < page.length;
+    }
+
+    @Override
+    public SearchHit next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page[position++];
+    }
+
+    /**
+     * 返回当前页中剩余的所有数据，当前页已经遍历完时拉取下一页，没有更多数据时返回空数组
+     */
+    public SearchHit[] nextPage() {
+        if (!hasNext()) {
+            return page;
+        }
+        SearchHit[] rest = page;
+        if (position > 0) {
+            rest = new SearchHit[page.length - position];
+            System.arraycopy(page, position, rest, 0, rest.length);
+        }
+        position = page.length;
+        return rest;
+    }
+
+    /**
+     * 查询命中的总记录数，第一页拉取之前为-1
+     */
+    public long getTotalHits() {
+        return totalHits;
+    }
+
+    private synchronized void fetch() {
+        if (finished) {
+            return;
+        }
+        SearchResponse response;
+        if (initial != null) {
+            response = initial.get();
+            initial = null;
+            totalHits = response.getHits().getTotalHits();
+        } else {
+            response = client.prepareSearchScroll(scrollId).setScroll(keepAlive).get();
+        }
+        scrollId = response.getScrollId();
+        if (response.getFailedShards() > 0 || response.isTimedOut()) {
+            close();
+            throw new SearchPhaseExecutionException("scroll", "scroll结果不完整，失败的分片数: " + response.getFailedShards()
+                    + "，是否超时: " + response.isTimedOut(), response.getShardFailures());
+        }
+        page = response.getHits().getHits();
+        position = 0;
+        if (page.length == 0) {
+            close();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        finished = true;
+        initial = null;
+        if (scrollId != null) {
+            String id = scrollId;
+            scrollId = null;
+            client.prepareClearScroll().addScrollId(id).get();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package cn.xpleaf.bigdata.elasticsearch.search;
+
+import org.elasticsearch.search.SearchHit;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * 无状态的分页游标
+ * 由上一页最后一条数据的排序值和_uid组成，_uid用于排序值相同时确定唯一的顺序，
+ * 可以编码为字符串交给前端，下一次请求时原样带回即可，服务端不需要保存任何状态
+ */
+public class SearchCursor {
+
+    private final Number sortValue;
+    private final String uid;
+
+    public SearchCursor(Number sortValue, String uid) {
+        this.sortValue = sortValue;
+        this.uid = uid;
+    }
+
+    /**
+     * 从按[排序字段, _uid]排序的查询结果中构建游标
+     */
+    public static SearchCursor fromHit(SearchHit hit) {
+        Object[] sortValues = hit.getSortValues();
+        if (sortValues == null || sortValues.length < 2) {
+            throw new IllegalArgumentException("查询结果必须按[排序字段, _uid]进行排序");
+        }
+        if (!(sortValues[0] instanceof Number)) {
+            throw new IllegalArgumentException("游标分页只支持数值类型的排序字段，但是为[" + sortValues[0] + "]");
+        }
+        return new SearchCursor((Number) sortValues[0], sortValues[1].toString());
+    }
+
+    public Number getSortValue() {
+        return sortValue;
+    }
+
+    public String getUid() {
+        return uid;
+    }
+
+    /**
+     * 编码为可以放在url中的字符串
+     */
+    public String encode() {
+        String value = (sortValue instanceof Double || sortValue instanceof Float ? "d" : "l") + sortValue + ":" + uid;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static SearchCursor decode(String cursor) {
+        String value;
+        try {
+            value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("无效的游标: " + cursor, e);
+        }
+        int idx = value.indexOf(':');
+        if (idx < 2) {
+            throw new IllegalArgumentException("无效的游标: " + cursor);
+        }
+        String number = value.substring(1, idx);
+        // 注意这里不能使用三元表达式，否则Long会被提升为double
+        Number sortValue;
+        if (value.charAt(0) == 'd') {
+            sortValue = Double.valueOf(number);
+        } else {
+            sortValue = Long.valueOf(number);
+        }
+        return new SearchCursor(sortValue, value.substring(idx + 1));
+    }
+
+    @Override
+    public String toString() {
+        return "SearchCursor{sortValue=" + sortValue + ", uid=" + uid + "}";
+    }
+}
@@ -0,0 +1,296 @@
+package cn.xpleaf.bigdata.elasticsearch.search;
+
+import lombok.Getter;
+import org.elasticsearch.ElasticsearchParseException;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentHelper;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 为每个查询请求选择SearchType
+ *
+ * ElasticSearchTest2中的查询都写死了DFS_QUERY_THEN_FETCH，DFS会在查询之前多一轮到所有分片的请求，
+ * 用于收集全局的词频统计，只有在使用TF-IDF打分、并且各分片的词频分布差异较大时才有意义：
+ *      1.只需要聚合结果（size为0）：不需要打分，使用QUERY_THEN_FETCH，相当于2.x中已经废弃的COUNT
+ *      2.查询中没有依赖词频统计的打分子句（只有range/prefix/regexp等常量打分的查询，或者都在filter中），
+ *        或者按非_score的字段排序：不需要DFS
+ *      3.依赖词频统计的打分查询（match、term等），且索引只有一个主分片或者文档数超过smallIndexDocs：
+ *        各分片的统计已经足够接近全局，不需要DFS
+ *      4.依赖词频统计的打分查询，并且是多分片的小索引：使用DFS_QUERY_THEN_FETCH
+ * 另外，QUERY_AND_FETCH/DFS_QUERY_AND_FETCH会从每个分片都返回size条数据（testSearch3中注释的50条），
+ * 这里统一改为对应的THEN_FETCH，只返回size条
+ *
+ * scroll、SCAN、COUNT以及使用模板的查询保持不变
+ */
+public class SearchTypePlanner {
+
+    public static final long DEFAULT_SMALL_INDEX_DOCS = 100000;
+
+    /**
+     * 打分依赖词频统计（idf）的查询类型
+     */
+    static final Set<String> TERM_STATISTICS_QUERIES = new HashSet<>(Arrays.asList(
+            "match", "match_phrase", "match_phrase_prefix", "multi_match", "query_string", "simple_query_string",
+            "common", "more_like_this", "mlt", "fuzzy", "fuzzy_like_this", "flt", "term", "terms", "span_term",
+            "span_near", "span_or", "span_first", "span_not", "span_multi", "span_containing", "span_within"));
+
+    /**
+     * 常量打分或者不打分的查询类型，与词频统计无关
+     */
+    static final Set<String> CONSTANT_SCORE_QUERIES = new HashSet<>(Arrays.asList(
+            "range", "prefix", "wildcard", "regexp", "exists", "missing", "ids", "type", "match_all",
+            "constant_score", "geo_distance", "geo_bounding_box", "geo_polygon", "geo_shape", "script", "indices"));
+
+    public enum Reason {
+        /**
+         * scroll、SCAN、COUNT或者无法解析的请求，保持不变
+         */
+        UNCHANGED,
+        /**
+         * size为0，只需要聚合结果或者总数
+         */
+        NO_HITS,
+        /**
+         * 没有依赖词频统计的打分子句
+         */
+        NOT_SCORED,
+        /**
+         * 按非_score的字段排序
+         */
+        SORTED_BY_FIELD,
+        /**
+         * 只有一个主分片，本地的词频统计就是全局的
+         */
+        SINGLE_SHARD,
+        /**
+         * 文档数足够多，各分片的词频统计接近全局
+         */
+        LARGE_INDEX,
+        /**
+         * 多分片的小索引上依赖词频统计的打分查询
+         */
+        SMALL_INDEX_SCORED
+    }
+
+    @Getter
+    public static final class Plan {
+        private final SearchType original;
+        private final SearchType planned;
+        private final Reason reason;
+
+        Plan(SearchType original, SearchType planned, Reason reason) {
+            this.original = original;
+            this.planned = planned;
+            this.reason = reason;
+        }
+
+        public boolean isChanged() {
+            return original != planned;
+        }
+
+        @Override
+        public String toString() {
+            return original + "->" + planned + "(" + reason + ")";
+        }
+    }
+
+    /**
+     * 查询请求的特征，从请求的source中解析
+     */
+    @Getter
+    public static final class Analysis {
+        private final boolean hits;
+        private final boolean scored;
+        private final boolean sortedByField;
+
+        Analysis(boolean hits, boolean scored, boolean sortedByField) {
+            this.hits = hits;
+            this.scored = scored;
+            this.sortedByField = sortedByField;
+        }
+
+        /**
+         * 是否需要知道索引的分片数和文档数才能决定
+         */
+        public boolean needsIndexSize() {
+            return hits && scored && !sortedByField;
+        }
+    }
+
+    private final long smallIndexDocs;
+
+    public SearchTypePlanner() {
+        this(DEFAULT_SMALL_INDEX_DOCS);
+    }
+
+    /**
+     * @param smallIndexDocs 文档数不超过该值的多分片索引，打分查询才使用DFS
+     */
+    public SearchTypePlanner(long smallIndexDocs) {
+        this.smallIndexDocs = smallIndexDocs;
+    }
+
+    /**
+     * 分析请求，不能改变SearchType的请求返回null
+     */
+    public Analysis analyze(SearchRequest request) {
+        SearchType searchType = request.searchType();
+        if (request.scroll() != null || searchType == SearchType.SCAN || searchType == SearchType.COUNT) {
+            return null;
+        }
+        BytesReference source = request.source();
+        if (source == null || source.length() == 0 || request.templateSource() != null || request.template() != null) {
+            return null;
+        }
+        Map<String, Object> map;
+        try {
+            map = XContentHelper.convertToMap(source, false).v2();
+            if (request.extraSource() != null && request.extraSource().length() > 0) {
+                map.putAll(XContentHelper.convertToMap(request.extraSource(), false).v2());
+            }
+        } catch (ElasticsearchParseException e) {
+            return null;
+        }
+        Object size = map.get("size");
+        boolean hits = !(size instanceof Number && ((Number) size).intValue() == 0);
+        Object query = map.get("query");
+        boolean scored = query != null && isScored(query);
+        return new Analysis(hits, scored, isSortedByField(map.get("sort")) && !Boolean.TRUE.equals(map.get("track_scores")));
+    }
+
+    /**
+     * 选择SearchType
+     *
+     * @param primaryShards 请求涉及的主分片数，未知时为-1
+     * @param docs          请求涉及的主分片上的文档总数，未知时为-1
+     */
+    public Plan plan(SearchRequest request, Analysis analysis, int primaryShards, long docs) {
+        SearchType original = request.searchType();
+        if (analysis == null) {
+            return new Plan(original, original, Reason.UNCHANGED);
+        }
+        if (!analysis.isHits()) {
+            return new Plan(original, SearchType.QUERY_THEN_FETCH, Reason.NO_HITS);
+        }
+        if (!analysis.isScored()) {
+            return new Plan(original, SearchType.QUERY_THEN_FETCH, Reason.NOT_SCORED);
+        }
+        if (analysis.isSortedByField()) {
+            return new Plan(original, SearchType.QUERY_THEN_FETCH, Reason.SORTED_BY_FIELD);
+        }
+        if (primaryShards < 0 || docs < 0) {
+            // 不知道索引的大小，只处理AND_FETCH的返回条数问题
+            return new Plan(original, thenFetch(original), Reason.UNCHANGED);
+        }
+        if (primaryShards <= 1) {
+            return new Plan(original, SearchType.QUERY_THEN_FETCH, Reason.SINGLE_SHARD);
+        }
+        if (docs > smallIndexDocs) {
+            return new Plan(original, SearchType.QUERY_THEN_FETCH, Reason.LARGE_INDEX);
+        }
+        return new Plan(original, SearchType.DFS_QUERY_THEN_FETCH, Reason.SMALL_INDEX_SCORED);
+    }
+
+    private static SearchType thenFetch(SearchType searchType) {
+        if (searchType == SearchType.QUERY_AND_FETCH) {
+            return SearchType.QUERY_THEN_FETCH;
+        } else if (searchType == SearchType.DFS_QUERY_AND_FETCH) {
+            return SearchType.DFS_QUERY_THEN_FETCH;
+        }
+        return searchType;
+    }
+
+    /**
+     * 查询中是否有依赖词频统计的打分子句，filter上下文中的子句不打分
+     * 不认识的查询类型按打分处理，这样至少不会去掉原本需要的DFS
+     */
+    @SuppressWarnings("unchecked")
+    static boolean isScored(Object query) {
+        if (!(query instanceof Map)) {
+            return false;
+        }
+        for (Map.Entry<String, Object> me : ((Map<String, Object>) query).entrySet()) {
+            String type = me.getKey();
+            Object body = me.getValue();
+            if (TERM_STATISTICS_QUERIES.contains(type)) {
+                return true;
+            } else if (CONSTANT_SCORE_QUERIES.contains(type)) {
+                continue;
+            }
+            switch (type) {
+                case "bool":
+                    if (anyScored(clause(body, "must")) || anyScored(clause(body, "should"))) {
+                        return true;
+                    }
+                    break;
+                case "filtered":
+                case "function_score":
+                case "nested":
+                case "has_child":
+                case "has_parent":
+                    if (isScored(clause(body, "query"))) {
+                        return true;
+                    }
+                    break;
+                case "dis_max":
+                    if (anyScored(clause(body, "queries"))) {
+                        return true;
+                    }
+                    break;
+                case "boosting":
+                    if (isScored(clause(body, "positive")) || isScored(clause(body, "negative"))) {
+                        return true;
+                    }
+                    break;
+                default:
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean anyScored(Object clauses) {
+        if (clauses instanceof Collection) {
+            for (Object clause : (Collection<?>) clauses) {
+                if (isScored(clause)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return isScored(clauses);
+    }
+
+    private static Object clause(Object body, String name) {
+        return body instanceof Map ? ((Map<?, ?>) body).get(name) : null;
+    }
+
+    /**
+     * 是否指定了排序，并且排序中没有_score
+     */
+    static boolean isSortedByField(Object sort) {
+        if (sort == null) {
+            return false;
+        }
+        List<?> sorts = sort instanceof List ? (List<?>) sort : Arrays.asList(sort);
+        if (sorts.isEmpty()) {
+            return false;
+        }
+        for (Object s : sorts) {
+            String field = s instanceof Map ? (((Map<?, ?>) s).isEmpty() ? null : String.valueOf(((Map<?, ?>) s).keySet().iterator().next()))
+                    : String.valueOf(s);
+            if ("_score".equals(field)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,115 @@
+package cn.xpleaf.bigdata.elasticsearch.search;
+
+import cn.xpleaf.bigdata.elasticsearch.index.SubstringField;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+
+import java.util.Locale;
+
+/**
+ * 使用n-gram子字段的子串和前缀查询
+ *
+ * regexpQuery("url", ".*apache.*")这样以通配符开头的查询需要在每个分片上遍历整个词典，
+ * 而在url.ngram中查询连续的3-gram（短语查询）或者在url.prefix中查询一个term，只需要查找几个词
+ *
+ * 注意原来的regexp/prefix查询是针对分词之后的每个词进行匹配的，而这里是针对整个字段值（忽略大小写），
+ * 例如对于chinese中的content，prefixQuery("content", "中国")在标准分词器下永远不会匹配（每个汉字一个词），
+ * 而startsWith会返回以“中国”开头的数据
+ */
+public final class SubstringQueries {
+
+    private SubstringQueries() {
+    }
+
+    /**
+     * 字段值包含text，text的长度小于gramSize时无法使用n-gram，退化为wildcard查询
+     */
+    public static QueryBuilder contains(SubstringField field, String text) {
+        String value = text.toLowerCase(Locale.ROOT);
+        if (value.length() < field.getGramSize()) {
+            return QueryBuilders.wildcardQuery(field.getField(), "*" + escapeWildcard(value) + "*");
+        }
+        return QueryBuilders.matchPhraseQuery(field.getNgramField(), value);
+    }
+
+    /**
+     * 字段值以text开头，text超过maxPrefix时先按前maxPrefix个字符过滤，再要求包含整个text
+     */
+    public static QueryBuilder startsWith(SubstringField field, String text) {
+        String value = text.toLowerCase(Locale.ROOT);
+        if (value.length() <= field.getMaxPrefix()) {
+            return QueryBuilders.termQuery(field.getPrefixField(), value);
+        }
+        return QueryBuilders.boolQuery()
+                .must(QueryBuilders.termQuery(field.getPrefixField(), value.substring(0, field.getMaxPrefix())))
+                .must(QueryBuilders.matchPhraseQuery(field.getNgramField(), value));
+    }
+
+    /**
+     * 解析形如.*literal.*的正则表达式，不是这种形式时返回null
+     */
+    static String regexpContains(String regexp) {
+        if (regexp.length() <= 4 || !regexp.startsWith(".*") || !regexp.endsWith(".*") || regexp.endsWith("\\.*")) {
+            return null;
+        }
+        return regexpLiteral(regexp.substring(2, regexp.length() - 2));
+    }
+
+    private static String regexpLiteral(String regexp) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < regexp.length(); i++) {
+            char c = regexp.charAt(i);
+            if (c == '\\') {
+                if (++i == regexp.length()) {
+                    return null;
+                }
+                sb.append(regexp.charAt(i));
+            } else if (".?+*|{}[]()\"#@&<>~".indexOf(c) >= 0) {
+                return null;
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.length() == 0 ? null : sb.toString();
+    }
+
+    /**
+     * 解析形如*literal*的通配符表达式，不是这种形式时返回null
+     */
+    static String wildcardContains(String wildcard) {
+        if (wildcard.length() <= 2 || !wildcard.startsWith("*") || !wildcard.endsWith("*") || wildcard.endsWith("\\*")) {
+            return null;
+        }
+        return wildcardLiteral(wildcard.substring(1, wildcard.length() - 1));
+    }
+
+    private static String wildcardLiteral(String wildcard) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < wildcard.length(); i++) {
+            char c = wildcard.charAt(i);
+            if (c == '\\') {
+                if (++i == wildcard.length()) {
+                    return null;
+                }
+                sb.append(wildcard.charAt(i));
+            } else if (c == '*' || c == '?') {
+                return null;
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.length() == 0 ? null : sb.toString();
+    }
+
+    private static String escapeWildcard(String value) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '*' || c == '?' || c == '\\') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,327 @@
+package cn.xpleaf.bigdata.elasticsearch.search;
+
+import cn.xpleaf.bigdata.elasticsearch.index.IndexDefinition;
+import cn.xpleaf.bigdata.elasticsearch.index.SubstringField;
+import org.elasticsearch.ElasticsearchParseException;
+import org.elasticsearch.action.Action;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.admin.indices.mapping.get.GetFieldMappingsResponse;
+import org.elasticsearch.action.search.SearchAction;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.FilterClient;
+import org.elasticsearch.common.collect.Tuple;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 把子串查询透明地改写为n-gram子字段上的查询
+ * 对es的Client进行包装，查询的所有索引都在IndexDefinition中定义了SubstringField，
+ * 并且索引（别名时为别名指向的每个索引）的mapping中确实存在对应的子字段时（自动创建的旧索引没有），以下查询会被改写：
+ *      regexp      .*literal.*   ---> SubstringQueries.contains
+ *      wildcard    *literal*     ---> SubstringQueries.contains
+ *
+ * 改写不能改变匹配的数据：原来的查询针对分词之后的每个词，n-gram子字段针对整个字段值，
+ * 所以只改写literal只包含小写字母和数字的查询，这样的子串不会跨越标准分词器的词边界，两者的结果相同；
+ * prefix、literal.*、literal*这些前缀查询（整个字段值的前缀与每个词的前缀不同）以及其它查询保持不变，
+ * 需要按整个字段值匹配前缀时直接使用SubstringQueries.startsWith
+ */
+public class SubstringRewritingClient extends FilterClient {
+
+    private static final Set<String> SIMPLE_OPTIONS = new HashSet<>(Arrays.asList(
+            "value", "wildcard", "flags", "flags_value", "max_determinized_states", "boost", "rewrite"));
+
+    private final Map<String, IndexDefinition> definitions = new HashMap<>();
+    private final long mappingTtlMillis;
+    // 索引中确实存在n-gram子字段的SubstringField
+    private final ConcurrentMap<String, VerifiedFields> verified = new ConcurrentHashMap<>();
+    private final AtomicLong rewritten = new AtomicLong();
+
+    public SubstringRewritingClient(Client in) {
+        this(in, IndexDefinition.ALL, TimeValue.timeValueMinutes(1));
+    }
+
+    public SubstringRewritingClient(Client in, List<IndexDefinition> definitions, TimeValue mappingTtl) {
+        super(in);
+        for (IndexDefinition definition : definitions) {
+            this.definitions.put(definition.getName(), definition);
+        }
+        this.mappingTtlMillis = mappingTtl.millis();
+    }
+
+    /**
+     * 被改写的查询请求数
+     */
+    public long getRewritten() {
+        return rewritten.get();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected <Request extends ActionRequest, Response extends ActionResponse, RequestBuilder extends ActionRequestBuilder<Request, Response, RequestBuilder>>
+    void doExecute(Action<Request, Response, RequestBuilder> action, Request request, ActionListener<Response> listener) {
+        if (action == SearchAction.INSTANCE) {
+            rewriteSearch((SearchRequest) request, (ActionListener<SearchResponse>) listener);
+            return;
+        }
+        super.doExecute(action, request, listener);
+    }
+
+    private void rewriteSearch(SearchRequest request, ActionListener<SearchResponse> listener) {
+        String[] indices = request.indices();
+        if (indices == null || indices.length == 0 || request.source() == null || request.templateSource() != null) {
+            super.doExecute(SearchAction.INSTANCE, request, listener);
+            return;
+        }
+        List<String> unknown = new ArrayList<>();
+        for (String index : indices) {
+            if (!definitions.containsKey(index)) {
+                // 别名、通配符或者没有定义的索引
+                super.doExecute(SearchAction.INSTANCE, request, listener);
+                return;
+            }
+            VerifiedFields fields = verified.get(index);
+            if (fields == null || fields.expireAt <= System.currentTimeMillis()) {
+                unknown.add(index);
+            }
+        }
+        if (unknown.isEmpty()) {
+            rewriteAndExecute(request, listener);
+            return;
+        }
+        verify(unknown, 0, request, listener);
+    }
+
+    /**
+     * 逐个获取索引的mapping，别名的响应中是别名指向的具体索引，所以每个索引单独请求
+     */
+    private void verify(List<String> unknown, int i, SearchRequest request, ActionListener<SearchResponse> listener) {
+        if (i == unknown.size()) {
+            rewriteAndExecute(request, listener);
+            return;
+        }
+        IndexDefinition definition = definitions.get(unknown.get(i));
+        List<String> subfields = new ArrayList<>();
+        for (SubstringField field : definition.getSubstringFields()) {
+            subfields.add(field.getNgramField());
+        }
+        in().admin().indices().prepareGetFieldMappings(definition.getName())
+                .setFields(subfields.toArray(new String[subfields.size()]))
+                .execute(new ActionListener<GetFieldMappingsResponse>() {
+                    @Override
+                    public void onResponse(GetFieldMappingsResponse response) {
+                        verified.put(definition.getName(), verify(definition, response));
+                        verify(unknown, i + 1, request, listener);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable e) {
+                        // 不能确定mapping时不改写，例如索引不存在时由查询返回错误
+                        SubstringRewritingClient.super.doExecute(SearchAction.INSTANCE, request, listener);
+                    }
+                });
+    }
+
+    /**
+     * 响应的key是具体的索引名，definition.getName()为别名时（例如Reindexer切换之后）可能有多个，
+     * 子字段必须在每个索引中都存在
+     */
+    private VerifiedFields verify(IndexDefinition definition, GetFieldMappingsResponse response) {
+        Map<String, SubstringField> fields = new HashMap<>();
+        Collection<? extends Map<String, ? extends Map<String, GetFieldMappingsResponse.FieldMappingMetaData>>> indices =
+                response.mappings().values();
+        if (!indices.isEmpty()) {
+            for (SubstringField field : definition.getSubstringFields()) {
+                boolean all = true;
+                for (Map<String, ? extends Map<String, GetFieldMappingsResponse.FieldMappingMetaData>> types : indices) {
+                    all &= existsInAnyType(types, field.getNgramField());
+                }
+                if (all) {
+                    fields.put(field.getField(), field);
+                }
+            }
+        }
+        return new VerifiedFields(fields, System.currentTimeMillis() + mappingTtlMillis);
+    }
+
+    /**
+     * 索引的某个类型中存在field
+     */
+    private static boolean existsInAnyType(Map<String, ? extends Map<String, GetFieldMappingsResponse.FieldMappingMetaData>> types, String field) {
+        for (Map<String, GetFieldMappingsResponse.FieldMappingMetaData> mapping : types.values()) {
+            if (exists(mapping, field)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean exists(Map<String, GetFieldMappingsResponse.FieldMappingMetaData> mapping, String field) {
+        GetFieldMappingsResponse.FieldMappingMetaData metaData = mapping.get(field);
+        return metaData != null && !metaData.isNull();
+    }
+
+    private void rewriteAndExecute(SearchRequest request, ActionListener<SearchResponse> listener) {
+        // 所有索引中都存在的字段才能改写
+        Map<String, SubstringField> fields = null;
+        for (String index : request.indices()) {
+            VerifiedFields indexFields = verified.get(index);
+            if (fields == null) {
+                fields = new HashMap<>(indexFields.fields);
+            } else {
+                fields.keySet().retainAll(indexFields.fields.keySet());
+            }
+        }
+        if (fields != null && !fields.isEmpty() && rewrite(request, fields)) {
+            rewritten.incrementAndGet();
+        }
+        super.doExecute(SearchAction.INSTANCE, request, listener);
+    }
+
+    /**
+     * 改写请求的source，返回是否进行了改写
+     */
+    static boolean rewrite(SearchRequest request, Map<String, SubstringField> fields) {
+        Tuple<XContentType, Map<String, Object>> parsed;
+        try {
+            parsed = XContentHelper.convertToMap(request.source(), true);
+        } catch (ElasticsearchParseException e) {
+            return false;
+        }
+        Map<String, Object> source = parsed.v2();
+        Object query = source.get("query");
+        Object rewritten = rewriteQuery(query, fields);
+        if (rewritten == query) {
+            return false;
+        }
+        source.put("query", rewritten);
+        try {
+            request.source(XContentFactory.contentBuilder(parsed.v1()).map(source));
+        } catch (IOException e) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 递归改写查询，没有改写时返回原对象
+     */
+    @SuppressWarnings("unchecked")
+    static Object rewriteQuery(Object node, Map<String, SubstringField> fields) {
+        if (node instanceof List) {
+            List<Object> list = (List<Object>) node;
+            List<Object> result = null;
+            for (int i = 0; i < list.size(); i++) {
+                Object rewritten = rewriteQuery(list.get(i), fields);
+                if (rewritten != list.get(i)) {
+                    if (result == null) {
+                        result = new ArrayList<>(list);
+                    }
+                    result.set(i, rewritten);
+                }
+            }
+            return result == null ? node : result;
+        }
+        if (!(node instanceof Map)) {
+            return node;
+        }
+        Map<String, Object> map = (Map<String, Object>) node;
+        if (map.size() == 1) {
+            QueryBuilder replacement = replacement(map.keySet().iterator().next(), map.values().iterator().next(), fields);
+            if (replacement != null) {
+                return XContentHelper.convertToMap(replacement.buildAsBytes(), true).v2();
+            }
+        }
+        Map<String, Object> result = null;
+        for (Map.Entry<String, Object> me : map.entrySet()) {
+            Object rewritten = rewriteQuery(me.getValue(), fields);
+            if (rewritten != me.getValue()) {
+                if (result == null) {
+                    result = new LinkedHashMap<>(map);
+                }
+                result.put(me.getKey(), rewritten);
+            }
+        }
+        return result == null ? node : result;
+    }
+
+    private static QueryBuilder replacement(String type, Object body, Map<String, SubstringField> fields) {
+        if (!("regexp".equals(type) || "wildcard".equals(type)) || !(body instanceof Map)) {
+            return null;
+        }
+        Map<?, ?> fieldBody = (Map<?, ?>) body;
+        if (fieldBody.size() != 1) {
+            return null;
+        }
+        SubstringField field = fields.get(String.valueOf(fieldBody.keySet().iterator().next()));
+        String value = value(fieldBody.values().iterator().next());
+        if (field == null || value == null) {
+            return null;
+        }
+        String literal = "regexp".equals(type) ? SubstringQueries.regexpContains(value) : SubstringQueries.wildcardContains(value);
+        return literal != null && withinToken(literal) ? SubstringQueries.contains(field, literal) : null;
+    }
+
+    /**
+     * 只包含小写字母和数字的子串不会跨越标准分词器的词边界，并且与小写之后的词比较时大小写一致
+     */
+    static boolean withinToken(String literal) {
+        for (int i = 0; i < literal.length(); i++) {
+            char c = literal.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= '0' && c <= '9')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 查询的值，可以是简写的字符串或者{"value": ...}，有其它选项时返回null
+     */
+    private static String value(Object body) {
+        if (body instanceof String) {
+            return (String) body;
+        }
+        if (!(body instanceof Map) || !SIMPLE_OPTIONS.containsAll(((Map<?, ?>) body).keySet())) {
+            return null;
+        }
+        Map<?, ?> options = (Map<?, ?>) body;
+        for (String key : new String[]{"value", "wildcard"}) {
+            if (options.get(key) instanceof String) {
+                return (String) options.get(key);
+            }
+        }
+        return null;
+    }
+
+    private static final class VerifiedFields {
+        private final Map<String, SubstringField> fields;
+        private final long expireAt;
+
+        VerifiedFields(Map<String, SubstringField> fields, long expireAt) {
+            this.fields = fields;
+            this.expireAt = expireAt;
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package cn.xpleaf.bigdata.elasticsearch.wal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * 内存映射的只追加日志，由多个固定大小的段文件组成
+ *
+ * 每条记录为：int长度 + int CRC32 + 数据，记录不会跨段，段尾放不下时写入-1并切换到下一个段；
+ * 位置（position）是所有段连续编址的偏移量：段序号 * segmentSize + 段内偏移
+ *
+ * 1.append在内存中完成，数据进入页缓存后即使进程崩溃也不会丢失，sync()把数据刷到磁盘
+ * 2.ack(position)把已经处理完的位置持久化到ack文件中，ack刷盘之后position之前的段文件被删除
+ * 3.重新打开时从ack的位置开始读取，最后一个段中长度为0或者CRC不匹配的记录（写到一半时崩溃）之后的数据被丢弃
+ * 4.没有确认的段数达到maxSegments时，append在切换段时阻塞，直到有段被确认
+ *
+ * 同时只能有一个读取者（drainer），append可以在多个线程中调用
+ */
+public class SegmentLog implements Closeable {
+
+    private static final int HEADER = 8;
+    private static final int END_OF_SEGMENT = -1;
+    private static final String SUFFIX = ".seg";
+
+    private final Path dir;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final MappedByteBuffer ackBuffer;
+    // 段序号 ---> 段文件的映射，只在持有锁时修改
+    private final TreeMap<Long, MappedByteBuffer> segments = new TreeMap<>();
+    private final CRC32 crc = new CRC32();
+    private MappedByteBuffer active;
+    private long activeSeq;
+    private volatile long writePosition;
+    private volatile long ackPosition;
+    private boolean closed;
+    // 读取方异常停止的原因，之后不再接受追加
+    private Throwable failure;
+
+    public SegmentLog(Path dir, int segmentSize, int maxSegments) throws IOException {
+        if (segmentSize < 1024) {
+            throw new IllegalArgumentException("segmentSize不能小于1024，但是为[" + segmentSize + "]");
+        }
+        if (maxSegments < 2) {
+            throw new IllegalArgumentException("maxSegments不能小于2，但是为[" + maxSegments + "]");
+        }
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        Files.createDirectories(dir);
+        this.ackBuffer = map(dir.resolve("ack"), 8);
+        this.ackPosition = ackBuffer.getLong(0);
+        long ackSeq = ackPosition / segmentSize;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long seq = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+                if (seq < ackSeq) {
+                    Files.delete(file);
+                } else {
+                    segments.put(seq, map(file, segmentSize));
+                }
+            }
+        }
+        if (segments.isEmpty()) {
+            segments.put(ackSeq, map(segmentFile(ackSeq), segmentSize));
+        }
+        this.activeSeq = segments.lastKey();
+        this.active = segments.lastEntry().getValue();
+        this.writePosition = recover();
+    }
+
+    /**
+     * 找到最后一个段中最后一条完整记录的结束位置
+     */
+    private long recover() {
+        long start = activeSeq * segmentSize;
+        int offset = ackPosition > start ? (int) (ackPosition - start) : 0;
+        while (segmentSize - offset >= HEADER) {
+            int length = active.getInt(offset);
+            if (length <= 0 || length > segmentSize - offset - HEADER) {
+                break;
+            }
+            byte[] data = new byte[length];
+            ByteBuffer buffer = active.duplicate();
+            buffer.position(offset + HEADER);
+            buffer.get(data);
+            crc.reset();
+            crc.update(data, 0, length);
+            if ((int) crc.getValue() != active.getInt(offset + 4)) {
+                break;
+            }
+            offset += HEADER + length;
+        }
+        return start + offset;
+    }
+
+    /**
+     * 追加一条记录，返回记录的结束位置
+     */
+    public synchronized long append(byte[] data, int offset, int length) throws InterruptedException {
+        if (length <= 0 || length > segmentSize - HEADER) {
+            throw new IllegalArgumentException("记录长度必须在(0, " + (segmentSize - HEADER) + "]之间，但是为[" + length + "]");
+        }
+        ensureWritable();
+        int position = (int) (writePosition - activeSeq * segmentSize);
+        if (position + HEADER + length > segmentSize) {
+            roll(position);
+            position = 0;
+        }
+        crc.reset();
+        crc.update(data, offset, length);
+        ByteBuffer buffer = active.duplicate();
+        buffer.position(position + HEADER);
+        buffer.put(data, offset, length);
+        active.putInt(position + 4, (int) crc.getValue());
+        // 最后写入长度，崩溃时写到一半的记录长度为0
+        active.putInt(position, length);
+        writePosition = activeSeq * segmentSize + position + HEADER + length;
+        notifyAll();
+        return writePosition;
+    }
+
+    private void roll(int position) throws InterruptedException {
+        while (activeSeq + 1 - ackPosition / segmentSize >= maxSegments) {
+            wait();
+            ensureWritable();
+        }
+        if (segmentSize - position >= 4) {
+            active.putInt(position, END_OF_SEGMENT);
+        }
+        active.force();
+        long seq = activeSeq + 1;
+        try {
+            active = map(segmentFile(seq), segmentSize);
+        } catch (IOException e) {
+            throw new IllegalStateException("无法创建段文件: " + segmentFile(seq), e);
+        }
+        segments.put(seq, active);
+        activeSeq = seq;
+        writePosition = seq * segmentSize;
+    }
+
+    /**
+     * 从position开始读取最多maxRecords条记录，返回读取之后的位置
+     */
+    public long read(long position, int maxRecords, List<byte[]> records) {
+        while (records.size() < maxRecords && position < writePosition) {
+            long seq = position / segmentSize;
+            int offset = (int) (position - seq * segmentSize);
+            MappedByteBuffer segment;
+            synchronized (this) {
+                ensureOpen();
+                segment = segments.get(seq);
+                if (segment == null) {
+                    // ack文件落后于已删除的段（ack没有刷盘时操作系统崩溃），跳到下一个存在的段
+                    Long next = segments.higherKey(seq);
+                    if (next == null) {
+                        throw new IllegalStateException("日志[" + dir + "]中位置[" + position + "]之后没有段文件，但写入位置为[" + writePosition + "]");
+                    }
+                    position = next * segmentSize;
+                    continue;
+                }
+            }
+            if (segmentSize - offset < HEADER || segment.getInt(offset) == END_OF_SEGMENT) {
+                position = (seq + 1) * segmentSize;
+                continue;
+            }
+            int length = segment.getInt(offset);
+            byte[] data = new byte[length];
+            ByteBuffer buffer = segment.duplicate();
+            buffer.position(offset + HEADER);
+            buffer.get(data);
+            records.add(data);
+            position += HEADER + length;
+        }
+        return position;
+    }
+
+    /**
+     * 等待position之后有新的数据写入，最多等待timeoutMillis毫秒
+     */
+    public synchronized void awaitData(long position, long timeoutMillis) throws InterruptedException {
+        if (writePosition <= position && !closed) {
+            wait(timeoutMillis);
+        }
+    }
+
+    /**
+     * 确认position之前的数据已经处理完成，删除不再需要的段文件
+     * 删除段文件之前先把ack刷到磁盘，避免崩溃后磁盘上的ack指向已经删除的段
+     */
+    public synchronized void ack(long position) {
+        ensureOpen();
+        ackPosition = position;
+        ackBuffer.putLong(0, position);
+        long ackSeq = position / segmentSize;
+        Iterator<Map.Entry<Long, MappedByteBuffer>> it = segments.headMap(ackSeq).entrySet().iterator();
+        if (it.hasNext()) {
+            ackBuffer.force();
+        }
+        while (it.hasNext()) {
+            long seq = it.next().getKey();
+            it.remove();
+            try {
+                Files.deleteIfExists(segmentFile(seq));
+            } catch (IOException e) {
+                throw new IllegalStateException("无法删除段文件: " + segmentFile(seq), e);
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * 读取方无法继续处理时调用，唤醒等待段被确认的追加操作，之后的追加都抛出IllegalStateException
+     */
+    public synchronized void fail(Throwable cause) {
+        failure = cause;
+        notifyAll();
+    }
+
+    /**
+     * 把当前段和ack刷到磁盘
+     */
+    public synchronized void sync() {
+        if (!closed) {
+            active.force();
+            ackBuffer.force();
+        }
+    }
+
+    public long getWritePosition() {
+        return writePosition;
+    }
+
+    public long getAckPosition() {
+        return ackPosition;
+    }
+
+    /**
+     * 还没有被确认的字节数，包括记录头
+     */
+    public long getPendingBytes() {
+        return writePosition - ackPosition;
+    }
+
+    public synchronized int getSegments() {
+        return segments.size();
+    }
+
+    private Path segmentFile(long seq) {
+        return dir.resolve(String.format("%020d%s", seq, SUFFIX));
+    }
+
+    private static MappedByteBuffer map(Path file, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("日志[" + dir + "]已经关闭");
+        }
+    }
+
+    private void ensureWritable() {
+        ensureOpen();
+        if (failure != null) {
+            throw new IllegalStateException("日志[" + dir + "]的读取方已经异常停止", failure);
+        }
+    }
+
+    /**
+     * 刷盘后关闭，映射的内存在被回收时释放
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        sync();
+        closed = true;
+        segments.clear();
+        notifyAll();
+    }
+}
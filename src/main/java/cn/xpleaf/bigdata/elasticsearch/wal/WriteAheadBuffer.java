@@ -0,0 +1,533 @@
+package cn.xpleaf.bigdata.elasticsearch.wal;
+
+import cn.xpleaf.bigdata.elasticsearch.codec.ProductCodec;
+import cn.xpleaf.bigdata.elasticsearch.ingest.ProductIngestService;
+import cn.xpleaf.bigdata.elasticsearch.pojo.Product;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 写前缓冲：写操作先追加到本地磁盘上的SegmentLog，再由后台的drainer线程写入es
+ * ElasticSearchTest中prepareIndex(...).get()在集群不可用或者线程池拒绝（EsRejectedExecutionException）时直接失败，
+ * 调用方的延迟也完全取决于集群当时的状态
+ *
+ * 这里：
+ * 1.index/update/delete只是把操作编码后追加到内存映射的日志中，与集群的状态无关，
+ *   只有没有确认的段数达到上限时才会阻塞（背压）
+ * 2.drainer按顺序读取日志，每bulkActions条组成一个bulk请求，同时只有一个bulk在途，同一个文档的操作按顺序生效
+ * 3.集群不可用时按指数退避一直重试；被拒绝（429）时只重试被拒绝的数据，并把写入速率减半，
+ *   之后每个成功的bulk再线性增加，直到maxRate（AIMD），突发的写入被平滑为稳定的bulk流量
+ * 4.一个bulk中的所有数据都得到最终结果（成功或者不可重试的失败）之后才确认，已确认的段文件被删除；
+ *   无效的操作（例如id为空）在追加时直接抛出IllegalArgumentException，不会写入日志；
+ *   日志中无法解码的记录只跳过这一条，不会影响同一个bulk中的其他数据；
+ *   drainer因为其它错误停止之后，追加操作抛出以该错误为cause的IllegalStateException
+ * 5.进程退出时没有确认的数据在下次打开同一个目录时重新写入，所以同一个操作可能被执行多次，
+ *   这里的index、update(doc)和delete都是幂等的
+ *
+ * 追加之后数据即进入操作系统的页缓存，进程崩溃不会丢失；操作系统崩溃或者断电时，最多丢失最近syncInterval内的数据
+ */
+public class WriteAheadBuffer implements AutoCloseable {
+
+    private static final byte INDEX = 1;
+    private static final byte UPDATE = 2;
+    private static final byte DELETE = 3;
+
+    private static final ESLogger logger = Loggers.getLogger(WriteAheadBuffer.class);
+
+    private static final ThreadLocal<Encoder> ENCODERS = new ThreadLocal<Encoder>() {
+        @Override
+        protected Encoder initialValue() {
+            return new Encoder();
+        }
+    };
+
+    private final Client client;
+    private final String index;
+    private final String type;
+    private final SegmentLog log;
+    private final int bulkActions;
+    private final TimeValue bulkTimeout;
+    private final int retryOnConflict;
+    private final TimeValue initialBackoff;
+    private final TimeValue maxBackoff;
+    private final AdaptiveRate rate;
+    private final ProductIngestService.FailureListener failureListener;
+    private final ScheduledExecutorService syncScheduler;
+    private final Thread drainer;
+    private volatile boolean closing;
+    private volatile boolean stopped;
+    // drainer异常停止的原因
+    private volatile Throwable failure;
+
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong acknowledged = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong unavailable = new AtomicLong();
+    private final AtomicLong bulks = new AtomicLong();
+
+    private WriteAheadBuffer(Client client, Builder builder) throws IOException {
+        this.client = client;
+        this.index = builder.index;
+        this.type = builder.type;
+        this.log = new SegmentLog(builder.dir, builder.segmentSize, builder.maxSegments);
+        this.bulkActions = builder.bulkActions;
+        this.bulkTimeout = builder.bulkTimeout;
+        this.retryOnConflict = builder.retryOnConflict;
+        this.initialBackoff = builder.initialBackoff;
+        this.maxBackoff = builder.maxBackoff;
+        this.rate = new AdaptiveRate(builder.minRate, builder.maxRate);
+        this.failureListener = builder.failureListener;
+        if (builder.syncInterval.millis() > 0) {
+            this.syncScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "wal-sync-" + index);
+                t.setDaemon(true);
+                return t;
+            });
+            syncScheduler.scheduleWithFixedDelay(log::sync, builder.syncInterval.millis(), builder.syncInterval.millis(), TimeUnit.MILLISECONDS);
+        } else {
+            this.syncScheduler = null;
+        }
+        this.drainer = new Thread(this::drain, "wal-drainer-" + index);
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    public static Builder builder(Path dir, String index, String type) {
+        return new Builder(dir, index, type);
+    }
+
+    /**
+     * 添加或覆盖一条Product数据
+     */
+    public void index(String id, Product product) throws InterruptedException {
+        append(INDEX, id, product);
+    }
+
+    /**
+     * 局部更新，只更新不为null的字段
+     */
+    public void update(String id, Product changes) throws InterruptedException {
+        append(UPDATE, id, changes);
+    }
+
+    public void delete(String id) throws InterruptedException {
+        append(DELETE, id, null);
+    }
+
+    /**
+     * 记录格式：操作类型（1字节） + id长度（2字节） + id + SMILE编码的_source（delete没有）
+     * 追加之前先校验解码后的请求，无效的请求不写入日志
+     */
+    private void append(byte op, String id, Product product) throws InterruptedException {
+        if (closing) {
+            throw new IllegalStateException("写前缓冲[" + index + "]已经关闭");
+        }
+        if (failure != null) {
+            throw new IllegalStateException("写前缓冲[" + index + "]的drainer已经异常停止", failure);
+        }
+        if (id == null || id.isEmpty()) {
+            throw new IllegalArgumentException("id不能为空");
+        }
+        if (op != DELETE && product == null) {
+            throw new IllegalArgumentException("操作[" + id + "]缺少数据");
+        }
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        if (idBytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("id过长: " + idBytes.length + "字节");
+        }
+        Encoder encoder = ENCODERS.get();
+        encoder.reset();
+        encoder.write(op);
+        encoder.write(idBytes.length >>> 8);
+        encoder.write(idBytes.length);
+        encoder.write(idBytes, 0, idBytes.length);
+        if (product != null) {
+            ProductCodec.SMILE.writeTo(product, encoder);
+        }
+        ActionRequestValidationException e = decode(encoder.buffer(), encoder.size()).validate();
+        if (e != null) {
+            throw new IllegalArgumentException("无效的操作[" + id + "]: " + e.getMessage(), e);
+        }
+        log.append(encoder.buffer(), 0, encoder.size());
+        appended.incrementAndGet();
+        if (syncScheduler == null) {
+            log.sync();
+        }
+    }
+
+    private ActionRequest decode(byte[] record, int length) {
+        int idLength = ((record[1] & 0xFF) << 8) | (record[2] & 0xFF);
+        String id = new String(record, 3, idLength, StandardCharsets.UTF_8);
+        int offset = 3 + idLength;
+        switch (record[0]) {
+            case INDEX:
+                return new IndexRequest(index, type, id).source(new BytesArray(record, offset, length - offset));
+            case UPDATE:
+                return new UpdateRequest(index, type, id).doc(record, offset, length - offset).retryOnConflict(retryOnConflict);
+            case DELETE:
+                return new DeleteRequest(index, type, id);
+            default:
+                throw new IllegalStateException("未知的操作类型: " + record[0]);
+        }
+    }
+
+    private void drain() {
+        long position = log.getAckPosition();
+        List<byte[]> records = new ArrayList<>(bulkActions);
+        try {
+            while (!stopped) {
+                records.clear();
+                long end = log.read(position, bulkActions, records);
+                if (records.isEmpty() && end == position) {
+                    if (closing) {
+                        return;
+                    }
+                    log.awaitData(position, 100);
+                    continue;
+                }
+                if (!records.isEmpty()) {
+                    rate.acquire(records.size());
+                    if (!send(records)) {
+                        return;
+                    }
+                }
+                log.ack(end);
+                position = end;
+            }
+        } catch (InterruptedException e) {
+            // 被close()停止，没有确认的数据下次打开时重新写入
+        } catch (RuntimeException e) {
+            if (!stopped) {
+                // 日志损坏等无法继续的错误，没有确认的数据保留在日志中；之后的追加直接失败，包括等待段被确认的追加
+                logger.error("写前缓冲[{}]的drainer异常停止，位置[{}]之后的数据没有写入", e, index, log.getAckPosition());
+                failure = e;
+                log.fail(e);
+            }
+        }
+    }
+
+    /**
+     * 发送直到所有数据都得到最终结果，被停止时返回false
+     */
+    private boolean send(List<byte[]> records) throws InterruptedException {
+        BulkRequest bulk = new BulkRequest();
+        for (byte[] record : records) {
+            // 追加时已经校验过，这里只会遇到之前版本写入的或者损坏的记录，只跳过这一条
+            ActionRequest request;
+            try {
+                request = decode(record, record.length);
+            } catch (RuntimeException e) {
+                failed.incrementAndGet();
+                logger.warn("写前缓冲[{}]跳过无法解码的记录", e, index);
+                continue;
+            }
+            ActionRequestValidationException e = request.validate();
+            if (e != null) {
+                fail(request, e.getMessage());
+            } else {
+                bulk.add(request);
+            }
+        }
+        if (bulk.numberOfActions() == 0) {
+            return true;
+        }
+        for (int attempt = 0; !stopped; attempt++) {
+            bulks.incrementAndGet();
+            BulkResponse response;
+            try {
+                response = client.bulk(bulk).actionGet(bulkTimeout);
+            } catch (RuntimeException e) {
+                // 集群不可用、超时或者整个请求被拒绝
+                if (stopped) {
+                    return false;
+                }
+                unavailable.incrementAndGet();
+                if (ProductIngestService.isRetryable(e)) {
+                    rate.onRejected();
+                }
+                TimeUnit.MILLISECONDS.sleep(backoffMillis(attempt));
+                continue;
+            }
+            BulkRequest retry = new BulkRequest();
+            BulkItemResponse[] items = response.getItems();
+            for (int i = 0; i < items.length; i++) {
+                if (!items[i].isFailed()) {
+                    acknowledged.incrementAndGet();
+                } else if (ProductIngestService.isRetryable(items[i].getFailure().getStatus())) {
+                    retry.add(bulk.requests().get(i));
+                } else {
+                    fail(bulk.requests().get(i), items[i].getFailureMessage());
+                }
+            }
+            if (retry.numberOfActions() == 0) {
+                rate.onSuccess();
+                return true;
+            }
+            rejected.addAndGet(retry.numberOfActions());
+            rate.onRejected();
+            TimeUnit.MILLISECONDS.sleep(backoffMillis(attempt));
+            bulk = retry;
+        }
+        return false;
+    }
+
+    private void fail(ActionRequest request, String message) {
+        failed.incrementAndGet();
+        if (failureListener != null) {
+            failureListener.onFailure(request, message);
+        }
+    }
+
+    long backoffMillis(int attempt) {
+        return Math.min(initialBackoff.millis() << Math.min(attempt, 30), maxBackoff.millis());
+    }
+
+    /**
+     * 等待所有已追加的数据写入es，然后关闭
+     *
+     * @return 超时之前所有数据都已确认时返回true，否则剩余的数据保留在日志中，下次打开时继续写入
+     */
+    public boolean awaitClose(long timeout, TimeUnit unit) throws InterruptedException {
+        closing = true;
+        drainer.join(Math.max(1, unit.toMillis(timeout)));
+        boolean drained = !drainer.isAlive();
+        stopped = true;
+        drainer.interrupt();
+        drainer.join();
+        if (syncScheduler != null) {
+            syncScheduler.shutdownNow();
+        }
+        drained = drained && log.getPendingBytes() == 0;
+        log.close();
+        return drained;
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        awaitClose(1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 追加到日志的操作数
+     */
+    public long getAppended() {
+        return appended.get();
+    }
+
+    /**
+     * 写入es成功的操作数
+     */
+    public long getAcknowledged() {
+        return acknowledged.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * 被es拒绝后重试的操作数
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * 整个bulk请求失败（集群不可用、超时）的次数
+     */
+    public long getUnavailable() {
+        return unavailable.get();
+    }
+
+    public long getBulks() {
+        return bulks.get();
+    }
+
+    /**
+     * 当前每秒最多写入的文档数
+     */
+    public double getRate() {
+        return rate.get();
+    }
+
+    /**
+     * 日志中还没有写入es的字节数
+     */
+    public long getPendingBytes() {
+        return log.getPendingBytes();
+    }
+
+    /**
+     * 可以直接访问内部缓冲区的ByteArrayOutputStream，避免追加时再拷贝一次
+     */
+    private static class Encoder extends ByteArrayOutputStream {
+        Encoder() {
+            super(256);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+
+    /**
+     * AIMD限速：被拒绝时速率减半，成功时增加maxRate / 20
+     */
+    private static class AdaptiveRate {
+        private final double minRate;
+        private final double maxRate;
+        private double rate;
+        private long next = System.nanoTime();
+
+        AdaptiveRate(double minRate, double maxRate) {
+            this.minRate = minRate;
+            this.maxRate = maxRate;
+            this.rate = maxRate;
+        }
+
+        synchronized void onSuccess() {
+            rate = Math.min(maxRate, rate + maxRate / 20);
+        }
+
+        synchronized void onRejected() {
+            rate = Math.max(minRate, rate / 2);
+        }
+
+        synchronized double get() {
+            return rate;
+        }
+
+        void acquire(int docs) throws InterruptedException {
+            long wait;
+            synchronized (this) {
+                long now = System.nanoTime();
+                next = Math.max(next, now);
+                wait = next - now;
+                next += (long) (docs * TimeUnit.SECONDS.toNanos(1) / rate);
+            }
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+    }
+
+    public static class Builder {
+        private final Path dir;
+        private final String index;
+        private final String type;
+        private int segmentSize = 64 * 1024 * 1024;
+        private int maxSegments = 64;
+        private TimeValue syncInterval = TimeValue.timeValueSeconds(1);
+        private int bulkActions = 1000;
+        private TimeValue bulkTimeout = TimeValue.timeValueSeconds(30);
+        private int retryOnConflict = 3;
+        private double minRate = 100;
+        private double maxRate = 10000;
+        private TimeValue initialBackoff = TimeValue.timeValueMillis(50);
+        private TimeValue maxBackoff = TimeValue.timeValueSeconds(30);
+        private ProductIngestService.FailureListener failureListener;
+
+        private Builder(Path dir, String index, String type) {
+            this.dir = dir;
+            this.index = index;
+            this.type = type;
+        }
+
+        /**
+         * 每个段文件的大小，以及没有写入es的段文件的最大个数，即最多占用的磁盘空间
+         */
+        public Builder setSegments(int segmentSize, int maxSegments) {
+            this.segmentSize = segmentSize;
+            this.maxSegments = maxSegments;
+            return this;
+        }
+
+        /**
+         * 定时刷盘的间隔，0表示每次追加之后都刷盘
+         */
+        public Builder setSyncInterval(TimeValue syncInterval) {
+            this.syncInterval = syncInterval;
+            return this;
+        }
+
+        /**
+         * 每个bulk请求最多包含的操作数
+         */
+        public Builder setBulkActions(int bulkActions) {
+            if (bulkActions < 1) {
+                throw new IllegalArgumentException("bulkActions必须大于0，但是为[" + bulkActions + "]");
+            }
+            this.bulkActions = bulkActions;
+            return this;
+        }
+
+        /**
+         * 等待bulk响应的时间，超时后当作集群不可用重试
+         */
+        public Builder setBulkTimeout(TimeValue bulkTimeout) {
+            this.bulkTimeout = bulkTimeout;
+            return this;
+        }
+
+        public Builder setRetryOnConflict(int retryOnConflict) {
+            this.retryOnConflict = retryOnConflict;
+            return this;
+        }
+
+        /**
+         * 每秒写入文档数的范围，开始时为maxRate，被拒绝时逐步降低，但不低于minRate
+         */
+        public Builder setRate(double minRate, double maxRate) {
+            if (minRate <= 0 || maxRate < minRate) {
+                throw new IllegalArgumentException("速率范围无效: [" + minRate + ", " + maxRate + "]");
+            }
+            this.minRate = minRate;
+            this.maxRate = maxRate;
+            return this;
+        }
+
+        public Builder setBackoff(TimeValue initialBackoff, TimeValue maxBackoff) {
+            this.initialBackoff = initialBackoff;
+            this.maxBackoff = maxBackoff;
+            return this;
+        }
+
+        /**
+         * 单条数据最终失败（不可重试）时的回调，失败的数据不会保留在日志中
+         */
+        public Builder setFailureListener(ProductIngestService.FailureListener failureListener) {
+            this.failureListener = failureListener;
+            return this;
+        }
+
+        /**
+         * 打开日志（目录中有上次没有写完的数据时会继续写入）并启动drainer
+         */
+        public WriteAheadBuffer build(Client client) throws IOException {
+            return new WriteAheadBuffer(client, this);
+        }
+    }
+}
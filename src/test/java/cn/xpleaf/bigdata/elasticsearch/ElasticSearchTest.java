@@ -1,5 +1,6 @@
 package cn.xpleaf.bigdata.elasticsearch;
 
+import cn.xpleaf.bigdata.elasticsearch.client.ElasticSearchClientFactory;
 import cn.xpleaf.bigdata.elasticsearch.pojo.Product;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -16,19 +17,13 @@ import org.elasticsearch.action.index.IndexRequestBuilder;
 import org.elasticsearch.action.index.IndexResponse;
 import org.elasticsearch.action.update.UpdateRequestBuilder;
 import org.elasticsearch.action.update.UpdateResponse;
-import org.elasticsearch.client.transport.TransportClient;
-import org.elasticsearch.common.settings.Settings;
-import org.elasticsearch.common.transport.InetSocketTransportAddress;
-import org.elasticsearch.common.transport.TransportAddress;
+import org.elasticsearch.client.Client;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
-import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -41,23 +36,14 @@ import java.util.Map;
  */
 public class ElasticSearchTest {
 
-    private TransportClient client;
+    private Client client;
     private String index = "bigdata";
     private String type = "product";
 
     @Before
-    public void setup() throws UnknownHostException {
-        Settings settings = Settings.builder().put("cluster.name", "bigdata-08-28").build();
-        client = TransportClient.builder().settings(settings).build();
-        TransportAddress ta1 = new InetSocketTransportAddress(InetAddress.getByName("uplooking01"), 9300);
-        TransportAddress ta2 = new InetSocketTransportAddress(InetAddress.getByName("uplooking02"), 9300);
-        TransportAddress ta3 = new InetSocketTransportAddress(InetAddress.getByName("uplooking03"), 9300);
-        client.addTransportAddresses(ta1, ta2, ta3);
-        /*settings = client.settings();
-        Map<String, String> asMap = settings.getAsMap();
-        for(Map.Entry<String, String> setting : asMap.entrySet()) {
-            System.out.println(setting.getKey() + "::" + setting.getValue());
-        }*/
+    public void setup() {
+        // 客户端由工厂统一创建和管理，不需要每个测试都重新建立连接，配置见es-client.properties
+        client = ElasticSearchClientFactory.getInstance().getClient();
     }
 
     /**
@@ -189,9 +175,4 @@ public class ElasticSearchTest {
         CountResponse response = client.prepareCount(index).get();
         System.out.println("索引记录数：" + response.getCount());
     }
-
-    @After
-    public void cleanUp() {
-        client.close();
-    }
 }
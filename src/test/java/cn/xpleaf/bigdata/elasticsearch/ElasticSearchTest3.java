@@ -1,13 +1,11 @@
 package cn.xpleaf.bigdata.elasticsearch;
 
+import cn.xpleaf.bigdata.elasticsearch.client.ElasticSearchClientFactory;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchType;
-import org.elasticsearch.client.transport.TransportClient;
-import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.client.Client;
 import org.elasticsearch.common.text.Text;
-import org.elasticsearch.common.transport.InetSocketTransportAddress;
-import org.elasticsearch.common.transport.TransportAddress;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
@@ -16,12 +14,9 @@ import org.elasticsearch.search.aggregations.AggregationBuilders;
 import org.elasticsearch.search.aggregations.Aggregations;
 import org.elasticsearch.search.highlight.HighlightField;
 import org.elasticsearch.search.sort.SortOrder;
-import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
-import java.net.InetAddress;
-import java.net.UnknownHostException;
 import java.util.List;
 import java.util.Map;
 
@@ -36,19 +31,15 @@ import java.util.Map;
  */
 public class ElasticSearchTest3 {
 
-    private TransportClient client;
+    private Client client;
     private String index = "bigdata";
     private String type = "product";
     private String[] indics = {"chinese"};
 
     @Before
-    public void setUp() throws UnknownHostException {
-        Settings settings = Settings.builder().put("cluster.name", "bigdata-08-28").build();
-        client = TransportClient.builder().settings(settings).build();
-        TransportAddress ta1 = new InetSocketTransportAddress(InetAddress.getByName("uplooking01"), 9300);
-        TransportAddress ta2 = new InetSocketTransportAddress(InetAddress.getByName("uplooking02"), 9300);
-        TransportAddress ta3 = new InetSocketTransportAddress(InetAddress.getByName("uplooking03"), 9300);
-        client.addTransportAddresses(ta1, ta2, ta3);
+    public void setUp() {
+        // 客户端由工厂统一创建和管理，不需要每个测试都重新建立连接，配置见es-client.properties
+        client = ElasticSearchClientFactory.getInstance().getClient();
     }
 
     /**
@@ -113,9 +104,4 @@ public class ElasticSearchTest3 {
             System.out.println("source: " + source);
         }
     }
-
-    @After
-    public void cleanUp() {
-        client.close();
-    }
 }
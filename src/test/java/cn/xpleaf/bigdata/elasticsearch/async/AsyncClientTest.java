@@ -0,0 +1,96 @@
+package cn.xpleaf.bigdata.elasticsearch.async;
+
+import cn.xpleaf.bigdata.elasticsearch.client.LocalCluster;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.client.Client;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncClientTest {
+
+    private LocalCluster cluster;
+    private Client client;
+
+    @Before
+    public void setUp() throws Exception {
+        cluster = new LocalCluster("async-test", 1, null);
+        client = cluster.client();
+    }
+
+    /**
+     * 先get再update，中间不需要阻塞等待
+     */
+    @Test
+    public void testCompose() throws Exception {
+        AsyncClient async = new AsyncClient(client, 4, 100);
+        client.prepareIndex("bigdata", "product", "4").setSource("{\"name\":\"sqoop\", \"author\": \"apache\"}").get();
+        CompletableFuture<UpdateResponse> future = async.get(client.prepareGet("bigdata", "product", "4"))
+                .thenCompose(r -> async.update(client.prepareUpdate("bigdata", "product", r.getId())
+                        .setDoc("{\"url\": \"http://sqoop.apache.org\"}")));
+        assertEquals(2, future.get(10, TimeUnit.SECONDS).getVersion());
+        assertEquals("http://sqoop.apache.org", client.prepareGet("bigdata", "product", "4").get().getSource().get("url"));
+    }
+
+    @Test
+    public void testManyInFlight() throws Exception {
+        AsyncClient async = new AsyncClient(client, 8, 1000);
+        List<CompletableFuture<IndexResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            futures.add(async.index(client.prepareIndex("bigdata", "product", String.valueOf(i))
+                    .setSource("{\"name\":\"product-" + i + "\"}")));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+        assertEquals(0, async.getLimiter().getInFlight());
+        assertEquals(0, async.getLimiter().getQueued());
+        client.admin().indices().prepareRefresh("bigdata").get();
+        assertEquals(500, client.prepareCount("bigdata").get().getCount());
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        AsyncClient async = new AsyncClient(client, 1, 0);
+        try {
+            async.search(client.prepareSearch("not-exists")).get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            // 索引不存在
+        }
+        assertEquals(0, async.getLimiter().getInFlight());
+    }
+
+    @Test
+    public void testLimiter() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1);
+        List<String> executed = new ArrayList<>();
+        limiter.submit(() -> executed.add("a"));
+        limiter.submit(() -> executed.add("b"));
+        assertEquals(1, executed.size());
+        try {
+            limiter.submit(() -> executed.add("c"));
+            fail();
+        } catch (RejectedExecutionException e) {
+            assertEquals(1, limiter.getRejected());
+        }
+        limiter.release();
+        assertEquals(2, executed.size());
+        assertTrue(limiter.getInFlight() == 1 && limiter.getQueued() == 0);
+    }
+
+    @After
+    public void cleanUp() {
+        cluster.close();
+    }
+}
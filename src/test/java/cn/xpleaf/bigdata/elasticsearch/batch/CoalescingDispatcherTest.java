@@ -0,0 +1,93 @@
+package cn.xpleaf.bigdata.elasticsearch.batch;
+
+import cn.xpleaf.bigdata.elasticsearch.client.LocalCluster;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CoalescingDispatcherTest {
+
+    private LocalCluster cluster;
+    private Client client;
+    private CoalescingDispatcher dispatcher;
+
+    @Before
+    public void setUp() throws Exception {
+        cluster = new LocalCluster("coalescing-test", 1, null);
+        client = cluster.client();
+        BulkRequestBuilder bulk = client.prepareBulk().setRefresh(true);
+        for (int i = 0; i < 100; i++) {
+            bulk.add(client.prepareIndex("bigdata", "product", String.valueOf(i))
+                    .setSource("name", "product-" + i, "author", i % 2 == 0 ? "apache" : "cloudera"));
+        }
+        bulk.get();
+        dispatcher = new CoalescingDispatcher(client, TimeValue.timeValueMillis(5), 32);
+    }
+
+    @Test
+    public void testGet() throws Exception {
+        List<CompletableFuture<GetResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(dispatcher.get("bigdata", "product", String.valueOf(i)));
+        }
+        CompletableFuture<GetResponse> missing = dispatcher.get("bigdata", "product", "not-exists");
+        for (int i = 0; i < 100; i++) {
+            GetResponse response = futures.get(i).get(10, TimeUnit.SECONDS);
+            assertTrue(response.isExists());
+            assertEquals("product-" + i, response.getSource().get("name"));
+        }
+        assertFalse(missing.get(10, TimeUnit.SECONDS).isExists());
+        // 101个请求，每批最多32个，至少4批，但是远少于101次
+        assertTrue(dispatcher.getGetBatches() >= 4 && dispatcher.getGetBatches() < 10);
+    }
+
+    @Test
+    public void testSearch() throws Exception {
+        CompletableFuture<SearchResponse> apache = dispatcher.search(client.prepareSearch("bigdata")
+                .setQuery(QueryBuilders.termQuery("author", "apache")));
+        CompletableFuture<SearchResponse> prefix = dispatcher.search(client.prepareSearch("bigdata")
+                .setQuery(QueryBuilders.prefixQuery("name", "prod")));
+        CompletableFuture<SearchResponse> failed = dispatcher.search(client.prepareSearch("not-exists"));
+        assertEquals(50, apache.get(10, TimeUnit.SECONDS).getHits().getTotalHits());
+        assertEquals(100, prefix.get(10, TimeUnit.SECONDS).getHits().getTotalHits());
+        assertTrue(failed.handle((r, e) -> e != null).get(10, TimeUnit.SECONDS));
+        assertEquals(1, dispatcher.getSearchBatches());
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        CompletableFuture<GetResponse> pending = dispatcher.get("bigdata", "product", "1");
+        dispatcher.close();
+        // 关闭时发出等待中的请求
+        assertTrue(pending.get(10, TimeUnit.SECONDS).isExists());
+        try {
+            dispatcher.get("bigdata", "product", "2");
+            fail("关闭之后不能再提交请求");
+        } catch (IllegalStateException e) {
+            // 预期
+        }
+        assertEquals(1, dispatcher.getGetBatches());
+    }
+
+    @After
+    public void cleanUp() {
+        dispatcher.close();
+        cluster.close();
+    }
+}
@@ -0,0 +1,148 @@
+package cn.xpleaf.bigdata.elasticsearch.batch;
+
+import cn.xpleaf.bigdata.elasticsearch.client.LocalCluster;
+import cn.xpleaf.bigdata.elasticsearch.pojo.Product;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.engine.VersionConflictEngineException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UpdateAggregatorTest {
+
+    private LocalCluster cluster;
+    private Client client;
+
+    @Before
+    public void setUp() throws Exception {
+        cluster = new LocalCluster("update-aggregator-test", 1, null);
+        client = cluster.client();
+        client.prepareBulk().setRefresh(true)
+                .add(client.prepareIndex("bigdata", "product", "1").setSource("name", "hadoop", "author", "apache", "version", "2.7.3"))
+                .add(client.prepareIndex("bigdata", "product", "2").setSource("name", "kafka", "author", "linkedIn", "version", "0.10.0.1"))
+                .get();
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        try (UpdateAggregator aggregator = UpdateAggregator.builder("bigdata", "product")
+                .setWindow(TimeValue.timeValueSeconds(10))
+                .build(client)) {
+            List<CompletableFuture<UpdateResponse>> futures = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                futures.add(aggregator.update("1", Collections.<String, Object>singletonMap("version", "2.7." + i)));
+            }
+            futures.add(aggregator.update("1", new Product(null, null, null, "http://hadoop.apache.org")));
+            futures.add(aggregator.update("2", new Product(null, "apache", null, null)));
+            aggregator.flush();
+            for (CompletableFuture<UpdateResponse> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+            assertEquals(12, aggregator.getSubmitted());
+            assertEquals(2, aggregator.getSent());
+            assertEquals(1, aggregator.getBulks());
+        }
+        GetResponse hadoop = client.prepareGet("bigdata", "product", "1").get();
+        // 11次修改只产生了一个新版本
+        assertEquals(2, hadoop.getVersion());
+        assertEquals("2.7.9", hadoop.getSource().get("version"));
+        assertEquals("http://hadoop.apache.org", hadoop.getSource().get("url"));
+        assertEquals("hadoop", hadoop.getSource().get("name"));
+        assertEquals("apache", client.prepareGet("bigdata", "product", "2").get().getSource().get("author"));
+    }
+
+    @Test
+    public void testNoopAndVersion() throws Exception {
+        try (UpdateAggregator aggregator = UpdateAggregator.builder("bigdata", "product")
+                .setWindow(TimeValue.timeValueMillis(10))
+                .setMaxDocs(2)
+                .setDocAsUpsert(true)
+                .build(client)) {
+            // 内容没有变化，不产生新版本
+            UpdateResponse noop = aggregator.update("1", new Product(null, "apache", null, null)).get(10, TimeUnit.SECONDS);
+            assertEquals(1, noop.getVersion());
+
+            Map<String, Object> doc = new HashMap<>();
+            doc.put("author", "cloudera");
+            try {
+                aggregator.update("1", doc, 5).get(10, TimeUnit.SECONDS);
+                fail("版本不一致时应该失败");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof VersionConflictEngineException);
+            }
+            assertEquals(2, aggregator.update("1", doc, 1).get(10, TimeUnit.SECONDS).getVersion());
+
+            // docAsUpsert
+            UpdateResponse created = aggregator.update("3", new Product("flume", "cloudera", "1.8.0", null)).get(10, TimeUnit.SECONDS);
+            assertTrue(created.isCreated());
+        }
+    }
+
+    @Test
+    public void testVersionedAndUnversionedNotMerged() throws Exception {
+        UpdateAggregator aggregator = UpdateAggregator.builder("bigdata", "product")
+                .setWindow(TimeValue.timeValueSeconds(10))
+                .build(client);
+        CompletableFuture<UpdateResponse> versioned = aggregator.update("1", Collections.<String, Object>singletonMap("author", "cloudera"), 1);
+        // 没有指定版本的更新不会合并到指定了版本的更新中，仍然使用retry_on_conflict
+        CompletableFuture<UpdateResponse> unversioned = aggregator.update("1", Collections.<String, Object>singletonMap("version", "2.8.0"));
+        aggregator.close();
+        assertEquals(2, versioned.get(10, TimeUnit.SECONDS).getVersion());
+        assertEquals(3, unversioned.get(10, TimeUnit.SECONDS).getVersion());
+        assertEquals(2, aggregator.getSent());
+        assertEquals(2, aggregator.getBulks());
+
+        try {
+            aggregator.update("2", new Product(null, "apache", null, null));
+            fail("关闭之后不能再提交更新");
+        } catch (IllegalStateException e) {
+            // 预期
+        }
+        assertEquals(2, aggregator.getSubmitted());
+        GetResponse hadoop = client.prepareGet("bigdata", "product", "1").get();
+        assertEquals("cloudera", hadoop.getSource().get("author"));
+        assertEquals("2.8.0", hadoop.getSource().get("version"));
+    }
+
+    @Test
+    public void testSameVersionNotMerged() throws Exception {
+        try (UpdateAggregator aggregator = UpdateAggregator.builder("bigdata", "product")
+                .setWindow(TimeValue.timeValueSeconds(10))
+                .build(client)) {
+            // 两个调用方都基于版本1修改，与逐个发送一样，只有第一个成功
+            CompletableFuture<UpdateResponse> first = aggregator.update("2", Collections.<String, Object>singletonMap("author", "apache"), 1);
+            CompletableFuture<UpdateResponse> second = aggregator.update("2", Collections.<String, Object>singletonMap("author", "confluent"), 1);
+            aggregator.flush();
+            assertEquals(2, first.get(10, TimeUnit.SECONDS).getVersion());
+            try {
+                second.get(10, TimeUnit.SECONDS);
+                fail("基于同一版本的第二个更新应该版本冲突");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof VersionConflictEngineException);
+            }
+            assertEquals(2, aggregator.getSent());
+        }
+        assertEquals("apache", client.prepareGet("bigdata", "product", "2").get().getSource().get("author"));
+    }
+
+    @After
+    public void tearDown() {
+        cluster.close();
+    }
+}
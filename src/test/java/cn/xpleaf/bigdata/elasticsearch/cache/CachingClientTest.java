@@ -0,0 +1,133 @@
+package cn.xpleaf.bigdata.elasticsearch.cache;
+
+import cn.xpleaf.bigdata.elasticsearch.client.LocalCluster;
+import org.elasticsearch.action.admin.indices.alias.Alias;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class CachingClientTest {
+
+    private LocalCluster cluster;
+    private CachingClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        cluster = new LocalCluster("cache-test", 1, null);
+        client = new CachingClient(cluster.client(), new SearchResultCache(2, 1024 * 1024, TimeValue.timeValueMinutes(1)));
+        client.prepareIndex("bigdata", "product", "1").setSource("{\"name\":\"hadoop\", \"author\": \"apache\"}").setRefresh(true).get();
+        client.prepareIndex("bank", "account", "1").setSource("{\"balance\":1000, \"age\": 30}").setRefresh(true).get();
+    }
+
+    @Test
+    public void testHitAndInvalidate() {
+        SearchResponse first = searchApache(client);
+        SearchResponse second = searchApache(client);
+        assertSame(first, second);
+        assertEquals(1, client.getCache().getHitCount());
+        assertEquals(1, client.getCache().getMissCount());
+
+        // 写其它索引不影响这里的缓存
+        client.prepareIndex("bank", "account", "2").setSource("{\"balance\":2000, \"age\": 31}").get();
+        assertSame(first, searchApache(client));
+
+        client.prepareIndex("bigdata", "product", "2").setSource("{\"name\":\"hive\", \"author\": \"apache\"}").setRefresh(true).get();
+        assertEquals(2, searchApache(client).getHits().getTotalHits());
+        assertEquals(2, client.getCache().getMissCount());
+    }
+
+    @Test
+    public void testAliasAndIndexChanges() {
+        client.admin().indices().prepareAliases().addAlias("bigdata", "products").get();
+        // 其它客户端写入的新版本索引
+        cluster.client().prepareBulk().setRefresh(true)
+                .add(new IndexRequest("bigdata_v2", "product", "1").source("{\"name\":\"hadoop\", \"author\": \"apache\"}"))
+                .add(new IndexRequest("bigdata_v2", "product", "2").source("{\"name\":\"hive\", \"author\": \"apache\"}"))
+                .get();
+        SearchResponse first = client.prepareSearch("products").setQuery(QueryBuilders.termQuery("author", "apache")).get();
+        assertEquals(1, first.getHits().getTotalHits());
+        client.prepareSearch("bank").setSize(0).get();
+        assertEquals(2, client.getCache().size());
+
+        // 切换别名之后别名的缓存失效，其它索引的缓存不受影响
+        client.admin().indices().prepareAliases().removeAlias("bigdata", "products").addAlias("bigdata_v2", "products").get();
+        assertEquals(1, client.getCache().size());
+        assertEquals(2, client.prepareSearch("products").setQuery(QueryBuilders.termQuery("author", "apache")).get()
+                .getHits().getTotalHits());
+
+        // 删除索引时所有缓存失效
+        client.admin().indices().prepareDelete("bigdata").get();
+        assertEquals(0, client.getCache().size());
+
+        // 创建之前查询过的索引或别名，忽略不存在的索引时空结果也会被缓存
+        client.prepareSearch("logs").setIndicesOptions(IndicesOptions.lenientExpandOpen()).get();
+        client.prepareSearch("logs_current").setIndicesOptions(IndicesOptions.lenientExpandOpen()).get();
+        assertEquals(2, client.getCache().size());
+        client.admin().indices().prepareCreate("logs").get();
+        assertEquals(1, client.getCache().size());
+        client.admin().indices().prepareCreate("logs_v1").addAlias(new Alias("logs_current")).get();
+        assertEquals(0, client.getCache().size());
+    }
+
+    @Test
+    public void testAliasResolved() {
+        client.admin().indices().prepareAliases().addAlias("bigdata", "products").get();
+        SearchResponse byAlias = client.prepareSearch("products").setQuery(QueryBuilders.termQuery("author", "apache")).get();
+        SearchResponse byIndex = searchApache(client);
+        assertEquals(2, client.getCache().size());
+
+        // 直接写索引时通过别名查询的缓存也失效，反之亦然
+        client.prepareIndex("bigdata", "product", "2").setSource("{\"name\":\"hive\", \"author\": \"apache\"}").setRefresh(true).get();
+        assertEquals(0, client.getCache().size());
+        assertEquals(2, client.prepareSearch("products").setQuery(QueryBuilders.termQuery("author", "apache")).get()
+                .getHits().getTotalHits());
+        assertEquals(2, searchApache(client).getHits().getTotalHits());
+        assertEquals(2, client.getCache().size());
+        client.prepareIndex("products", "product", "3").setSource("{\"name\":\"spark\", \"author\": \"apache\"}").setRefresh(true).get();
+        assertEquals(0, client.getCache().size());
+        assertEquals(3, searchApache(client).getHits().getTotalHits());
+        assertNotSame(byAlias, byIndex);
+    }
+
+    @Test
+    public void testEviction() {
+        searchApache(client);
+        client.prepareSearch("bank").setSize(0).addAggregation(AggregationBuilders.avg("avg_balance").field("balance")).get();
+        client.prepareSearch("bank").setSize(0).addAggregation(AggregationBuilders.max("max").field("balance")).get();
+        assertEquals(2, client.getCache().size());
+        assertEquals(1, client.getCache().getEvictionCount());
+        // 最久没有使用的termQuery已经被淘汰
+        searchApache(client);
+        assertEquals(0, client.getCache().getHitCount());
+    }
+
+    @Test
+    public void testExpire() throws Exception {
+        CachingClient shortLived = new CachingClient(cluster.client(), new SearchResultCache(10, 1024 * 1024, TimeValue.timeValueMillis(50)));
+        searchApache(shortLived);
+        Thread.sleep(100);
+        searchApache(shortLived);
+        assertEquals(1, shortLived.getCache().getExpiredCount());
+        assertEquals(0, shortLived.getCache().getHitCount());
+    }
+
+    private static SearchResponse searchApache(Client client) {
+        return client.prepareSearch("bigdata").setQuery(QueryBuilders.termQuery("author", "apache")).get();
+    }
+
+    @After
+    public void cleanUp() {
+        cluster.close();
+    }
+}
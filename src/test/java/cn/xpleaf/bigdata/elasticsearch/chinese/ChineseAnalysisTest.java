@@ -0,0 +1,96 @@
+package cn.xpleaf.bigdata.elasticsearch.chinese;
+
+import cn.xpleaf.bigdata.elasticsearch.client.LocalCluster;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class ChineseAnalysisTest {
+
+    private LocalCluster cluster;
+    private Client client;
+
+    @Before
+    public void setUp() throws Exception {
+        cluster = new LocalCluster("chinese-test", 1, null);
+        client = cluster.client();
+        new ChineseIndexTemplate(client).put("cjk");
+    }
+
+    @Test
+    public void testSegmenter() {
+        assertEquals(Arrays.asList("中华", "华人", "人民", "es", "2"),
+                new CjkBigramSegmenter().segment("中华人民，ES 2"));
+        assertEquals(Arrays.asList("国"), new CjkBigramSegmenter().segment("国"));
+
+        DictionarySegmenter segmenter = DictionarySegmenter.withDefaultDictionary();
+        assertEquals(Arrays.asList("中国", "是", "世界上", "人口", "最多", "的", "国家"),
+                segmenter.segment("中国是世界上人口最多的国家"));
+        assertEquals(Arrays.asList("他", "留下", "了", "一个", "烂摊子"), segmenter.segment("他留下了一个烂摊子"));
+    }
+
+    @Test
+    public void testCache() {
+        // 与es内置的cjk分析器的结果一致
+        CachingSegmenter segmenter = new CachingSegmenter(new AnalyzeSegmenter(client, "cjk"), 2);
+        assertEquals(new CjkBigramSegmenter().segment("中华人民共和国"), segmenter.segment("中华人民共和国"));
+        segmenter.segment("中华人民共和国");
+        assertEquals(1, segmenter.getHitCount());
+        assertEquals(1, segmenter.getMissCount());
+
+        segmenter.segment("烂摊子");
+        segmenter.segment("中华人民共和国");
+        segmenter.segment("世界");
+        // 最近最少使用的“烂摊子”被淘汰
+        assertEquals(2, segmenter.size());
+        segmenter.segment("烂摊子");
+        assertEquals(2, segmenter.getHitCount());
+        assertEquals(4, segmenter.getMissCount());
+    }
+
+    @Test
+    public void testPretokenizedSearch() {
+        Segmenter segmenter = DictionarySegmenter.withDefaultDictionary();
+        CachingSegmenter cache = new CachingSegmenter(segmenter, 100);
+        ChineseAnalysis analysis = new ChineseAnalysis(segmenter, cache);
+        BulkRequestBuilder bulk = client.prepareBulk().setRefresh(true);
+        bulk.add(analysis.indexRequest("chinese", "article", "1", "中国是世界上人口最多的国家"));
+        bulk.add(analysis.indexRequest("chinese", "article", "2", "中华人民共和国"));
+        bulk.add(analysis.indexRequest("chinese", "article", "3", "他留下了一个烂摊子"));
+        bulk.add(analysis.indexRequest("chinese", "article", "4", "巴西是发展中国家"));
+        assertEquals(false, bulk.get().hasFailures());
+        // 文档内容不进入查询缓存
+        assertEquals(0, cache.size());
+
+        // 模板生效：content使用cjk分词，同时保留了n-gram子字段
+        assertHits(2, QueryBuilders.matchPhraseQuery("content", "中国"));
+        assertHits(1, QueryBuilders.matchPhraseQuery("content", "烂摊子"));
+        assertHits(1, QueryBuilders.termQuery("content.prefix", "中国"));
+
+        // 按词匹配，“发展中国家”中的“中国”不会被匹配到
+        assertHits(1, analysis.match("中国"));
+        assertHits(1, analysis.matchPhrase("人口最多的国家"));
+        assertHits(0, analysis.matchPhrase("国家人口最多"));
+        assertHits(1, analysis.match("烂摊子"));
+        assertEquals(4, cache.size());
+    }
+
+    private void assertHits(long expected, QueryBuilder query) {
+        SearchResponse response = client.prepareSearch("chinese").setQuery(query).get();
+        assertEquals(query.toString(), expected, response.getHits().getTotalHits());
+    }
+
+    @After
+    public void tearDown() {
+        cluster.close();
+    }
+}
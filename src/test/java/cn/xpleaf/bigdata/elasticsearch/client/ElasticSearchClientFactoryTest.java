@@ -0,0 +1,59 @@
+package cn.xpleaf.bigdata.elasticsearch.client;
+
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.client.Client;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 使用local模式测试客户端工厂，不需要连接远程集群
+ */
+public class ElasticSearchClientFactoryTest {
+
+    private ElasticSearchClientFactory factory;
+
+    @Before
+    public void setUp() {
+        Properties overrides = new Properties();
+        overrides.setProperty("es-client.client.mode", "local");
+        overrides.setProperty("es-client.cluster.name", "factory-test");
+        factory = new ElasticSearchClientFactory(ClientConfig.load(ClientConfig.DEFAULT_RESOURCE, overrides));
+    }
+
+    @Test
+    public void testConfig() {
+        ClientConfig config = factory.getConfig();
+        assertEquals(ClientConfig.Mode.LOCAL, config.getMode());
+        assertEquals("factory-test", config.getClusterName());
+        // 没有被覆盖的配置项使用es-client.properties中的值
+        assertEquals(3, config.getNodes().size());
+        assertTrue(config.isSniff());
+    }
+
+    @Test
+    public void testSharedClient() {
+        Client client = factory.getClient();
+        assertSame(client, factory.getClient());
+        assertNotNull(factory.getLocalCluster());
+
+        IndexResponse response = client.prepareIndex("bigdata", "product", "1")
+                .setSource("{\"name\":\"hadoop\", \"author\": \"apache\"}")
+                .setRefresh(true)
+                .get();
+        assertTrue(response.isCreated());
+        assertEquals(1, client.prepareCount("bigdata").get().getCount());
+    }
+
+    @After
+    public void cleanUp() {
+        factory.close();
+    }
+}
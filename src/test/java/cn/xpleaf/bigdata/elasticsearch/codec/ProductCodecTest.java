@@ -0,0 +1,49 @@
+package cn.xpleaf.bigdata.elasticsearch.codec;
+
+import cn.xpleaf.bigdata.elasticsearch.pojo.Product;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+public class ProductCodecTest {
+
+    @Test
+    public void testRoundTrip() {
+        Product product = new Product("kafka", "linkedIn", "0.10.0.1", "kafka.apache.org");
+        BytesReference source = ProductCodec.JSON.encode(product);
+        assertEquals("{\"name\":\"kafka\",\"author\":\"linkedIn\",\"version\":\"0.10.0.1\",\"url\":\"kafka.apache.org\"}",
+                source.toUtf8());
+        assertEquals(product, ProductCodec.decode(source));
+    }
+
+    /**
+     * 每次编码返回的都是独立的数据，不会被同一线程的下一次编码覆盖
+     */
+    @Test
+    public void testEncodeDoesNotShareBuffer() {
+        BytesReference first = ProductCodec.JSON.encode(new Product("hadoop", "apache", "2.6.4", "hadoop.apache.org"));
+        BytesReference second = ProductCodec.JSON.encode(new Product("flume", "Cloudera", "1.8.0", null));
+        assertNotSame(first, second);
+        assertEquals("hadoop", ProductCodec.decode(first).getName());
+        assertEquals("flume", ProductCodec.decode(second).getName());
+        assertNull(ProductCodec.decode(second).getUrl());
+    }
+
+    /**
+     * 与Jackson序列化的结果兼容，并且会跳过不认识的字段
+     */
+    @Test
+    public void testDecode() throws Exception {
+        Product product = new Product("redis", "redis", "3.2.0", "redis.cn");
+        byte[] json = new ObjectMapper().writeValueAsBytes(product);
+        assertEquals(product, ProductCodec.decode(new BytesArray(json)));
+
+        String source = "{\"name\":\"sqoop\", \"tags\":[\"etl\"], \"meta\":{\"a\":1}, \"author\": \"apache\", \"version\": null, \"stars\": 10}";
+        assertEquals(new Product("sqoop", "apache", null, null), ProductCodec.decode(new BytesArray(source)));
+    }
+}
@@ -0,0 +1,74 @@
+package cn.xpleaf.bigdata.elasticsearch.codec;
+
+import cn.xpleaf.bigdata.elasticsearch.client.LocalCluster;
+import cn.xpleaf.bigdata.elasticsearch.pojo.Product;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.sort.SortOrder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ProjectionTest {
+
+    private LocalCluster cluster;
+    private Client client;
+
+    @Before
+    public void setUp() throws Exception {
+        cluster = new LocalCluster("projection-test", 1, null);
+        client = cluster.client();
+        BulkRequestBuilder bulk = client.prepareBulk().setRefresh(true);
+        for (int i = 0; i < 10; i++) {
+            bulk.add(client.prepareIndex("bank", "account", String.valueOf(i))
+                    .setSource("account_number", i, "firstname", "name" + i, "balance", i * 1000,
+                            "address", "street " + i, "age", 20 + i));
+        }
+        bulk.add(client.prepareIndex("bank", "account", "10").setSource("account_number", 10, "firstname", "nobody"));
+        bulk.add(client.prepareIndex("bigdata", "product", "1").setSource(ProductCodec.SMILE.encode(
+                new Product("hadoop", "apache", "2.7.3", "http://hadoop.apache.org"))));
+        bulk.get();
+    }
+
+    @Test
+    public void testReadLongs() {
+        long[] expectedBalance = {0, 1000, 2000, 3000, 4000, 5000, 6000, 7000, 8000, 9000, -1};
+        long[] expectedAge = {20, 21, 22, 23, 24, 25, 26, 27, 28, 29, -1};
+        for (Projection projection : new Projection[]{Projection.of("balance", "age"), Projection.docValues("balance", "age")}) {
+            SearchHit[] hits = projection.apply(client.prepareSearch("bank")
+                    .addSort("account_number", SortOrder.ASC)
+                    .setSize(20)).get().getHits().getHits();
+            if (!projection.isDocValues()) {
+                // 只返回了投影中的字段
+                assertNull(hits[0].getSource().get("address"));
+            }
+            long[][] columns = projection.readLongs(hits, -1);
+            assertArrayEquals(expectedBalance, columns[0]);
+            assertArrayEquals(expectedAge, columns[1]);
+        }
+    }
+
+    @Test
+    public void testProduct() {
+        Projection projection = Projection.of("name", "version");
+        SearchHit hit = projection.apply(client.prepareSearch("bigdata")).get().getHits().getAt(0);
+        Product product = projection.toProduct(hit);
+        assertEquals("hadoop", product.getName());
+        assertEquals("2.7.3", product.getVersion());
+        assertNull(product.getAuthor());
+
+        GetResponse response = projection.apply(client.prepareGet("bigdata", "product", "1")).get();
+        assertEquals(new Product("hadoop", null, "2.7.3", null), ProductCodec.decode(response));
+    }
+
+    @After
+    public void tearDown() {
+        cluster.close();
+    }
+}
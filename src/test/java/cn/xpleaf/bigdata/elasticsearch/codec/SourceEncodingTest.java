@@ -0,0 +1,35 @@
+package cn.xpleaf.bigdata.elasticsearch.codec;
+
+import cn.xpleaf.bigdata.elasticsearch.pojo.Product;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SourceEncodingTest {
+
+    /**
+     * 每种编码都可以被ProductCodec.decode解析回原来的Product，包括需要转义的字符
+     */
+    @Test
+    public void testRoundTrip() {
+        Product product = new Product("kafka \"0.10\"", "linkedIn\\apache", "0.10.0.1", "kafka.apache.org\n");
+        for (SourceEncoding encoding : SourceEncoding.values()) {
+            assertEquals(encoding.name(), product, ProductCodec.decode(encoding.encode(product)));
+        }
+    }
+
+    @Test
+    public void testContentType() {
+        Product product = new Product("redis", "redis", "3.2.0", "redis.cn");
+        assertEquals(XContentType.JSON, XContentFactory.xContentType(SourceEncoding.MAP.encode(product)));
+        assertEquals(XContentType.JSON, XContentFactory.xContentType(SourceEncoding.JSON_BYTES.encode(product)));
+        BytesReference smile = SourceEncoding.SMILE.encode(product);
+        assertEquals(XContentType.SMILE, XContentFactory.xContentType(smile));
+        assertEquals(XContentType.CBOR, XContentFactory.xContentType(SourceEncoding.CBOR.encode(product)));
+        assertTrue(smile.length() < SourceEncoding.JSON_STRING.encode(product).length());
+    }
+}
@@ -0,0 +1,106 @@
+package cn.xpleaf.bigdata.elasticsearch.ingest;
+
+import cn.xpleaf.bigdata.elasticsearch.client.LocalCluster;
+import cn.xpleaf.bigdata.elasticsearch.pojo.Product;
+import org.elasticsearch.action.Action;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.FilterClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 使用local模式的es节点测试批量写入服务
+ */
+public class ProductIngestServiceTest {
+
+    private LocalCluster cluster;
+    private Client client;
+
+    @Before
+    public void setUp() throws Exception {
+        cluster = new LocalCluster("ingest-test", 1, null);
+        client = cluster.client();
+    }
+
+    @Test
+    public void testIngest() throws Exception {
+        ProductIngestService service = ProductIngestService.builder("bigdata", "product")
+                .setBulkActions(100)
+                .setConcurrentRequests(2)
+                .setQueueCapacity(300)
+                .build(client);
+        for (int i = 0; i < 1000; i++) {
+            service.index(String.valueOf(i), new Product("product-" + i, "apache", "1.0." + i, "apache.org"));
+        }
+        service.delete("0");
+        assertTrue(service.awaitClose(30, TimeUnit.SECONDS));
+        assertEquals(1001, service.getSucceeded());
+        assertEquals(0, service.getFailed());
+        assertEquals(0, service.getPending());
+
+        client.admin().indices().prepareRefresh("bigdata").get();
+        assertEquals(999, client.prepareCount("bigdata").get().getCount());
+    }
+
+    @Test
+    public void testBackoff() throws Exception {
+        ProductIngestService service = ProductIngestService.builder("bigdata", "product")
+                .setBackoff(TimeValue.timeValueMillis(50), TimeValue.timeValueMillis(300))
+                .build(client);
+        assertEquals(50, service.backoffMillis(0));
+        assertEquals(100, service.backoffMillis(1));
+        assertEquals(200, service.backoffMillis(2));
+        assertEquals(300, service.backoffMillis(3));
+        assertEquals(300, service.backoffMillis(40));
+        service.close();
+    }
+
+    @Test
+    public void testCloseWhileRetrying() throws Exception {
+        // 所有bulk请求都被拒绝
+        Client rejecting = new FilterClient(client) {
+            @Override
+            protected <Request extends ActionRequest, Response extends ActionResponse, RequestBuilder extends ActionRequestBuilder<Request, Response, RequestBuilder>>
+            void doExecute(Action<Request, Response, RequestBuilder> action, Request request, ActionListener<Response> listener) {
+                listener.onFailure(new EsRejectedExecutionException("rejected"));
+            }
+        };
+        List<String> failures = new CopyOnWriteArrayList<>();
+        ProductIngestService service = ProductIngestService.builder("bigdata", "product")
+                .setBulkActions(10)
+                .setQueueCapacity(100)
+                .setBackoff(TimeValue.timeValueSeconds(30), TimeValue.timeValueSeconds(30))
+                .setFailureListener((request, message) -> failures.add(message))
+                .build(rejecting);
+        for (int i = 0; i < 20; i++) {
+            service.index(String.valueOf(i), new Product("product-" + i, "apache", "1.0." + i, "apache.org"));
+        }
+        // 重试的等待时间大于关闭的超时时间，等待重试的数据在关闭时失败
+        assertFalse(service.awaitClose(500, TimeUnit.MILLISECONDS));
+        assertEquals(20, service.getRetried());
+        assertEquals(20, service.getFailed());
+        assertEquals(0, service.getPending());
+        assertEquals(20, failures.size());
+        assertEquals("closed", failures.get(0));
+    }
+
+    @After
+    public void cleanUp() {
+        cluster.close();
+    }
+}
@@ -0,0 +1,122 @@
+package cn.xpleaf.bigdata.elasticsearch.metrics;
+
+import cn.xpleaf.bigdata.elasticsearch.client.LocalCluster;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MetricsClientTest {
+
+    private LocalCluster cluster;
+    private ClientMetrics metrics;
+    private MetricsClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        cluster = new LocalCluster("metrics-test", 1, null);
+        metrics = new ClientMetrics();
+        client = new MetricsClient(cluster.client(), metrics);
+        cluster.client().admin().cluster().prepareHealth().setWaitForYellowStatus().get();
+    }
+
+    @Test
+    public void testOperations() {
+        client.prepareIndex("bigdata", "product", "1").setSource("{\"name\":\"hadoop\", \"author\": \"apache\"}").setRefresh(true).get();
+        client.prepareBulk()
+                .add(client.prepareIndex("bigdata", "product", "2").setSource("{\"name\":\"hive\", \"author\": \"apache\"}"))
+                .add(client.prepareIndex("bank", "account", "1").setSource("{\"balance\":1000, \"age\": 30}"))
+                .setRefresh(true)
+                .get();
+        client.prepareGet("bigdata", "product", "1").get();
+        client.prepareUpdate("bigdata", "product", "1").setDoc("{\"version\":\"2.6.4\"}").get();
+        client.prepareSearch("bigdata").setSearchType(SearchType.DFS_QUERY_THEN_FETCH)
+                .setQuery(QueryBuilders.termQuery("author", "apache")).get();
+        client.prepareCount("bigdata").get();
+        // 按请求区分count和search：没有匹配到数据的count，以及from超过总数没有返回数据的search
+        client.prepareCount("bigdata").setQuery(QueryBuilders.termQuery("author", "missing")).get();
+        client.prepareSearch("bank").setFrom(10).get();
+        client.prepareSearch("bank").setSize(0).addAggregation(AggregationBuilders.avg("avg_balance").field("balance")).get();
+        client.prepareDelete("bigdata", "product", "2").get();
+
+        assertEquals(1, find("index", "bigdata").getCount());
+        assertEquals(1, find("get", "bigdata").getCount());
+        assertEquals(1, find("update", "bigdata").getCount());
+        assertEquals(1, find("delete", "bigdata").getCount());
+
+        MetricsSnapshot bulk = find("bulk", "bank,bigdata");
+        assertEquals(1, bulk.getCount());
+        assertEquals(1, bulk.getTookCount());
+        assertTrue(bulk.getBytesSent() > 0);
+        assertTrue(bulk.getBytesReceived() > 0);
+
+        MetricsSnapshot search = find("search", "bigdata");
+        assertEquals("dfs_query_then_fetch", search.getSearchType());
+        assertEquals(1, search.getTookCount());
+        assertTrue(search.getLatencyMax() >= search.getTookMax() - 1);
+
+        assertEquals(2, find("count", "bigdata").getCount());
+        assertEquals(1, find("search", "bank").getCount());
+        assertEquals(1, find("aggregation", "bank").getCount());
+
+        String json = metrics.toJson();
+        assertTrue(json, json.contains("\"operation\":\"aggregation\""));
+        assertTrue(json, json.contains("\"overhead_ms\""));
+    }
+
+    @Test
+    public void testFailureAndRetry() {
+        try {
+            client.prepareUpdate("bigdata", "product", "missing").setDoc("{\"version\":\"2.6.4\"}").get();
+            fail();
+        } catch (Exception e) {
+            // 文档不存在
+        }
+        metrics.recordRetry("bulk", "bigdata");
+        MetricsSnapshot update = find("update", "bigdata");
+        assertEquals(1, update.getFailures());
+        assertEquals(0, update.getRejected());
+        assertEquals(1, find("bulk", "bigdata").getRetries());
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        client.prepareIndex("bigdata", "product", "1").setSource("{\"name\":\"hadoop\"}").get();
+        client.prepareGet("bigdata", "product", "1").get();
+        metrics.registerMBean("metrics-test");
+        ObjectName name = new ObjectName(ClientMetrics.MBEAN_DOMAIN + ":type=ClientMetrics,name=\"metrics-test\"");
+        assertNotNull(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Operations"));
+        assertTrue(String.valueOf(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Json")).contains("\"get\""));
+        metrics.close();
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+
+    private MetricsSnapshot find(String operation, String index) {
+        List<MetricsSnapshot> snapshots = metrics.snapshot();
+        for (MetricsSnapshot snapshot : snapshots) {
+            if (snapshot.getOperation().equals(operation) && snapshot.getIndex().equals(index)) {
+                return snapshot;
+            }
+        }
+        fail(operation + "/" + index + " not found in " + metrics.toJson());
+        return null;
+    }
+
+    @After
+    public void tearDown() {
+        metrics.close();
+        cluster.close();
+    }
+}
@@ -0,0 +1,204 @@
+package cn.xpleaf.bigdata.elasticsearch.reindex;
+
+import cn.xpleaf.bigdata.elasticsearch.client.LocalCluster;
+import cn.xpleaf.bigdata.elasticsearch.index.IndexDefinition;
+import cn.xpleaf.bigdata.elasticsearch.pojo.Product;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.search.SearchPhaseExecutionException;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReindexerTest {
+
+    private LocalCluster cluster;
+    private Client client;
+    private Path dir;
+
+    @Before
+    public void setUp() throws Exception {
+        cluster = new LocalCluster("reindex-test", 1, null);
+        client = cluster.client();
+        client.admin().indices().prepareCreate("bigdata_v1")
+                .setSettings(Settings.builder().put("number_of_shards", 3).put("number_of_replicas", 0))
+                .get();
+        BulkRequestBuilder bulk = client.prepareBulk();
+        for (int i = 0; i < 100; i++) {
+            bulk.add(client.prepareIndex("bigdata_v1", "product", String.valueOf(i))
+                    .setSource("name", "product-" + i, "author", "apache", "version", "1." + i));
+        }
+        bulk.setRefresh(true).get();
+        client.admin().indices().prepareAliases().addAlias("bigdata_v1", "bigdata").get();
+        dir = Files.createTempDirectory("reindex-");
+    }
+
+    @Test
+    public void testReindexWithTransformAndAliasSwap() throws Exception {
+        Reindexer.Result result = Reindexer.builder("bigdata", "bigdata_v2")
+                .setDefinition(IndexDefinition.PRODUCT)
+                .setAlias("bigdata")
+                .setSlices(2)
+                .setBatchSize(10)
+                .setRequestsPerSecond(1000)
+                .setTransform(product -> product.getName().equals("product-0") ? null
+                        : new Product(product.getName(), product.getAuthor().toUpperCase(), product.getVersion(), "http://" + product.getName()))
+                .build(client)
+                .run();
+        assertEquals(100, result.getScanned());
+        assertEquals(99, result.getIndexed());
+        assertEquals(1, result.getSkipped());
+        // 1000条/秒写入99条至少需要约100ms
+        assertTrue(result.getTookMillis() >= 90);
+
+        // 别名已经切换到新索引，新索引中的数据已经可以查询到
+        assertTrue(client.admin().indices().prepareGetAliases("bigdata").get().getAliases().containsKey("bigdata_v2"));
+        assertFalse(client.admin().indices().prepareGetAliases("bigdata").get().getAliases().containsKey("bigdata_v1"));
+        // 没有设置replaceSourceIndex时保留源索引
+        assertTrue(client.admin().indices().prepareExists("bigdata_v1").get().isExists());
+        assertEquals(99, client.prepareSearch("bigdata").setSize(0).get().getHits().getTotalHits());
+        Map<String, Object> source = client.prepareGet("bigdata_v2", "product", "1").get().getSource();
+        assertEquals("APACHE", source.get("author"));
+        assertEquals("http://product-1", source.get("url"));
+        assertFalse(client.prepareGet("bigdata_v2", "product", "0").get().isExists());
+        assertEquals(99, client.prepareSearch("bigdata").setSize(0)
+                .setQuery(QueryBuilders.matchQuery("url.ngram", "product")).get().getHits().getTotalHits());
+        assertEquals("1s", client.admin().indices().prepareGetSettings("bigdata_v2").get()
+                .getSetting("bigdata_v2", "index.refresh_interval"));
+    }
+
+    @Test
+    public void testReplaceSourceIndex() throws Exception {
+        Reindexer.builder("bigdata", "bigdata_v2")
+                .setDefinition(IndexDefinition.PRODUCT)
+                .setAlias("bigdata")
+                .setReplaceSourceIndex(true)
+                .build(client)
+                .run();
+        // 别名切换之后才删除别名原来指向的索引
+        assertTrue(client.admin().indices().prepareGetAliases("bigdata").get().getAliases().containsKey("bigdata_v2"));
+        assertFalse(client.admin().indices().prepareExists("bigdata_v1").get().isExists());
+        assertEquals(100, client.prepareSearch("bigdata").setSize(0).get().getHits().getTotalHits());
+    }
+
+    @Test
+    public void testShardFailureKeepsSource() throws Exception {
+        // bigdata_old中version为数值类型，查询在它的分片上失败，bigdata_v1的分片正常返回
+        client.prepareIndex("bigdata_old", "product", "old").setSource("name", "old", "version", 1).setRefresh(true).get();
+        client.admin().indices().prepareAliases().addAlias("bigdata_old", "bigdata").get();
+        Path file = dir.resolve("failed.properties");
+        try {
+            Reindexer.builder("bigdata", "bigdata_v2")
+                    .setDefinition(IndexDefinition.PRODUCT)
+                    .setAlias("bigdata")
+                    .setReplaceSourceIndex(true)
+                    .setQuery(QueryBuilders.boolQuery().should(QueryBuilders.matchAllQuery())
+                            .should(QueryBuilders.rangeQuery("version").gte("abc")))
+                    .setCheckpoint(new ReindexCheckpoint(file))
+                    .build(client)
+                    .run();
+            fail("有分片失败时迁移不能成功");
+        } catch (IllegalStateException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof SearchPhaseExecutionException);
+        }
+        ReindexCheckpoint checkpoint = new ReindexCheckpoint(file);
+        for (int slice = 0; slice < 5; slice++) {
+            assertFalse(checkpoint.isDone(slice));
+        }
+        assertTrue(client.admin().indices().prepareExists("bigdata_v1").get().isExists());
+        assertTrue(client.admin().indices().prepareExists("bigdata_old").get().isExists());
+        assertFalse(client.admin().indices().prepareGetAliases("bigdata").get().getAliases().containsKey("bigdata_v2"));
+    }
+
+    @Test
+    public void testReplaceIndexWithSameName() throws Exception {
+        // 自动创建的bank是索引，别名bank需要先删除该索引
+        BulkRequestBuilder bulk = client.prepareBulk();
+        for (int i = 0; i < 20; i++) {
+            bulk.add(client.prepareIndex("bank", "account", String.valueOf(i)).setSource("balance", i, "age", 20 + i));
+        }
+        bulk.setRefresh(true).get();
+        client.admin().indices().prepareCreate("bank_v2").get();
+        try {
+            Reindexer.builder("bank", "bank_v2").setAlias("bank").build(client).run();
+            fail();
+        } catch (IllegalStateException e) {
+            // 没有设置replaceSourceIndex时不删除同名的索引
+            assertTrue(client.admin().indices().prepareExists("bank").get().isExists());
+        }
+        Reindexer.builder("bank", "bank_v2").setAlias("bank").setReplaceSourceIndex(true).build(client).run();
+        assertTrue(client.admin().indices().prepareGetAliases("bank").get().getAliases().containsKey("bank_v2"));
+        assertEquals(20, client.prepareSearch("bank").setSize(0).get().getHits().getTotalHits());
+    }
+
+    @Test
+    public void testResumeFromCheckpoint() throws Exception {
+        Path file = dir.resolve("checkpoint.properties");
+        try {
+            Reindexer.builder("bigdata_v1", "bigdata_v2")
+                    .setDefinition(IndexDefinition.PRODUCT)
+                    .setBatchSize(5)
+                    .setSlices(1)
+                    .setCheckpoint(new ReindexCheckpoint(file))
+                    .setTransform(product -> {
+                        if (product.getName().equals("product-50")) {
+                            throw new IllegalArgumentException("bad document");
+                        }
+                        return product;
+                    })
+                    .build(client)
+                    .run();
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("bad document", e.getCause().getMessage());
+        }
+        ReindexCheckpoint checkpoint = new ReindexCheckpoint(file);
+        assertEquals("1s", checkpoint.getRefreshInterval());
+        // 出错之前已经完成的slice和批次不会重新迁移
+        Reindexer.Result result = Reindexer.builder("bigdata_v1", "bigdata_v2")
+                .setBatchSize(5)
+                .setCheckpoint(checkpoint)
+                .build(client)
+                .run();
+        assertTrue(result.getScanned() < 100);
+        assertEquals(100, client.prepareSearch("bigdata_v2").setSize(0).get().getHits().getTotalHits());
+        assertFalse(Files.exists(file));
+        assertEquals("1s", client.admin().indices().prepareGetSettings("bigdata_v2").get()
+                .getSetting("bigdata_v2", "index.refresh_interval"));
+    }
+
+    @Test
+    public void testCheckpointOfOtherMigration() {
+        ReindexCheckpoint checkpoint = new ReindexCheckpoint(dir.resolve("other.properties"));
+        checkpoint.bind("bank", "bank_v2");
+        try {
+            Reindexer.builder("bigdata_v1", "bigdata_v2").setCheckpoint(checkpoint).build(client).run();
+            fail();
+        } catch (IllegalStateException e) {
+            // 预期的异常
+        } catch (InterruptedException e) {
+            fail();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cluster.close();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(p -> p.toFile().delete());
+        }
+        Files.delete(dir);
+    }
+}
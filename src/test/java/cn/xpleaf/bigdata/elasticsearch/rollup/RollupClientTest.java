@@ -0,0 +1,162 @@
+package cn.xpleaf.bigdata.elasticsearch.rollup;
+
+import cn.xpleaf.bigdata.elasticsearch.client.LocalCluster;
+import org.elasticsearch.action.Action;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.FilterClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.metrics.stats.Stats;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RollupClientTest {
+
+    private LocalCluster cluster;
+    private RollupClient client;
+    private BucketRollup rollup;
+
+    @Before
+    public void setUp() throws Exception {
+        cluster = new LocalCluster("rollup-test", 1, null);
+        // 测试中写入之后显式refresh，过期的数据不再使用
+        rollup = new BucketRollup(cluster.client(), "bank", "account", "age", "balance", TimeValue.timeValueMinutes(5),
+                TimeValue.timeValueMillis(0), TimeValue.timeValueMillis(0));
+        client = new RollupClient(cluster.client(), rollup);
+        Random random = new Random(42);
+        BulkRequestBuilder bulk = client.prepareBulk().setRefresh(true);
+        for (int i = 0; i < 500; i++) {
+            bulk.add(client.prepareIndex("bank", "account", String.valueOf(i))
+                    .setSource("account_number", i, "balance", random.nextInt(50000), "age", 20 + random.nextInt(21)));
+        }
+        bulk.get();
+    }
+
+    @Test
+    public void testIncremental() {
+        // 第一次查询时计算
+        assertStats(rollup.stats(26, 35), 25, 35);
+        assertEquals(1, rollup.getRebuilds());
+
+        // 新增的文档直接累加，不需要重新计算
+        client.prepareIndex("bank", "account", "new-1").setSource("balance", 60000, "age", 30).get();
+        client.prepareBulk()
+                .add(client.prepareIndex("bank", "account", "new-2").setSource("balance", 1, "age", 26))
+                .add(client.prepareIndex("bank", "account", "new-3").setSource("balance", 100, "age", 50))
+                .add(client.prepareIndex("other", "account", "1").setSource("balance", 100, "age", 30))
+                .get();
+        BucketStats stats = rollup.stats(26, 35);
+        assertEquals(60000, stats.getMax(), 0);
+        assertEquals(1, stats.getMin(), 0);
+        client.admin().indices().prepareRefresh("bank").get();
+        assertStats(stats, 25, 35);
+        assertStats(rollup.stats(41, 60), 40, 60);
+        assertEquals(1, rollup.getRebuilds());
+        assertEquals(2, rollup.getHits());
+
+        // 删除和更新之后重新计算
+        client.prepareDelete("bank", "account", "new-1").setRefresh(true).get();
+        assertStats(rollup.stats(26, 35), 25, 35);
+        client.prepareUpdate("bank", "account", "new-2").setDoc("age", 36).setRefresh(true).get();
+        assertStats(rollup.stats(26, 35), 25, 35);
+        assertEquals(3, rollup.getRebuilds());
+    }
+
+    @Test
+    public void testBoundedStaleness() {
+        BucketRollup rollup = new BucketRollup(cluster.client(), "bank", "account", "age", "balance", TimeValue.timeValueMinutes(5),
+                TimeValue.timeValueMinutes(1), TimeValue.timeValueSeconds(1));
+        RollupClient client = new RollupClient(cluster.client(), rollup);
+        rollup.stats(26, 35);
+        // 持续的覆盖写入在maxStaleness内不会触发重新计算
+        for (int i = 0; i < 50; i++) {
+            client.prepareIndex("bank", "account", String.valueOf(i)).setSource("balance", i, "age", 30).get();
+            rollup.stats(26, 35);
+        }
+        assertEquals(1, rollup.getRebuilds());
+        assertEquals(50, rollup.getHits());
+    }
+
+    @Test
+    public void testSingleFlight() throws Exception {
+        // 阻塞聚合请求，直到所有查询线程都在等待
+        CountDownLatch searching = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger searches = new AtomicInteger();
+        FilterClient blocking = new FilterClient(cluster.client()) {
+            @Override
+            protected <Request extends ActionRequest, Response extends ActionResponse, RequestBuilder extends ActionRequestBuilder<Request, Response, RequestBuilder>>
+            void doExecute(Action<Request, Response, RequestBuilder> action, Request request, ActionListener<Response> listener) {
+                if (request instanceof SearchRequest) {
+                    searches.incrementAndGet();
+                    searching.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                super.doExecute(action, request, listener);
+            }
+        };
+        BucketRollup rollup = BucketRollup.bankBalanceByAge(blocking);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(() -> rollup.stats(26, 35));
+            thread.start();
+            threads.add(thread);
+        }
+        assertTrue(searching.await(10, TimeUnit.SECONDS));
+        for (Thread thread : threads) {
+            while (thread.isAlive() && thread.getState() != Thread.State.WAITING) {
+                Thread.yield();
+            }
+        }
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, searches.get());
+        assertEquals(1, rollup.getRebuilds());
+        assertStats(rollup.stats(26, 35), 25, 35);
+    }
+
+    /**
+     * 与testSearch6中的实时聚合比较
+     */
+    private void assertStats(BucketStats stats, int gt, int lte) {
+        SearchResponse response = client.prepareSearch("bank").setSize(0)
+                .setQuery(QueryBuilders.rangeQuery("age").gt(gt).lte(lte))
+                .addAggregation(AggregationBuilders.stats("balance").field("balance"))
+                .get();
+        Stats expected = response.getAggregations().get("balance");
+        assertEquals(expected.getCount(), stats.getCount());
+        assertEquals(expected.getSum(), stats.getSum(), 1e-6);
+        assertEquals(expected.getAvg(), stats.getAvg(), 1e-6);
+        assertEquals(expected.getMin(), stats.getMin(), 0);
+        assertEquals(expected.getMax(), stats.getMax(), 0);
+    }
+
+    @After
+    public void tearDown() {
+        cluster.close();
+    }
+}
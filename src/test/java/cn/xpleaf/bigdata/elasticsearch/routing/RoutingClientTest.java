@@ -0,0 +1,251 @@
+package cn.xpleaf.bigdata.elasticsearch.routing;
+
+import cn.xpleaf.bigdata.elasticsearch.client.LocalCluster;
+import org.elasticsearch.action.Action;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.FilterClient;
+import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.routing.ShardRouting;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.transport.ConnectTransportException;
+import org.elasticsearch.transport.NodeDisconnectedException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RoutingClientTest {
+
+    private LocalCluster cluster;
+    // 文档id ---> 执行写入的节点
+    private final Map<String, String> executed = new HashMap<>();
+    private final List<String> preferences = new ArrayList<>();
+    // 无法连接的节点id
+    private volatile String deadNode;
+    // 为true时请求在deadNode上执行之后才断开连接
+    private volatile boolean disconnectAfterSend;
+    private RoutingClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        cluster = new LocalCluster("routing-test", 3, null);
+        cluster.client().admin().indices().prepareCreate("bigdata")
+                .setSettings(Settings.builder().put("number_of_shards", 3).put("number_of_replicas", 1))
+                .get();
+        cluster.client().admin().cluster().prepareHealth("bigdata").setWaitForGreenStatus().get();
+        client = routingClient();
+    }
+
+    /**
+     * 通过NodeClients发送到各个节点的客户端，deadNode无法连接
+     */
+    private RoutingClient routingClient() {
+        Client in = new FilterClient(cluster.client()) {
+            @Override
+            protected <Request extends ActionRequest, Response extends ActionResponse, RequestBuilder extends ActionRequestBuilder<Request, Response, RequestBuilder>>
+            void doExecute(Action<Request, Response, RequestBuilder> action, Request request, ActionListener<Response> listener) {
+                if (request instanceof SearchRequest) {
+                    preferences.add(((SearchRequest) request).preference());
+                }
+                super.doExecute(action, request, listener);
+            }
+        };
+        return new RoutingClient(in, new ShardRouter(in, TimeValue.timeValueSeconds(30)), new NodeClients() {
+            @Override
+            public Client client(DiscoveryNode node) {
+                int i = Integer.parseInt(node.getName().substring(node.getName().lastIndexOf('-') + 1));
+                return new FilterClient(cluster.client(i)) {
+                    @Override
+                    protected <Request extends ActionRequest, Response extends ActionResponse, RequestBuilder extends ActionRequestBuilder<Request, Response, RequestBuilder>>
+                    void doExecute(Action<Request, Response, RequestBuilder> action, Request request, ActionListener<Response> listener) {
+                        if (node.getId().equals(deadNode) && disconnectAfterSend) {
+                            // transport会序列化请求，节点上执行时对请求的修改不会影响到客户端的请求
+                            super.doExecute(action, copy(request), new ActionListener<Response>() {
+                                @Override
+                                public void onResponse(Response response) {
+                                    listener.onFailure(new NodeDisconnectedException(node, action.name()));
+                                }
+
+                                @Override
+                                public void onFailure(Throwable e) {
+                                    listener.onFailure(new NodeDisconnectedException(node, action.name()));
+                                }
+                            });
+                            return;
+                        }
+                        if (node.getId().equals(deadNode)) {
+                            listener.onFailure(new ConnectTransportException(node, "connection refused"));
+                            return;
+                        }
+                        if (request instanceof IndexRequest) {
+                            synchronized (executed) {
+                                executed.put(((IndexRequest) request).id(), node.getId());
+                            }
+                        }
+                        super.doExecute(action, request, listener);
+                    }
+                };
+            }
+
+            @Override
+            public void close() {
+            }
+        }, "test-session");
+    }
+
+    @Test
+    public void testRouting() {
+        for (int i = 0; i < 30; i++) {
+            client.prepareIndex("bigdata", "product", String.valueOf(i)).setSource("name", "product-" + i).get();
+        }
+        assertEquals(30, client.getRouted());
+
+        // 每个文档都发送到了主分片所在的节点
+        ClusterState state = cluster.client().admin().cluster().prepareState().get().getState();
+        cluster.client().admin().indices().prepareRefresh("bigdata").get();
+        for (ShardRouting shard : state.getRoutingTable().allShards("bigdata")) {
+            if (!shard.primary()) {
+                continue;
+            }
+            SearchHit[] hits = cluster.client().prepareSearch("bigdata").setPreference("_shards:" + shard.id())
+                    .setSize(100).get().getHits().getHits();
+            assertTrue(hits.length > 0);
+            for (SearchHit hit : hits) {
+                assertEquals(hit.getId(), shard.currentNodeId(), executed.get(hit.getId()));
+            }
+        }
+
+        client.prepareUpdate("bigdata", "product", "1").setDoc("author", "apache").get();
+        GetResponse response = client.prepareGet("bigdata", "product", "1").get();
+        assertEquals("apache", response.getSource().get("author"));
+        client.prepareDelete("bigdata", "product", "2").get();
+        assertEquals(33, client.getRouted());
+
+        // 自动生成id以及不存在的索引由原客户端发送
+        client.prepareIndex("bigdata", "product").setSource("name", "auto").get();
+        client.prepareIndex("other", "product", "1").setSource("name", "other").get();
+        assertEquals(2, client.getUnrouted());
+
+        client.prepareSearch("bigdata").get();
+        client.prepareSearch("bigdata").setPreference("_primary").get();
+        assertEquals("test-session", preferences.get(0));
+        assertEquals("_primary", preferences.get(1));
+    }
+
+    @Test
+    public void testFallback() {
+        ClusterState state = cluster.client().admin().cluster().prepareState().get().getState();
+        deadNode = state.getRoutingTable().index("bigdata").shard(0).primaryShard().currentNodeId();
+        // 发送到不可用节点的请求由原客户端重新发送，不会失败
+        for (int i = 0; i < 30; i++) {
+            client.prepareIndex("bigdata", "product", String.valueOf(i)).setSource("name", "product-" + i).get();
+        }
+        assertTrue(client.getFallbacks() > 0);
+        cluster.client().admin().indices().prepareRefresh("bigdata").get();
+        assertEquals(30, cluster.client().prepareCount("bigdata").get().getCount());
+        for (Map.Entry<String, String> me : executed.entrySet()) {
+            assertTrue(me.getKey(), !deadNode.equals(me.getValue()));
+        }
+    }
+
+    @Test
+    public void testNoFallbackAfterSend() {
+        ClusterState state = cluster.client().admin().cluster().prepareState().get().getState();
+        deadNode = state.getRoutingTable().index("bigdata").shard(0).primaryShard().currentNodeId();
+        disconnectAfterSend = true;
+        for (int i = 0; i < 10; i++) {
+            cluster.client().prepareIndex("bigdata", "product", String.valueOf(i)).setSource("name", "product-" + i).get();
+        }
+        cluster.client().admin().indices().prepareRefresh("bigdata").get();
+        // 分片0上的一个文档，它的写请求会被路由到deadNode
+        String id = cluster.client().prepareSearch("bigdata").setPreference("_shards:0").get().getHits().getAt(0).getId();
+        // 没有指定版本的普通index重新发送的结果相同
+        client.prepareIndex("bigdata", "product", id).setSource("name", "plain").get();
+        assertEquals(1, client.getFallbacks());
+        // op_type=create、指定了版本的写入以及update可能已经执行，不重新发送；
+        // markStale之后在刷新集群状态之前不再路由到deadNode，所以每次使用新的RoutingClient
+        RoutingClient create = routingClient();
+        assertNotSent(create.prepareIndex("bigdata", "product", "create-" + id).setRouting(id).setCreate(true).setSource("name", "created"));
+        RoutingClient versioned = routingClient();
+        assertNotSent(versioned.prepareIndex("bigdata", "product", id).setVersion(3).setSource("name", "versioned"));
+        RoutingClient update = routingClient();
+        assertNotSent(update.prepareUpdate("bigdata", "product", id).setDoc("author", "apache"));
+        assertEquals(0, create.getFallbacks() + versioned.getFallbacks() + update.getFallbacks());
+        // 请求实际上已经执行了一次
+        assertEquals("created", cluster.client().prepareGet("bigdata", "product", "create-" + id).setRouting(id).get()
+                .getSource().get("name"));
+
+        // 连接失败时请求还没有发出，update也可以重新发送
+        disconnectAfterSend = false;
+        RoutingClient notSent = routingClient();
+        notSent.prepareUpdate("bigdata", "product", id).setDoc("url", "http://apache.org").get();
+        assertEquals(1, notSent.getFallbacks());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends ActionRequest> T copy(T request) {
+        try (BytesStreamOutput out = new BytesStreamOutput()) {
+            request.writeTo(out);
+            T copy = (T) request.getClass().newInstance();
+            copy.readFrom(out.bytes().streamInput());
+            return copy;
+        } catch (IOException | ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void assertNotSent(ActionRequestBuilder<?, ?, ?> request) {
+        try {
+            request.get();
+            fail("连接断开之后不能重新发送");
+        } catch (NodeDisconnectedException e) {
+            // 预期
+        }
+    }
+
+    @Test
+    public void testTransportNodeClients() {
+        // local模式的TransportClient通过LocalTransport连接，只配置第一个节点，其它节点由TransportNodeClients连接
+        ClusterState state = cluster.client().admin().cluster().prepareState().get().getState();
+        try (TransportClient transportClient = TransportClient.builder().settings(Settings.builder()
+                .put("cluster.name", "routing-test")
+                .put("node.local", true)
+                .put("client.transport.sniff", false)).build()) {
+            transportClient.addTransportAddress(state.nodes().getMasterNode().getAddress());
+            RoutingClient routingClient = new RoutingClient(transportClient, new ShardRouter(transportClient, TimeValue.timeValueSeconds(30)),
+                    new TransportNodeClients(transportClient), null);
+            for (int i = 0; i < 30; i++) {
+                routingClient.prepareIndex("bigdata", "product", String.valueOf(i)).setSource("name", "product-" + i).get();
+            }
+            assertEquals("product-7", routingClient.prepareGet("bigdata", "product", "7").get().getSource().get("name"));
+            assertEquals(31, routingClient.getRouted());
+            assertEquals(0, routingClient.getFallbacks());
+        }
+    }
+
+    @After
+    public void tearDown() {
+        cluster.close();
+    }
+}
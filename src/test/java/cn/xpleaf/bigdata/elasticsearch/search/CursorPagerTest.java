@@ -0,0 +1,82 @@
+package cn.xpleaf.bigdata.elasticsearch.search;
+
+import cn.xpleaf.bigdata.elasticsearch.client.LocalCluster;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.sort.SortOrder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CursorPagerTest {
+
+    private LocalCluster cluster;
+    private Client client;
+
+    @Before
+    public void setUp() throws Exception {
+        cluster = new LocalCluster("cursor-test", 1, null);
+        client = cluster.client();
+        BulkRequestBuilder bulk = client.prepareBulk().setRefresh(true);
+        for (int i = 0; i < 100; i++) {
+            // balance有大量重复值，需要依靠_uid来保证翻页时不重复也不遗漏
+            bulk.add(client.prepareIndex("bank", "account", String.valueOf(i))
+                    .setSource("balance", (i % 13) * 1000L, "age", 20 + i % 20));
+        }
+        bulk.get();
+    }
+
+    @Test
+    public void testPaging() {
+        QueryBuilder query = QueryBuilders.rangeQuery("age").gt(25).lte(35);
+        List<String> expected = new ArrayList<>();
+        for (SearchHit hit : client.prepareSearch("bank").setQuery(query)
+                .addSort("balance", SortOrder.DESC).addSort("_uid", SortOrder.ASC)
+                .setSize(100).get().getHits().getHits()) {
+            expected.add(hit.getId());
+        }
+
+        CursorPager pager = CursorPager.bankByBalance(client, 7);
+        List<String> actual = new ArrayList<>();
+        String cursor = null;
+        do {
+            CursorPager.Page page = pager.page(query, cursor);
+            for (SearchHit hit : page.getHits()) {
+                actual.add(hit.getId());
+            }
+            // 游标经过字符串编码再带回来
+            cursor = page.hasNext() ? page.getNext().encode() : null;
+        } while (cursor != null);
+        assertEquals(50, expected.size());
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testCursorEncoding() {
+        SearchCursor cursor = SearchCursor.decode(new SearchCursor(12000L, "account#42").encode());
+        assertEquals(12000L, cursor.getSortValue());
+        assertEquals("account#42", cursor.getUid());
+        assertEquals(1.5, SearchCursor.decode(new SearchCursor(1.5, "a#1").encode()).getSortValue());
+    }
+
+    @Test
+    public void testLastPage() {
+        CursorPager.Page page = CursorPager.bankByBalance(client, 200).page(QueryBuilders.matchAllQuery(), (SearchCursor) null);
+        assertEquals(100, page.getHits().length);
+        assertNull(page.getNext());
+    }
+
+    @After
+    public void cleanUp() {
+        cluster.close();
+    }
+}
@@ -0,0 +1,143 @@
+package cn.xpleaf.bigdata.elasticsearch.search;
+
+import cn.xpleaf.bigdata.elasticsearch.client.LocalCluster;
+import org.elasticsearch.action.Action;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.admin.cluster.state.ClusterStateAction;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.FilterClient;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FederatedSearchTest {
+
+    private LocalCluster cluster;
+    private Client client;
+
+    @Before
+    public void setUp() throws Exception {
+        cluster = new LocalCluster("federated-test", 1, null);
+        client = cluster.client();
+        BulkRequestBuilder bulk = client.prepareBulk().setRefresh(true);
+        for (int i = 0; i < 20; i++) {
+            bulk.add(client.prepareIndex("bigdata", "product", String.valueOf(i))
+                    .setSource("name", i % 4 == 0 ? "apache hadoop apache" : "apache product " + i));
+        }
+        for (int i = 0; i < 500; i++) {
+            bulk.add(client.prepareIndex("bank", "account", String.valueOf(i))
+                    .setSource("name", "account " + i + (i % 50 == 0 ? " apache" : ""), "balance", i));
+        }
+        bulk.get();
+    }
+
+    @Test
+    public void testTopHits() throws Exception {
+        FederatedSearch search = FederatedSearch.builder().build(client);
+        FederatedSearch.Result result = search.search(QueryBuilders.matchQuery("name", "apache"), 10, "bigdata", "bank");
+        assertEquals(30, result.getTotalHits());
+        assertEquals(10, result.getHits().size());
+        assertTrue(result.getTimedOut().isEmpty());
+        assertTrue(result.getFailed().isEmpty());
+        assertSortedByScore(result.getHits());
+
+        // 与一次查询多个索引的结果一致
+        SearchHit[] expected = client.prepareSearch("bigdata", "bank").setQuery(QueryBuilders.matchQuery("name", "apache"))
+                .setSize(10).get().getHits().getHits();
+        assertEquals(expected[0].getScore(), result.getHits().get(0).getScore(), 1e-6);
+
+        FederatedSearch.Result shards = FederatedSearch.builder().setSplitShards(true).build(client)
+                .search(QueryBuilders.matchQuery("name", "apache"), 10, "bigdata", "bank");
+        assertEquals(30, shards.getTotalHits());
+        assertEquals(10, shards.getHits().size());
+        assertSortedByScore(shards.getHits());
+    }
+
+    @Test
+    public void testFirstHits() throws Exception {
+        FederatedSearch search = FederatedSearch.builder()
+                .setFirstHits(true)
+                .setTerminateAfter(5)
+                .setSplitShards(true)
+                .build(client);
+        FederatedSearch.Result result = search.search(QueryBuilders.matchAllQuery(), 5, "bigdata", "bank");
+        assertEquals(5, result.getHits().size());
+
+        FederatedSearch.Result missing = FederatedSearch.builder().build(client)
+                .search(QueryBuilders.matchAllQuery(), 5, "bigdata", "not-exists");
+        assertEquals(Collections.singletonList("not-exists"), missing.getFailed());
+        assertEquals(20, missing.getTotalHits());
+    }
+
+    @Test
+    public void testSplitShardsAlias() throws Exception {
+        client.admin().indices().prepareCreate("logs-1").setSettings(Settings.builder().put("number_of_shards", 2)).get();
+        client.admin().indices().prepareCreate("logs-2").setSettings(Settings.builder().put("number_of_shards", 3)).get();
+        BulkRequestBuilder bulk = client.prepareBulk().setRefresh(true);
+        for (int i = 0; i < 30; i++) {
+            bulk.add(client.prepareIndex(i % 2 == 0 ? "logs-1" : "logs-2", "log", String.valueOf(i)).setSource("message", "log " + i));
+        }
+        bulk.get();
+        client.admin().indices().prepareAliases().addAlias(new String[]{"logs-1", "logs-2"}, "logs").get();
+
+        AtomicInteger stateRequests = new AtomicInteger();
+        Client counting = new FilterClient(client) {
+            @Override
+            protected <Request extends ActionRequest, Response extends ActionResponse, RequestBuilder extends ActionRequestBuilder<Request, Response, RequestBuilder>>
+            void doExecute(Action<Request, Response, RequestBuilder> action, Request request, ActionListener<Response> listener) {
+                if (action == ClusterStateAction.INSTANCE) {
+                    stateRequests.incrementAndGet();
+                }
+                super.doExecute(action, request, listener);
+            }
+        };
+        FederatedSearch search = FederatedSearch.builder().setSplitShards(true).build(counting);
+        // 别名按最大的分片数拆分，每个具体索引的每个分片只查询一次
+        FederatedSearch.Result result = search.search(QueryBuilders.matchAllQuery(), 50, "logs");
+        assertEquals(30, result.getTotalHits());
+        assertEquals(30, result.getHits().size());
+        assertTrue(result.getFailed().isEmpty());
+        assertEquals(1, stateRequests.get());
+
+        // 分片数已经缓存
+        search.search(QueryBuilders.matchAllQuery(), 50, "logs");
+        assertEquals(1, stateRequests.get());
+
+        // 查询失败之后重新获取
+        client.admin().indices().prepareDelete("logs-1", "logs-2").get();
+        assertFalse(search.search(QueryBuilders.matchAllQuery(), 50, "logs").getFailed().isEmpty());
+        search.search(QueryBuilders.matchAllQuery(), 50, "logs");
+        assertEquals(2, stateRequests.get());
+    }
+
+    private static void assertSortedByScore(List<SearchHit> hits) {
+        float[] scores = new float[hits.size()];
+        for (int i = 0; i < hits.size(); i++) {
+            scores[i] = hits.get(i).getScore();
+            if (i > 0) {
+                assertTrue(Arrays.toString(scores), scores[i - 1] >= scores[i]);
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        cluster.close();
+    }
+}
@@ -0,0 +1,87 @@
+package cn.xpleaf.bigdata.elasticsearch.search;
+
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.SortOrder;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FilterContextRewriterTest {
+
+    private final FilterContextRewriter rewriter = new FilterContextRewriter();
+
+    /**
+     * testSearch5：按balance排序，整个query都不需要打分
+     */
+    @Test
+    public void testSortedByField() {
+        SearchRequest request = request(new SearchSourceBuilder()
+                .query(QueryBuilders.rangeQuery("age").gt(25).lte(35))
+                .sort("balance", SortOrder.DESC));
+        assertTrue(rewriter.rewrite(request));
+        assertEquals("{\"constant_score\":{\"filter\":{\"range\":{\"age\":{\"from\":25,\"to\":35,\"include_lower\":false,"
+                + "\"include_upper\":true}}}}}", query(request));
+        // 已经是filter上下文的不再改写
+        assertFalse(rewriter.rewrite(request));
+    }
+
+    /**
+     * testSearch4中的should子句，在只需要聚合结果时也整体放到filter中
+     */
+    @Test
+    public void testAggregationOnly() {
+        SearchRequest request = request(new SearchSourceBuilder()
+                .query(QueryBuilders.boolQuery()
+                        .should(QueryBuilders.regexpQuery("url", ".*apache.*"))
+                        .should(QueryBuilders.termQuery("author", "apache")))
+                .size(0)
+                .aggregation(AggregationBuilders.terms("by_name").field("name")));
+        assertTrue(rewriter.rewrite(request));
+        assertTrue(query(request), query(request).startsWith("{\"constant_score\":{\"filter\":{\"bool\":{\"should\":"));
+    }
+
+    /**
+     * 按_score排序时只移动常量打分的条件，term保持在打分的上下文中
+     */
+    @Test
+    public void testScored() {
+        SearchRequest request = request(new SearchSourceBuilder()
+                .query(QueryBuilders.boolQuery()
+                        .must(QueryBuilders.termQuery("author", "apache"))
+                        .must(QueryBuilders.rangeQuery("age").gt(25))));
+        assertTrue(rewriter.rewrite(request));
+        String query = query(request);
+        assertTrue(query, query.startsWith("{\"bool\":{\"must\":[{\"term\":{\"author\":\"apache\"}}]"));
+        assertTrue(query, query.contains("\"filter\":[{\"range\":{\"age\""));
+
+        // testSearch1：只有一个term，不改写
+        assertFalse(rewriter.rewrite(request(new SearchSourceBuilder().query(QueryBuilders.termQuery("author", "apache")))));
+        // top_hits需要得分
+        assertFalse(rewriter.rewrite(request(new SearchSourceBuilder().query(QueryBuilders.termQuery("author", "apache")).size(0)
+                .aggregation(AggregationBuilders.topHits("top")))));
+    }
+
+    private static SearchRequest request(SearchSourceBuilder source) {
+        return new SearchRequest("bank").source(source);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String query(SearchRequest request) {
+        Map<String, Object> map = XContentHelper.convertToMap(request.source(), true).v2();
+        try {
+            return XContentFactory.jsonBuilder().map((Map<String, Object>) map.get("query")).string();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package cn.xpleaf.bigdata.elasticsearch.search;
+
+import cn.xpleaf.bigdata.elasticsearch.client.LocalCluster;
+import cn.xpleaf.bigdata.elasticsearch.index.IndexDefinition;
+import cn.xpleaf.bigdata.elasticsearch.index.IndexManager;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HighlightServiceTest {
+
+    private LocalCluster cluster;
+    private Client client;
+
+    @Before
+    public void setUp() throws Exception {
+        cluster = new LocalCluster("highlight-test", 1, null);
+        client = cluster.client();
+        IndexManager manager = new IndexManager(client);
+        manager.ensureIndex(IndexDefinition.PRODUCT);
+        manager.ensureIndex(IndexDefinition.CHINESE);
+        StringBuilder article = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            article.append("第").append(i).append("段：中国是世界上人口最多的国家。这里是一些不相关的内容，用来把文章拉长。");
+        }
+        client.prepareBulk().setRefresh(true)
+                .add(client.prepareIndex("bigdata", "product", "1").setSource("name", "hadoop", "author", "apache", "url", "http://hadoop.apache.org"))
+                .add(client.prepareIndex("bigdata", "product", "2").setSource("name", "redis", "author", "redis", "url", "redis.cn"))
+                .add(client.prepareIndex("chinese", "article", "1").setSource("content", article.toString()))
+                .get();
+    }
+
+    @Test
+    public void testFastVectorHighlight() {
+        HighlightService highlight = HighlightService.builder()
+                .field("author", HighlightService.Highlighter.FVH)
+                .field("url", HighlightService.Highlighter.FVH)
+                .setTags("<span>", "</span>")
+                .build();
+        SearchResponse response = highlight.apply(client.prepareSearch("bigdata")
+                .setQuery(QueryBuilders.boolQuery()
+                        .should(QueryBuilders.regexpQuery("url", ".*apache.*"))
+                        .should(QueryBuilders.termQuery("author", "apache"))))
+                .get();
+        assertEquals(1, response.getHits().getTotalHits());
+        Map<String, String> fields = highlight.render(response.getHits().getAt(0));
+        assertEquals("<span>apache</span>", fields.get("author"));
+        // url使用标准分词器，hadoop.apache.org是一个词
+        assertEquals("http://<span>hadoop.apache.org</span>", fields.get("url"));
+        assertNull(highlight.render(response.getHits().getAt(0), "name"));
+    }
+
+    @Test
+    public void testBoundedFragments() {
+        HighlightService highlight = HighlightService.builder()
+                .field("content", HighlightService.Highlighter.FVH)
+                .setFragmentSize(30)
+                .setNumberOfFragments(5)
+                .setMaxLength(100)
+                .setSeparator("|")
+                .build();
+        SearchHit hit = highlight.apply(client.prepareSearch("chinese")
+                .setQuery(QueryBuilders.matchPhraseQuery("content", "人口"))).get().getHits().getAt(0);
+        assertEquals(5, hit.getHighlightFields().get("content").fragments().length);
+        String value = highlight.render(hit, "content");
+        assertTrue(value, value.length() <= 100);
+        assertTrue(value, value.contains("<em>人口</em>"));
+        // 只保留了能完整放下的片段
+        String[] fragments = value.split("\\|");
+        assertTrue(value, fragments.length > 1 && fragments.length < 5);
+        for (String fragment : fragments) {
+            assertTrue(fragment, fragment.contains("<em>人口</em>"));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        cluster.close();
+    }
+}
@@ -0,0 +1,97 @@
+package cn.xpleaf.bigdata.elasticsearch.search;
+
+import cn.xpleaf.bigdata.elasticsearch.client.LocalCluster;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class PlanningClientTest {
+
+    private LocalCluster cluster;
+    private PlanningClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        cluster = new LocalCluster("planning-test", 1, null);
+        client = new PlanningClient(cluster.client(), new SearchTypePlanner(1000), TimeValue.timeValueMinutes(1));
+        BulkRequestBuilder bulk = client.prepareBulk().setRefresh(true);
+        for (int i = 0; i < 20; i++) {
+            bulk.add(client.prepareIndex("bank", "account", String.valueOf(i))
+                    .setSource("firstname", i % 2 == 0 ? "amber" : "hattie", "balance", i * 1000, "age", 20 + i));
+        }
+        bulk.get();
+    }
+
+    @Test
+    public void testPlan() {
+        // 与ElasticSearchTest2中一样都指定了DFS_QUERY_THEN_FETCH
+        assertSearchType(SearchType.QUERY_THEN_FETCH, client.prepareSearch("bank").setSearchType(SearchType.DFS_QUERY_THEN_FETCH)
+                .setQuery(QueryBuilders.rangeQuery("age").gt(25).lte(35)).setSize(5), 10);
+        assertSearchType(SearchType.QUERY_THEN_FETCH, client.prepareSearch("bank").setSearchType(SearchType.DFS_QUERY_THEN_FETCH)
+                .setQuery(QueryBuilders.rangeQuery("age").gt(25).lte(35)).addSort("balance", SortOrder.DESC).setSize(5), 10);
+        assertSearchType(SearchType.QUERY_THEN_FETCH, client.prepareSearch("bank").setSearchType(SearchType.DFS_QUERY_THEN_FETCH)
+                .setQuery(QueryBuilders.rangeQuery("age").gt(25).lte(35)).setSize(0)
+                .addAggregation(AggregationBuilders.avg("avg_balance").field("balance")), 10);
+        // 5个分片的小索引上的打分查询使用DFS
+        assertSearchType(SearchType.DFS_QUERY_THEN_FETCH, client.prepareSearch("bank")
+                .setQuery(QueryBuilders.matchQuery("firstname", "amber")), 10);
+        // QUERY_AND_FETCH不会再返回分片数*size条数据
+        SearchRequestBuilder andFetch = client.prepareSearch("bank").setSearchType(SearchType.QUERY_AND_FETCH)
+                .setQuery(QueryBuilders.rangeQuery("age").gte(20)).setSize(2);
+        assertEquals(2, andFetch.get().getHits().getHits().length);
+
+        List<PlanningClient.Decision> decisions = client.getDecisions();
+        long total = 0;
+        for (PlanningClient.Decision decision : decisions) {
+            total += decision.getCount();
+        }
+        assertEquals(decisions.toString(), 5, total);
+    }
+
+    /**
+     * 改写到filter上下文之后查询结果不变，并且按_score排序的term查询仍然使用DFS
+     */
+    @Test
+    public void testWithFilterRewriting() {
+        FilterRewritingClient rewriting = new FilterRewritingClient(client);
+        SearchRequestBuilder sorted = rewriting.prepareSearch("bank")
+                .setQuery(QueryBuilders.boolQuery()
+                        .must(QueryBuilders.matchQuery("firstname", "amber"))
+                        .must(QueryBuilders.rangeQuery("age").gt(25)))
+                .addSort("balance", SortOrder.DESC);
+        SearchHit[] hits = sorted.get().getHits().getHits();
+        assertEquals(7, hits.length);
+        assertEquals("18", hits[0].getId());
+        assertEquals(SearchType.QUERY_THEN_FETCH, sorted.request().searchType());
+
+        SearchRequestBuilder scored = rewriting.prepareSearch("bank")
+                .setQuery(QueryBuilders.boolQuery()
+                        .must(QueryBuilders.matchQuery("firstname", "amber"))
+                        .must(QueryBuilders.rangeQuery("age").gt(25)));
+        assertEquals(7, scored.get().getHits().getTotalHits());
+        assertEquals(SearchType.DFS_QUERY_THEN_FETCH, scored.request().searchType());
+        assertEquals(2, rewriting.getRewritten());
+    }
+
+    private static void assertSearchType(SearchType expected, SearchRequestBuilder builder, long totalHits) {
+        assertEquals(totalHits, builder.get().getHits().getTotalHits());
+        assertEquals(expected, builder.request().searchType());
+    }
+
+    @After
+    public void tearDown() {
+        cluster.close();
+    }
+}
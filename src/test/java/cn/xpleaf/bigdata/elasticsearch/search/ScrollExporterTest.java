@@ -0,0 +1,116 @@
+package cn.xpleaf.bigdata.elasticsearch.search;
+
+import cn.xpleaf.bigdata.elasticsearch.client.LocalCluster;
+import cn.xpleaf.bigdata.elasticsearch.codec.ProductCodec;
+import cn.xpleaf.bigdata.elasticsearch.pojo.Product;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.search.SearchPhaseExecutionException;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ScrollExporterTest {
+
+    private LocalCluster cluster;
+    private Client client;
+    private ScrollExporter exporter;
+
+    @Before
+    public void setUp() throws Exception {
+        cluster = new LocalCluster("scroll-test", 1, null);
+        client = cluster.client();
+        client.admin().indices().prepareCreate("bigdata")
+                .setSettings(Settings.builder().put("number_of_shards", 3).put("number_of_replicas", 0))
+                .get();
+        BulkRequestBuilder bulk = client.prepareBulk().setRefresh(true);
+        for (int i = 0; i < 200; i++) {
+            Product product = new Product("product-" + i, i % 2 == 0 ? "apache" : "cloudera", "1.0", null);
+            bulk.add(client.prepareIndex("bigdata", "product", String.valueOf(i)).setSource(ProductCodec.JSON.encode(product)));
+        }
+        bulk.get();
+        exporter = new ScrollExporter(client, 7, TimeValue.timeValueSeconds(30), 2);
+    }
+
+    @Test
+    public void testScroll() {
+        Set<String> ids = new HashSet<>();
+        try (ScrollIterator it = exporter.scroll(QueryBuilders.matchAllQuery(), "bigdata")) {
+            while (it.hasNext()) {
+                ids.add(it.next().getId());
+            }
+            assertEquals(200, it.getTotalHits());
+        }
+        assertEquals(200, ids.size());
+        assertEquals(0, openContexts());
+    }
+
+    @Test
+    public void testParallelScroll() {
+        Set<String> ids = new HashSet<>();
+        try (ScrollExporter.ParallelScrollIterator it = exporter.parallelScroll(QueryBuilders.matchAllQuery(), 3, "bigdata")) {
+            while (it.hasNext()) {
+                SearchHit hit = it.next();
+                ids.add(hit.getId());
+            }
+        }
+        assertEquals(200, ids.size());
+        assertEquals(0, openContexts());
+    }
+
+    @Test
+    public void testStream() {
+        try (Stream<Product> products = exporter.parallelStream(QueryBuilders.termQuery("author", "apache"), 2, "bigdata")) {
+            assertEquals(100, products.filter(p -> "apache".equals(p.getAuthor())).count());
+        }
+        // 提前结束的Stream在close时也要清除scroll
+        try (Stream<Product> products = exporter.stream(QueryBuilders.matchAllQuery(), "bigdata")) {
+            assertEquals(5, products.limit(5).count());
+        }
+        assertEquals(0, openContexts());
+    }
+
+    @Test
+    public void testShardFailure() {
+        // bank中balance为数值类型，查询字符串在bank的分片上失败，bigdata的分片正常返回
+        client.prepareIndex("bank", "account", "1").setSource("balance", 1000).setRefresh(true).get();
+        try (ScrollIterator it = exporter.scroll(QueryBuilders.rangeQuery("balance").gte("abc"), "bigdata", "bank")) {
+            it.hasNext();
+            fail("有分片失败时不能返回部分结果");
+        } catch (SearchPhaseExecutionException e) {
+            assertTrue(e.shardFailures().length > 0);
+        }
+        try (ScrollExporter.ParallelScrollIterator it = exporter.parallelScroll(QueryBuilders.rangeQuery("balance").gte("abc"), 2,
+                "bigdata", "bank")) {
+            while (it.hasNext()) {
+                it.next();
+            }
+            fail("有分片失败时不能返回部分结果");
+        } catch (IllegalStateException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof SearchPhaseExecutionException);
+        }
+        assertEquals(0, openContexts());
+    }
+
+    private long openContexts() {
+        return client.admin().indices().prepareStats("bigdata").setSearch(true).get()
+                .getTotal().getSearch().getOpenContexts();
+    }
+
+    @After
+    public void cleanUp() {
+        cluster.close();
+    }
+}
@@ -0,0 +1,92 @@
+package cn.xpleaf.bigdata.elasticsearch.search;
+
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.SortOrder;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SearchTypePlannerTest {
+
+    private final SearchTypePlanner planner = new SearchTypePlanner(1000);
+
+    @Test
+    public void testAnalyze() {
+        // testSearch3：range查询是常量打分的
+        assertFalse(analyze(new SearchSourceBuilder().query(QueryBuilders.rangeQuery("age").gt(25).lte(35))).isScored());
+        // testSearch1
+        assertTrue(analyze(new SearchSourceBuilder().query(QueryBuilders.termQuery("author", "apache"))).isScored());
+        // filter上下文中的term不打分
+        assertFalse(analyze(new SearchSourceBuilder().query(QueryBuilders.boolQuery()
+                .filter(QueryBuilders.termQuery("author", "apache"))
+                .must(QueryBuilders.prefixQuery("name", "h")))).isScored());
+        // testSearch4：should中有term
+        assertTrue(analyze(new SearchSourceBuilder().query(QueryBuilders.boolQuery()
+                .should(QueryBuilders.regexpQuery("url", ".*apache.*"))
+                .should(QueryBuilders.termQuery("author", "apache")))).isScored());
+        assertFalse(analyze(new SearchSourceBuilder().query(QueryBuilders.constantScoreQuery(QueryBuilders.matchQuery("name", "hadoop")))).isScored());
+
+        SearchTypePlanner.Analysis sorted = analyze(new SearchSourceBuilder().query(QueryBuilders.matchQuery("name", "hadoop"))
+                .sort("balance", SortOrder.DESC));
+        assertTrue(sorted.isSortedByField());
+        assertFalse(sorted.needsIndexSize());
+        assertFalse(analyze(new SearchSourceBuilder().sort("_score").sort("balance")).isSortedByField());
+
+        assertFalse(analyze(new SearchSourceBuilder().size(0).aggregation(AggregationBuilders.avg("avg_balance").field("balance"))).isHits());
+    }
+
+    @Test
+    public void testUnchanged() {
+        SearchRequest scroll = request(new SearchSourceBuilder().query(QueryBuilders.matchAllQuery()), SearchType.DFS_QUERY_THEN_FETCH)
+                .scroll(TimeValue.timeValueMinutes(1));
+        assertNull(planner.analyze(scroll));
+        assertNull(planner.analyze(request(new SearchSourceBuilder(), SearchType.SCAN)));
+        SearchTypePlanner.Plan plan = planner.plan(scroll, null, -1, -1);
+        assertFalse(plan.isChanged());
+        assertEquals(SearchTypePlanner.Reason.UNCHANGED, plan.getReason());
+    }
+
+    @Test
+    public void testPlan() {
+        // testSearch6：只需要聚合结果
+        assertPlan(SearchType.QUERY_THEN_FETCH, SearchTypePlanner.Reason.NO_HITS,
+                new SearchSourceBuilder().query(QueryBuilders.rangeQuery("age").gt(25)).size(0)
+                        .aggregation(AggregationBuilders.avg("avg_balance").field("balance")), 5, 100);
+        assertPlan(SearchType.QUERY_THEN_FETCH, SearchTypePlanner.Reason.NOT_SCORED,
+                new SearchSourceBuilder().query(QueryBuilders.rangeQuery("age").gt(25)), 5, 100);
+        // testSearch5
+        assertPlan(SearchType.QUERY_THEN_FETCH, SearchTypePlanner.Reason.SORTED_BY_FIELD,
+                new SearchSourceBuilder().query(QueryBuilders.termQuery("author", "apache")).sort("balance", SortOrder.DESC), 5, 100);
+        QueryBuilder match = QueryBuilders.matchQuery("name", "hadoop");
+        assertPlan(SearchType.QUERY_THEN_FETCH, SearchTypePlanner.Reason.SINGLE_SHARD, new SearchSourceBuilder().query(match), 1, 100);
+        assertPlan(SearchType.QUERY_THEN_FETCH, SearchTypePlanner.Reason.LARGE_INDEX, new SearchSourceBuilder().query(match), 5, 5000);
+        assertPlan(SearchType.DFS_QUERY_THEN_FETCH, SearchTypePlanner.Reason.SMALL_INDEX_SCORED, new SearchSourceBuilder().query(match), 5, 100);
+        // 不知道索引大小时，QUERY_AND_FETCH改为QUERY_THEN_FETCH
+        SearchRequest andFetch = request(new SearchSourceBuilder().query(match), SearchType.QUERY_AND_FETCH);
+        assertEquals(SearchType.QUERY_THEN_FETCH, planner.plan(andFetch, planner.analyze(andFetch), -1, -1).getPlanned());
+    }
+
+    private void assertPlan(SearchType expected, SearchTypePlanner.Reason reason, SearchSourceBuilder source, int shards, long docs) {
+        SearchRequest request = request(source, SearchType.DFS_QUERY_THEN_FETCH);
+        SearchTypePlanner.Plan plan = planner.plan(request, planner.analyze(request), shards, docs);
+        assertEquals(plan.toString(), expected, plan.getPlanned());
+        assertEquals(plan.toString(), reason, plan.getReason());
+    }
+
+    private SearchTypePlanner.Analysis analyze(SearchSourceBuilder source) {
+        return planner.analyze(request(source, SearchType.DFS_QUERY_THEN_FETCH));
+    }
+
+    private static SearchRequest request(SearchSourceBuilder source, SearchType searchType) {
+        return new SearchRequest("bank").source(source).searchType(searchType);
+    }
+}
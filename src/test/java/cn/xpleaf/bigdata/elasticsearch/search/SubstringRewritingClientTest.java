@@ -0,0 +1,113 @@
+package cn.xpleaf.bigdata.elasticsearch.search;
+
+import cn.xpleaf.bigdata.elasticsearch.client.LocalCluster;
+import cn.xpleaf.bigdata.elasticsearch.index.IndexDefinition;
+import cn.xpleaf.bigdata.elasticsearch.index.IndexManager;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SubstringRewritingClientTest {
+
+    private LocalCluster cluster;
+    private SubstringRewritingClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        cluster = new LocalCluster("substring-test", 1, null);
+        IndexManager manager = new IndexManager(cluster.client());
+        assertTrue(manager.ensureIndex(IndexDefinition.PRODUCT));
+        assertTrue(manager.ensureIndex(IndexDefinition.CHINESE));
+        assertFalse(manager.ensureIndex(IndexDefinition.PRODUCT));
+        client = new SubstringRewritingClient(cluster.client());
+        client.prepareBulk().setRefresh(true)
+                .add(client.prepareIndex("bigdata", "product", "1").setSource("name", "hadoop", "url", "http://hadoop.apache.org"))
+                .add(client.prepareIndex("bigdata", "product", "2").setSource("name", "kafka", "url", "Kafka.Apache.org"))
+                .add(client.prepareIndex("bigdata", "product", "3").setSource("name", "redis", "url", "redis.cn"))
+                .add(client.prepareIndex("bigdata", "product", "4").setSource("name", "flume", "url", "http://flume.cloudera.com/apach"))
+                .add(client.prepareIndex("chinese", "article", "1").setSource("content", "中国是世界上人口最多的国家"))
+                .add(client.prepareIndex("chinese", "article", "2").setSource("content", "中华人民共和国"))
+                .add(client.prepareIndex("chinese", "article", "3").setSource("content", "他留下了一个烂摊子"))
+                .add(client.prepareIndex("other", "product", "1").setSource("url", "http://hadoop.apache.org"))
+                .get();
+    }
+
+    @Test
+    public void testRewrite() {
+        // testSearch4中的regexp
+        assertHits(2, "bigdata", QueryBuilders.regexpQuery("url", ".*apache.*"));
+        assertHits(2, "bigdata", QueryBuilders.wildcardQuery("url", "*apache*"));
+        assertHits(3, "bigdata", QueryBuilders.boolQuery()
+                .should(QueryBuilders.regexpQuery("url", ".*apache.*"))
+                .should(QueryBuilders.termQuery("name", "redis")));
+        assertEquals(3, client.getRewritten());
+
+        // 没有定义的索引以及无法改写的正则不改写
+        assertHits(1, "other", QueryBuilders.regexpQuery("url", ".*apache.*"));
+        assertHits(2, "bigdata", QueryBuilders.regexpQuery("url", ".*apache.+"));
+        assertEquals(3, client.getRewritten());
+    }
+
+    @Test
+    public void testSameMatches() {
+        // 前缀查询针对每个词：http://hadoop.apache.org分词为http和hadoop.apache.org，
+        // 整个字段值的前缀是http://，改写为startsWith会漏掉这条数据
+        assertHits(1, "bigdata", QueryBuilders.prefixQuery("url", "hadoop"));
+        assertHits(1, "bigdata", QueryBuilders.regexpQuery("url", "hadoop.*"));
+        assertHits(1, "bigdata", QueryBuilders.wildcardQuery("url", "hadoop*"));
+        assertHits(0, "bigdata", QueryBuilders.prefixQuery("url", "http://hadoop"));
+        // 跨越词边界、大小写与词不一致以及中文（标准分词器中每个汉字一个词）的子串不改写
+        assertHits(0, "bigdata", QueryBuilders.wildcardQuery("url", "*p://h*"));
+        assertHits(0, "bigdata", QueryBuilders.regexpQuery("url", ".*Apache.*"));
+        assertHits(0, "chinese", QueryBuilders.regexpQuery("content", ".*烂摊子.*"));
+        assertHits(0, "chinese", QueryBuilders.prefixQuery("content", "中国"));
+        assertEquals(0, client.getRewritten());
+        assertTrue(SubstringRewritingClient.withinToken("apache"));
+        assertFalse(SubstringRewritingClient.withinToken("apache.org"));
+    }
+
+    @Test
+    public void testAlias() {
+        // Reindexer切换之后bigdata是bigdata_v2的别名，mapping的响应以bigdata_v2为key
+        cluster.client().admin().indices().prepareDelete("bigdata").get();
+        assertTrue(new IndexManager(cluster.client()).ensureIndex(IndexDefinition.PRODUCT, "bigdata_v2"));
+        cluster.client().admin().indices().prepareAliases().addAlias("bigdata_v2", "bigdata").get();
+        client.prepareIndex("bigdata", "product", "1").setSource("url", "http://hadoop.apache.org").setRefresh(true).get();
+        assertHits(1, "bigdata", QueryBuilders.regexpQuery("url", ".*apache.*"));
+        assertEquals(1, client.getRewritten());
+    }
+
+    @Test
+    public void testLiteral() {
+        assertEquals("apache", SubstringQueries.regexpContains(".*apache.*"));
+        assertEquals("apache.org", SubstringQueries.regexpContains(".*apache\\.org.*"));
+        assertNull(SubstringQueries.regexpContains(".*apache.org.*"));
+        assertNull(SubstringQueries.regexpContains("apache.*"));
+        assertEquals("apache", SubstringQueries.wildcardContains("*apache*"));
+        assertNull(SubstringQueries.wildcardContains("*apa?he*"));
+        assertNull(SubstringQueries.wildcardContains("kafka*"));
+    }
+
+    /**
+     * 改写前后匹配的数据相同
+     */
+    private void assertHits(long expected, String index, QueryBuilder query) {
+        SearchResponse response = client.prepareSearch(index).setQuery(query).get();
+        assertEquals(query.toString(), expected, response.getHits().getTotalHits());
+        SearchResponse original = cluster.client().prepareSearch(index).setQuery(query).get();
+        assertEquals(query.toString(), expected, original.getHits().getTotalHits());
+    }
+
+    @After
+    public void tearDown() {
+        cluster.close();
+    }
+}
@@ -0,0 +1,159 @@
+package cn.xpleaf.bigdata.elasticsearch.wal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+
+public class SegmentLogTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("segment-log-");
+    }
+
+    @Test
+    public void testAppendReadAndAck() throws Exception {
+        try (SegmentLog log = new SegmentLog(dir, 1024, 4)) {
+            for (int i = 0; i < 100; i++) {
+                append(log, "record-" + i);
+            }
+            // 每条记录为8 + 8~9字节，100条需要两个段
+            assertEquals(2, log.getSegments());
+
+            List<byte[]> records = new ArrayList<>();
+            long position = log.read(log.getAckPosition(), 30, records);
+            assertEquals(30, records.size());
+            assertEquals("record-0", new String(records.get(0), StandardCharsets.UTF_8));
+            log.ack(position);
+            records.clear();
+            position = log.read(position, 100, records);
+            assertEquals(70, records.size());
+            assertEquals("record-99", new String(records.get(69), StandardCharsets.UTF_8));
+            assertEquals(log.getWritePosition(), position);
+            log.ack(position);
+            assertEquals(0, log.getPendingBytes());
+            assertEquals(1, log.getSegments());
+        }
+    }
+
+    @Test
+    public void testRecoverAfterReopen() throws Exception {
+        long ack;
+        try (SegmentLog log = new SegmentLog(dir, 1024, 4)) {
+            for (int i = 0; i < 100; i++) {
+                append(log, "record-" + i);
+            }
+            List<byte[]> records = new ArrayList<>();
+            ack = log.read(0, 40, records);
+            log.ack(ack);
+        }
+        // 模拟最后一条记录写到一半时崩溃：长度已经写入但数据损坏
+        Path last;
+        try (Stream<Path> files = Files.list(dir)) {
+            last = files.filter(p -> p.toString().endsWith(".seg")).sorted().reduce((a, b) -> b).get();
+        }
+        try (SegmentLog log = new SegmentLog(dir, 1024, 4)) {
+            long end = log.getWritePosition();
+            try (RandomAccessFile file = new RandomAccessFile(last.toFile(), "rw")) {
+                file.seek(end - 1 - (end / 1024) * 1024);
+                file.write('X');
+            }
+        }
+        try (SegmentLog log = new SegmentLog(dir, 1024, 4)) {
+            assertEquals(ack, log.getAckPosition());
+            List<byte[]> records = new ArrayList<>();
+            log.read(log.getAckPosition(), 1000, records);
+            assertEquals(59, records.size());
+            assertEquals("record-40", new String(records.get(0), StandardCharsets.UTF_8));
+            assertEquals("record-98", new String(records.get(58), StandardCharsets.UTF_8));
+            // 损坏的记录被新的记录覆盖
+            append(log, "record-new");
+            records.clear();
+            log.read(log.getAckPosition(), 1000, records);
+            assertEquals("record-new", new String(records.get(59), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testBackPressure() throws Exception {
+        try (SegmentLog log = new SegmentLog(dir, 1024, 2)) {
+            while (log.getSegments() < 2) {
+                append(log, "record");
+            }
+            Thread writer = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 100; i++) {
+                        append(log, "record");
+                    }
+                } catch (InterruptedException e) {
+                    // 结束
+                }
+            });
+            writer.start();
+            // 第三个段需要等待前面的段被确认
+            while (writer.getState() != Thread.State.WAITING) {
+                assertEquals(true, writer.isAlive());
+                Thread.yield();
+            }
+            assertEquals(2, log.getSegments());
+            List<byte[]> records = new ArrayList<>();
+            log.ack(log.read(0, 1000, records));
+            writer.join(5000);
+            assertEquals(false, writer.isAlive());
+        }
+    }
+
+    @Test
+    public void testAckBehindDeletedSegment() throws Exception {
+        long ack;
+        try (SegmentLog log = new SegmentLog(dir, 1024, 4)) {
+            for (int i = 0; i < 100; i++) {
+                append(log, "record-" + i);
+            }
+            List<byte[]> records = new ArrayList<>();
+            ack = log.read(0, 70, records);
+            log.ack(ack);
+            assertEquals(1, log.getSegments());
+        }
+        // 模拟ack没有刷盘时崩溃：磁盘上的ack仍然指向已经删除的第一个段
+        try (RandomAccessFile file = new RandomAccessFile(dir.resolve("ack").toFile(), "rw")) {
+            file.writeLong(0);
+        }
+        try (SegmentLog log = new SegmentLog(dir, 1024, 4)) {
+            assertEquals(0, log.getAckPosition());
+            List<byte[]> records = new ArrayList<>();
+            long position = log.read(log.getAckPosition(), 1000, records);
+            // 跳过已经删除的段，从第二个段的第一条记录开始读取
+            assertEquals(1024, ack - ack % 1024);
+            assertEquals("record-99", new String(records.get(records.size() - 1), StandardCharsets.UTF_8));
+            assertEquals(log.getWritePosition(), position);
+            assertEquals(true, records.size() >= 30);
+        }
+    }
+
+    private static void append(SegmentLog log, String value) throws InterruptedException {
+        byte[] data = value.getBytes(StandardCharsets.UTF_8);
+        log.append(data, 0, data.length);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(p -> p.toFile().delete());
+        }
+        Files.delete(dir);
+    }
+}
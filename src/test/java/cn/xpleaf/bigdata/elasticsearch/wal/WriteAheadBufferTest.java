@@ -0,0 +1,271 @@
+package cn.xpleaf.bigdata.elasticsearch.wal;
+
+import cn.xpleaf.bigdata.elasticsearch.client.LocalCluster;
+import cn.xpleaf.bigdata.elasticsearch.pojo.Product;
+import org.elasticsearch.action.Action;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.FilterClient;
+import org.elasticsearch.client.transport.NoNodeAvailableException;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WriteAheadBufferTest {
+
+    private LocalCluster cluster;
+    private Path dir;
+    // 集群是否不可用
+    private volatile boolean down;
+    // 接下来需要拒绝的bulk请求数
+    private final AtomicInteger rejections = new AtomicInteger();
+    // 集群不可用时收到bulk请求
+    private final CountDownLatch unavailableBulk = new CountDownLatch(1);
+    private Client client;
+
+    @Before
+    public void setUp() throws Exception {
+        cluster = new LocalCluster("wal-test", 1, null);
+        dir = Files.createTempDirectory("wal-");
+        client = new FilterClient(cluster.client()) {
+            @Override
+            @SuppressWarnings("unchecked")
+            protected <Request extends ActionRequest, Response extends ActionResponse, RequestBuilder extends ActionRequestBuilder<Request, Response, RequestBuilder>>
+            void doExecute(Action<Request, Response, RequestBuilder> action, Request request, ActionListener<Response> listener) {
+                if (request instanceof BulkRequest) {
+                    if (down) {
+                        unavailableBulk.countDown();
+                        listener.onFailure(new NoNodeAvailableException("None of the configured nodes are available"));
+                        return;
+                    }
+                    if (rejections.getAndDecrement() > 0) {
+                        listener.onResponse((Response) reject((BulkRequest) request));
+                        return;
+                    }
+                }
+                super.doExecute(action, request, listener);
+            }
+        };
+    }
+
+    private static BulkResponse reject(BulkRequest request) {
+        BulkItemResponse[] items = new BulkItemResponse[request.numberOfActions()];
+        for (int i = 0; i < items.length; i++) {
+            IndexRequest item = (IndexRequest) request.requests().get(i);
+            items[i] = new BulkItemResponse(i, "index", new BulkItemResponse.Failure(item.index(), item.type(), item.id(),
+                    new EsRejectedExecutionException("rejected execution of bulk")));
+        }
+        return new BulkResponse(items, 1);
+    }
+
+    @Test
+    public void testDrain() throws Exception {
+        WriteAheadBuffer buffer = WriteAheadBuffer.builder(dir, "bigdata", "product")
+                .setSegments(4096, 8)
+                .setBulkActions(20)
+                .build(client);
+        for (int i = 0; i < 200; i++) {
+            buffer.index(String.valueOf(i), new Product("product-" + i, "apache", "1.0." + i, "apache.org"));
+        }
+        buffer.update("1", new Product(null, "xpleaf", null, null));
+        buffer.delete("2");
+        assertTrue(buffer.awaitClose(30, TimeUnit.SECONDS));
+        assertEquals(202, buffer.getAppended());
+        assertEquals(202, buffer.getAcknowledged());
+        assertEquals(0, buffer.getPendingBytes());
+
+        cluster.client().admin().indices().prepareRefresh("bigdata").get();
+        assertEquals(199, cluster.client().prepareCount("bigdata").get().getCount());
+        Map<String, Object> source = cluster.client().prepareGet("bigdata", "product", "1").get().getSource();
+        assertEquals("xpleaf", source.get("author"));
+        assertEquals("product-1", source.get("name"));
+        // 已经确认的段文件被删除
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(1, files.filter(p -> p.toString().endsWith(".seg")).count());
+        }
+    }
+
+    @Test
+    public void testClusterUnavailable() throws Exception {
+        down = true;
+        WriteAheadBuffer buffer = WriteAheadBuffer.builder(dir, "bigdata", "product")
+                .setBackoff(TimeValue.timeValueMillis(10), TimeValue.timeValueMillis(50))
+                .build(client);
+        // 集群不可用时写入不受影响
+        for (int i = 0; i < 100; i++) {
+            buffer.index(String.valueOf(i), new Product("product-" + i, "apache", "1.0." + i, "apache.org"));
+        }
+        assertEquals(100, buffer.getAppended());
+        assertTrue(unavailableBulk.await(10, TimeUnit.SECONDS));
+        assertEquals(0, buffer.getAcknowledged());
+
+        down = false;
+        assertTrue(buffer.awaitClose(30, TimeUnit.SECONDS));
+        assertEquals(100, buffer.getAcknowledged());
+    }
+
+    @Test
+    public void testReplayAfterRestart() throws Exception {
+        down = true;
+        WriteAheadBuffer buffer = WriteAheadBuffer.builder(dir, "bigdata", "product").build(client);
+        for (int i = 0; i < 50; i++) {
+            buffer.index(String.valueOf(i), new Product("product-" + i, "apache", "1.0." + i, "apache.org"));
+        }
+        assertFalse(buffer.awaitClose(100, TimeUnit.MILLISECONDS));
+
+        // 重新打开时继续写入上次没有确认的数据
+        down = false;
+        buffer = WriteAheadBuffer.builder(dir, "bigdata", "product").build(client);
+        assertTrue(buffer.awaitClose(30, TimeUnit.SECONDS));
+        assertEquals(50, buffer.getAcknowledged());
+        cluster.client().admin().indices().prepareRefresh("bigdata").get();
+        assertEquals(50, cluster.client().prepareCount("bigdata").get().getCount());
+    }
+
+    @Test
+    public void testAdaptiveRate() throws Exception {
+        rejections.set(3);
+        WriteAheadBuffer buffer = WriteAheadBuffer.builder(dir, "bigdata", "product")
+                .setRate(100, 10000)
+                .setBulkActions(10)
+                .setBackoff(TimeValue.timeValueMillis(1), TimeValue.timeValueMillis(10))
+                .build(client);
+        buffer.index("0", new Product("product-0", "apache", "1.0", "apache.org"));
+        while (buffer.getPendingBytes() > 0) {
+            Thread.sleep(10);
+        }
+        // 被拒绝3次，速率减半3次之后又成功了一次
+        assertEquals(3, buffer.getRejected());
+        assertEquals(10000 / 8 + 10000 / 20, buffer.getRate(), 0.001);
+        for (int i = 1; i < 100; i++) {
+            buffer.index(String.valueOf(i), new Product("product-" + i, "apache", "1.0." + i, "apache.org"));
+        }
+        assertTrue(buffer.awaitClose(30, TimeUnit.SECONDS));
+        assertEquals(100, buffer.getAcknowledged());
+    }
+
+    @Test
+    public void testInvalidOperation() throws Exception {
+        WriteAheadBuffer buffer = WriteAheadBuffer.builder(dir, "bigdata", "product")
+                .setBulkActions(10)
+                .build(client);
+        buffer.index("0", new Product("product-0", "apache", "1.0", "apache.org"));
+        try {
+            buffer.index("", new Product("product-x", "apache", "1.0", "apache.org"));
+            fail("id为空的操作应该被拒绝");
+        } catch (IllegalArgumentException e) {
+            // 预期
+        }
+        try {
+            buffer.update("0", null);
+            fail("没有数据的更新应该被拒绝");
+        } catch (IllegalArgumentException e) {
+            // 预期
+        }
+        buffer.index("1", new Product("product-1", "apache", "1.1", "apache.org"));
+        // 无效的操作没有写入日志
+        assertTrue(buffer.awaitClose(30, TimeUnit.SECONDS));
+        assertEquals(2, buffer.getAppended());
+        assertEquals(2, buffer.getAcknowledged());
+        assertEquals(0, buffer.getFailed());
+    }
+
+    @Test
+    public void testCorruptRecordSkipped() throws Exception {
+        down = true;
+        WriteAheadBuffer buffer = WriteAheadBuffer.builder(dir, "bigdata", "product").build(client);
+        buffer.index("0", new Product("product-0", "apache", "1.0", "apache.org"));
+        assertFalse(buffer.awaitClose(100, TimeUnit.MILLISECONDS));
+        // 在两条正常的记录之间写入一条无法解码的记录
+        try (SegmentLog log = new SegmentLog(dir, 64 * 1024 * 1024, 64)) {
+            byte[] corrupt = {9, 0, 1, 'x'};
+            log.append(corrupt, 0, corrupt.length);
+        }
+        buffer = WriteAheadBuffer.builder(dir, "bigdata", "product").build(client);
+        buffer.index("1", new Product("product-1", "apache", "1.1", "apache.org"));
+        down = false;
+        // 只跳过无法解码的记录，同一个bulk中的其他数据正常写入
+        assertTrue(buffer.awaitClose(30, TimeUnit.SECONDS));
+        assertEquals(2, buffer.getAcknowledged());
+        assertEquals(1, buffer.getFailed());
+        cluster.client().admin().indices().prepareRefresh("bigdata").get();
+        assertEquals(2, cluster.client().prepareCount("bigdata").get().getCount());
+    }
+
+    @Test
+    public void testDrainerFailure() throws Exception {
+        down = true;
+        IllegalStateException error = new IllegalStateException("listener error");
+        WriteAheadBuffer buffer = WriteAheadBuffer.builder(dir, "bigdata", "product")
+                .setSegments(4096, 2)
+                .setBackoff(TimeValue.timeValueMillis(10), TimeValue.timeValueMillis(50))
+                .setFailureListener((request, message) -> {
+                    throw error;
+                })
+                .build(client);
+        // 更新不存在的文档会失败，回调抛出的异常使drainer停止
+        buffer.update("missing", new Product(null, "xpleaf", null, null));
+        AtomicReference<Throwable> appendFailure = new AtomicReference<>();
+        Thread appender = new Thread(() -> {
+            try {
+                for (int i = 0; ; i++) {
+                    buffer.index(String.valueOf(i), new Product("product-" + i, "apache", "1.0." + i, "apache.org"));
+                }
+            } catch (Throwable t) {
+                appendFailure.set(t);
+            }
+        });
+        appender.start();
+        // 集群不可用时没有确认的段达到上限，追加被阻塞
+        while (appender.getState() != Thread.State.WAITING) {
+            Thread.sleep(10);
+        }
+        down = false;
+        appender.join(10000);
+        assertFalse(appender.isAlive());
+        assertTrue(appendFailure.get() instanceof IllegalStateException);
+        assertSame(error, appendFailure.get().getCause());
+        try {
+            buffer.delete("0");
+            fail("drainer停止之后追加应该失败");
+        } catch (IllegalStateException e) {
+            // 预期
+            assertSame(error, e.getCause());
+        }
+        assertFalse(buffer.awaitClose(100, TimeUnit.MILLISECONDS));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        cluster.close();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(p -> p.toFile().delete());
+        }
+        Files.delete(dir);
+    }
+}